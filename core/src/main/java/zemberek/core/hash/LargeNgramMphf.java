@@ -1,9 +1,16 @@
 package zemberek.core.hash;
 
 import com.google.common.io.Files;
+import zemberek.core.io.MappedFileReader;
 import zemberek.core.logging.Log;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is a MPHF implementation suitable for very large key sets.
@@ -59,6 +66,24 @@ public class LargeNgramMphf implements Mphf {
      * @throws IOException If an error occurs during file access.
      */
     public static LargeNgramMphf generate(File file, int chunkBits) throws IOException {
+        return generate(file, chunkBits, 1);
+    }
+
+    /**
+     * Same as generate(File file, int chunkBits) but MPHFs of the segments are generated with [threadCount] threads.
+     * Each thread keeps keys of the segment it processes in memory. Generated function does not depend on the
+     * thread count.
+     *
+     * @param file        binary key file
+     * @param chunkBits   segment size in bits.
+     * @param threadCount amount of threads to use.
+     * @return LargeNgramMphf fro the keys in the file
+     * @throws IOException If an error occurs during file access.
+     */
+    public static LargeNgramMphf generate(File file, int chunkBits, int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive but it is " + threadCount);
+        }
         File tmp = Files.createTempDir();
         Splitter splitter = new Splitter(file, tmp, chunkBits);
         Log.info("Gram count: " + splitter.gramCount);
@@ -66,25 +91,34 @@ public class LargeNgramMphf implements Mphf {
         Log.info("Avrg segment size: " + (1 << splitter.pageBit));
         Log.info("Segmenting File...");
         splitter.split();
-        int bucketBits = splitter.pageBit - 2;
-        if (bucketBits <= 0)
-            bucketBits = 1;
+        final int bucketBits = Math.max(1, splitter.pageBit - 2);
         MultiLevelMphf[] mphfs = new MultiLevelMphf[splitter.pageCount];
         int[] offsets = new int[splitter.pageCount];
         int total = 0;
-        for (int i = 0; i < splitter.pageCount; i++) {
-            final ByteGramProvider keySegment = splitter.getKeySegment(i);
-            Log.debug("Segment key count: " + keySegment.keyAmount());
-            Log.debug("Segment bucket ratio: " + ((double) keySegment.keyAmount() / (1 << bucketBits)));
-            total += keySegment.keyAmount();
-            MultiLevelMphf mphf = MultiLevelMphf.generate(keySegment);
-            Log.info("MPHF is generated for segment %d with %d keys. Average bits per key: %.3f",
-                    i,
-                    mphf.size(),
-                    mphf.averageBitsPerKey());
-            mphfs[i] = mphf;
-            if (i > 0)
-                offsets[i] = offsets[i - 1] + mphfs[i - 1].size();
+        // segments are independent. Results are placed by segment index so output does not depend on thread count.
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, splitter.pageCount));
+        try {
+            List<Future<MultiLevelMphf>> futures = new ArrayList<>(splitter.pageCount);
+            for (int i = 0; i < splitter.pageCount; i++) {
+                final int segment = i;
+                futures.add(executor.submit(() -> generateSegment(splitter, segment, bucketBits)));
+            }
+            for (int i = 0; i < splitter.pageCount; i++) {
+                mphfs[i] = futures.get(i).get();
+                total += mphfs[i].size();
+                if (i > 0)
+                    offsets[i] = offsets[i - 1] + mphfs[i - 1].size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating MPHF segments.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot generate MPHF segment.", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
         Log.debug("Total processed keys:" + total);
         int maxMask = (1 << splitter.maxBit) - 1;
@@ -92,6 +126,18 @@ public class LargeNgramMphf implements Mphf {
         return new LargeNgramMphf(maxMask, bucketMask, splitter.pageShift, mphfs, offsets);
     }
 
+    private static MultiLevelMphf generateSegment(Splitter splitter, int segment, int bucketBits) throws IOException {
+        final ByteGramProvider keySegment = splitter.getKeySegment(segment);
+        Log.debug("Segment key count: " + keySegment.keyAmount());
+        Log.debug("Segment bucket ratio: " + ((double) keySegment.keyAmount() / (1 << bucketBits)));
+        MultiLevelMphf mphf = MultiLevelMphf.generate(keySegment);
+        Log.info("MPHF is generated for segment %d with %d keys. Average bits per key: %.3f",
+                segment,
+                mphf.size(),
+                mphf.averageBitsPerKey());
+        return mphf;
+    }
+
     public int get(int[] ngram) {
         final int hash = MultiLevelMphf.hash(ngram, -1);
         final int pageIndex = (hash & maxBitMask) >>> pageShift;
@@ -343,6 +389,29 @@ public class LargeNgramMphf implements Mphf {
         return new LargeNgramMphf(maxBitMask, bucketMask, pageShift, hashes, offsets);
     }
 
+    /**
+     * Deserializes the MPHF from a memory mapped file. Hash level arrays of segment MPHFs are not copied to the heap.
+     *
+     * @param reader memory mapped file reader positioned at the start of the serialized data.
+     */
+    public static LargeNgramMphf deserialize(MappedFileReader reader) throws IOException {
+        DataInputStream dis = new DataInputStream(reader);
+        int maxBitMask = dis.readInt();
+        int bucketMask = dis.readInt();
+        int pageShift = dis.readInt();
+        int phfCount = dis.readInt();
+
+        int[] offsets = new int[phfCount];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = dis.readInt();
+        }
+        MultiLevelMphf[] hashes = new MultiLevelMphf[phfCount];
+        for (int i = 0; i < offsets.length; i++) {
+            hashes[i] = MultiLevelMphf.deserialize(reader);
+        }
+        return new LargeNgramMphf(maxBitMask, bucketMask, pageShift, hashes, offsets);
+    }
+
     @Override
     public double averageBitsPerKey() {
         double total = 0;
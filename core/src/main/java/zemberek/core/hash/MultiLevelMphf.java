@@ -1,12 +1,19 @@
 package zemberek.core.hash;
 
 import zemberek.core.collections.LongBitVector;
+import zemberek.core.io.MappedFileReader;
 import zemberek.core.logging.Log;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is a Minimum Perfect Hash Function implementation (MPHF). A MPHF generates distinct integers for
@@ -42,7 +49,19 @@ public class MultiLevelMphf implements Mphf {
     final HashIndexes[] hashLevelData;
 
     public static MultiLevelMphf generate(IntHashKeyProvider keyProvider) {
-        BucketCalculator bc = new BucketCalculator(keyProvider);
+        return generate(keyProvider, 1);
+    }
+
+    /**
+     * Generates the MPHF. Initial bucket hashes of keys are calculated with [threadCount] threads, so keyProvider
+     * must be safe for concurrent reads. Placement of buckets is sequential, so generated function is the same for
+     * all thread counts.
+     */
+    public static MultiLevelMphf generate(IntHashKeyProvider keyProvider, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive but it is " + threadCount);
+        }
+        BucketCalculator bc = new BucketCalculator(keyProvider, threadCount);
         return new MultiLevelMphf(bc.calculate());
     }
 
@@ -50,6 +69,10 @@ public class MultiLevelMphf implements Mphf {
         return generate(new ByteGramProvider(binaryKeyFile));
     }
 
+    public static MultiLevelMphf generate(File binaryKeyFile, int threadCount) throws IOException {
+        return generate(new ByteGramProvider(binaryKeyFile), threadCount);
+    }
+
     private MultiLevelMphf(HashIndexes[] hashLevelData) {
         this.hashLevelData = hashLevelData;
     }
@@ -58,15 +81,30 @@ public class MultiLevelMphf implements Mphf {
         return hashLevelData[0].keyAmount;
     }
 
-    private static class HashIndexes {
+    private static abstract class HashIndexes {
         final int keyAmount;
         final int bucketAmount;
-        final byte[] bucketHashSeedValues;
-        final int[] failedIndexes;
 
-        HashIndexes(int keyAmount, int bucketAmount, byte[] bucketHashSeedValues, int[] failedIndexes) {
+        HashIndexes(int keyAmount, int bucketAmount) {
             this.keyAmount = keyAmount;
             this.bucketAmount = bucketAmount;
+        }
+
+        abstract int getSeed(int fingerPrint);
+
+        abstract int getFailedIndex(int i);
+
+        abstract int failedIndexCount();
+
+        abstract void writeSeeds(DataOutputStream dos) throws IOException;
+    }
+
+    private static class ArrayHashIndexes extends HashIndexes {
+        final byte[] bucketHashSeedValues;
+        final int[] failedIndexes;
+
+        ArrayHashIndexes(int keyAmount, int bucketAmount, byte[] bucketHashSeedValues, int[] failedIndexes) {
+            super(keyAmount, bucketAmount);
             this.bucketHashSeedValues = bucketHashSeedValues;
             this.failedIndexes = failedIndexes;
         }
@@ -74,6 +112,50 @@ public class MultiLevelMphf implements Mphf {
         int getSeed(int fingerPrint) {
             return (bucketHashSeedValues[fingerPrint % bucketAmount]) & 0xff;
         }
+
+        int getFailedIndex(int i) {
+            return failedIndexes[i];
+        }
+
+        int failedIndexCount() {
+            return failedIndexes.length;
+        }
+
+        void writeSeeds(DataOutputStream dos) throws IOException {
+            dos.write(bucketHashSeedValues);
+        }
+    }
+
+    /**
+     * Hash level data that is read directly from buffers, such as memory mapped file regions.
+     */
+    private static class BufferHashIndexes extends HashIndexes {
+        final ByteBuffer bucketHashSeedValues;
+        final IntBuffer failedIndexes;
+
+        BufferHashIndexes(int keyAmount, int bucketAmount, ByteBuffer bucketHashSeedValues, IntBuffer failedIndexes) {
+            super(keyAmount, bucketAmount);
+            this.bucketHashSeedValues = bucketHashSeedValues;
+            this.failedIndexes = failedIndexes;
+        }
+
+        int getSeed(int fingerPrint) {
+            return (bucketHashSeedValues.get(fingerPrint % bucketAmount)) & 0xff;
+        }
+
+        int getFailedIndex(int i) {
+            return failedIndexes.get(i);
+        }
+
+        int failedIndexCount() {
+            return failedIndexes.capacity();
+        }
+
+        void writeSeeds(DataOutputStream dos) throws IOException {
+            for (int i = 0; i < bucketAmount; i++) {
+                dos.write(bucketHashSeedValues.get(i));
+            }
+        }
     }
 
     public int getLevelCount() {
@@ -151,16 +233,27 @@ public class MultiLevelMphf implements Mphf {
         return d & 0x7fffffff;
     }
 
+    public static int hash(char[] data, int begin, int end, int seed) {
+        int d = seed > 0 ? seed : INITIAL_HASH_SEED;
+        for (int i = begin; i < end; i++) {
+            d = (d ^ data[i]) * HASH_MULTIPLIER;
+        }
+        return d & 0x7fffffff;
+    }
+
     private static class BucketCalculator {
 
         IntHashKeyProvider keyProvider;
         int keyAmount;
         double averageKeysPerBucket = 3.0;
         private static final int HASH_SEED_LIMIT = 255;
+        // key amount below this value is not worth hashing in parallel.
+        private static final int MIN_KEYS_PER_THREAD = 1 << 14;
+        final int threadCount;
 
-
-        private BucketCalculator(IntHashKeyProvider keyProvider) {
+        private BucketCalculator(IntHashKeyProvider keyProvider, int threadCount) {
             this.keyProvider = keyProvider;
+            this.threadCount = threadCount;
         }
 
         public HashIndexes[] calculate() {
@@ -189,14 +282,50 @@ public class MultiLevelMphf implements Mphf {
                 buckets[i] = new Bucket(i);
             }
 
+            int[] bucketIndexes = calculateBucketIndexes(bucketAmount);
             for (int i = 0; i < keyAmount; i++) {
-                int[] key = keyProvider.getKey(i);
-                int bucketIndex = hash(key, -1) % bucketAmount;
-                buckets[bucketIndex].add(i);
+                buckets[bucketIndexes[i]].add(i);
             }
             return buckets;
         }
 
+        // calculates bucket index of each key. Key ranges are distributed to threads if there are enough keys.
+        private int[] calculateBucketIndexes(int bucketAmount) {
+            int[] bucketIndexes = new int[keyAmount];
+            int threads = Math.min(threadCount, keyAmount / MIN_KEYS_PER_THREAD);
+            if (threads <= 1) {
+                calculateBucketIndexes(bucketIndexes, bucketAmount, 0, keyAmount);
+                return bucketIndexes;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>(threads);
+                int rangeSize = (keyAmount + threads - 1) / threads;
+                for (int start = 0; start < keyAmount; start += rangeSize) {
+                    final int begin = start;
+                    final int end = Math.min(keyAmount, start + rangeSize);
+                    futures.add(executor.submit(() -> calculateBucketIndexes(bucketIndexes, bucketAmount, begin, end)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while calculating bucket indexes.", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Cannot calculate bucket indexes.", e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+            return bucketIndexes;
+        }
+
+        private void calculateBucketIndexes(int[] bucketIndexes, int bucketAmount, int begin, int end) {
+            for (int i = begin; i < end; i++) {
+                bucketIndexes[i] = hash(keyProvider.getKey(i), -1) % bucketAmount;
+            }
+        }
+
         private void calculateIndexes(Bucket[] buckets, int keyAmount, List<HashIndexes> indexes) {
 
             // generate a long bit vector with size of hash target size.
@@ -257,7 +386,7 @@ public class MultiLevelMphf implements Mphf {
 
             if (failedBuckets.size() == 0) {
                 // we are done.
-                indexes.add(new HashIndexes(keyAmount, buckets.length, hashSeedArray, new int[0]));
+                indexes.add(new ArrayHashIndexes(keyAmount, buckets.length, hashSeedArray, new int[0]));
                 return;
             }
 
@@ -313,10 +442,10 @@ public class MultiLevelMphf implements Mphf {
                 int k = 0;
                 for (int i = 0; i < bitVector.size(); i++) {
                     if (!bitVector.get(i))
-                        failedHashValues[k++] = indexes.get(currentLevel - 1).failedIndexes[i];
+                        failedHashValues[k++] = indexes.get(currentLevel - 1).getFailedIndex(i);
                 }
             }
-            indexes.add(new HashIndexes(keyAmount, buckets.length, hashSeedArray, failedHashValues));
+            indexes.add(new ArrayHashIndexes(keyAmount, buckets.length, hashSeedArray, failedHashValues));
 
             // recurse for failed buckets.
             calculateIndexes(nextLevelBuckets, failedKeyCount, indexes);
@@ -344,7 +473,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -358,7 +487,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(k0, k1, k2, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(k0, k1, k2, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(k0, k1, k2, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -372,7 +501,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(k0, k1, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(k0, k1, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(k0, k1, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -400,7 +529,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -428,7 +557,7 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -448,7 +577,27 @@ public class MultiLevelMphf implements Mphf {
                 if (i == 0) {
                     return hash(key, begin, end, seed) % hashLevelData[0].keyAmount;
                 } else {
-                    return hashLevelData[i - 1].failedIndexes[hash(key, begin, end, seed) % hashLevelData[i].keyAmount];
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, begin, end, seed) % hashLevelData[i].keyAmount);
+                }
+            }
+        }
+        throw new IllegalStateException("Cannot be here.");
+    }
+
+    /**
+     * @param key         char array that contains the key in [begin, end) range. Result is same as the result of
+     *                    get(String, int) for the String representation of the key.
+     * @param initialHash sometimes initial hash value for MPHF calculation is already calculated. So this value is used instead of re-calculation.
+     * @return minimal perfect hash value for the given input. returning number is between [0-keycount] keycount excluded.
+     */
+    public int get(char[] key, int begin, int end, int initialHash) {
+        for (int i = 0; i < hashLevelData.length; i++) {
+            final int seed = hashLevelData[i].getSeed(initialHash);
+            if (seed != 0) {
+                if (i == 0) {
+                    return hash(key, begin, end, seed) % hashLevelData[0].keyAmount;
+                } else {
+                    return hashLevelData[i - 1].getFailedIndex(hash(key, begin, end, seed) % hashLevelData[i].keyAmount);
                 }
             }
         }
@@ -463,8 +612,8 @@ public class MultiLevelMphf implements Mphf {
         long result = 12; // array overhead
         for (HashIndexes data : hashLevelData) {
             result += 12; // array overhead for failed buckets
-            result += data.bucketHashSeedValues.length;
-            result += data.failedIndexes.length * 4;
+            result += data.bucketAmount;
+            result += data.failedIndexCount() * 4;
         }
         return result;
     }
@@ -517,10 +666,10 @@ public class MultiLevelMphf implements Mphf {
         for (HashIndexes index : hashLevelData) {
             dos.writeInt(index.keyAmount);
             dos.writeInt(index.bucketAmount);
-            dos.write(index.bucketHashSeedValues);
-            dos.writeInt(index.failedIndexes.length);
-            for (int i : index.failedIndexes) {
-                dos.writeInt(i);
+            index.writeSeeds(dos);
+            dos.writeInt(index.failedIndexCount());
+            for (int i = 0; i < index.failedIndexCount(); i++) {
+                dos.writeInt(index.getFailedIndex(i));
             }
         }
     }
@@ -573,7 +722,30 @@ public class MultiLevelMphf implements Mphf {
             for (int j = 0; j < failedIndexesCount; j++) {
                 failedIndexes[j] = dis.readInt();
             }
-            indexes[i] = new HashIndexes(keycount, bucketAmount, hashSeedValues, failedIndexes);
+            indexes[i] = new ArrayHashIndexes(keycount, bucketAmount, hashSeedValues, failedIndexes);
+        }
+        return new MultiLevelMphf(indexes);
+    }
+
+    /**
+     * Deserializes the MPHF without copying hash seed and failed index arrays to the heap. Arrays are read directly
+     * from the memory mapped file. Look serialization method document for the format.
+     *
+     * @param reader memory mapped file reader positioned at the start of the serialized data.
+     * @return a new MultiLevelMphf object.
+     * @throws IOException if an error occurs during file access.
+     */
+    public static MultiLevelMphf deserialize(MappedFileReader reader) throws IOException {
+        DataInputStream dis = new DataInputStream(reader);
+        int levelCount = dis.readInt();
+        HashIndexes[] indexes = new HashIndexes[levelCount];
+        for (int i = 0; i < levelCount; i++) {
+            int keycount = dis.readInt();
+            int bucketAmount = dis.readInt();
+            ByteBuffer hashSeedValues = reader.slice(bucketAmount);
+            int failedIndexesCount = dis.readInt();
+            IntBuffer failedIndexes = reader.slice(failedIndexesCount * 4).asIntBuffer();
+            indexes[i] = new BufferHashIndexes(keycount, bucketAmount, hashSeedValues, failedIndexes);
         }
         return new MultiLevelMphf(indexes);
     }
@@ -0,0 +1,139 @@
+package zemberek.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through memory mapped windows. It can be used as an InputStream for reading small structures, and
+ * large blocks can be obtained as read only ByteBuffers that are views of the mapped file, so their content is not
+ * copied to the heap and it is shared between processes through the operating system page cache.
+ * <p>
+ * Files larger than 2GB are supported by mapping them in windows. A window is re-mapped when a requested block
+ * does not fit in the current one. Mapped buffers remain valid after this reader is closed.
+ * This class is not thread safe.
+ */
+public class MappedFileReader extends InputStream {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    public MappedFileReader(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param file       file to read.
+     * @param windowSize minimum size of mapped windows in bytes.
+     */
+    public MappedFileReader(File file, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive but it is " + windowSize);
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the current read position in the file.
+     */
+    public long position() {
+        return position;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns a read only view of the next [length] bytes of the file and advances the position.
+     */
+    public ByteBuffer slice(int length) throws IOException {
+        ByteBuffer buffer = view(position, length);
+        position += length;
+        return buffer;
+    }
+
+    /**
+     * Returns a read only view of [length] bytes of the file starting from [start]. Read position does not change.
+     */
+    public ByteBuffer view(long start, int length) throws IOException {
+        ensureWindow(start, length);
+        ByteBuffer buffer = window.duplicate();
+        int offset = (int) (start - windowStart);
+        ((Buffer) buffer).position(offset);
+        ((Buffer) buffer).limit(offset + length);
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
+    // makes sure [start, start + length) is in the current window.
+    private void ensureWindow(long start, int length) throws IOException {
+        if (length < 0 || start < 0 || start + length > size) {
+            throw new IOException("Cannot read " + length + " bytes from position " + start
+                    + ". File size is " + size);
+        }
+        if (window != null && start >= windowStart && start + length <= windowStart + window.capacity()) {
+            return;
+        }
+        long mapSize = Math.min(Math.max(windowSize, length), size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, mapSize);
+        windowStart = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        ensureWindow(position, 1);
+        return window.get((int) (position++ - windowStart)) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= size) {
+            return -1;
+        }
+        ensureWindow(position, 1);
+        int start = (int) (position - windowStart);
+        int amount = (int) Math.min(len, windowStart + window.capacity() - position);
+        ByteBuffer buffer = window.duplicate();
+        ((Buffer) buffer).position(start);
+        buffer.get(b, off, amount);
+        position += amount;
+        return amount;
+    }
+
+    @Override
+    public long skip(long n) {
+        long amount = Math.max(0, Math.min(n, size - position));
+        position += amount;
+        return amount;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
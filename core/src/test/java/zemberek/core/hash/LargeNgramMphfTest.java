@@ -3,10 +3,12 @@ package zemberek.core.hash;
 import com.google.common.base.Stopwatch;
 import com.google.common.io.Files;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.*;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -50,6 +52,49 @@ public class LargeNgramMphfTest {
         }
     }
 
+    @Test
+    public void parallelGenerationShouldGiveSameResult() throws IOException {
+        int gramCount = 200000;
+        File file = generateBinaryGramFile(3, gramCount, syntheticKeys(gramCount, 3));
+        byte[] expected = serialize(LargeNgramMphf.generate(file, 16, 1));
+        for (int threadCount : new int[]{2, 4}) {
+            Assert.assertArrayEquals(expected, serialize(LargeNgramMphf.generate(file, 16, threadCount)));
+        }
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void parallelGenerationSpeed() throws IOException {
+        int gramCount = 10_000_000;
+        File file = generateBinaryGramFile(3, gramCount, syntheticKeys(gramCount, 3));
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threadCount : new int[]{1, 2, 4, processors}) {
+            Stopwatch sw = Stopwatch.createStarted();
+            LargeNgramMphf mphf = LargeNgramMphf.generate(file, 20, threadCount);
+            System.out.println("Threads = " + threadCount + " Generation time = " + sw.elapsed(TimeUnit.MILLISECONDS) +
+                    "ms. Bits per key = " + mphf.averageBitsPerKey());
+        }
+    }
+
+    static int[][] syntheticKeys(int keyCount, int order) {
+        Random random = new Random(1);
+        int[][] keys = new int[keyCount][order];
+        for (int i = 0; i < keyCount; i++) {
+            // first item makes keys unique.
+            keys[i][0] = i;
+            for (int j = 1; j < order; j++) {
+                keys[i][j] = random.nextInt(100000);
+            }
+        }
+        return keys;
+    }
+
+    static byte[] serialize(Mphf mphf) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        mphf.serialize(bos);
+        return bos.toByteArray();
+    }
+
     private File generateBinaryGramFile(int order, int gramCount, int[][] keys) throws IOException {
         File tempDir = Files.createTempDir();
         File file = new File(tempDir, "grams");
@@ -59,7 +104,7 @@ public class LargeNgramMphfTest {
         dos.writeInt(gramCount);
         for (int j = 0; j < keys.length; j++) {
             for (int i = 0; i < order; i++) {
-                dos.writeInt(j);
+                dos.writeInt(keys[j][i]);
             }
         }
         dos.close();
@@ -39,6 +39,13 @@ public class MultiLevelMphfTest {
         }
     }
 
+    @Test
+    public void parallelGenerationShouldGiveSameResult() throws IOException {
+        IntArrayKeyProvider provider = new IntArrayKeyProvider(LargeNgramMphfTest.syntheticKeys(100000, 3));
+        byte[] expected = LargeNgramMphfTest.serialize(MultiLevelMphf.generate(provider, 1));
+        Assert.assertArrayEquals(expected, LargeNgramMphfTest.serialize(MultiLevelMphf.generate(provider, 4)));
+    }
+
     private void generateAndTest(IntHashKeyProvider provider) {
 
         long start = System.currentTimeMillis();
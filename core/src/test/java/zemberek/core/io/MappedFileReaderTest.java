@@ -0,0 +1,55 @@
+package zemberek.core.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+public class MappedFileReaderTest {
+
+    @Test
+    public void readAcrossWindows() throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < 1000; i++) {
+                dos.writeInt(i);
+            }
+            dos.writeUTF("end");
+        }
+        // a small window size forces re-mapping.
+        try (MappedFileReader reader = new MappedFileReader(file, 10)) {
+            DataInputStream dis = new DataInputStream(reader);
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(i, dis.readInt());
+            }
+            IntBuffer ints = reader.slice(997 * 4 - 40).asIntBuffer();
+            for (int i = 0; i < ints.capacity(); i++) {
+                Assert.assertEquals(i + 3, ints.get(i));
+            }
+            for (int i = 990; i < 1000; i++) {
+                Assert.assertEquals(i, dis.readInt());
+            }
+            Assert.assertEquals("end", dis.readUTF());
+            Assert.assertEquals(file.length(), reader.position());
+            Assert.assertEquals(-1, reader.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void sliceBeyondFileSize() throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))) {
+            dos.writeInt(1);
+        }
+        try (MappedFileReader reader = new MappedFileReader(file)) {
+            reader.slice(5);
+        }
+    }
+}
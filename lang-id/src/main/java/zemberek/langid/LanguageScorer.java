@@ -0,0 +1,232 @@
+package zemberek.langid;
+
+import com.google.common.collect.Lists;
+import zemberek.core.hash.MultiLevelMphf;
+import zemberek.langid.model.CharNgramLanguageModel;
+import zemberek.langid.model.CompressedCharNgramModel;
+import zemberek.langid.model.MultiLanguageCharNgramModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Language identification engine that works on char arrays of compressed models.
+ * Unlike {@link LanguageIdentifier}, it does not create gram Strings. For every sampled gram position, hash values
+ * of the gram prefixes are calculated once in a single pass over the characters and used for scoring all
+ * languages. Back-off to lower order grams uses these prefix hashes, so no allocation is made per gram.
+ * Results are identical with the results of {@link LanguageIdentifier} for the same compressed models.
+ * <p>
+ * Scorer can also use a {@link MultiLanguageCharNgramModel}. Then all languages are scored with one hash
+ * calculation per gram order instead of one per language. Scores of a combined model are approximate unless it is
+ * created with the training texts of the models: grams that are missed while converting the compressed models
+ * back-off. Even with training texts, grams that were not seen in training may score differently because of
+ * fingerprint false positives.
+ * <p>
+ * This class is thread safe.
+ */
+public class LanguageScorer {
+
+    public final int order;
+    private final CompressedCharNgramModel[] models;
+    private final MultiLanguageCharNgramModel combined;
+    private final String[] modelIdArray;
+
+    /**
+     * @param models compressed models. All models must have the same order.
+     */
+    public LanguageScorer(List<CompressedCharNgramModel> models) {
+        if (models.isEmpty())
+            throw new IllegalArgumentException("No model is provided!");
+        this.models = models.toArray(new CompressedCharNgramModel[models.size()]);
+        this.combined = null;
+        this.order = this.models[0].getOrder();
+        this.modelIdArray = new String[this.models.length];
+        for (int i = 0; i < this.models.length; i++) {
+            if (this.models[i].getOrder() != order)
+                throw new IllegalArgumentException("All models must have the same order. Expected " + order +
+                        " but order of model " + this.models[i].getId() + " is " + this.models[i].getOrder());
+            modelIdArray[i] = this.models[i].getId();
+        }
+    }
+
+    /**
+     * @param combined combined model of all languages. Scores are approximations of the scores of the compressed
+     *                 models, see {@link MultiLanguageCharNgramModel}.
+     */
+    public LanguageScorer(MultiLanguageCharNgramModel combined) {
+        this.models = null;
+        this.combined = combined;
+        this.order = combined.getOrder();
+        this.modelIdArray = combined.getModelIds();
+    }
+
+    /**
+     * Creates a scorer with the models of the identifier. Models are kept in the same order, so ties are resolved
+     * same way with the identifier.
+     *
+     * @param identifier identifier that is loaded with compressed models.
+     * @return LanguageScorer
+     */
+    public static LanguageScorer fromIdentifier(LanguageIdentifier identifier) {
+        List<CompressedCharNgramModel> models = Lists.newArrayList();
+        for (CharNgramLanguageModel model : identifier.getModels()) {
+            if (!(model instanceof CompressedCharNgramModel))
+                throw new IllegalArgumentException("Only compressed models are supported but model "
+                        + model.getId() + " is " + model.getClass().getSimpleName());
+            models.add((CompressedCharNgramModel) model);
+        }
+        return new LanguageScorer(models);
+    }
+
+    public static LanguageScorer fromCombinedModel(File file) throws IOException {
+        return new LanguageScorer(MultiLanguageCharNgramModel.load(file));
+    }
+
+    public static LanguageScorer fromInternalModels() throws IOException {
+        return fromIdentifier(LanguageIdentifier.fromInternalModels());
+    }
+
+    public static LanguageScorer fromInternalModelGroup(String groupId) throws IOException {
+        return fromIdentifier(LanguageIdentifier.fromInternalModelGroup(groupId));
+    }
+
+    /**
+     * @return model ids. Index of an id is the index of its score in the arrays filled by score methods.
+     */
+    public String[] getModelIds() {
+        return modelIdArray.clone();
+    }
+
+    /**
+     * Identifies input text's language using all grams of the input.
+     * Result is same as {@link LanguageIdentifier#identify(String)}
+     *
+     * @param input input text
+     * @return identified language's id
+     */
+    public String identify(String input) {
+        char[] clean = LanguageIdentifier.preprocess(input).toCharArray();
+        if (clean.length < order)
+            return LanguageIdentifier.UNKNOWN;
+        return best(clean, clean.length - 1);
+    }
+
+    /**
+     * Identifies input text's language using sampling.
+     * Result is same as {@link LanguageIdentifier#identify(String, int)}
+     *
+     * @param input          content
+     * @param maxSampleCount Max sampling value. if content length is less than maxSampleCount, or maxSampleCount
+     *                       is -1 then sampling is not applied.
+     * @return identified language's id
+     */
+    public String identify(String input, int maxSampleCount) {
+        char[] clean = LanguageIdentifier.preprocess(input).toCharArray();
+        if (clean.length < order)
+            return LanguageIdentifier.UNKNOWN;
+        return best(clean, maxSampleCount);
+    }
+
+    private String best(char[] clean, int maxSampleCount) {
+        double[] scores = new double[modelIdArray.length];
+        score(clean, 0, clean.length, maxSampleCount, scores);
+        double max = -Double.MAX_VALUE;
+        String maxLanguage = null;
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > max) {
+                max = scores[i];
+                maxLanguage = modelIdArray[i];
+            }
+        }
+        return maxLanguage;
+    }
+
+    /**
+     * Result is same as {@link LanguageIdentifier#getScores(String, int)}
+     *
+     * @param input          input data
+     * @param maxSampleCount Max sampling value. if content length is less than maxSampleCount, or maxSampleCount
+     *                       is -1 then sampling is not applied.
+     * @return the identification results for all languages sorted by score in descending order.
+     */
+    public List<LanguageIdentifier.IdResult> getScores(String input, int maxSampleCount) {
+        if (input.length() < order)
+            return Collections.emptyList();
+        char[] clean = LanguageIdentifier.preprocess(input).toCharArray();
+        double[] scores = new double[modelIdArray.length];
+        score(clean, 0, clean.length, maxSampleCount == -1 ? clean.length : maxSampleCount, scores);
+        List<LanguageIdentifier.IdResult> results = Lists.newArrayListWithCapacity(scores.length);
+        for (int i = 0; i < scores.length; i++) {
+            results.add(new LanguageIdentifier.IdResult(modelIdArray[i], scores[i]));
+        }
+        Collections.sort(results, (a, b) -> Double.compare(b.score, a.score));
+        return results;
+    }
+
+    /**
+     * Adds scores of grams sampled from chars[begin, end) to the scores array. Sampling is same with the sampling
+     * of {@link LanguageIdentifier}. This method does not allocate memory other than small work buffers.
+     *
+     * @param chars          preprocessed characters.
+     * @param begin          begin index.
+     * @param end            end index, exclusive.
+     * @param maxSampleCount Max sampling value. If it is negative, all grams are used.
+     * @param scores         scores of models are added to this array. Order is the order of {@link #getModelIds()}
+     */
+    public void score(char[] chars, int begin, int end, int maxSampleCount, double[] scores) {
+        int length = end - begin;
+        if (length <= order)
+            return;
+        int[] prefixHashes = new int[order + 1];
+        long[] work = createWorkArray();
+        int gramIndexLimit = length - order + 1;
+        if (maxSampleCount < 0) {
+            for (int i = 0; i < gramIndexLimit; i++) {
+                scoreGram(chars, begin + i, prefixHashes, work, scores);
+            }
+            return;
+        }
+        int gramCount = maxSampleCount > gramIndexLimit ? gramIndexLimit : maxSampleCount;
+        if (gramCount == 0)
+            return;
+        int s = gramIndexLimit / gramCount;
+        int step = s < 3 ? 3 : s;
+        int samplingPoint = 0;
+        int startPoint = 0;
+        for (int i = 0; i < gramCount; i++) {
+            scoreGram(chars, begin + samplingPoint, prefixHashes, work, scores);
+            samplingPoint += step;
+            if (samplingPoint >= gramIndexLimit) {
+                startPoint++;
+                samplingPoint = startPoint;
+            }
+        }
+    }
+
+    long[] createWorkArray() {
+        return combined == null ? null : combined.createWorkArray();
+    }
+
+    /**
+     * Adds scores of the gram chars[gramStart, gramStart + order) to scores.
+     *
+     * @param prefixHashes buffer with order + 1 length.
+     * @param work         buffer obtained from createWorkArray()
+     */
+    void scoreGram(char[] chars, int gramStart, int[] prefixHashes, long[] work, double[] scores) {
+        int d = MultiLevelMphf.INITIAL_HASH_SEED;
+        for (int k = 1; k <= order; k++) {
+            d = (d ^ chars[gramStart + k - 1]) * MultiLevelMphf.HASH_MULTIPLIER;
+            prefixHashes[k] = d & 0x7fffffff;
+        }
+        if (combined != null) {
+            combined.addScores(chars, gramStart, order, prefixHashes, work, scores);
+            return;
+        }
+        for (int i = 0; i < models.length; i++) {
+            scores[i] += models[i].gramProbability(chars, gramStart, order, prefixHashes);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package zemberek.langid;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Segments text of any size into language spans in a single pass with constant memory.
+ * Input is consumed incrementally from a Reader or a CharSequence and preprocessed on the fly. Scores of the last
+ * windowSize grams are kept in a ring buffer and their running sum gives the score of the window for all languages.
+ * Window is evaluated after every step grams and the best language is assigned to the grams around the center of the
+ * window. Consecutive grams with the same language form a span. A new span is started only if the new language is
+ * found in two consecutive evaluations, so short ambiguous regions between languages do not create spans. A span is
+ * sent to the consumer as soon as the next span starts.
+ * <p>
+ * Preprocessing is same with {@link LanguageIdentifier#preprocess(String)} except lower casing is applied per
+ * character. Span offsets are char offsets of the original input. Spans cover the input without gaps.
+ * <p>
+ * This class is thread safe.
+ */
+public class StreamingLanguageIdentifier {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_STEP = 20;
+
+    private static final int READ_BUFFER_SIZE = 4096;
+    // a language change is accepted when new language is the best for this amount of evaluations in a row.
+    private static final int CONFIRMATION_COUNT = 2;
+
+    private final LanguageScorer scorer;
+    private final int windowSize;
+    private final int step;
+
+    /**
+     * @param scorer     scorer for languages.
+     * @param windowSize amount of grams in the sliding window.
+     * @param step       amount of grams between window evaluations. It cannot be larger than window size.
+     */
+    public StreamingLanguageIdentifier(LanguageScorer scorer, int windowSize, int step) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("Window size must be positive but it is " + windowSize);
+        if (step < 1 || step > windowSize)
+            throw new IllegalArgumentException("Step must be in [1, " + windowSize + "] but it is " + step);
+        this.scorer = scorer;
+        this.windowSize = windowSize;
+        this.step = step;
+    }
+
+    public StreamingLanguageIdentifier(LanguageScorer scorer) {
+        this(scorer, DEFAULT_WINDOW_SIZE, DEFAULT_STEP);
+    }
+
+    /**
+     * A range of the input with a language id.
+     */
+    public static class Span {
+        public final String language;
+        // begin offset, inclusive.
+        public final long begin;
+        // end offset, exclusive.
+        public final long end;
+
+        public Span(String language, long begin, long end) {
+            this.language = language;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        public String toString() {
+            return language + "[" + begin + "-" + end + "]";
+        }
+    }
+
+    /**
+     * Segments the content of the reader. Reader is not closed.
+     *
+     * @param reader   input.
+     * @param consumer receives spans in input order.
+     * @throws IOException if an error occurs while reading.
+     */
+    public void segment(Reader reader, Consumer<Span> consumer) throws IOException {
+        Segmentation segmentation = new Segmentation(consumer);
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                segmentation.add(buffer[i]);
+            }
+        }
+        segmentation.finish();
+    }
+
+    public void segment(CharSequence input, Consumer<Span> consumer) {
+        Segmentation segmentation = new Segmentation(consumer);
+        for (int i = 0; i < input.length(); i++) {
+            segmentation.add(input.charAt(i));
+        }
+        segmentation.finish();
+    }
+
+    public List<Span> segment(CharSequence input) {
+        List<Span> spans = new ArrayList<>();
+        segment(input, spans::add);
+        return spans;
+    }
+
+    // Characters removed by LanguageIdentifier.preprocess
+    private static boolean isRemoved(char c) {
+        return (c >= '0' && c <= '9') || "\"#$%^&*()_+-=/|\\<>{}[];:,".indexOf(c) >= 0;
+    }
+
+    // White space characters of regular expressions.
+    private static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * State of a single segmentation operation.
+     */
+    private class Segmentation {
+        final Consumer<Span> consumer;
+        final int order = scorer.order;
+        final int languageCount = scorer.getModelIds().length;
+        final String[] modelIds = scorer.getModelIds();
+
+        // last order characters of the preprocessed input.
+        final char[] gram = new char[order];
+        final int[] prefixHashes = new int[order + 1];
+        final long[] work = scorer.createWorkArray();
+        // scores of the grams in the window. Row of gram i is i % windowSize.
+        final double[][] gramScores = new double[windowSize][languageCount];
+        final double[] windowScores = new double[languageCount];
+        // original offsets of gram starts. Slot of gram i is i % offsets.length.
+        final long[] gramOffsets = new long[windowSize + step];
+        // original offsets of the characters in gram buffer.
+        final long[] charOffsets = new long[order];
+
+        long inputLength;
+        long cleanLength;
+        long gramCount;
+        boolean lastWasSpace;
+
+        // grams before this index have a language.
+        long labeledCount;
+        long lastEvaluated = -1;
+        String lastLanguage;
+
+        String spanLanguage;
+        long spanBegin;
+
+        String candidate;
+        long candidateBegin;
+        int candidateCount;
+
+        Segmentation(Consumer<Span> consumer) {
+            this.consumer = consumer;
+        }
+
+        void add(char c) {
+            long offset = inputLength++;
+            if (isRemoved(c)) {
+                return;
+            }
+            if (isWhiteSpace(c)) {
+                if (lastWasSpace) {
+                    return;
+                }
+                lastWasSpace = true;
+                c = ' ';
+            } else {
+                lastWasSpace = false;
+                c = Character.toLowerCase(c);
+            }
+            System.arraycopy(gram, 1, gram, 0, order - 1);
+            System.arraycopy(charOffsets, 1, charOffsets, 0, order - 1);
+            gram[order - 1] = c;
+            charOffsets[order - 1] = offset;
+            cleanLength++;
+            if (cleanLength >= order) {
+                addGram();
+            }
+        }
+
+        private void addGram() {
+            long index = gramCount++;
+            gramOffsets[(int) (index % gramOffsets.length)] = charOffsets[0];
+            double[] row = gramScores[(int) (index % windowSize)];
+            if (index >= windowSize) {
+                for (int l = 0; l < languageCount; l++) {
+                    windowScores[l] -= row[l];
+                }
+            }
+            Arrays.fill(row, 0);
+            scorer.scoreGram(gram, 0, prefixHashes, work, row);
+            for (int l = 0; l < languageCount; l++) {
+                windowScores[l] += row[l];
+            }
+            if (index % windowSize == windowSize - 1) {
+                // prevents accumulation of rounding errors of the running sum.
+                Arrays.fill(windowScores, 0);
+                for (double[] scores : gramScores) {
+                    for (int l = 0; l < languageCount; l++) {
+                        windowScores[l] += scores[l];
+                    }
+                }
+            }
+            if (index >= windowSize - 1 && (index - windowSize + 1) % step == 0) {
+                lastEvaluated = index;
+                lastLanguage = best();
+                label(index - windowSize / 2, lastLanguage);
+            }
+        }
+
+        private String best() {
+            double max = -Double.MAX_VALUE;
+            String maxLanguage = null;
+            for (int l = 0; l < languageCount; l++) {
+                if (windowScores[l] > max) {
+                    max = windowScores[l];
+                    maxLanguage = modelIds[l];
+                }
+            }
+            return maxLanguage;
+        }
+
+        // assigns the language to grams from labeledCount to last, inclusive. A different language than the
+        // language of current span is kept as candidate until it is found CONFIRMATION_COUNT times in a row.
+        private void label(long last, String language) {
+            if (last < labeledCount) {
+                return;
+            }
+            long begin = labeledCount == 0 ? 0 : gramOffsets[(int) (labeledCount % gramOffsets.length)];
+            labeledCount = last + 1;
+            if (spanLanguage == null) {
+                spanLanguage = language;
+                spanBegin = begin;
+                return;
+            }
+            if (language.equals(spanLanguage)) {
+                candidate = null;
+                return;
+            }
+            if (candidate == null) {
+                candidateBegin = begin;
+                candidateCount = 0;
+            }
+            if (!language.equals(candidate)) {
+                // transition region between two languages goes to the new candidate.
+                candidate = language;
+                candidateCount = 0;
+            }
+            candidateCount++;
+            if (candidateCount >= CONFIRMATION_COUNT) {
+                startSpan();
+            }
+        }
+
+        private void startSpan() {
+            consumer.accept(new Span(spanLanguage, spanBegin, candidateBegin));
+            spanLanguage = candidate;
+            spanBegin = candidateBegin;
+            candidate = null;
+        }
+
+        void finish() {
+            if (gramCount == 0) {
+                if (inputLength > 0) {
+                    consumer.accept(new Span(LanguageIdentifier.UNKNOWN, 0, inputLength));
+                }
+                return;
+            }
+            String language = lastEvaluated == gramCount - 1 ? lastLanguage : best();
+            label(gramCount - 1, language);
+            // a candidate that lasts until the end of the input is accepted.
+            if (candidate != null && candidate.equals(language)) {
+                startSpan();
+            }
+            consumer.accept(new Span(spanLanguage, spanBegin, inputLength));
+        }
+    }
+}
@@ -21,14 +21,14 @@ public class CompressedCharNgramModel extends BaseCharNgramModel implements Char
     public static final int UNK_CHAR_PENALTY = -10;
     static final double BACK_OFF = -2;
     // all arrays below are 1 based
-    Mphf[] mphfs;
+    MultiLevelMphf[] mphfs;
     ProbData[] gramData;
 
     DoubleLookup[] lookups;
     static final int FINGER_PRINT_MASK = (1 << 16) - 1;
 
 
-    private CompressedCharNgramModel(int order, String modelId, Mphf[] mphfs, ProbData[] gramData, DoubleLookup[] lookups) {
+    private CompressedCharNgramModel(int order, String modelId, MultiLevelMphf[] mphfs, ProbData[] gramData, DoubleLookup[] lookups) {
         super(modelId, order);
         this.mphfs = mphfs;
         this.gramData = gramData;
@@ -110,6 +110,51 @@ public class CompressedCharNgramModel extends BaseCharNgramModel implements Char
             return BACK_OFF + gramProbability(gram.substring(0, o - 1));
     }
 
+    /**
+     * Allocation free version of {@link #gramProbability(String)} for the gram in chars[begin, begin + length) range.
+     * Hash values of the gram prefixes are not model dependent, so they are calculated once by the caller and
+     * shared by all models.
+     *
+     * @param chars        characters.
+     * @param begin        gram start index.
+     * @param length       gram length. It cannot be larger than the order.
+     * @param prefixHashes prefixHashes[k] is MultiLevelMphf.hash() value of the first k characters of the gram.
+     * @return log Probability. Result is identical with gramProbability(String) result for the same gram.
+     */
+    public double gramProbability(char[] chars, int begin, int length, int[] prefixHashes) {
+        if (length > order)
+            throw new IllegalArgumentException("Gram size is larger than order! gramSize="
+                    + length + " but order is:" + order);
+        int backOffCount = 0;
+        double result = UNK_CHAR_PENALTY;
+        for (int o = length; o > 0; o--) {
+            int fingerPrint = prefixHashes[o];
+            int hash = mphfs[o].get(chars, begin, begin + o, fingerPrint);
+            if ((fingerPrint & FINGER_PRINT_MASK) == gramData[o].getFP(hash)) {
+                result = lookups[o].get(gramData[o].getProbLookupIndex(hash));
+                break;
+            }
+            backOffCount++;
+        }
+        // back-off penalties are added one by one in the same order with the recursive method.
+        for (int i = 0; i < backOffCount; i++) {
+            result = BACK_OFF + result;
+        }
+        return result;
+    }
+
+    /**
+     * @return quantization index of the probability of gram chars[0, length). -1 if gram does not exist in the model.
+     */
+    int probabilityIndex(char[] chars, int length) {
+        int fingerPrint = MultiLevelMphf.hash(chars, 0, length, -1);
+        int hash = mphfs[length].get(chars, 0, length, fingerPrint);
+        if ((fingerPrint & FINGER_PRINT_MASK) == gramData[length].getFP(hash)) {
+            return gramData[length].getProbLookupIndex(hash);
+        }
+        return -1;
+    }
+
     @Override
     public int getOrder() {
         return order;
@@ -158,7 +203,7 @@ public class CompressedCharNgramModel extends BaseCharNgramModel implements Char
         }
     }
 
-    private static class StringListKeyProvider implements IntHashKeyProvider {
+    static class StringListKeyProvider implements IntHashKeyProvider {
         List<String> keys;
 
         public StringListKeyProvider(List<String> keys) {
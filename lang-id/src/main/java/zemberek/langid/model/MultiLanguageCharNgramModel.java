@@ -0,0 +1,406 @@
+package zemberek.langid.model;
+
+import com.google.common.collect.Lists;
+import zemberek.core.hash.MultiLevelMphf;
+import zemberek.core.logging.Log;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Character n-gram probabilities of several languages in a single table. For each order, one Minimal Perfect Hash
+ * function is built over the union of the grams of all languages. Each hash value is a row that contains
+ * quantized probability indexes of all languages side by side, and a bit set of languages that contain the gram.
+ * So a single hash calculation gives the scores of all languages for a gram. Rows are dense, so the table uses
+ * more memory than separate models when languages share few grams.
+ * <p>
+ * Languages keep their own quantization lookups and back-off is same with {@link CompressedCharNgramModel}, but
+ * probabilities are an approximation of the compressed models this model is converted from:
+ * <ul>
+ * <li>Grams are enumerated from the compressed models, so grams whose prefixes were removed by count cut-offs are
+ * missed unless they occur in the texts given to the converter. Such grams back-off in this model.</li>
+ * <li>Fingerprint false positives happen in different grams, because the union of grams is hashed with different
+ * hash functions. An unseen gram may match a row here while it backs off in the compressed model, or the reverse.</li>
+ * </ul>
+ */
+public class MultiLanguageCharNgramModel {
+
+    static final int FINGER_PRINT_MASK = CompressedCharNgramModel.FINGER_PRINT_MASK;
+    private static final int LOOKUP_SIZE = 256;
+
+    public final int order;
+    private final String[] modelIds;
+    private final int languageCount;
+    // amount of longs in presence bit set of a row.
+    private final int wordCount;
+
+    // all arrays below are 1 based
+    private final MultiLevelMphf[] mphfs;
+    private final short[][] fingerPrints;
+    // languages[o][row * wordCount + k] holds k.th 64 language presence bits of the row.
+    private final long[][] languages;
+    // probIndexes[o][row * languageCount + l] is the quantization index of language l.
+    private final byte[][] probIndexes;
+    // lookups[o][l * LOOKUP_SIZE + index] is the dequantized value of index for language l.
+    private final double[][] lookups;
+
+    private MultiLanguageCharNgramModel(
+            int order,
+            String[] modelIds,
+            MultiLevelMphf[] mphfs,
+            short[][] fingerPrints,
+            long[][] languages,
+            byte[][] probIndexes,
+            double[][] lookups) {
+        this.order = order;
+        this.modelIds = modelIds;
+        this.languageCount = modelIds.length;
+        this.wordCount = (languageCount + 63) / 64;
+        this.mphfs = mphfs;
+        this.fingerPrints = fingerPrints;
+        this.languages = languages;
+        this.probIndexes = probIndexes;
+        this.lookups = lookups;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public String[] getModelIds() {
+        return modelIds.clone();
+    }
+
+    public int getLanguageCount() {
+        return languageCount;
+    }
+
+    /**
+     * @return a work array for {@link #addScores(char[], int, int, int[], long[], double[])}
+     */
+    public long[] createWorkArray() {
+        return new long[wordCount];
+    }
+
+    /**
+     * Adds log probabilities of the gram in chars[begin, begin + length) range to the scores of all languages.
+     * For every language, result approximates {@link CompressedCharNgramModel#gramProbability(String)} of the
+     * language, see the class documentation for the differences. At most one hash value per gram order is
+     * calculated.
+     *
+     * @param chars        characters.
+     * @param begin        gram start index.
+     * @param length       gram length. It cannot be larger than the order.
+     * @param prefixHashes prefixHashes[k] is MultiLevelMphf.hash() value of the first k characters of the gram.
+     * @param work         work array obtained from {@link #createWorkArray()}. It holds languages that are not scored yet.
+     * @param scores       scores of languages, in the order of {@link #getModelIds()}
+     */
+    public void addScores(char[] chars, int begin, int length, int[] prefixHashes, long[] work, double[] scores) {
+        if (length > order)
+            throw new IllegalArgumentException("Gram size is larger than order! gramSize="
+                    + length + " but order is:" + order);
+        for (int k = 0; k < wordCount; k++) {
+            work[k] = k < wordCount - 1 || (languageCount & 63) == 0 ? -1L : (1L << (languageCount & 63)) - 1;
+        }
+        int remaining = languageCount;
+        for (int o = length; o > 0 && remaining > 0; o--) {
+            int fingerPrint = prefixHashes[o];
+            int row = mphfs[o].get(chars, begin, begin + o, fingerPrint);
+            if ((fingerPrint & FINGER_PRINT_MASK) != (fingerPrints[o][row] & 0xffff)) {
+                continue;
+            }
+            long[] rowLanguages = languages[o];
+            byte[] rowIndexes = probIndexes[o];
+            double[] lookup = lookups[o];
+            int backOffCount = length - o;
+            for (int k = 0; k < wordCount; k++) {
+                long found = work[k] & rowLanguages[row * wordCount + k];
+                work[k] &= ~found;
+                while (found != 0) {
+                    int l = (k << 6) + Long.numberOfTrailingZeros(found);
+                    found &= found - 1;
+                    double p = lookup[l * LOOKUP_SIZE + (rowIndexes[row * languageCount + l] & 0xff)];
+                    scores[l] += backOff(p, backOffCount);
+                    remaining--;
+                }
+            }
+        }
+        if (remaining > 0) {
+            double p = backOff(CompressedCharNgramModel.UNK_CHAR_PENALTY, length);
+            for (int k = 0; k < wordCount; k++) {
+                long left = work[k];
+                while (left != 0) {
+                    scores[(k << 6) + Long.numberOfTrailingZeros(left)] += p;
+                    left &= left - 1;
+                }
+            }
+        }
+    }
+
+    // back-off penalties are added one by one in the same order with the recursive method of compressed model.
+    private static double backOff(double p, int count) {
+        for (int i = 0; i < count; i++) {
+            p = CompressedCharNgramModel.BACK_OFF + p;
+        }
+        return p;
+    }
+
+    /**
+     * Converts compressed models to a combined model. See {@link #fromCompressedModels(List, Iterable)}
+     *
+     * @param models compressed models with same order.
+     * @return combined model.
+     */
+    public static MultiLanguageCharNgramModel fromCompressedModels(List<CompressedCharNgramModel> models) {
+        return fromCompressedModels(models, Collections.<String>emptyList());
+    }
+
+    /**
+     * Converts compressed models to a combined model. Compressed models do not contain gram Strings, so grams are
+     * enumerated from the models. A gram exists in a model only if its prefix exists in the training counts, so
+     * grams of an order are generated by extending existing lower order grams of the model. Bigrams are extended
+     * with unigram characters of all models. Higher orders are extended with unigram characters of the model and
+     * characters that follow the suffix of the gram in lower order grams of the model.
+     * Because of count cut-offs, a few grams with missing prefixes cannot be found this way. Such grams back-off
+     * in the combined model. Grams of the given texts are looked up in all models as well, so results for grams that
+     * occur in the texts are identical with the compressed models. Results for other grams may still differ because
+     * of fingerprint false positives.
+     *
+     * @param models compressed models with same order.
+     * @param texts  preprocessed texts, such as training data. Can be empty.
+     * @return combined model.
+     */
+    public static MultiLanguageCharNgramModel fromCompressedModels(
+            List<CompressedCharNgramModel> models,
+            Iterable<String> texts) {
+        if (models.isEmpty())
+            throw new IllegalArgumentException("No model is provided!");
+        int order = models.get(0).getOrder();
+        String[] modelIds = new String[models.size()];
+        for (int i = 0; i < modelIds.length; i++) {
+            if (models.get(i).getOrder() != order)
+                throw new IllegalArgumentException("All models must have the same order. Expected " + order +
+                        " but order of model " + models.get(i).getId() + " is " + models.get(i).getOrder());
+            modelIds[i] = models.get(i).getId();
+        }
+        int languageCount = modelIds.length;
+        int wordCount = (languageCount + 63) / 64;
+
+        // quantization indexes of all languages for the grams of each order. -1 if gram does not exist.
+        List<Map<String, short[]>> orderGrams = new ArrayList<>();
+        orderGrams.add(null);
+        for (int o = 1; o <= order; o++) {
+            orderGrams.add(new LinkedHashMap<>());
+        }
+        char[] buffer = new char[order];
+        List<List<String>> unigrams = new ArrayList<>();
+        for (int l = 0; l < languageCount; l++) {
+            unigrams.add(new ArrayList<>());
+        }
+        StringBuilder union = new StringBuilder();
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            buffer[0] = (char) c;
+            boolean found = false;
+            for (int l = 0; l < languageCount; l++) {
+                int index = models.get(l).probabilityIndex(buffer, 1);
+                if (index >= 0) {
+                    found = true;
+                    unigrams.get(l).add(String.valueOf((char) c));
+                    addGram(orderGrams.get(1), String.valueOf((char) c), l, index, languageCount);
+                }
+            }
+            if (found) {
+                union.append((char) c);
+            }
+        }
+        String unionAlphabet = union.toString();
+
+        for (int l = 0; l < languageCount; l++) {
+            CompressedCharNgramModel model = models.get(l);
+            List<String> previous = unigrams.get(l);
+            String alphabet = String.join("", previous);
+            BitSet inAlphabet = new BitSet(Character.MAX_VALUE + 1);
+            for (int i = 0; i < alphabet.length(); i++) {
+                inAlphabet.set(alphabet.charAt(i));
+            }
+            for (int o = 2; o <= order; o++) {
+                // last characters of grams that follow a context of length o - 2.
+                Map<String, StringBuilder> successors = new HashMap<>();
+                if (o > 2) {
+                    for (String gram : previous) {
+                        successors.computeIfAbsent(gram.substring(0, o - 2), k -> new StringBuilder())
+                                .append(gram.charAt(o - 2));
+                    }
+                }
+                List<String> current = Lists.newArrayList();
+                for (String prefix : previous) {
+                    String candidates = unionAlphabet;
+                    if (o > 2) {
+                        StringBuilder following = successors.get(prefix.substring(1));
+                        candidates = following == null ? alphabet : alphabet + following;
+                    }
+                    prefix.getChars(0, o - 1, buffer, 0);
+                    for (int i = 0; i < candidates.length(); i++) {
+                        char c = candidates.charAt(i);
+                        if (i >= alphabet.length() && o > 2 && inAlphabet.get(c)) {
+                            continue;
+                        }
+                        buffer[o - 1] = c;
+                        int index = model.probabilityIndex(buffer, o);
+                        if (index >= 0) {
+                            String gram = new String(buffer, 0, o);
+                            current.add(gram);
+                            addGram(orderGrams.get(o), gram, l, index, languageCount);
+                        }
+                    }
+                }
+                previous = current;
+            }
+            Log.info("Grams of %s are enumerated.", model.getId());
+        }
+
+        for (String text : texts) {
+            for (int i = 0; i < text.length(); i++) {
+                for (int o = 1; o <= order && i + o <= text.length(); o++) {
+                    text.getChars(i, i + o, buffer, 0);
+                    for (int l = 0; l < languageCount; l++) {
+                        int index = models.get(l).probabilityIndex(buffer, o);
+                        if (index >= 0) {
+                            addGram(orderGrams.get(o), text.substring(i, i + o), l, index, languageCount);
+                        }
+                    }
+                }
+            }
+        }
+
+        MultiLevelMphf[] mphfs = new MultiLevelMphf[order + 1];
+        short[][] fingerPrints = new short[order + 1][];
+        long[][] languages = new long[order + 1][];
+        byte[][] probIndexes = new byte[order + 1][];
+        double[][] lookups = new double[order + 1][];
+        for (int o = 1; o <= order; o++) {
+            Map<String, short[]> grams = orderGrams.get(o);
+            List<String> keys = new ArrayList<>(grams.keySet());
+            mphfs[o] = MultiLevelMphf.generate(new CompressedCharNgramModel.StringListKeyProvider(keys));
+            fingerPrints[o] = new short[keys.size()];
+            languages[o] = new long[keys.size() * wordCount];
+            probIndexes[o] = new byte[keys.size() * languageCount];
+            for (String key : keys) {
+                int row = mphfs[o].get(key);
+                fingerPrints[o][row] = (short) (MultiLevelMphf.hash(key, -1) & FINGER_PRINT_MASK);
+                short[] indexes = grams.get(key);
+                for (int l = 0; l < languageCount; l++) {
+                    if (indexes[l] >= 0) {
+                        languages[o][row * wordCount + (l >> 6)] |= 1L << (l & 63);
+                        probIndexes[o][row * languageCount + l] = (byte) indexes[l];
+                    }
+                }
+            }
+            lookups[o] = new double[languageCount * LOOKUP_SIZE];
+            for (int l = 0; l < languageCount; l++) {
+                CompressedCharNgramModel model = models.get(l);
+                for (int i = 0; i < model.lookups[o].getRange(); i++) {
+                    lookups[o][l * LOOKUP_SIZE + i] = model.lookups[o].get(i);
+                }
+            }
+            Log.info("Order %d has %d grams.", o, keys.size());
+        }
+        return new MultiLanguageCharNgramModel(order, modelIds, mphfs, fingerPrints, languages, probIndexes, lookups);
+    }
+
+    private static void addGram(Map<String, short[]> grams, String gram, int language, int index, int languageCount) {
+        short[] indexes = grams.get(gram);
+        if (indexes == null) {
+            indexes = new short[languageCount];
+            Arrays.fill(indexes, (short) -1);
+            grams.put(gram, indexes);
+        }
+        indexes[language] = (short) index;
+    }
+
+    /**
+     * Converts compressed model files to a combined model file.
+     *
+     * @param clmFiles compressed model files.
+     * @param output   combined model file.
+     */
+    public static void convert(List<File> clmFiles, File output) throws IOException {
+        List<CompressedCharNgramModel> models = Lists.newArrayList();
+        for (File clmFile : clmFiles) {
+            models.add(CompressedCharNgramModel.load(clmFile));
+        }
+        fromCompressedModels(models).save(output);
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(order);
+            dos.writeInt(languageCount);
+            for (String modelId : modelIds) {
+                dos.writeUTF(modelId);
+            }
+            for (int o = 1; o <= order; o++) {
+                for (double v : lookups[o]) {
+                    dos.writeDouble(v);
+                }
+                dos.writeInt(fingerPrints[o].length);
+                for (short fingerPrint : fingerPrints[o]) {
+                    dos.writeShort(fingerPrint);
+                }
+                for (long bits : languages[o]) {
+                    dos.writeLong(bits);
+                }
+                dos.write(probIndexes[o]);
+                mphfs[o].serialize(dos);
+            }
+        }
+    }
+
+    public static MultiLanguageCharNgramModel load(InputStream is) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+            int order = dis.readInt();
+            int languageCount = dis.readInt();
+            int wordCount = (languageCount + 63) / 64;
+            String[] modelIds = new String[languageCount];
+            for (int i = 0; i < languageCount; i++) {
+                modelIds[i] = dis.readUTF();
+            }
+            MultiLevelMphf[] mphfs = new MultiLevelMphf[order + 1];
+            short[][] fingerPrints = new short[order + 1][];
+            long[][] languages = new long[order + 1][];
+            byte[][] probIndexes = new byte[order + 1][];
+            double[][] lookups = new double[order + 1][];
+            for (int o = 1; o <= order; o++) {
+                lookups[o] = new double[languageCount * LOOKUP_SIZE];
+                for (int i = 0; i < lookups[o].length; i++) {
+                    lookups[o][i] = dis.readDouble();
+                }
+                int rowCount = dis.readInt();
+                fingerPrints[o] = new short[rowCount];
+                for (int i = 0; i < rowCount; i++) {
+                    fingerPrints[o][i] = dis.readShort();
+                }
+                languages[o] = new long[rowCount * wordCount];
+                for (int i = 0; i < languages[o].length; i++) {
+                    languages[o][i] = dis.readLong();
+                }
+                probIndexes[o] = new byte[rowCount * languageCount];
+                dis.readFully(probIndexes[o]);
+                mphfs[o] = MultiLevelMphf.deserialize(dis);
+            }
+            return new MultiLanguageCharNgramModel(
+                    order, modelIds, mphfs, fingerPrints, languages, probIndexes, lookups);
+        }
+    }
+
+    public static MultiLanguageCharNgramModel load(File file) throws IOException {
+        return load(new FileInputStream(file));
+    }
+}
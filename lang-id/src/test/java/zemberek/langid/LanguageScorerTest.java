@@ -0,0 +1,158 @@
+package zemberek.langid;
+
+import com.google.common.base.Stopwatch;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.langid.model.CharNgramLanguageModel;
+import zemberek.langid.model.CompressedCharNgramModel;
+import zemberek.langid.model.MultiLanguageCharNgramModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class LanguageScorerTest {
+
+    static final String[] INPUTS = {
+            "merhaba dünya ve tüm gezegenler",
+            "hello world and all the planets what is this?",
+            "Hola mundo y todos los planetas",
+            "Bonjour tout le monde et toutes les planètes",
+            "Salam dünya və bütün planetlərin bu həqiqətən pis olur",
+            "merhaba dünya ve tüm gezegenler Hola mundo y todos los planetas",
+            "Привет мир и все планеты",
+            "ab", "abc", "abcd", "", "123 456", "x y z"
+    };
+
+    @Test
+    public void resultsShouldBeSameWithIdentifier() throws IOException {
+        LanguageIdentifier lid = LanguageIdentifier.fromInternalModels();
+        LanguageScorer scorer = LanguageScorer.fromIdentifier(lid);
+        for (String input : INPUTS) {
+            Assert.assertEquals(input, lid.identify(input), scorer.identify(input));
+            for (int sampleCount : new int[]{-1, -2, 1, 5, 20, 1000}) {
+                Assert.assertEquals(input, lid.identify(input, sampleCount), scorer.identify(input, sampleCount));
+                List<LanguageIdentifier.IdResult> expected = lid.getScores(input, sampleCount);
+                List<LanguageIdentifier.IdResult> actual = scorer.getScores(input, sampleCount);
+                Assert.assertEquals(input, expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    Assert.assertEquals(input, expected.get(i).id, actual.get(i).id);
+                    Assert.assertEquals(input, expected.get(i).score, actual.get(i).score, 0);
+                }
+            }
+        }
+    }
+
+    static void assertSameScores(LanguageScorer expected, LanguageScorer actual) {
+        for (String input : INPUTS) {
+            Assert.assertEquals(input, expected.identify(input), actual.identify(input));
+            for (int sampleCount : new int[]{-1, 5, 1000}) {
+                List<LanguageIdentifier.IdResult> expectedScores = expected.getScores(input, sampleCount);
+                List<LanguageIdentifier.IdResult> actualScores = actual.getScores(input, sampleCount);
+                Assert.assertEquals(input, expectedScores.size(), actualScores.size());
+                for (int i = 0; i < expectedScores.size(); i++) {
+                    Assert.assertEquals(input, expectedScores.get(i).id, actualScores.get(i).id);
+                    Assert.assertEquals(input, expectedScores.get(i).score, actualScores.get(i).score, 0);
+                }
+            }
+        }
+    }
+
+    // unk model is skipped because its large alphabet makes conversion slow.
+    static List<CompressedCharNgramModel> compressedModels(LanguageIdentifier lid) {
+        List<CompressedCharNgramModel> models = new ArrayList<>();
+        for (CharNgramLanguageModel model : lid.getModels()) {
+            if (!model.getId().equals(LanguageIdentifier.UNKNOWN)) {
+                models.add((CompressedCharNgramModel) model);
+            }
+        }
+        return models;
+    }
+
+    @Test
+    public void combinedModelShouldGiveSameScores() throws IOException {
+        LanguageIdentifier lid = LanguageIdentifier.fromInternalModelGroup("tr_group");
+        List<CompressedCharNgramModel> models = compressedModels(lid);
+        List<String> texts = new ArrayList<>();
+        for (String input : INPUTS) {
+            texts.add(LanguageIdentifier.preprocess(input));
+        }
+        MultiLanguageCharNgramModel combined =
+                MultiLanguageCharNgramModel.fromCompressedModels(models, texts);
+        File file = File.createTempFile("combined", ".mlm");
+        file.deleteOnExit();
+        combined.save(file);
+        LanguageScorer scorer = LanguageScorer.fromCombinedModel(file);
+        Assert.assertArrayEquals(new LanguageScorer(models).getModelIds(), scorer.getModelIds());
+        assertSameScores(new LanguageScorer(models), scorer);
+    }
+
+    @Test
+    public void modelGroupTest() throws IOException {
+        LanguageScorer scorer = LanguageScorer.fromInternalModelGroup("tr_group");
+        Assert.assertEquals("tr", scorer.identify("merhaba dünya ve tüm gezegenler"));
+        Assert.assertEquals("unk", scorer.identify("Hola mundo y todos los planetas"));
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void speedComparison() throws IOException {
+        LanguageIdentifier lid = LanguageIdentifier.fromInternalModels();
+        LanguageScorer scorer = LanguageScorer.fromIdentifier(lid);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append(INPUTS[i % 6]).append(" ");
+        }
+        String input = sb.toString();
+        int iterationCount = 2000;
+        for (int k = 0; k < 3; k++) {
+            Stopwatch sw = Stopwatch.createStarted();
+            double total = 0;
+            for (int i = 0; i < iterationCount; i++) {
+                total += lid.getScores(input, -1).get(0).score;
+            }
+            System.out.println("Identifier : " + sw.elapsed(TimeUnit.MILLISECONDS) + " ms. " + total);
+            sw = Stopwatch.createStarted();
+            total = 0;
+            for (int i = 0; i < iterationCount; i++) {
+                total += scorer.getScores(input, -1).get(0).score;
+            }
+            System.out.println("Scorer     : " + sw.elapsed(TimeUnit.MILLISECONDS) + " ms. " + total);
+        }
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void combinedModelSpeed() throws IOException {
+        LanguageIdentifier lid = LanguageIdentifier.fromInternalModels();
+        Stopwatch sw = Stopwatch.createStarted();
+        MultiLanguageCharNgramModel combined =
+                MultiLanguageCharNgramModel.fromCompressedModels(compressedModels(lid));
+        System.out.println("Conversion : " + sw.elapsed(TimeUnit.MILLISECONDS) + " ms.");
+        LanguageScorer scorer = LanguageScorer.fromIdentifier(lid);
+        LanguageScorer combinedScorer = new LanguageScorer(combined);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append(INPUTS[i % 6]).append(" ");
+        }
+        String input = sb.toString();
+        int iterationCount = 2000;
+        for (int k = 0; k < 3; k++) {
+            sw = Stopwatch.createStarted();
+            double total = 0;
+            for (int i = 0; i < iterationCount; i++) {
+                total += scorer.getScores(input, -1).get(0).score;
+            }
+            System.out.println("Scorer          : " + sw.elapsed(TimeUnit.MILLISECONDS) + " ms. " + total);
+            sw = Stopwatch.createStarted();
+            total = 0;
+            for (int i = 0; i < iterationCount; i++) {
+                total += combinedScorer.getScores(input, -1).get(0).score;
+            }
+            System.out.println("Combined scorer : " + sw.elapsed(TimeUnit.MILLISECONDS) + " ms. " + total);
+        }
+    }
+}
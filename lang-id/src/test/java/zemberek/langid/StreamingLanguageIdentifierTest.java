@@ -0,0 +1,88 @@
+package zemberek.langid;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StreamingLanguageIdentifierTest {
+
+    static final String TR = "Türkiye Cumhuriyeti, topraklarının büyük bölümü Anadolu'da, küçük bir bölümü ise " +
+            "Balkanlar'ın uzantısı olan Trakya'da yer alan ülkedir. Kuzeybatıda Bulgaristan, batıda Yunanistan, " +
+            "kuzeydoğuda Gürcistan, doğuda Ermenistan, İran ve Azerbaycan, güneydoğuda ise Irak ve Suriye " +
+            "komşusudur. Ülkenin başkenti Ankara, en kalabalık şehri ise İstanbul'dur. ";
+
+    static final String EN = "The United Kingdom of Great Britain and Northern Ireland is a sovereign country " +
+            "located off the north western coast of the European mainland. It includes the island of Great Britain, " +
+            "the north eastern part of the island of Ireland and many smaller islands. The capital city is London. ";
+
+    private static StreamingLanguageIdentifier identifier() throws IOException {
+        return new StreamingLanguageIdentifier(LanguageScorer.fromInternalModelGroup("tr_group"));
+    }
+
+    private static void checkCoverage(List<StreamingLanguageIdentifier.Span> spans, int length) {
+        Assert.assertEquals(0, spans.get(0).begin);
+        for (int i = 1; i < spans.size(); i++) {
+            Assert.assertEquals(spans.get(i - 1).end, spans.get(i).begin);
+            Assert.assertNotEquals(spans.get(i - 1).language, spans.get(i).language);
+        }
+        Assert.assertEquals(length, spans.get(spans.size() - 1).end);
+    }
+
+    @Test
+    public void mixedLanguagesShouldBeSegmented() throws IOException {
+        String input = TR + EN + TR;
+        List<StreamingLanguageIdentifier.Span> spans = identifier().segment(input);
+        Assert.assertEquals(spans.toString(), 3, spans.size());
+        checkCoverage(spans, input.length());
+        Assert.assertEquals("tr", spans.get(0).language);
+        Assert.assertEquals("en", spans.get(1).language);
+        Assert.assertEquals("tr", spans.get(2).language);
+        // boundaries should be close to the actual boundaries, within two evaluation steps.
+        Assert.assertEquals(TR.length(), spans.get(1).begin, 2 * StreamingLanguageIdentifier.DEFAULT_STEP);
+        Assert.assertEquals(TR.length() + EN.length(), spans.get(2).begin, 2 * StreamingLanguageIdentifier.DEFAULT_STEP);
+    }
+
+    @Test
+    public void singleLanguage() throws IOException {
+        List<StreamingLanguageIdentifier.Span> spans = identifier().segment(EN + EN + EN);
+        Assert.assertEquals(1, spans.size());
+        Assert.assertEquals("en", spans.get(0).language);
+        checkCoverage(spans, EN.length() * 3);
+        // input shorter than the window.
+        spans = identifier().segment("merhaba dünya ve tüm gezegenler");
+        Assert.assertEquals(1, spans.size());
+        Assert.assertEquals("tr", spans.get(0).language);
+    }
+
+    @Test
+    public void shortInput() throws IOException {
+        StreamingLanguageIdentifier identifier = identifier();
+        Assert.assertEquals(0, identifier.segment("").size());
+        List<StreamingLanguageIdentifier.Span> spans = identifier.segment("12 ,");
+        Assert.assertEquals(1, spans.size());
+        Assert.assertEquals(LanguageIdentifier.UNKNOWN, spans.get(0).language);
+        checkCoverage(spans, 4);
+    }
+
+    @Test
+    public void readerShouldGiveSameSpans() throws IOException {
+        StreamingLanguageIdentifier identifier = identifier();
+        String input = EN + TR + EN;
+        List<StreamingLanguageIdentifier.Span> expected = identifier.segment(input);
+        List<StreamingLanguageIdentifier.Span> actual = new ArrayList<>();
+        // reader that returns one character at a time.
+        Reader reader = new StringReader(input) {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        };
+        identifier.segment(reader, actual::add);
+        Assert.assertEquals(expected.toString(), actual.toString());
+    }
+}
@@ -3,6 +3,9 @@ package zemberek.lm;
 import zemberek.core.hash.MultiLevelMphf;
 
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Base class for language models.
@@ -24,6 +27,7 @@ public abstract class BaseLanguageModel {
     /**
      * This is a simple cache that may be useful if ngram queries exhibit strong temporal locality.
      * Cache stores key values so it does not produce false positives by itself. However underlying lm may do.
+     * This class is not thread safe. Use SharedLookupCache for sharing a cache between threads.
      */
     public static class LookupCache {
         final float[] probabilities;
@@ -85,6 +89,138 @@ public abstract class BaseLanguageModel {
         }
     }
 
+    /**
+     * A probability cache that can be shared by many threads. Unlike LookupCache, it does not keep a key array per
+     * slot. Word indexes of an n-gram are packed into two longs, so any model up to order 4, and order 5 models with
+     * less than 2^25 words are supported. Cache stores exact keys so it does not produce false positives by itself.
+     * <p>
+     * Each slot is guarded with a sequence number. A writer only updates a slot if it can increment the
+     * sequence number from an even value, readers treat a slot as a miss if sequence number is odd or it changes
+     * during the read. So no locks are used and a torn slot is never returned.
+     */
+    public static class SharedLookupCache {
+        public static final int DEFAULT_SHARED_CACHE_SIZE = 1 << 20;
+        // every slot occupies 4 longs: sequence number, low and high bits of the key, probability.
+        private static final int SLOT_LENGTH = 4;
+
+        final NgramLanguageModel model;
+        final AtomicLongArray slots;
+        final int modulo;
+        final int bitsPerWord;
+        final LongAdder hit = new LongAdder();
+        final LongAdder miss = new LongAdder();
+
+        /**
+         * Generates a cache with 2^20 slots.
+         */
+        public SharedLookupCache(NgramLanguageModel model) {
+            this(model, DEFAULT_SHARED_CACHE_SIZE);
+        }
+
+        /**
+         * Generates a cache where slot count is the minimum power of two that is not less than the size.
+         */
+        public SharedLookupCache(NgramLanguageModel model, int size) {
+            if (size < 1 || size > 1 << 28) {
+                throw new IllegalArgumentException("Cache size must be between 1 and 2^28 but it is " + size);
+            }
+            this.model = model;
+            // word index i is stored as i + 1 so that n-grams of different length have different keys.
+            bitsPerWord = 64 - Long.numberOfLeadingZeros(model.getVocabulary().size());
+            if (bitsPerWord * model.getOrder() > 128) {
+                throw new IllegalArgumentException("Cannot generate cache for a model of order " + model.getOrder() +
+                        " with vocabulary size " + model.getVocabulary().size());
+            }
+            int k = 1;
+            while (k < size) {
+                k <<= 1;
+            }
+            modulo = k - 1;
+            slots = new AtomicLongArray(k * SLOT_LENGTH);
+        }
+
+        /**
+         * @return probability of the input data. If value is already cached, it returns immediately.
+         * Otherwise it calculates the probability using the model reference inside and stores the value.
+         * This method is thread safe.
+         */
+        public float get(int[] data) {
+            if (data.length == 0 || data.length > model.getOrder()) {
+                throw new IllegalArgumentException("Amount of tokens must be between 1 and " +
+                        model.getOrder() + " But it is " + data.length);
+            }
+            long low = 0, high = 0;
+            int shift = 0;
+            for (int d : data) {
+                long v = d + 1L;
+                if (shift < 64) {
+                    low |= v << shift;
+                    if (shift + bitsPerWord > 64) {
+                        high |= v >>> (64 - shift);
+                    }
+                } else {
+                    high |= v << (shift - 64);
+                }
+                shift += bitsPerWord;
+            }
+            int fastHash = MultiLevelMphf.hash(data, -1);
+            int base = (fastHash & modulo) * SLOT_LENGTH;
+
+            long sequence = slots.get(base);
+            if ((sequence & 1) == 0
+                    && slots.get(base + 1) == low
+                    && slots.get(base + 2) == high) {
+                float probability = Float.intBitsToFloat((int) slots.get(base + 3));
+                if (slots.get(base) == sequence) {
+                    hit.increment();
+                    return probability;
+                }
+            }
+            miss.increment();
+            float probability = data.length == 3 ?
+                    model.getTriGramProbability(data[0], data[1], data[2], fastHash) : model.getProbability(data);
+            // if another thread is writing to this slot, value is not cached.
+            sequence = slots.get(base);
+            if ((sequence & 1) == 0 && slots.compareAndSet(base, sequence, sequence + 1)) {
+                slots.set(base + 1, low);
+                slots.set(base + 2, high);
+                slots.set(base + 3, Float.floatToRawIntBits(probability));
+                slots.set(base, sequence + 2);
+            }
+            return probability;
+        }
+
+        public long getHit() {
+            return hit.sum();
+        }
+
+        public long getMiss() {
+            return miss.sum();
+        }
+
+        /**
+         * @return ratio of hits to all requests. 0 if there is no request yet.
+         */
+        public double hitRate() {
+            long h = hit.sum();
+            long total = h + miss.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        /**
+         * @return amount of slots.
+         */
+        public int size() {
+            return modulo + 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "Slots = %d Hit = %d Miss = %d Hit rate = %.4f",
+                    size(), getHit(), getMiss(), hitRate());
+        }
+    }
+
     protected int[] head(int[] arr) {
         if (arr.length == 1)
             return new int[0];
@@ -16,14 +16,15 @@ import java.nio.file.Files;
 import java.util.List;
 
 /**
- * A command line utility class for generating compressed SmoothLm model from an Arpa language model file.
+ * A command line utility class for generating compressed SmoothLm model from an Arpa language model file
+ * or from an uncompressed binary model directory.
  * Run the main method to see the options.
  */
 public class CompressLm extends CommandLineApplication {
 
     @Option(name = "-in",
             required = true,
-            usage = "Arpa input file.")
+            usage = "Arpa input file or an uncompressed binary model directory generated by TrainLm.")
     public File arpaFile;
 
     @Option(name = "-out",
@@ -53,6 +54,24 @@ public class CompressLm extends CommandLineApplication {
                     "value is 4 digits.")
     public int fractionDigits = 4;
 
+    @Option(name = "-threadCount",
+            usage = "Amount of threads used for generating hash functions. Each thread keeps the keys of a " +
+                    "2^chunkBits n-gram segment and its hash structures in memory, so peak memory usage grows " +
+                    "linearly with this value and it is not limited by -memoryBudget. Default is 1. Result does " +
+                    "not depend on this value.")
+    public int threadCount = 1;
+
+    @Option(name = "-memoryBudget",
+            usage = "Approximate amount of memory in megabytes used for ordering n-gram data. If data does not fit, " +
+                    "it is partitioned through temporary files. Default is 1024.")
+    public int memoryBudget = 1024;
+
+    @Option(name = "-filterBits",
+            usage = "If larger than 0, a Bloom filter with this amount of bits per n-gram is added to the model for " +
+                    "each order larger than 1. Filters reject most absent n-grams quickly and reduce false positives. " +
+                    "10 bits gives about 1% false positive rate. Default is 0, no filter is generated.")
+    public int filterBits = 0;
+
     private int[] spaceUsage = new int[3];
 
     @Override
@@ -65,7 +84,7 @@ public class CompressLm extends CommandLineApplication {
     @Override
     protected void run() throws IOException {
         Preconditions.checkArgument(arpaFile.exists(), arpaFile + " does not exist. ");
-        Log.info("Arpa file to convert:" + arpaFile);
+        Log.info("Model to convert:" + arpaFile);
 
         if (tmpDir == null) {
             tmpDir = com.google.common.io.Files.createTempDir();
@@ -98,9 +117,21 @@ public class CompressLm extends CommandLineApplication {
         Preconditions.checkArgument(chunkBits >= 16 && chunkBits <= 31,
                 "Unexpected chunkBits value. Value must be between 16 to 31. But it is : " + chunkBits);
 
-        UncompressedToSmoothLmConverter converter = new UncompressedToSmoothLmConverter(compressedLmFile, tmpDir);
+        Preconditions.checkArgument(threadCount > 0,
+                "Unexpected threadCount value. Value must be positive. But it is : " + threadCount);
+
+        Preconditions.checkArgument(memoryBudget > 0,
+                "Unexpected memoryBudget value. Value must be positive. But it is : " + memoryBudget);
+
+        Preconditions.checkArgument(filterBits >= 0,
+                "Unexpected filterBits value. Value cannot be negative. But it is : " + filterBits);
+
+        UncompressedToSmoothLmConverter converter = new UncompressedToSmoothLmConverter(
+                compressedLmFile, tmpDir, threadCount, memoryBudget * (1L << 20)).ngramFilter(filterBits);
+        File uncompressedDir = arpaFile.isDirectory() ? arpaFile :
+                MultiFileUncompressedLm.generate(arpaFile, tmpDir, "utf-8", fractionDigits, textConverter).getLmDir();
         converter.convertLarge(
-                MultiFileUncompressedLm.generate(arpaFile, tmpDir, "utf-8", fractionDigits, textConverter).getLmDir(),
+                uncompressedDir,
                 new UncompressedToSmoothLmConverter.NgramDataBlock(spaceUsage[0], spaceUsage[1], spaceUsage[2]),
                 chunkBits);
     }
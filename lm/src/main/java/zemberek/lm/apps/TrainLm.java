@@ -0,0 +1,76 @@
+package zemberek.lm.apps;
+
+import com.google.common.base.Preconditions;
+import org.kohsuke.args4j.Option;
+import zemberek.core.CommandLineApplication;
+import zemberek.core.io.LineIterator;
+import zemberek.core.io.SimpleTextReader;
+import zemberek.core.logging.Log;
+import zemberek.lm.estimation.KneserNeyTrainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A command line utility for training a modified Kneser-Ney language model from a tokenized corpus. Output is an
+ * uncompressed binary model directory that can be given to CompressLm as input.
+ * Run the main method to see the options.
+ */
+public class TrainLm extends CommandLineApplication {
+
+    @Option(name = "-corpus",
+            required = true,
+            usage = "UTF-8 corpus file with one tokenized sentence per line.")
+    public File corpus;
+
+    @Option(name = "-out",
+            required = true,
+            usage = "Output directory for the uncompressed binary model.")
+    public File outDir;
+
+    @Option(name = "-order",
+            usage = "Order of the model. Default is 3.")
+    public int order = 3;
+
+    @Option(name = "-tmpDir",
+            usage = "Temporary folder for intermediate files. " +
+                    "Operating System's temporary dir with a random folder is used by default.")
+    public File tmpDir;
+
+    @Option(name = "-memoryBudget",
+            usage = "Approximate amount of memory in megabytes used for sorting n-grams. If data does not fit, " +
+                    "it is sorted through temporary files. Default is 256.")
+    public int memoryBudget = 256;
+
+    @Override
+    public String getDescription() {
+        return "This application trains a modified Kneser-Ney language model from a tokenized corpus.";
+    }
+
+    @Override
+    protected void run() throws IOException {
+        Preconditions.checkArgument(corpus.exists(), corpus + " does not exist. ");
+        Preconditions.checkArgument(order > 1,
+                "Unexpected order value. Value must be larger than 1. But it is : " + order);
+        Preconditions.checkArgument(memoryBudget > 0,
+                "Unexpected memoryBudget value. Value must be positive. But it is : " + memoryBudget);
+
+        if (tmpDir == null) {
+            tmpDir = com.google.common.io.Files.createTempDir();
+            tmpDir.deleteOnExit();
+            Log.info(("Using temporary directory: " + tmpDir));
+        } else {
+            Files.createDirectories(tmpDir.toPath());
+        }
+        KneserNeyTrainer trainer = new KneserNeyTrainer(order, tmpDir, memoryBudget * (1L << 20));
+        try (LineIterator lines = SimpleTextReader.trimmingUTF8LineIterator(corpus)) {
+            trainer.train(() -> lines, outDir);
+        }
+        Log.info("Model is written to %s", outDir);
+    }
+
+    public static void main(String[] args) {
+        new TrainLm().execute(args);
+    }
+}
@@ -1,15 +1,23 @@
 package zemberek.lm.compression;
 
+import zemberek.core.io.MappedFileReader;
+
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
-public class GramDataArray {
+/**
+ * Holds fingerprint, probability rank and backoff rank data of n-grams in fixed size blocks.
+ * Data is either loaded to the heap with {@link #load(DataInputStream)}, or it is read directly from a memory mapped
+ * file with {@link #map(MappedFileReader)}. Implementation is chosen once when data is loaded, so accessors do not
+ * check where the data resides.
+ */
+public abstract class GramDataArray {
     int count; // gram count
 
-    int blockSize; // defines the size of the key data. Such as if 3 bytes FP, 2 bytes Prob , 2 Bytes Backoff blockSize = 7
+    final int blockSize; // defines the size of the key data. Such as if 3 bytes FP, 2 bytes Prob , 2 Bytes Backoff blockSize = 7
     final int pageShift; // for getting the page index value this amount of left shift is used. page index value resides on higher bits.
     final int indexMask; // used for obtaining the actual index of the key block.
-    byte[][] data; // holds the actual data. [page count][page length * block size ] bytes
     private static final int MAX_BUF = 0x3fffffff;
     final int fpSize; // length of fingerprint in bytes
     final int fpMask; // to access fingerprint data length in bytes.
@@ -28,101 +36,66 @@ public class GramDataArray {
         else return i;
     }
 
-    public GramDataArray(DataInputStream dis) throws IOException {
+    private GramDataArray(DataInputStream dis) throws IOException {
         count = dis.readInt();
-        this.fpSize = dis.readInt();
-        this.probSize = dis.readInt();
-        this.backoffSize = dis.readInt();
+        this.fpSize = checkSize(dis.readInt());
+        this.probSize = checkSize(dis.readInt());
+        this.backoffSize = checkSize(dis.readInt());
 
-        if (fpSize == 4)
-            fpMask = 0xffffffff;
-        else
-            fpMask = (1 << (fpSize * 8)) - 1;
+        fpMask = mask(fpSize);
 
         blockSize = fpSize + probSize + backoffSize;
         int pageLength = getPowerOf2(MAX_BUF / blockSize, MAX_BUF / blockSize);
         pageShift = 32 - Integer.numberOfLeadingZeros(pageLength - 1);
-        indexMask = (1 << pageShift - 1) - 1;
-        long l = 0;
-        int pageCounter = 0;
-        while (l < count * blockSize) {
-            pageCounter++;
-            l += (pageLength * blockSize);
-        }
-        data = new byte[pageCounter][];
-        int total = 0;
-        for (int i = 0; i < pageCounter; i++) {
-            if (i < pageCounter - 1) {
-                data[i] = new byte[pageLength * blockSize];
-                total += pageLength * blockSize;
-            } else
-                data[i] = new byte[count * blockSize - total];
-            dis.readFully(data[i]);
+        indexMask = (1 << pageShift) - 1;
+    }
+
+    private static int checkSize(int size) {
+        if (size < 0 || size > 4) {
+            throw new IllegalArgumentException("Field size must be between 0 and 4 bytes but it is " + size);
         }
+        return size;
     }
 
-    public int getFingerPrint(int index) {
-        final int pageIndex = (index & indexMask) * blockSize;
-        byte[] d = data[index >>> pageShift];
-        switch (fpSize) {
-            case 1:
-                return d[pageIndex] & 0xff;
-            case 2:
-                return ((d[pageIndex] & 0xff) << 8) |
-                        (d[pageIndex + 1] & 0xff);
-            case 3:
-                return ((d[pageIndex] & 0xff) << 16) |
-                        ((d[pageIndex + 1] & 0xff) << 8) |
-                        (d[pageIndex + 2] & 0xff);
-            case 4:
-                return ((d[pageIndex] & 0xff) << 24) |
-                        ((d[pageIndex + 1] & 0xff) << 16) |
-                        ((d[pageIndex + 2] & 0xff) << 8) |
-                        (d[pageIndex + 3] & 0xff);
-        }
-        return -1;
+    private static int mask(int size) {
+        return size == 4 ? 0xffffffff : (1 << (size * 8)) - 1;
     }
 
-    public boolean checkFingerPrint(int fpToCheck_, int globalIndex) {
-        final int fpToCheck = fpToCheck_ & fpMask;
-        final int pageIndex = (globalIndex & indexMask) * blockSize;
-        byte[] d = data[globalIndex >>> pageShift];
-        switch (fpSize) {
-            case 1:
-                return fpToCheck == (d[pageIndex] & 0xff);
-            case 2:
-                return (fpToCheck >>> 8 == (d[pageIndex] & 0xff)) && ((fpToCheck & 0xff) == (d[pageIndex + 1] & 0xff));
-            case 3:
-                return (fpToCheck >>> 16 == (d[pageIndex] & 0xff)) &&
-                        ((fpToCheck >>> 8 & 0xff) == (d[pageIndex + 1] & 0xff)) &&
-                        ((fpToCheck & 0xff) == (d[pageIndex + 2] & 0xff));
-            case 4:
-                return (fpToCheck >>> 24 == (d[pageIndex] & 0xff)) &&
-                        ((fpToCheck >>> 16 & 0xff) == (d[pageIndex + 1] & 0xff)) &&
-                        ((fpToCheck >>> 8 & 0xff) == (d[pageIndex + 2] & 0xff)) &&
-                        ((fpToCheck & 0xff) == (d[pageIndex + 3] & 0xff));
-            default:
-                throw new IllegalStateException("fpSize must be between 1 and 4");
-        }
+    int pageCount() {
+        long pageBytes = (long) (indexMask + 1) * blockSize;
+        return (int) (((long) count * blockSize + pageBytes - 1) / pageBytes);
     }
 
-    public int getProbabilityRank(int index) {
-        final int pageId = index >>> pageShift;
-        final int pageIndex = (index & indexMask) * blockSize + fpSize;
-        byte[] d = data[pageId];
-        switch (probSize) {
-            case 1:
-                return d[pageIndex] & 0xff;
-            case 2:
-                return ((d[pageIndex] & 0xff) << 8) |
-                        (d[pageIndex + 1] & 0xff);
-            case 3:
-                return ((d[pageIndex] & 0xff) << 16) |
-                        ((d[pageIndex + 1] & 0xff) << 8) | (d[pageIndex + 2] & 0xff);
-        }
-        return -1;
+    // amount of data bytes in the page.
+    int pageDataLength(int page) {
+        long pageBytes = (long) (indexMask + 1) * blockSize;
+        return (int) Math.min(pageBytes, (long) count * blockSize - page * pageBytes);
+    }
+
+    /**
+     * Loads gram data to the heap.
+     */
+    public static GramDataArray load(DataInputStream dis) throws IOException {
+        return new Heap(dis);
     }
 
+    /**
+     * Creates the array with data that is read directly from the memory mapped file.
+     *
+     * @param reader memory mapped file reader positioned at the start of the gram data.
+     */
+    public static GramDataArray map(MappedFileReader reader) throws IOException {
+        return new Mapped(reader);
+    }
+
+    public abstract boolean isMemoryMapped();
+
+    public abstract int getFingerPrint(int index);
+
+    public abstract boolean checkFingerPrint(int fpToCheck, int globalIndex);
+
+    public abstract int getProbabilityRank(int index);
+
     /**
      * loads fingerprint, probability and backoff values to a single integer.
      * this is only applicaple when 16 bit fingerprint and 8 bits quantized prob-backoff values are used.
@@ -131,31 +104,149 @@ public class GramDataArray {
      * @return integer carrying all fingerprint, probability and backoff value. structure is:
      *         [fingerprint|probability rank|backoff rank]
      */
-    public int getCompact(int index) {
-        final int pageIndex = (index & indexMask) * blockSize;
-        final byte[] d = data[index >>> pageShift];
-        return ((d[pageIndex] & 0xff) << 24) |
-                ((d[pageIndex + 1] & 0xff) << 16) |
-                ((d[pageIndex + 2] & 0xff) << 8) |
-                (d[pageIndex + 3] & 0xff);
-    }
+    public abstract int getCompact(int index);
+
+    public abstract int getBackoffRank(int index);
+
+    abstract void load(int index, byte[] buff);
+
+    /**
+     * Keeps data in byte arrays. Fields are read byte by byte, as single byte reads of small fields are faster than
+     * assembling an int from a byte array.
+     */
+    static final class Heap extends GramDataArray {
+        private final byte[][] data; // [page count][page length * block size] bytes
+
+        private Heap(DataInputStream dis) throws IOException {
+            super(dis);
+            data = new byte[pageCount()][];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = new byte[pageDataLength(i)];
+                dis.readFully(data[i]);
+            }
+        }
+
+        // reads big endian unsigned integer of [size] bytes. Returns -1 if size is 0.
+        private static int read(byte[] d, int offset, int size) {
+            switch (size) {
+                case 1:
+                    return d[offset] & 0xff;
+                case 2:
+                    return ((d[offset] & 0xff) << 8) | (d[offset + 1] & 0xff);
+                case 3:
+                    return ((d[offset] & 0xff) << 16) | ((d[offset + 1] & 0xff) << 8) | (d[offset + 2] & 0xff);
+                case 4:
+                    return ((d[offset] & 0xff) << 24) | ((d[offset + 1] & 0xff) << 16) |
+                            ((d[offset + 2] & 0xff) << 8) | (d[offset + 3] & 0xff);
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean isMemoryMapped() {
+            return false;
+        }
 
-    public int getBackoffRank(int index) {
-        final int pageId = index >>> pageShift;
-        final int pageIndex = (index & indexMask) * blockSize + fpSize + probSize;
-        byte[] d = data[pageId];
-        switch (backoffSize) {
-            case 1:
-                return d[pageIndex] & 0xff;
-            case 2:
-                return ((d[pageIndex] & 0xff) << 8) | (d[pageIndex + 1] & 0xff);
-            case 3:
-                return ((d[pageIndex] & 0xff) << 16) | ((d[pageIndex + 1] & 0xff) << 8) | (d[pageIndex + 2] & 0xff);
-        }
-        return -1;
+        @Override
+        public int getFingerPrint(int index) {
+            return read(data[index >>> pageShift], (index & indexMask) * blockSize, fpSize);
+        }
+
+        @Override
+        public boolean checkFingerPrint(int fpToCheck, int globalIndex) {
+            return (fpToCheck & fpMask) == read(data[globalIndex >>> pageShift], (globalIndex & indexMask) * blockSize,
+                    fpSize);
+        }
+
+        @Override
+        public int getProbabilityRank(int index) {
+            return read(data[index >>> pageShift], (index & indexMask) * blockSize + fpSize, probSize);
+        }
+
+        @Override
+        public int getCompact(int index) {
+            return read(data[index >>> pageShift], (index & indexMask) * blockSize, 4);
+        }
+
+        @Override
+        public int getBackoffRank(int index) {
+            return read(data[index >>> pageShift], (index & indexMask) * blockSize + fpSize + probSize, backoffSize);
+        }
+
+        @Override
+        void load(int index, byte[] buff) {
+            System.arraycopy(data[index >>> pageShift], (index & indexMask) * blockSize, buff, 0, blockSize);
+        }
     }
 
-    void load(int index, byte[] buff) {
-        System.arraycopy(data[index >>> pageShift], (index & indexMask) * blockSize, buff, 0, blockSize);
+    /**
+     * Reads data from memory mapped file. Every page view starts {@link #PAD} bytes before the page data, so a field
+     * of any size is read with a single big endian int read that ends at the last byte of the field. Bytes before the
+     * field are masked out.
+     */
+    static final class Mapped extends GramDataArray {
+        static final int PAD = 4;
+        // read only views of the mapped file. Header of the gram data or the previous page is used as padding.
+        private final ByteBuffer[] buffers;
+        // int reads of probability and backoff ranks start at [block offset + field end].
+        private final int probEnd;
+        private final int probMask;
+        private final int backoffMask;
+        private final int backoffEmpty; // -1 if there is no backoff data, otherwise 0.
+
+        private Mapped(MappedFileReader reader) throws IOException {
+            super(new DataInputStream(reader));
+            probEnd = fpSize + probSize;
+            probMask = mask(probSize);
+            backoffMask = mask(backoffSize);
+            backoffEmpty = backoffSize == 0 ? -1 : 0;
+            buffers = new ByteBuffer[pageCount()];
+            for (int i = 0; i < buffers.length; i++) {
+                int length = pageDataLength(i);
+                buffers[i] = reader.view(reader.position() - PAD, PAD + length);
+                reader.skip(length);
+            }
+        }
+
+        @Override
+        public boolean isMemoryMapped() {
+            return true;
+        }
+
+        @Override
+        public int getFingerPrint(int index) {
+            return buffers[index >>> pageShift].getInt((index & indexMask) * blockSize + fpSize) & fpMask;
+        }
+
+        @Override
+        public boolean checkFingerPrint(int fpToCheck, int globalIndex) {
+            int value = buffers[globalIndex >>> pageShift].getInt((globalIndex & indexMask) * blockSize + fpSize);
+            return ((fpToCheck ^ value) & fpMask) == 0;
+        }
+
+        @Override
+        public int getProbabilityRank(int index) {
+            return buffers[index >>> pageShift].getInt((index & indexMask) * blockSize + probEnd) & probMask;
+        }
+
+        @Override
+        public int getCompact(int index) {
+            return buffers[index >>> pageShift].getInt((index & indexMask) * blockSize + PAD);
+        }
+
+        @Override
+        public int getBackoffRank(int index) {
+            return (buffers[index >>> pageShift].getInt((index & indexMask) * blockSize + blockSize) & backoffMask)
+                    | backoffEmpty;
+        }
+
+        @Override
+        void load(int index, byte[] buff) {
+            ByteBuffer buffer = buffers[index >>> pageShift];
+            int start = PAD + (index & indexMask) * blockSize;
+            for (int i = 0; i < blockSize; i++) {
+                buff[i] = buffer.get(start + i);
+            }
+        }
     }
 }
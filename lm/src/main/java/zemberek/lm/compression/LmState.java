@@ -0,0 +1,80 @@
+package zemberek.lm.compression;
+
+import java.util.Arrays;
+
+/**
+ * Left-to-right scoring state of a SmoothLm. It holds the most recent words that form the longest n-gram
+ * of the model ending at the last scored word, and the back-off values of its suffixes. State is obtained from
+ * SmoothLm.beginSentenceState() or SmoothLm.nullContextState() and advanced with SmoothLm.score() methods.
+ * <p>
+ * Because a longer context cannot exist in the model if its prefix does not exist, n-grams that are longer than
+ * the matched context are not looked up. Back-off values are looked up only when they are needed and then kept
+ * in the state. So instances should not be shared between threads.
+ */
+public final class LmState {
+
+    // words[order - 1 - k .. order - 1) are the last k words, oldest first. Last slot is used for the scored word.
+    final int[] words;
+    // backoffs[k] is the log back-off of the k-gram ending at the last word. NaN if it is not looked up yet.
+    final float[] backoffs;
+    // amount of words in context that form an n-gram existing in the model.
+    int length;
+    // amount of words seen so far, maximum order - 1.
+    int historyLength;
+    // log probability of the last scored word.
+    float score;
+
+    LmState(int order) {
+        this.words = new int[order];
+        this.backoffs = new float[order];
+        Arrays.fill(backoffs, Float.NaN);
+    }
+
+    /**
+     * @return log probability of the last word scored for reaching this state.
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * @return amount of context words that will be used for scoring the next word.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return word indexes of the context, oldest first.
+     */
+    public int[] getContext() {
+        return Arrays.copyOfRange(words, words.length - 1 - length, words.length - 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LmState state = (LmState) o;
+        if (words.length != state.words.length || length != state.length || historyLength != state.historyLength)
+            return false;
+        for (int i = words.length - 1 - length; i < words.length - 1; i++) {
+            if (words[i] != state.words[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * length + historyLength;
+        for (int i = words.length - 1 - length; i < words.length - 1; i++) {
+            result = 31 * result + words[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(getContext()) + " score=" + score;
+    }
+}
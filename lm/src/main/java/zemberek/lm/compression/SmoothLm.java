@@ -3,6 +3,7 @@ package zemberek.lm.compression;
 import zemberek.core.hash.LargeNgramMphf;
 import zemberek.core.hash.Mphf;
 import zemberek.core.hash.MultiLevelMphf;
+import zemberek.core.io.MappedFileReader;
 import zemberek.core.logging.Log;
 import zemberek.core.math.LogMath;
 import zemberek.core.quantization.FloatLookup;
@@ -43,6 +44,8 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
     private final FloatLookup[] probabilityLookups;
     private final FloatLookup[] backoffLookups;
     private final GramDataArray[] ngramData;
+    // optional n-gram filters for orders larger than 1. null if model does not have them.
+    private final NgramFilter[] filters;
 
     private float[] unigramProbs;
     private float[] unigramBackoffs;
@@ -59,6 +62,8 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
     private float stupidBackoffAlpha;
     private boolean countFalsePositives;
 
+    private volatile SharedLookupCache sharedCache;
+
     int falsePositiveCount;
 
     // used for debug purposes for calculation false-positive ratio.
@@ -72,6 +77,7 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
      * <p>Default unigram weight = 1
      * <p>Use Stupid Backoff = false
      * <p>Stupid Backoff alpha value = 0.4
+     * <p>Memory mapping = false
      */
     public static class Builder {
         private float _logBase = DEFAULT_LOG_BASE;
@@ -79,15 +85,35 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         private float _unigramWeight = DEFAULT_UNIGRAM_WEIGHT;
         private boolean _useStupidBackoff = false;
         private float _stupidBackoffAlpha = DEFAULT_STUPID_BACKOFF_ALPHA;
-        private DataInputStream _dis;
+        private InputStream _is;
+        private File _file;
+        private boolean _useMemoryMap = false;
         private File _ngramIds;
 
         public Builder(InputStream is) {
-            this._dis = new DataInputStream(new BufferedInputStream(is));
+            this._is = is;
         }
 
         public Builder(File file) throws FileNotFoundException {
-            this._dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!file.exists()) {
+                throw new FileNotFoundException("Language model file " + file + " does not exist.");
+            }
+            this._file = file;
+        }
+
+        /**
+         * Model file is memory mapped instead of being loaded to the heap. N-gram data and MPHF arrays are read
+         * directly from the mapped file, so loading is almost instant, and mapped pages are shared between processes
+         * using the same model through the operating system page cache. Unigram data, quantization lookups and the
+         * vocabulary are still loaded to the heap. Only available if model is loaded from a file.
+         */
+        public Builder useMemoryMap() {
+            return useMemoryMap(true);
+        }
+
+        public Builder useMemoryMap(boolean useMemoryMap) {
+            this._useMemoryMap = useMemoryMap;
+            return this;
         }
 
         public Builder logBase(double logBase) {
@@ -126,8 +152,22 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         }
 
         public SmoothLm build() throws IOException {
+            DataInputStream dis;
+            MappedFileReader reader = null;
+            if (_useMemoryMap) {
+                if (_file == null) {
+                    throw new IllegalStateException("Memory mapping is only available for models loaded from a file.");
+                }
+                reader = new MappedFileReader(_file);
+                dis = new DataInputStream(reader);
+            } else if (_file != null) {
+                dis = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+            } else {
+                dis = new DataInputStream(new BufferedInputStream(_is));
+            }
             return new SmoothLm(
-                    _dis,
+                    dis,
+                    reader,
                     _logBase,
                     _unigramWeight,
                     _unknownBackoffPenalty,
@@ -147,13 +187,14 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
 
     private SmoothLm(
             DataInputStream dis,
+            MappedFileReader reader,
             float logBase,
             float unigramWeight,
             float unknownBackoffPenalty,
             boolean useStupidBackoff,
             float stupidBackoffAlpha,
             File ngramKeyFileDir) throws IOException {
-        this(dis); // load the lm data.
+        this(dis, reader); // load the lm data.
         // Now apply necessary transformations and configurations
         this.unigramWeight = unigramWeight;
         this.unknownBackoffPenalty = unknownBackoffPenalty;
@@ -208,6 +249,7 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
                     gramDataArray.probSize * 8,
                     gramDataArray.backoffSize * 8));
         }
+        sb.append(format(ENGLISH, "N-gram filters        : %s%n", filters != null ? "Yes" : "No"));
         sb.append(format(ENGLISH, "Log Base              : %.2f%n", logBase));
         sb.append(format(ENGLISH, "Unigram Weight        : %.2f%n", unigramWeight));
         sb.append(format(ENGLISH, "Using Stupid Back-off?: %s%n", useStupidBackoff ? "Yes" : "No"));
@@ -225,7 +267,11 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         return stupidBackoffLogAlpha;
     }
 
-    private SmoothLm(DataInputStream dis) throws IOException {
+    /**
+     * Loads the model data. If reader is not null, dis must read from it and gram data and MPHFs are not loaded
+     * to the heap but they use the memory mapped file.
+     */
+    private SmoothLm(DataInputStream dis, MappedFileReader reader) throws IOException {
 
         this.version = dis.readInt();
         int typeInt = dis.readInt();
@@ -258,7 +304,7 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         //load fingerprint, probability and backoff data.
         ngramData = new GramDataArray[order + 1];
         for (int i = 1; i <= order; i++) {
-            ngramData[i] = new GramDataArray(dis);
+            ngramData[i] = reader == null ? GramDataArray.load(dis) : GramDataArray.map(reader);
         }
 
         // we take the unigram probability data out to get rid of rank look-ups for speed.
@@ -276,18 +322,21 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         if (type == MphfType.LARGE) {
             mphfs = new LargeNgramMphf[order + 1];
             for (int i = 2; i <= order; i++) {
-                mphfs[i] = LargeNgramMphf.deserialize(dis);
+                mphfs[i] = reader == null ? LargeNgramMphf.deserialize(dis) : LargeNgramMphf.deserialize(reader);
             }
         } else {
             mphfs = new MultiLevelMphf[order + 1];
             for (int i = 2; i <= order; i++) {
-                mphfs[i] = MultiLevelMphf.deserialize(dis);
+                mphfs[i] = reader == null ? MultiLevelMphf.deserialize(dis) : MultiLevelMphf.deserialize(reader);
             }
         }
 
         // load vocabulary
         vocabulary = LmVocabulary.loadFromDataInputStream(dis);
 
+        // n-gram filters are optional and they are written after the vocabulary.
+        filters = loadFilters(dis, reader);
+
         // in case special tokens that does not exist in the actual unigrams are added (such as <unk>)
         // we adjust unigram data accordingly.
         int vocabularySize = vocabulary.size();
@@ -304,6 +353,38 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         dis.close();
     }
 
+    private NgramFilter[] loadFilters(DataInputStream dis, MappedFileReader reader) throws IOException {
+        int filterCount;
+        try {
+            filterCount = dis.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (filterCount != order - 1) {
+            throw new IOException("Unexpected n-gram filter count " + filterCount + " for order " + order);
+        }
+        NgramFilter[] result = new NgramFilter[order + 1];
+        for (int i = 2; i <= order; i++) {
+            result[i] = reader == null ? NgramFilter.deserialize(dis) : NgramFilter.deserialize(reader);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if model has n-gram filters. If it has, absent n-grams are mostly rejected by filters without
+     * evaluating the MPHF and fingerprint.
+     */
+    public boolean hasNgramFilters() {
+        return filters != null;
+    }
+
+    /**
+     * Returns true if n-gram data of this model is read from a memory mapped file.
+     */
+    public boolean isMemoryMapped() {
+        return ngramData[1].isMemoryMapped();
+    }
+
     public int getVersion() {
         return version;
     }
@@ -331,6 +412,24 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         return new LookupCache(this);
     }
 
+    /**
+     * returns the SharedLookupCache instance of this model. It is created with 2^20 slots when this method is called
+     * for the first time. Same instance is returned for all callers, so threads decoding with this model can share
+     * cached values.
+     */
+    public SharedLookupCache getSharedCache() {
+        SharedLookupCache cache = sharedCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = sharedCache;
+                if (cache == null) {
+                    sharedCache = cache = new SharedLookupCache(this);
+                }
+            }
+        }
+        return cache;
+    }
+
     /**
      * returns an LookupCache instance with 2^[bits] slots.
      * It is generally faster to use the cache's check(int...) method for getting probability of a word sequence.
@@ -364,6 +463,9 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         if (order == 1) {
             return wordIndexes[0] >= 0 && wordIndexes[0] < unigramProbs.length;
         }
+        if (filters != null && !filters[order].mightContain(wordIndexes)) {
+            return false;
+        }
         int quickHash = MultiLevelMphf.hash(wordIndexes, -1);
         int index = mphfs[order].get(wordIndexes, quickHash);
         if (ngramIds == null) {
@@ -384,6 +486,9 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         if (ng == 1) {
             return unigramProbs[wordIndexes[0]];
         }
+        if (filters != null && !filters[ng].mightContain(wordIndexes)) {
+            return LogMath.LOG_ZERO;
+        }
 
         int quickHash = MultiLevelMphf.hash(wordIndexes, -1);
 
@@ -404,6 +509,9 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
      * @return dequantized log probability of the n-gram. if n-gram does not exist, it returns LOG_ZERO
      */
     public float getBigramProbabilityValue(int w0, int w1) {
+        if (filters != null && !filters[2].mightContain(w0, w1)) {
+            return LogMath.LOG_ZERO_FLOAT;
+        }
 
         int quickHash = MultiLevelMphf.hash(w0, w1, -1);
 
@@ -440,6 +548,9 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         if (ng == 1) {
             return unigramBackoffs[wordIndexes[0]];
         }
+        if (filters != null && !filters[ng].mightContain(wordIndexes)) {
+            return unknownBackoffPenalty;
+        }
         final int quickHash = MultiLevelMphf.hash(wordIndexes, -1);
 
         final int nGramIndex = mphfs[ng].get(wordIndexes, quickHash);
@@ -462,6 +573,9 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
     public float getBigramBackoffValue(int w0, int w1) {
         if (useStupidBackoff)
             return stupidBackoffLogAlpha;
+        if (filters != null && !filters[2].mightContain(w0, w1)) {
+            return unknownBackoffPenalty;
+        }
         final int quickHash = MultiLevelMphf.hash(w0, w1, -1);
 
         final int nGramIndex = mphfs[2].get(w0, w1, quickHash);
@@ -566,9 +680,8 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         int gram = n;
         while (gram > 1) {
             // try to find P(N|begin..N-1)
-            int fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, n, -1);
-            int nGramIndex = mphfs[gram].get(wordIndexes, begin, n, fingerPrint);
-            if (!ngramData[gram].checkFingerPrint(fingerPrint, nGramIndex)) { // if there is no probability value, back off to B(begin..N-1)
+            int nGramIndex = findIndex(wordIndexes, begin, n);
+            if (nGramIndex == NOT_FOUND) { // if there is no probability value, back off to B(begin..N-1)
                 if (useStupidBackoff) {
                     if (gram == 2)
                         return result + unigramProbs[wordIndexes[n - 1]] + stupidBackoffLogAlpha;
@@ -578,9 +691,8 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
                     if (gram == 2) {  // we are already backed off to unigrams because no bigram found. So we return only P(N)+B(N-1)
                         return result + unigramProbs[wordIndexes[n - 1]] + unigramBackoffs[wordIndexes[begin]];
                     }
-                    fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, n - 1, -1);
-                    nGramIndex = mphfs[gram - 1].get(wordIndexes, begin, n - 1, fingerPrint);
-                    if (ngramData[gram - 1].checkFingerPrint(fingerPrint, nGramIndex)) { //if backoff available, we add it to result.
+                    nGramIndex = findIndex(wordIndexes, begin, n - 1);
+                    if (nGramIndex != NOT_FOUND) { //if backoff available, we add it to result.
                         result += backoffLookups[gram - 1].get(ngramData[gram - 1].getBackoffRank(nGramIndex));
                     } else
                         result += unknownBackoffPenalty;
@@ -625,6 +737,9 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
      * @return log probability.
      */
     public float getTriGramProbability(int w0, int w1, int w2, int fingerPrint) {
+        if (filters != null && !filters[3].mightContain(w0, w1, w2)) {
+            return getBigramBackoffValue(w0, w1) + getBigramProbability(w1, w2);
+        }
         int nGramIndex = mphfs[3].get(w0, w1, w2, fingerPrint);
         if (!ngramData[3].checkFingerPrint(fingerPrint, nGramIndex)) { //3 gram does not exist.
             return getBigramBackoffValue(w0, w1) + getBigramProbability(w1, w2);
@@ -635,13 +750,230 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
      * @return log probability.
      */
     public float getTriGramProbability(int... w) {
-        int fingerPrint = MultiLevelMphf.hash(w, -1);
-        int nGramIndex = mphfs[3].get(w, fingerPrint);
-        if (!ngramData[3].checkFingerPrint(fingerPrint, nGramIndex)) { //3 gram does not exist.
+        int nGramIndex = findIndex(w, 0, 3);
+        if (nGramIndex == NOT_FOUND) { //3 gram does not exist.
             return getBigramBackoffValue(w[0], w[1]) + getBigramProbability(w[1], w[2]);
         } else return probabilityLookups[3].get(ngramData[3].getProbabilityRank(nGramIndex));
     }
 
+    // markers used in n-gram index caches of batch probability calculations.
+    private static final int NOT_PROBED = -2;
+    private static final int NOT_FOUND = -1;
+
+    // returns the index of n-gram data[begin..end) in its gram data, or NOT_FOUND if it does not exist.
+    private int findIndex(int[] data, int begin, int end) {
+        final int gram = end - begin;
+        if (filters != null && !filters[gram].mightContain(data, begin, end)) {
+            return NOT_FOUND;
+        }
+        final int fingerPrint = MultiLevelMphf.hash(data, begin, end, -1);
+        final int index = mphfs[gram].get(data, begin, end, fingerPrint);
+        return ngramData[gram].checkFingerPrint(fingerPrint, index) ? index : NOT_FOUND;
+    }
+
+    /**
+     * Calculates log probabilities of n-grams that are given consecutively in a flat array.
+     * Result is identical to calling getProbability for each n-gram but no array is allocated per n-gram.
+     *
+     * @param ngrams   word indexes of the n-grams. Length must be a multiple of gramSize.
+     * @param gramSize length of each n-gram. It must be between 1 and order.
+     * @param result   log probability of i-th n-gram is written to i-th slot. It must have at least
+     *                 ngrams.length / gramSize slots.
+     */
+    public void getProbabilities(int[] ngrams, int gramSize, float[] result) {
+        if (gramSize < 1 || gramSize > order) {
+            throw new IllegalArgumentException("Gram size must be between 1 and " + order + " But it is " + gramSize);
+        }
+        if (ngrams.length % gramSize != 0) {
+            throw new IllegalArgumentException("Array length " + ngrams.length +
+                    " is not a multiple of gram size " + gramSize);
+        }
+        final int count = ngrams.length / gramSize;
+        if (result.length < count) {
+            throw new IllegalArgumentException("Result array length " + result.length +
+                    " is smaller than n-gram count " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            int begin = i * gramSize;
+            result[i] = windowProbability(ngrams, begin, begin + gramSize, null, null);
+        }
+    }
+
+    /**
+     * Calculates log probability of each word of a sentence given the words before it. Value of i-th slot is
+     * the probability of the n-gram that ends with i-th word and has min(i + 1, order) words. So result is
+     * identical to calling getProbability for each sliding window of the sentence. Because windows overlap,
+     * an n-gram that is looked up for a window is not looked up again when its back-off value is needed for the next
+     * window.
+     *
+     * @param sentence word indexes of the sentence.
+     * @param result   log probabilities of words. It must have at least sentence.length slots.
+     */
+    public void getSentenceProbabilities(int[] sentence, float[] result) {
+        if (result.length < sentence.length) {
+            throw new IllegalArgumentException("Result array length " + result.length +
+                    " is smaller than sentence length " + sentence.length);
+        }
+        int[] previous = new int[order + 1];
+        int[] current = new int[order + 1];
+        Arrays.fill(previous, NOT_PROBED);
+        for (int i = 0; i < sentence.length; i++) {
+            result[i] = windowProbability(sentence, Math.max(0, i + 1 - order), i + 1, previous, current);
+            int[] tmp = previous;
+            previous = current;
+            current = tmp;
+        }
+    }
+
+    /**
+     * Calculates the probability of the n-gram words[begin..end) the same way getProbability does.
+     * If index caches are given, current[k] receives the index of the k-gram that ends at [end] (or NOT_FOUND),
+     * previous[k] is expected to hold the same information for the k-gram that ends at [end-1].
+     */
+    private float windowProbability(int[] words, int begin, int end, int[] previous, int[] current) {
+        final int n = end - begin;
+        if (current != null) {
+            Arrays.fill(current, NOT_PROBED);
+        }
+        float result = 0;
+        for (int gram = n; gram > 1; gram--) {
+            final int start = end - gram;
+            final int nGramIndex = findIndex(words, start, end);
+            final boolean found = nGramIndex != NOT_FOUND;
+            if (current != null) {
+                current[gram] = found ? nGramIndex : NOT_FOUND;
+            }
+            if (found) {
+                return result + probabilityLookups[gram].get(ngramData[gram].getProbabilityRank(nGramIndex));
+            }
+            if (useStupidBackoff) {
+                if (gram == 2)
+                    return result + unigramProbs[words[end - 1]] + stupidBackoffLogAlpha;
+                result += stupidBackoffLogAlpha;
+            } else {
+                if (gram == 2) {
+                    float backoff = unigramBackoffs[words[start]];
+                    float probability = unigramProbs[words[end - 1]];
+                    // getProbability sums trigram back-offs in a different order. It is applied here as well
+                    // so that results are bit-wise identical.
+                    return n > 3 ? result + probability + backoff : result + (backoff + probability);
+                }
+                result += contextBackoff(words, start, end - 1, previous);
+            }
+        }
+        return unigramProbs[words[end - 1]];
+    }
+
+    // back-off value of the context n-gram words[begin..end). Index found in previous window is used if available.
+    private float contextBackoff(int[] words, int begin, int end, int[] previous) {
+        final int gram = end - begin;
+        int index = previous == null ? NOT_PROBED : previous[gram];
+        if (index == NOT_PROBED) {
+            index = findIndex(words, begin, end);
+        }
+        return index == NOT_FOUND ? unknownBackoffPenalty : backoffLookups[gram].get(ngramData[gram].getBackoffRank(index));
+    }
+
+    /**
+     * @return a scoring state that has only the sentence begin symbol as context.
+     */
+    public LmState beginSentenceState() {
+        LmState state = new LmState(order);
+        state.words[order - 2] = vocabulary.getSentenceStartIndex();
+        state.length = 1;
+        state.historyLength = 1;
+        return state;
+    }
+
+    /**
+     * @return a scoring state with empty context. First word scored with this state gets its unigram probability.
+     */
+    public LmState nullContextState() {
+        return new LmState(order);
+    }
+
+    /**
+     * Scores a word with the context in state and returns the state for scoring the next word.
+     * Log probability of the word is available with getScore() of the returned state.
+     * See score(LmState, int, LmState)
+     */
+    public LmState score(LmState state, int wordIndex) {
+        LmState next = new LmState(order);
+        score(state, wordIndex, next);
+        return next;
+    }
+
+    /**
+     * Calculates the log probability of a word given the context in state, and writes the state for the next word to
+     * [out]. Scoring a token stream this way gives the same values with getProbability() calls with sliding windows
+     * of the stream. However, n-grams longer than the matched context plus the word are not looked up because
+     * they cannot exist in the model, and back-off values of the context are looked up only if they are needed.
+     * Result may only differ from getProbability() when it finds a fingerprint false positive for such an n-gram.
+     *
+     * @param state     current state. It is not modified except for caching back-off values.
+     * @param wordIndex index of the word to score.
+     * @param out       state to write the next state. It must be a different instance than [state].
+     * @return log probability of the word.
+     */
+    public float score(LmState state, int wordIndex, LmState out) {
+        if (state == out) {
+            throw new IllegalArgumentException("Input and output states must be different instances.");
+        }
+        if (state.words.length != order || out.words.length != order) {
+            throw new IllegalArgumentException("State does not belong to a model of order " + order);
+        }
+        final int[] words = out.words;
+        System.arraycopy(state.words, 0, words, 0, order - 1);
+        words[order - 1] = wordIndex;
+
+        // Contexts longer than the matched context do not exist in the model.
+        final float absentBackoff = useStupidBackoff ? stupidBackoffLogAlpha : unknownBackoffPenalty;
+        float result = (state.historyLength - state.length) * absentBackoff;
+        float probability = 0;
+        int foundGram = 1;
+        int foundIndex = NOT_FOUND;
+        for (int gram = state.length + 1; gram > 1; gram--) {
+            final int nGramIndex = findIndex(words, order - gram, order);
+            if (nGramIndex != NOT_FOUND) {
+                probability = probabilityLookups[gram].get(ngramData[gram].getProbabilityRank(nGramIndex));
+                foundGram = gram;
+                foundIndex = nGramIndex;
+                break;
+            }
+            result += useStupidBackoff ? stupidBackoffLogAlpha : stateBackoff(state, gram - 1);
+        }
+        if (foundGram == 1) {
+            probability = unigramProbs[wordIndex];
+        }
+        result += probability;
+
+        out.length = Math.min(foundGram, order - 1);
+        out.historyLength = Math.min(state.historyLength + 1, order - 1);
+        Arrays.fill(out.backoffs, Float.NaN);
+        if (foundGram < order && foundIndex != NOT_FOUND && !useStupidBackoff) {
+            out.backoffs[foundGram] = backoffLookups[foundGram].get(ngramData[foundGram].getBackoffRank(foundIndex));
+        }
+        System.arraycopy(words, 1, words, 0, order - 1);
+        out.score = result;
+        return result;
+    }
+
+    // back-off value of the k-gram that ends at the last word of the state context. It is cached in the state.
+    private float stateBackoff(LmState state, int k) {
+        float backoff = state.backoffs[k];
+        if (Float.isNaN(backoff)) {
+            if (k == 1) {
+                backoff = unigramBackoffs[state.words[order - 2]];
+            } else {
+                final int nGramIndex = findIndex(state.words, order - 1 - k, order - 1);
+                backoff = nGramIndex != NOT_FOUND ?
+                        backoffLookups[k].get(ngramData[k].getBackoffRank(nGramIndex)) : unknownBackoffPenalty;
+            }
+            state.backoffs[k] = backoff;
+        }
+        return backoff;
+    }
+
     /**
      * This method is used when calculating probability of an ngram sequence, how many times it backed off to lower order
      * n-gram calculations.
@@ -673,9 +1005,7 @@ public class SmoothLm extends BaseLanguageModel implements NgramLanguageModel {
         int gram = n;
         while (gram > 1) {
             // try to find P(N|begin..N-1)
-            int fingerPrint = MultiLevelMphf.hash(wordIndexes, begin, n, -1);
-            int nGramIndex = mphfs[gram].get(wordIndexes, begin, n, fingerPrint);
-            if (!ngramData[gram].checkFingerPrint(fingerPrint, nGramIndex)) { //  back off to B(begin..N-1)
+            if (findIndex(wordIndexes, begin, n) == NOT_FOUND) { //  back off to B(begin..N-1)
                 backoffCount++;
             } else {
                 return backoffCount;
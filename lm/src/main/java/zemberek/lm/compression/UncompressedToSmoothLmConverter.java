@@ -1,10 +1,10 @@
 package zemberek.lm.compression;
 
 import com.google.common.io.Files;
-import zemberek.core.hash.IntHashKeyProvider;
 import zemberek.core.hash.LargeNgramMphf;
 import zemberek.core.hash.Mphf;
 import zemberek.core.hash.MultiLevelMphf;
+import zemberek.core.io.MappedFileReader;
 import zemberek.core.logging.Log;
 import zemberek.core.quantization.QuantizerType;
 
@@ -13,14 +13,64 @@ import java.util.BitSet;
 
 public class UncompressedToSmoothLmConverter {
     private static final int VERSION = 1;
+    public static final long DEFAULT_MEMORY_BUDGET = 1L << 30;
+    private static final int MAX_BUF = 0x3fffffff;
+    static final int DEFAULT_MAX_OPEN_SPILL_FILES = 64;
+    private static final int MIN_SPILL_BUFFER = 1 << 9;
+    private static final int MAX_SPILL_BUFFER = 1 << 16;
+
     File lmFile;
     File tempDir;
+    int threadCount;
+    long memoryBudget;
+    int maxOpenSpillFiles = DEFAULT_MAX_OPEN_SPILL_FILES;
+    int filterBitsPerKey;
 
     int order;
 
     public UncompressedToSmoothLmConverter(File lmFile, File tempDir) {
+        this(lmFile, tempDir, 1);
+    }
+
+    /**
+     * @param threadCount amount of threads used for generating MPHFs. Each thread keeps a key segment and its hash
+     *                    structures in memory, so memory usage grows with this value. Generated model does not
+     *                    depend on this value.
+     */
+    public UncompressedToSmoothLmConverter(File lmFile, File tempDir, int threadCount) {
+        this(lmFile, tempDir, threadCount, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param threadCount  amount of threads used for generating MPHFs. Each thread keeps a key segment and its hash
+     *                     structures in memory, this is not limited by memoryBudget. Generated model does not depend
+     *                     on this value.
+     * @param memoryBudget approximate amount of bytes used for reordering n-gram data. If data of an order does not
+     *                     fit, it is partitioned through files in tempDir. Generated model does not depend on this
+     *                     value.
+     */
+    public UncompressedToSmoothLmConverter(File lmFile, File tempDir, int threadCount, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive but it is " + memoryBudget);
+        }
         this.lmFile = lmFile;
         this.tempDir = tempDir;
+        this.threadCount = threadCount;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Adds an NgramFilter for each order larger than 1 to the model. Filters are written after the vocabulary, so
+     * models with filters can still be loaded by older versions.
+     *
+     * @param bitsPerKey amount of filter bits per n-gram. 0 means no filter is generated.
+     */
+    public UncompressedToSmoothLmConverter ngramFilter(int bitsPerKey) {
+        if (bitsPerKey < 0) {
+            throw new IllegalArgumentException("Filter bits per key cannot be negative but it is " + bitsPerKey);
+        }
+        this.filterBitsPerKey = bitsPerKey;
+        return this;
     }
 
     public void convertSmall(File binaryUncompressedLmDir, NgramDataBlock block) throws IOException {
@@ -61,9 +111,9 @@ public class UncompressedToSmoothLmConverter {
             for (int i = 2; i <= order; i++) {
                 Mphf mphf;
                 if (type == SmoothLm.MphfType.LARGE)
-                    mphf = LargeNgramMphf.generate(lm.getGramFile(i), chunkBits);
+                    mphf = LargeNgramMphf.generate(lm.getGramFile(i), chunkBits, threadCount);
                 else
-                    mphf = MultiLevelMphf.generate(lm.getGramFile(i));
+                    mphf = MultiLevelMphf.generate(lm.getGramFile(i), threadCount);
                 Log.info("MPHF is generated for order %d with %d keys. Average bits per key: %.3f",
                         i,
                         mphf.size(),
@@ -106,64 +156,18 @@ public class UncompressedToSmoothLmConverter {
 
         Log.info("Reordering probability data and saving it together with n-gram fingerprints");
         for (int i = 1; i <= order; i++) {
-            InMemoryBigByteArray probData = new InMemoryBigByteArray(lm.getProbRankFile(i));
-            InMemoryBigByteArray backoffData = null;
-
-            if (i < order) {
-                backoffData = new InMemoryBigByteArray(lm.getBackoffRankFile(i));
-            }
-
-            ReorderData reorderData;
-            final int gramCount = probData.count;
-            if (i == 1) {
-                int reorderedIndexes[] = new int[gramCount];
-                for (int j = 0; j < gramCount; j++) {
-                    reorderedIndexes[j] = j;
-                }
-                reorderData = new ReorderData(reorderedIndexes, new int[0]);
-            } else {
-                if (type == SmoothLm.MphfType.LARGE) {
-                    reorderData = reorderIndexes(block, lm, i, LargeNgramMphf.deserialize(phfFiles[i]));
-                } else {
-                    reorderData = reorderIndexes(block, lm, i, MultiLevelMphf.deserialize(phfFiles[i]));
-                }
-            }
-            Log.info("Validating reordered index array for order: %d", i);
-
-            validateIndexArray(reorderData.reorderedKeyIndexes);
-
-            int fingerPrintSize = block.fingerPrintSize;
-            if (i == 1) {
-                fingerPrintSize = 0;
-            }
-            int backOffSize = block.backoffSize;
-            if (i == order) {
-                backOffSize = 0;
-            }
-
-            dos.writeInt(gramCount);
-            dos.writeInt(fingerPrintSize);
-            dos.writeInt(block.probabilitySize);
-            dos.writeInt(backOffSize);
-
-            byte[] probBuff = new byte[block.probabilitySize];
-            byte[] fpBuff = new byte[fingerPrintSize];
-            byte[] backoffBuff = new byte[backOffSize];
-
-            for (int k = 0; k < gramCount; k++) {
-                // save fingerprint values for 2,3,.. grams.
-                if (i > 1) {
-                    block.fingerprintAsBytes(reorderData.fingerprints[k], fpBuff);
-                    dos.write(fpBuff);
-                }
-                probData.get(reorderData.reorderedKeyIndexes[k], probBuff);
-                dos.write(probBuff);
-                // write backoff value if exists.
-                if (backoffData != null) {
-                    backoffData.get(reorderData.reorderedKeyIndexes[k], backoffBuff);
-                    dos.write(backoffBuff);
+            Mphf mphf = null;
+            if (i > 1) {
+                // MPHF is only used for reordering, so it is not loaded to the heap.
+                try (MappedFileReader reader = new MappedFileReader(phfFiles[i])) {
+                    if (type == SmoothLm.MphfType.LARGE) {
+                        mphf = LargeNgramMphf.deserialize(reader);
+                    } else {
+                        mphf = MultiLevelMphf.deserialize(reader);
+                    }
                 }
             }
+            writeGramData(dos, block, lm, i, mphf);
         }
 
         // append size of the Perfect hash and its content.
@@ -178,62 +182,204 @@ public class UncompressedToSmoothLmConverter {
         Log.info("Saving vocabulary.");
         Files.copy(lm.getVocabularyFile(), dos);
 
+        if (filterBitsPerKey > 0) {
+            Log.info("Saving n-gram filters with %d bits per key.", filterBitsPerKey);
+            dos.writeInt(order - 1);
+            for (int i = 2; i <= order; i++) {
+                generateFilter(lm, i).serialize(dos);
+            }
+        }
+
         dos.close();
 
     }
 
-    private class ReorderData {
-        int[] reorderedKeyIndexes;
-        int[] fingerprints;
+    /**
+     * Writes fingerprint, probability rank and back-off rank data of the n-grams in their MPHF value order.
+     * Keys and rank files are read sequentially. Each n-gram's data block goes to a partition by its MPHF value,
+     * partitions are small enough to fit in memory budget. If all data fits, there is only one partition and it is
+     * filled directly. Otherwise blocks are spilled to partition files together with their MPHF values, then each
+     * partition is loaded, ordered and written.
+     * <p>
+     * At most maxOpenSpillFiles partition files are written at once and their write buffers are taken from the memory
+     * budget. If there are more partitions, input files are read once for every group of maxOpenSpillFiles
+     * partitions. Partition files are deleted even if conversion fails.
+     */
+    private void writeGramData(DataOutputStream dos, NgramDataBlock block, MultiFileUncompressedLm lm, int n, Mphf mphf)
+            throws IOException {
+        final int gramCount = lm.getCount(n);
+        final int fingerPrintSize = n == 1 ? 0 : block.fingerPrintSize;
+        final int backoffSize = n == order ? 0 : block.backoffSize;
+        final int blockSize = fingerPrintSize + block.probabilitySize + backoffSize;
+
+        dos.writeInt(gramCount);
+        dos.writeInt(fingerPrintSize);
+        dos.writeInt(block.probabilitySize);
+        dos.writeInt(backoffSize);
+
+        // a partition needs blockSize bytes and a bit for each n-gram.
+        final long budget = Math.min(memoryBudget, MAX_BUF);
+        final int partitionSize = (int) Math.max(1, Math.min(gramCount, budget * 8 / (blockSize * 8 + 1)));
+        final int partitionCount = gramCount == 0 ? 0 : (gramCount + partitionSize - 1) / partitionSize;
+        Log.info("Writing data of %d %d-grams in %d partitions.", gramCount, n, partitionCount);
+
+        BitSet filled = new BitSet(Math.min(gramCount, partitionSize));
+        if (partitionCount == 1) {
+            byte[] partitionData = new byte[gramCount * blockSize];
+            readBlocks(lm, n, mphf, block, fingerPrintSize, backoffSize, blockSize,
+                    (index, data) -> place(partitionData, filled, index, data));
+            validate(filled, gramCount, n);
+            dos.write(partitionData);
+            return;
+        }
 
-        private ReorderData(int[] reorderedKeyIndexes, int[] fingerprints) {
-            this.reorderedKeyIndexes = reorderedKeyIndexes;
-            this.fingerprints = fingerprints;
+        final int fanOut = Math.min(partitionCount, maxOpenSpillFiles);
+        final int spillBufferSize = (int) Math.max(MIN_SPILL_BUFFER, Math.min(MAX_SPILL_BUFFER, budget / fanOut));
+        byte[] partitionData = null;
+        byte[] data = new byte[blockSize];
+        for (int first = 0; first < partitionCount; first += fanOut) {
+            final int begin = first;
+            final int end = Math.min(partitionCount, first + fanOut);
+            DataOutputStream[] spills = new DataOutputStream[end - begin];
+            File[] spillFiles = new File[end - begin];
+            try {
+                for (int i = 0; i < spills.length; i++) {
+                    spillFiles[i] = new File(tempDir, lmFile.getName() + "." + n + "gram." + (begin + i) + ".partition");
+                    spills[i] = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(spillFiles[i]), spillBufferSize));
+                }
+                readBlocks(lm, n, mphf, block, fingerPrintSize, backoffSize, blockSize, (index, blockData) -> {
+                    int partition = index / partitionSize;
+                    if (partition >= begin && partition < end) {
+                        DataOutputStream spill = spills[partition - begin];
+                        spill.writeInt(index % partitionSize);
+                        spill.write(blockData);
+                    }
+                });
+                closeAll(spills);
+                if (partitionData == null) {
+                    partitionData = new byte[partitionSize * blockSize];
+                }
+                for (int i = begin; i < end; i++) {
+                    int size = Math.min(partitionSize, gramCount - i * partitionSize);
+                    filled.clear();
+                    try (DataInputStream dis = stream(spillFiles[i - begin])) {
+                        for (int k = 0; k < size; k++) {
+                            int index = dis.readInt();
+                            dis.readFully(data);
+                            place(partitionData, filled, index, data);
+                        }
+                    }
+                    validate(filled, size, n);
+                    dos.write(partitionData, 0, size * blockSize);
+                    java.nio.file.Files.delete(spillFiles[i - begin].toPath());
+                }
+            } finally {
+                closeAll(spills);
+                for (File spillFile : spillFiles) {
+                    if (spillFile != null) {
+                        java.nio.file.Files.deleteIfExists(spillFile.toPath());
+                    }
+                }
+            }
         }
     }
 
-    private void validateIndexArray(int[] arr) {
-        BitSet set = new BitSet();
-        for (int i : arr) {
-            if (i >= arr.length || i < 0)
-                throw new IllegalStateException("array contains a value=" + i + " larger than the array size=" + arr.length);
-            set.set(i);
+    private interface BlockConsumer {
+        void accept(int index, byte[] data) throws IOException;
+    }
+
+    /**
+     * Reads data blocks of all n-grams of order n and sends them to the consumer with their MPHF values.
+     */
+    private void readBlocks(MultiFileUncompressedLm lm, int n, Mphf mphf, NgramDataBlock block,
+                            int fingerPrintSize, int backoffSize, int blockSize, BlockConsumer consumer)
+            throws IOException {
+        final int gramCount = lm.getCount(n);
+        try (DataInputStream keys = stream(lm.getGramFile(n));
+             DataInputStream probRanks = stream(lm.getProbRankFile(n));
+             DataInputStream backoffRanks = backoffSize > 0 ? stream(lm.getBackoffRankFile(n)) : null) {
+            keys.skipBytes(8);
+            probRanks.skipBytes(4);
+            int probRankSize = probRanks.readInt();
+            int backoffRankSize = 0;
+            if (backoffRanks != null) {
+                backoffRanks.skipBytes(4);
+                backoffRankSize = backoffRanks.readInt();
+            }
+            int[] key = new int[n];
+            byte[] data = new byte[blockSize];
+            for (int k = 0; k < gramCount; k++) {
+                for (int j = 0; j < n; j++) {
+                    key[j] = keys.readInt();
+                }
+                int index = k;
+                if (n > 1) {
+                    index = mphf.get(key);
+                    block.fingerprintAsBytes(key, data);
+                }
+                probRanks.readFully(data, fingerPrintSize, probRankSize);
+                if (backoffRanks != null) {
+                    backoffRanks.readFully(data, fingerPrintSize + block.probabilitySize, backoffRankSize);
+                }
+                consumer.accept(index, data);
+            }
         }
-        for (int i = 0; i < arr.length; i++) {
-            if (!set.get(i)) {
-                throw new IllegalStateException("Not validated.");
+    }
+
+    // closes all non null streams, throws the first exception after trying all of them.
+    private static void closeAll(Closeable[] closeables) throws IOException {
+        IOException exception = null;
+        for (int i = 0; i < closeables.length; i++) {
+            if (closeables[i] == null) {
+                continue;
             }
+            try {
+                closeables[i].close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+            closeables[i] = null;
+        }
+        if (exception != null) {
+            throw exception;
         }
     }
 
-    /**
-     * This class does the following:
-     * suppose we have the keys as: [k0, k1, k2, k3, k4, k5] -> [0,1,2,3,4,5]
-     * their mphf values are however: k0=2, k1=5, k2=0, k3=4, k4=1, k5=3
-     * So what we want is to have key indexes in their minimal perfect has index order.
-     * reordered keys indexes: [k2, k4, k0, k5, k3, k1] -> [2,4,0,5,3,1]
-     *
-     * @param lm     multifile language language model.
-     * @param _order current order of language model
-     * @param mphf   MPH function
-     * @return reordered key indexes and those keys fingerprint values.
-     * @throws IOException
-     */
-    private ReorderData reorderIndexes(NgramDataBlock block, MultiFileUncompressedLm lm, int _order, Mphf mphf) throws IOException {
-        ChunkingNGramReader reader = new ChunkingNGramReader(lm.getGramFile(_order), _order, 1000000);
-        int[] reorderedIndexes = new int[lm.getCount(_order)];
-        int[] fingerPrints = new int[lm.getCount(_order)];
-        int counter = 0;
-        for (IntHashKeyProvider provider : reader) {
-            for (int k = 0; k < provider.keyAmount(); k++) {
-                final int[] key = provider.getKey(k);
-                final int hashVal = mphf.get(key);
-                reorderedIndexes[hashVal] = counter;
-                fingerPrints[hashVal] = block.fingerprint(key);
-                counter++;
+    private NgramFilter generateFilter(MultiFileUncompressedLm lm, int n) throws IOException {
+        final int gramCount = lm.getCount(n);
+        NgramFilter filter = NgramFilter.create(gramCount, filterBitsPerKey);
+        try (DataInputStream keys = stream(lm.getGramFile(n))) {
+            keys.skipBytes(8);
+            int[] key = new int[n];
+            for (int k = 0; k < gramCount; k++) {
+                for (int j = 0; j < n; j++) {
+                    key[j] = keys.readInt();
+                }
+                filter.add(key);
             }
         }
-        return new ReorderData(reorderedIndexes, fingerPrints);
+        return filter;
+    }
+
+    private void place(byte[] partitionData, BitSet filled, int index, byte[] data) {
+        if (filled.get(index)) {
+            throw new IllegalStateException("Hash value " + index + " is generated for more than one n-gram.");
+        }
+        filled.set(index);
+        System.arraycopy(data, 0, partitionData, index * data.length, data.length);
+    }
+
+    private void validate(BitSet filled, int size, int n) {
+        if (filled.cardinality() != size || filled.length() != size) {
+            throw new IllegalStateException("Hash values of " + n + "-grams are not a permutation.");
+        }
+    }
+
+    private DataInputStream stream(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
     }
 
     public static class NgramDataBlock {
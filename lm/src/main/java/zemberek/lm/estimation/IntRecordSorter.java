@@ -0,0 +1,302 @@
+package zemberek.lm.estimation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts fixed width integer records with bounded memory. Records are collected in memory until a limit is reached,
+ * then they are sorted and spilled to a run file in temporary directory. Runs are merged when sorted output is
+ * requested. If sumLastField is set, records with equal keys are combined by summing their last field.
+ * <p>
+ * At most {@link #DEFAULT_MAX_MERGE_FAN_IN} runs are open at the same time. If there are more runs, they are
+ * merged into larger runs in several passes. In-memory records are released before merging, so read and write
+ * buffers of the merge are sized to fit in the same memory budget.
+ */
+class IntRecordSorter {
+
+    static final int DEFAULT_MAX_MERGE_FAN_IN = 64;
+
+    // Approximate memory usage of an in-memory record, excluding its fields.
+    static final int RECORD_OVERHEAD = 32;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MIN_BUFFER_SIZE = 512;
+
+    private final File tempDir;
+    private final int width;
+    private final Comparator<int[]> comparator;
+    private final boolean sumLastField;
+    private final long memoryBudget;
+    private final int maxRecordsInMemory;
+
+    // Maximum amount of run files read at the same time during merge. Only changed by tests.
+    int maxMergeFanIn = DEFAULT_MAX_MERGE_FAN_IN;
+
+    private List<int[]> records = new ArrayList<>();
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * @param tempDir      directory for run files.
+     * @param width        amount of integers in a record.
+     * @param keyOrder     indexes of key fields in comparison order.
+     * @param sumLastField if true, records with same key are combined by adding their last field.
+     * @param memoryBudget approximate amount of bytes used for in-memory records and merge buffers.
+     */
+    IntRecordSorter(File tempDir, int width, int[] keyOrder, boolean sumLastField, long memoryBudget) {
+        this.tempDir = tempDir;
+        this.width = width;
+        this.comparator = keyComparator(keyOrder);
+        this.sumLastField = sumLastField;
+        this.memoryBudget = memoryBudget;
+        long limit = memoryBudget / (RECORD_OVERHEAD + width * 4);
+        this.maxRecordsInMemory = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, limit));
+    }
+
+    static Comparator<int[]> keyComparator(int[] keyOrder) {
+        return (a, b) -> {
+            for (int i : keyOrder) {
+                int c = Integer.compare(a[i], b[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Key order where the last word is the most significant. In this order n-grams with the same suffix are
+     * adjacent, and suffixes are in the same order as the lower order n-grams sorted with this order.
+     */
+    static int[] suffixOrder(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = n - 1 - i;
+        }
+        return order;
+    }
+
+    /**
+     * Key order where the first word is the most significant. In this order n-grams with same context are adjacent.
+     */
+    static int[] contextOrder(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    void add(int[] record) throws IOException {
+        records.add(record.clone());
+        if (records.size() >= maxRecordsInMemory) {
+            spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        File run = File.createTempFile("run", ".records", tempDir);
+        try (RecordWriter writer = new RecordWriter(run)) {
+            writeSorted(writer);
+        }
+        runs.add(run);
+        records = new ArrayList<>();
+    }
+
+    private long writeSorted(RecordWriter writer) throws IOException {
+        records.sort(comparator);
+        long count = 0;
+        int[] previous = null;
+        for (int[] record : records) {
+            if (previous != null && sumLastField && comparator.compare(previous, record) == 0) {
+                previous[width - 1] += record[width - 1];
+                continue;
+            }
+            if (previous != null) {
+                writer.write(previous);
+                count++;
+            }
+            previous = record;
+        }
+        if (previous != null) {
+            writer.write(previous);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes all records in sorted order to the output file and removes the run files.
+     *
+     * @return amount of records written.
+     */
+    long sortTo(File output) throws IOException {
+        try (RecordWriter writer = new RecordWriter(output, mergeBufferSize())) {
+            if (runs.isEmpty()) {
+                long count = writeSorted(writer);
+                records = new ArrayList<>();
+                return count;
+            }
+            if (!records.isEmpty()) {
+                spill();
+            }
+            return merge(writer);
+        } finally {
+            for (File run : runs) {
+                Files.deleteIfExists(run.toPath());
+            }
+            runs.clear();
+        }
+    }
+
+    // Buffer size of each of the run readers and the writer during merge.
+    private int mergeBufferSize() {
+        long size = memoryBudget / (maxMergeFanIn + 1);
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(BUFFER_SIZE, size));
+    }
+
+    private long merge(RecordWriter writer) throws IOException {
+        int bufferSize = mergeBufferSize();
+        // Runs are merged in groups until their amount is small enough. Merged runs are added to the end of the
+        // run list, so they are deleted in sortTo if merge fails.
+        while (runs.size() > maxMergeFanIn) {
+            List<File> group = new ArrayList<>(runs.subList(0, maxMergeFanIn));
+            File merged = File.createTempFile("run", ".records", tempDir);
+            runs.add(merged);
+            try (RecordWriter runWriter = new RecordWriter(merged, bufferSize)) {
+                mergeRuns(group, runWriter, bufferSize);
+            }
+            for (File run : group) {
+                Files.deleteIfExists(run.toPath());
+            }
+            runs.subList(0, maxMergeFanIn).clear();
+        }
+        return mergeRuns(runs, writer, bufferSize);
+    }
+
+    private long mergeRuns(List<File> toMerge, RecordWriter writer, int bufferSize) throws IOException {
+        PriorityQueue<RecordReader> queue = new PriorityQueue<>(toMerge.size(),
+                (a, b) -> comparator.compare(a.get(), b.get()));
+        try {
+            for (File run : toMerge) {
+                RecordReader reader = new RecordReader(run, width, bufferSize);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            long count = 0;
+            int[] current = null;
+            while (!queue.isEmpty()) {
+                RecordReader reader = queue.poll();
+                int[] record = reader.get();
+                if (current != null && sumLastField && comparator.compare(current, record) == 0) {
+                    current[width - 1] += record[width - 1];
+                } else {
+                    if (current != null) {
+                        writer.write(current);
+                        count++;
+                    }
+                    current = record.clone();
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            if (current != null) {
+                writer.write(current);
+                count++;
+            }
+            return count;
+        } finally {
+            for (RecordReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Writes fixed width integer records to a file.
+     */
+    static class RecordWriter implements Closeable {
+        private final DataOutputStream dos;
+
+        RecordWriter(File file) throws IOException {
+            this(file, BUFFER_SIZE);
+        }
+
+        RecordWriter(File file, int bufferSize) throws IOException {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+        }
+
+        void write(int[] record) throws IOException {
+            for (int i : record) {
+                dos.writeInt(i);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            dos.close();
+        }
+    }
+
+    /**
+     * Reads fixed width integer records from a file. get() returns the same array for all records.
+     */
+    static class RecordReader implements Closeable {
+        private final DataInputStream dis;
+        private final int[] record;
+
+        RecordReader(File file, int width) throws IOException {
+            this(file, width, BUFFER_SIZE);
+        }
+
+        RecordReader(File file, int width, int bufferSize) throws IOException {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+            record = new int[width];
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return false if there is no more records.
+         */
+        boolean next() throws IOException {
+            try {
+                record[0] = dis.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int i = 1; i < record.length; i++) {
+                record[i] = dis.readInt();
+            }
+            return true;
+        }
+
+        int[] get() {
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            dis.close();
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package zemberek.lm.estimation;
+
+import com.google.common.base.Preconditions;
+import zemberek.core.SpaceTabTokenizer;
+import zemberek.core.logging.Log;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.MultiFileUncompressedLm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Estimates an interpolated modified Kneser-Ney language model from a tokenized corpus. Estimation follows
+ * Chen and Goodman's 'An Empirical Study of Smoothing Techniques for Language Modeling (1998)' with three discounts
+ * per order. Lower order n-grams use continuation counts except the ones starting with sentence begin symbol,
+ * as in KenLM's lmplz. Result is written in MultiFileUncompressedLm format, so it can be compressed
+ * with UncompressedToSmoothLmConverter without an ARPA file.
+ * <p>
+ * Corpus is expected to have one tokenized sentence per line. Sentence begin and end symbols are added
+ * automatically. N-gram records are sorted with bounded memory through files in temporary directory, only the
+ * continuations of a single context are kept in memory at once.
+ */
+public class KneserNeyTrainer {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 1L << 28;
+
+    // Log probability of the sentence begin symbol. It is never predicted, so ARPA convention is used.
+    static final float SENTENCE_BEGIN_LOG_PROBABILITY = -99f;
+
+    // Discounts used when they cannot be estimated from count-of-counts. These are same with KenLM's fallback values.
+    static final double[] FALLBACK_DISCOUNTS = {0, 0.5, 1.0, 1.5};
+
+    private final int order;
+    private final File tempDir;
+    private final long memoryBudget;
+
+    private SpaceTabTokenizer tokenizer = new SpaceTabTokenizer();
+
+    /**
+     * @param order        order of the model. Must be larger than 1, as compressed models require bigrams.
+     * @param tempDir      directory for intermediate files.
+     * @param memoryBudget approximate amount of bytes used for in memory sorting.
+     */
+    public KneserNeyTrainer(int order, File tempDir, long memoryBudget) {
+        Preconditions.checkArgument(order > 1, "Order must be larger than 1 but it is %s", order);
+        Preconditions.checkArgument(memoryBudget > 0, "Memory budget must be positive but it is %s", memoryBudget);
+        this.order = order;
+        this.tempDir = tempDir;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public KneserNeyTrainer(int order, File tempDir) {
+        this(order, tempDir, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Trains a model from tokenized sentences and writes it to outDir in MultiFileUncompressedLm format.
+     *
+     * @param sentences tokenized sentences. Tokens are separated with space or tab characters.
+     * @param outDir    output directory.
+     * @return uncompressed model.
+     */
+    public MultiFileUncompressedLm train(Iterable<String> sentences, File outDir) throws IOException {
+        Files.createDirectories(tempDir.toPath());
+        Files.createDirectories(outDir.toPath());
+        File workDir = Files.createTempDirectory(tempDir.toPath(), "kn").toFile();
+        try {
+            LmVocabulary.Builder vocabularyBuilder = LmVocabulary.builder();
+            vocabularyBuilder.add(LmVocabulary.DEFAULT_UNKNOWN_WORD);
+            int sentenceBegin = vocabularyBuilder.add(LmVocabulary.DEFAULT_SENTENCE_BEGIN_MARKER);
+            vocabularyBuilder.add(LmVocabulary.DEFAULT_SENTENCE_END_MARKER);
+
+            File[] adjusted = new File[order + 1];
+            for (int n = 1; n <= order; n++) {
+                adjusted[n] = new File(workDir, n + ".adjusted");
+            }
+            count(sentences, vocabularyBuilder, sentenceBegin, adjusted, workDir);
+            LmVocabulary vocabulary = vocabularyBuilder.generate();
+            Log.info("Vocabulary size = %d", vocabulary.size());
+
+            for (int n = order - 1; n >= 1; n--) {
+                adjustCounts(n, adjusted, workDir);
+            }
+
+            double[][] discounts = new double[order + 1][];
+            for (int n = 1; n <= order; n++) {
+                discounts[n] = discounts(n, adjusted[n], sentenceBegin);
+                Log.info("Discounts for order %d = %.4f %.4f %.4f", n, discounts[n][1], discounts[n][2], discounts[n][3]);
+            }
+
+            File[] probabilities = new File[order + 1];
+            // backoff sorters live until the end. During interpolation they share the budget with one more sorter.
+            IntRecordSorter[] backoffSorters = new IntRecordSorter[order];
+            for (int n = 1; n < order; n++) {
+                backoffSorters[n] = new IntRecordSorter(workDir, n + 1, IntRecordSorter.suffixOrder(n), false,
+                        sorterBudget(interpolationSorterCount()));
+            }
+            probabilities[1] = new File(workDir, "1.prob");
+            unigramProbabilities(adjusted[1], discounts[1], vocabulary.size(), sentenceBegin, probabilities[1]);
+            for (int n = 2; n <= order; n++) {
+                probabilities[n] = new File(workDir, n + ".prob");
+                interpolate(n, adjusted[n], discounts[n], backoffSorters[n - 1], probabilities[n - 1],
+                        probabilities[n], workDir);
+            }
+
+            int[] counts = new int[order + 1];
+            for (int n = 1; n <= order; n++) {
+                File backoffs = null;
+                if (n < order) {
+                    backoffs = new File(workDir, n + ".backoff");
+                    backoffSorters[n].sortTo(backoffs);
+                }
+                counts[n] = write(n, probabilities[n], backoffs, sentenceBegin, outDir);
+                Log.info("%d-gram count = %d", n, counts[n]);
+            }
+            try (DataOutputStream dos = dataOutputStream(new File(outDir, MultiFileUncompressedLm.INFO_FILE_NAME))) {
+                dos.writeInt(order);
+                for (int n = 1; n <= order; n++) {
+                    dos.writeInt(counts[n]);
+                }
+            }
+            vocabulary.saveBinary(new File(outDir, MultiFileUncompressedLm.VOCAB_FILE_NAME));
+        } finally {
+            File[] files = workDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(workDir.toPath());
+        }
+        return new MultiFileUncompressedLm(outDir);
+    }
+
+    // Amount of sorters that hold records at the same time during interpolation: backoff sorters of orders
+    // [1..order-1] and the context or the interpolation sorter. Context sorter releases its records before the
+    // interpolation sorter is filled.
+    private int interpolationSorterCount() {
+        return order;
+    }
+
+    // memory budget of each of the concurrently used sorters.
+    private long sorterBudget(int sorterCount) {
+        return memoryBudget / sorterCount;
+    }
+
+    /**
+     * Counts highest order n-grams and lower order n-grams that start with sentence begin symbol. Lower order
+     * n-grams in other positions are only counted by their continuations later. Results are written to adjusted
+     * files of each order as [id0,...,idn-1,count] records in suffix order.
+     */
+    private void count(
+            Iterable<String> sentences,
+            LmVocabulary.Builder vocabularyBuilder,
+            int sentenceBegin,
+            File[] output,
+            File workDir) throws IOException {
+        int sentenceEnd = vocabularyBuilder.indexOf(LmVocabulary.DEFAULT_SENTENCE_END_MARKER);
+        IntRecordSorter[] sorters = new IntRecordSorter[order + 1];
+        for (int n = 1; n <= order; n++) {
+            sorters[n] = new IntRecordSorter(workDir, n + 1, IntRecordSorter.suffixOrder(n), true,
+                    sorterBudget(order));
+        }
+        int[][] records = new int[order + 1][];
+        for (int n = 1; n <= order; n++) {
+            records[n] = new int[n + 1];
+            records[n][n] = 1;
+        }
+        int[] ids = new int[16];
+        long sentenceCount = 0;
+        for (String sentence : sentences) {
+            String[] tokens = tokenizer.split(sentence);
+            if (tokens.length == 0) {
+                continue;
+            }
+            int length = tokens.length + 2;
+            if (ids.length < length) {
+                ids = new int[length * 2];
+            }
+            ids[0] = sentenceBegin;
+            for (int i = 0; i < tokens.length; i++) {
+                ids[i + 1] = vocabularyBuilder.add(tokens[i]);
+            }
+            ids[length - 1] = sentenceEnd;
+
+            for (int i = 0; i + order <= length; i++) {
+                System.arraycopy(ids, i, records[order], 0, order);
+                sorters[order].add(records[order]);
+            }
+            for (int n = 1; n < order && n <= length; n++) {
+                System.arraycopy(ids, 0, records[n], 0, n);
+                sorters[n].add(records[n]);
+            }
+            sentenceCount++;
+            if (sentenceCount % 1000000 == 0) {
+                Log.info("%d sentences counted.", sentenceCount);
+            }
+        }
+        for (int n = 1; n <= order; n++) {
+            sorters[n].sortTo(output[n]);
+        }
+    }
+
+    /**
+     * Replaces the raw counts of [n] grams with the amount of distinct words preceding them in [n+1] grams.
+     * Raw counts of [n] grams that start with sentence begin symbol are kept, as they cannot be extended to left.
+     */
+    private void adjustCounts(int n, File[] adjusted, File workDir) throws IOException {
+        File continuations = new File(workDir, n + ".continuation");
+        try (IntRecordSorter.RecordReader upper = new IntRecordSorter.RecordReader(adjusted[n + 1], n + 2);
+             IntRecordSorter.RecordWriter writer = new IntRecordSorter.RecordWriter(continuations)) {
+            // (n+1) grams are in suffix order so the ones with same n word suffix are adjacent.
+            int[] suffix = new int[n + 1];
+            int continuationCount = 0;
+            while (upper.next()) {
+                int[] gram = upper.get();
+                if (continuationCount > 0 && !suffixEquals(gram, suffix, n)) {
+                    suffix[n] = continuationCount;
+                    writer.write(suffix);
+                    continuationCount = 0;
+                }
+                if (continuationCount == 0) {
+                    System.arraycopy(gram, 1, suffix, 0, n);
+                }
+                continuationCount++;
+            }
+            if (continuationCount > 0) {
+                suffix[n] = continuationCount;
+                writer.write(suffix);
+            }
+        }
+        File merged = new File(workDir, n + ".merged");
+        merge(continuations, adjusted[n], n + 1, IntRecordSorter.keyComparator(IntRecordSorter.suffixOrder(n)),
+                merged);
+        Files.delete(continuations.toPath());
+        Files.delete(adjusted[n].toPath());
+        if (!merged.renameTo(adjusted[n])) {
+            throw new IOException("Cannot rename " + merged + " to " + adjusted[n]);
+        }
+    }
+
+    private static boolean suffixEquals(int[] gram, int[] suffix, int n) {
+        for (int i = 0; i < n; i++) {
+            if (gram[i + 1] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Merges two sorted record files. Counts of equal keys are summed.
+    private static void merge(File a, File b, int width, Comparator<int[]> comparator, File output)
+            throws IOException {
+        try (IntRecordSorter.RecordReader ra = new IntRecordSorter.RecordReader(a, width);
+             IntRecordSorter.RecordReader rb = new IntRecordSorter.RecordReader(b, width);
+             IntRecordSorter.RecordWriter writer = new IntRecordSorter.RecordWriter(output)) {
+            boolean hasA = ra.next();
+            boolean hasB = rb.next();
+            while (hasA || hasB) {
+                int c = !hasA ? 1 : !hasB ? -1 : comparator.compare(ra.get(), rb.get());
+                if (c < 0) {
+                    writer.write(ra.get());
+                    hasA = ra.next();
+                } else if (c > 0) {
+                    writer.write(rb.get());
+                    hasB = rb.next();
+                } else {
+                    ra.get()[width - 1] += rb.get()[width - 1];
+                    writer.write(ra.get());
+                    hasA = ra.next();
+                    hasB = rb.next();
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates discounts D1, D2 and D3+ of an order from count-of-counts as D_k = k - (k+1) Y t_(k+1) / t_k where
+     * Y = t1 / (t1 + 2 t2). Result array is indexed by count, index 0 is not used.
+     */
+    private double[] discounts(int n, File adjusted, int sentenceBegin) throws IOException {
+        long[] countOfCounts = new long[5];
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(adjusted, n + 1)) {
+            while (reader.next()) {
+                int[] gram = reader.get();
+                if (n == 1 && gram[0] == sentenceBegin) {
+                    continue;
+                }
+                if (gram[n] <= 4) {
+                    countOfCounts[gram[n]]++;
+                }
+            }
+        }
+        double[] discounts = new double[4];
+        for (int k = 1; k <= 4; k++) {
+            if (countOfCounts[k] == 0) {
+                Log.warn("There are no %d-grams with adjusted count %d. Fallback discounts are used for this order.",
+                        n, k);
+                return FALLBACK_DISCOUNTS.clone();
+            }
+        }
+        double y = (double) countOfCounts[1] / (countOfCounts[1] + 2 * countOfCounts[2]);
+        for (int k = 1; k <= 3; k++) {
+            discounts[k] = k - (k + 1) * y * countOfCounts[k + 1] / countOfCounts[k];
+            if (discounts[k] <= 0 || discounts[k] > k) {
+                Log.warn("Discount D%d = %.4f of order %d is out of range. Fallback discounts are used for this order.",
+                        k, discounts[k], n);
+                return FALLBACK_DISCOUNTS.clone();
+            }
+        }
+        return discounts;
+    }
+
+    private static double discount(double[] discounts, int count) {
+        return discounts[Math.min(count, 3)];
+    }
+
+    /**
+     * Writes [id, probability bits] records of all vocabulary items in id order. Discounted mass is distributed
+     * uniformly to all words except the sentence begin symbol. Words that are not seen in the corpus like the
+     * unknown word only get their share from the uniform distribution.
+     */
+    private void unigramProbabilities(
+            File adjusted,
+            double[] discounts,
+            int vocabularySize,
+            int sentenceBegin,
+            File output) throws IOException {
+        long total = 0;
+        double discountedMass = 0;
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(adjusted, 2)) {
+            while (reader.next()) {
+                int[] gram = reader.get();
+                if (gram[0] == sentenceBegin) {
+                    continue;
+                }
+                total += gram[1];
+                discountedMass += discount(discounts, gram[1]);
+            }
+        }
+        double uniform = (discountedMass / total) / (vocabularySize - 1);
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(adjusted, 2);
+             IntRecordSorter.RecordWriter writer = new IntRecordSorter.RecordWriter(output)) {
+            int[] record = new int[2];
+            boolean hasNext = reader.next();
+            for (int id = 0; id < vocabularySize; id++) {
+                double p = uniform;
+                if (hasNext && reader.get()[0] == id) {
+                    int count = reader.get()[1];
+                    p = (count - discount(discounts, count)) / total + uniform;
+                    hasNext = reader.next();
+                }
+                if (id == sentenceBegin) {
+                    p = 0;
+                }
+                record[0] = id;
+                record[1] = Float.floatToIntBits((float) p);
+                writer.write(record);
+            }
+        }
+    }
+
+    /**
+     * Calculates interpolated probabilities of [n] grams as p(w|h) = (a(hw) - D) / a(h) + gamma(h) p(w|h') where
+     * gamma(h) is the discounted mass of context h and h' is h without its first word. gamma(h) values are added to
+     * the backoff sorter of order n-1.
+     */
+    private void interpolate(
+            int n,
+            File adjusted,
+            double[] discounts,
+            IntRecordSorter backoffSorter,
+            File lowerProbabilities,
+            File output,
+            File workDir) throws IOException {
+
+        // sort n-grams by their contexts.
+        IntRecordSorter contextSorter = new IntRecordSorter(workDir, n + 1, IntRecordSorter.contextOrder(n), false,
+                sorterBudget(interpolationSorterCount()));
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(adjusted, n + 1)) {
+            while (reader.next()) {
+                contextSorter.add(reader.get());
+            }
+        }
+        File byContext = new File(workDir, n + ".context");
+        contextSorter.sortTo(byContext);
+
+        // calculate discounted probabilities [id0..idn-1, u, gamma] and context backoff weights [id0..idn-2, gamma]
+        IntRecordSorter interpolationSorter = new IntRecordSorter(workDir, n + 2, IntRecordSorter.suffixOrder(n),
+                false, sorterBudget(interpolationSorterCount()));
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(byContext, n + 1)) {
+            List<int[]> group = new ArrayList<>();
+            while (reader.next()) {
+                int[] gram = reader.get();
+                if (!group.isEmpty() && !contextEquals(group.get(0), gram, n - 1)) {
+                    addContextGroup(n, group, discounts, interpolationSorter, backoffSorter);
+                    group.clear();
+                }
+                group.add(gram.clone());
+            }
+            if (!group.isEmpty()) {
+                addContextGroup(n, group, discounts, interpolationSorter, backoffSorter);
+            }
+        }
+        Files.delete(byContext.toPath());
+        File interpolation = new File(workDir, n + ".interpolation");
+        interpolationSorter.sortTo(interpolation);
+
+        // Both files are in suffix order, so lower order probability of each n-gram can be found by a merge.
+        Comparator<int[]> lowerComparator = IntRecordSorter.keyComparator(IntRecordSorter.suffixOrder(n - 1));
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(interpolation, n + 2);
+             IntRecordSorter.RecordReader lower = new IntRecordSorter.RecordReader(lowerProbabilities, n);
+             IntRecordSorter.RecordWriter writer = new IntRecordSorter.RecordWriter(output)) {
+            int[] suffix = new int[n - 1];
+            int[] record = new int[n + 1];
+            boolean hasLower = lower.next();
+            while (reader.next()) {
+                int[] gram = reader.get();
+                System.arraycopy(gram, 1, suffix, 0, n - 1);
+                while (hasLower && lowerComparator.compare(lower.get(), suffix) < 0) {
+                    hasLower = lower.next();
+                }
+                if (!hasLower || lowerComparator.compare(lower.get(), suffix) != 0) {
+                    throw new IllegalStateException("Lower order n-gram of " + Arrays.toString(gram) +
+                            " does not exist.");
+                }
+                double u = Float.intBitsToFloat(gram[n]);
+                double gamma = Float.intBitsToFloat(gram[n + 1]);
+                double p = u + gamma * Float.intBitsToFloat(lower.get()[n - 1]);
+                System.arraycopy(gram, 0, record, 0, n);
+                record[n] = Float.floatToIntBits((float) p);
+                writer.write(record);
+            }
+        }
+        Files.delete(interpolation.toPath());
+    }
+
+    private static boolean contextEquals(int[] a, int[] b, int contextLength) {
+        for (int i = 0; i < contextLength; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addContextGroup(
+            int n,
+            List<int[]> group,
+            double[] discounts,
+            IntRecordSorter interpolationSorter,
+            IntRecordSorter backoffSorter) throws IOException {
+        long total = 0;
+        double discountedMass = 0;
+        for (int[] gram : group) {
+            total += gram[n];
+            discountedMass += discount(discounts, gram[n]);
+        }
+        float gamma = (float) (discountedMass / total);
+        int[] record = new int[n + 2];
+        for (int[] gram : group) {
+            System.arraycopy(gram, 0, record, 0, n);
+            record[n] = Float.floatToIntBits((float) ((gram[n] - discount(discounts, gram[n])) / total));
+            record[n + 1] = Float.floatToIntBits(gamma);
+            interpolationSorter.add(record);
+        }
+        int[] backoff = new int[n];
+        System.arraycopy(group.get(0), 0, backoff, 0, n - 1);
+        backoff[n - 1] = Float.floatToIntBits(gamma);
+        backoffSorter.add(backoff);
+    }
+
+    /**
+     * Writes [n].gram, [n].prob and [n].backoff files of MultiFileUncompressedLm. Probabilities and backoff weights
+     * are written as log10 values. N-grams without continuations have zero log backoff.
+     *
+     * @return amount of n-grams.
+     */
+    private int write(int n, File probabilities, File backoffs, int sentenceBegin, File outDir) throws IOException {
+        int count = (int) (probabilities.length() / (4 * (n + 1)));
+        File gramFile = new File(outDir, n + MultiFileUncompressedLm.GRAM_IDS_FILE_SUFFIX);
+        File probFile = new File(outDir, n + MultiFileUncompressedLm.PROB_FILE_SUFFIX);
+        File backoffFile = new File(outDir, n + MultiFileUncompressedLm.BACKOFF_FILE_SUFFIX);
+        Comparator<int[]> comparator = IntRecordSorter.keyComparator(IntRecordSorter.suffixOrder(n));
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(probabilities, n + 1);
+             DataOutputStream gramDos = dataOutputStream(gramFile);
+             DataOutputStream probDos = dataOutputStream(probFile);
+             IntRecordSorter.RecordReader backoffReader = backoffs == null ?
+                     null : new IntRecordSorter.RecordReader(backoffs, n + 1);
+             DataOutputStream backoffDos = backoffs == null ? null : dataOutputStream(backoffFile)) {
+            gramDos.writeInt(n);
+            gramDos.writeInt(count);
+            probDos.writeInt(count);
+            if (backoffDos != null) {
+                backoffDos.writeInt(count);
+            }
+            boolean hasBackoff = backoffReader != null && backoffReader.next();
+            while (reader.next()) {
+                int[] gram = reader.get();
+                for (int i = 0; i < n; i++) {
+                    gramDos.writeInt(gram[i]);
+                }
+                if (n == 1 && gram[0] == sentenceBegin) {
+                    probDos.writeFloat(SENTENCE_BEGIN_LOG_PROBABILITY);
+                } else {
+                    probDos.writeFloat((float) Math.log10(Float.intBitsToFloat(gram[n])));
+                }
+                if (backoffDos != null) {
+                    float backoff = 0;
+                    if (hasBackoff && comparator.compare(backoffReader.get(), gram) == 0) {
+                        backoff = (float) Math.log10(Float.intBitsToFloat(backoffReader.get()[n]));
+                        hasBackoff = backoffReader.next();
+                    }
+                    backoffDos.writeFloat(backoff);
+                }
+            }
+        }
+        if (backoffs != null) {
+            Files.delete(backoffs.toPath());
+        }
+        Files.delete(probabilities.toPath());
+        return count;
+    }
+
+    private static DataOutputStream dataOutputStream(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+}
@@ -0,0 +1,124 @@
+package zemberek.lm.compression;
+
+import com.google.common.base.Stopwatch;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.core.io.MappedFileReader;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class GramDataArrayTest {
+
+    // Generates serialized gram data with random values. values[i] = {fingerprint, probability rank, backoff rank}
+    private static byte[] serialize(int fpSize, int probSize, int backoffSize, int[][] values) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(values.length);
+        dos.writeInt(fpSize);
+        dos.writeInt(probSize);
+        dos.writeInt(backoffSize);
+        int[] sizes = {fpSize, probSize, backoffSize};
+        for (int[] value : values) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = sizes[j] - 1; k >= 0; k--) {
+                    dos.write(value[j] >>> (k * 8));
+                }
+            }
+        }
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    private static int[][] randomValues(int count, int fpSize, int probSize, int backoffSize, Random random) {
+        int[][] values = new int[count][3];
+        int[] sizes = {fpSize, probSize, backoffSize};
+        for (int[] value : values) {
+            for (int j = 0; j < 3; j++) {
+                value[j] = sizes[j] == 4 ? random.nextInt() : random.nextInt(1 << (sizes[j] * 8));
+            }
+        }
+        return values;
+    }
+
+    private static GramDataArray[] heapAndMapped(byte[] serialized) throws IOException {
+        File file = File.createTempFile("gram", ".data");
+        file.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.write(serialized);
+        }
+        try (MappedFileReader reader = new MappedFileReader(file)) {
+            return new GramDataArray[]{
+                    GramDataArray.load(new DataInputStream(new ByteArrayInputStream(serialized))),
+                    GramDataArray.map(reader)};
+        }
+    }
+
+    @Test
+    public void allLayoutsShouldReadSameValues() throws IOException {
+        Random random = new Random(1);
+        for (int fpSize = 1; fpSize <= 4; fpSize++) {
+            for (int probSize = 1; probSize <= 3; probSize++) {
+                for (int backoffSize = 0; backoffSize <= 3; backoffSize++) {
+                    int[][] values = randomValues(1000, fpSize, probSize, backoffSize, random);
+                    for (GramDataArray array : heapAndMapped(serialize(fpSize, probSize, backoffSize, values))) {
+                        String layout = fpSize + "-" + probSize + "-" + backoffSize + " mapped=" +
+                                array.isMemoryMapped();
+                        for (int i = 0; i < values.length; i++) {
+                            Assert.assertEquals(layout, values[i][0], array.getFingerPrint(i));
+                            Assert.assertTrue(layout, array.checkFingerPrint(values[i][0], i));
+                            // only fingerprint bits of the hash are checked.
+                            Assert.assertTrue(layout, array.checkFingerPrint(values[i][0] | ~array.fpMask, i));
+                            Assert.assertFalse(layout, array.checkFingerPrint(values[i][0] ^ 1, i));
+                            Assert.assertEquals(layout, values[i][1], array.getProbabilityRank(i));
+                            if (backoffSize > 0) {
+                                Assert.assertEquals(layout, values[i][2], array.getBackoffRank(i));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void accessSpeed() throws IOException {
+        // fingerprint, probability and back-off sizes of CompressLm -spaceUsage 8-8-8, 16-8-8, 16-16-16 and 24-8-8
+        int[][] layouts = {{1, 1, 1}, {2, 1, 1}, {2, 2, 2}, {3, 1, 1}};
+        Random random = new Random(1);
+        int count = 1 << 22;
+        int[] indexes = new int[1 << 24];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = random.nextInt(count);
+        }
+        for (int[] layout : layouts) {
+            int[][] values = randomValues(count, layout[0], layout[1], layout[2], random);
+            for (GramDataArray array : heapAndMapped(serialize(layout[0], layout[1], layout[2], values))) {
+                for (int it = 0; it < 3; it++) {
+                    Stopwatch sw = Stopwatch.createStarted();
+                    long total = 0;
+                    for (int index : indexes) {
+                        if (array.checkFingerPrint(index, index)) {
+                            total++;
+                        }
+                        total += array.getProbabilityRank(index) + array.getBackoffRank(index);
+                    }
+                    long elapsed = sw.elapsed(TimeUnit.NANOSECONDS);
+                    System.out.println(String.format("Layout %d-%d-%d mapped=%s : %.2f ns/lookup (%d)",
+                            layout[0] * 8, layout[1] * 8, layout[2] * 8, array.isMemoryMapped(),
+                            elapsed / (double) indexes.length, total));
+                }
+            }
+        }
+    }
+}
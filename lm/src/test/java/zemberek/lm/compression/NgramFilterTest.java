@@ -0,0 +1,81 @@
+package zemberek.lm.compression;
+
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.core.io.MappedFileReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class NgramFilterTest {
+
+    private static int[][] randomKeys(int count, int order, Random random) {
+        int[][] keys = new int[count][order];
+        for (int[] key : keys) {
+            for (int j = 0; j < order; j++) {
+                key[j] = random.nextInt(1 << 20);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void noFalseNegativesAndLowFalsePositives() throws IOException {
+        Random random = new Random(1);
+        int[][] keys = randomKeys(100000, 3, random);
+        NgramFilter filter = NgramFilter.create(keys.length, 10);
+        for (int[] key : keys) {
+            filter.add(key);
+        }
+        File file = File.createTempFile("ngram", ".filter");
+        file.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            filter.serialize(dos);
+        }
+        NgramFilter loaded;
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            loaded = NgramFilter.deserialize(dis);
+        }
+        NgramFilter mapped;
+        try (MappedFileReader reader = new MappedFileReader(file)) {
+            mapped = NgramFilter.deserialize(reader);
+        }
+        Assert.assertEquals(filter.sizeInBytes(), mapped.sizeInBytes());
+
+        for (NgramFilter f : new NgramFilter[]{filter, loaded, mapped}) {
+            for (int[] key : keys) {
+                Assert.assertTrue(f.mightContain(key));
+                Assert.assertTrue(f.mightContain(key[0], key[1], key[2]));
+                int[] padded = {-1, key[0], key[1], key[2], -1};
+                Assert.assertTrue(f.mightContain(padded, 1, 4));
+            }
+            int falsePositives = 0;
+            int[][] absent = randomKeys(100000, 3, new Random(2));
+            for (int[] key : absent) {
+                if (f.mightContain(key)) {
+                    falsePositives++;
+                }
+            }
+            // expected rate is about 1%
+            Assert.assertTrue("False positives = " + falsePositives, falsePositives < 2000);
+        }
+    }
+
+    @Test
+    public void bigramCheckShouldMatchArrayCheck() {
+        NgramFilter filter = NgramFilter.create(1000, 8);
+        Random random = new Random(3);
+        for (int[] key : randomKeys(1000, 2, random)) {
+            filter.add(key);
+        }
+        for (int[] key : randomKeys(10000, 2, random)) {
+            Assert.assertEquals(filter.mightContain(key), filter.mightContain(key[0], key[1]));
+        }
+    }
+}
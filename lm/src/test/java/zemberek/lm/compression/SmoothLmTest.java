@@ -3,6 +3,7 @@ package zemberek.lm.compression;
 import com.google.common.base.Stopwatch;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
+import com.google.common.primitives.Ints;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -10,16 +11,27 @@ import zemberek.core.SpaceTabTokenizer;
 import zemberek.core.io.LineIterator;
 import zemberek.core.io.SimpleTextReader;
 import zemberek.core.logging.Log;
+import zemberek.core.math.LogMath;
 import zemberek.lm.BaseLanguageModel;
 import zemberek.lm.FakeLm;
 import zemberek.lm.LmVocabulary;
 import zemberek.lm.backoff.SimpleBackoffNgramModel;
+import zemberek.lm.estimation.KneserNeyTrainer;
+import zemberek.lm.estimation.KneserNeyTrainerTest;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class SmoothLmTest {
@@ -75,6 +87,268 @@ public class SmoothLmTest {
         }
     }
 
+    @Test
+    public void memoryMappedModelShouldGiveSameResults() throws IOException {
+        File lmDir = Files.createTempDir();
+        lmDir.deleteOnExit();
+        File arpaFile = getTinyArpaFile();
+        File uncompressedDir = MultiFileUncompressedLm.generate(arpaFile, lmDir, "utf-8", 4).getLmDir();
+        File small = new File(lmDir, "small.slm");
+        new UncompressedToSmoothLmConverter(small, lmDir).convertSmall(
+                uncompressedDir, new UncompressedToSmoothLmConverter.NgramDataBlock(16, 16, 16));
+        File large = new File(lmDir, "large.slm");
+        new UncompressedToSmoothLmConverter(large, lmDir).convertLarge(
+                uncompressedDir, new UncompressedToSmoothLmConverter.NgramDataBlock(24, 8, 8), 2);
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(arpaFile);
+
+        for (File lmFile : new File[]{small, large}) {
+            SmoothLm heap = SmoothLm.builder(lmFile).build();
+            SmoothLm mapped = SmoothLm.builder(lmFile).useMemoryMap().build();
+            Assert.assertFalse(heap.isMemoryMapped());
+            Assert.assertTrue(mapped.isMemoryMapped());
+            Assert.assertEquals(heap.info(), mapped.info());
+            Iterator<SimpleBackoffNgramModel.NgramData> it = model.getAllIndexes();
+            while (it.hasNext()) {
+                int[] indexes = it.next().getIndexes();
+                Assert.assertEquals(heap.getProbabilityValue(indexes), mapped.getProbabilityValue(indexes), 0);
+                Assert.assertEquals(heap.getProbability(indexes), mapped.getProbability(indexes), 0);
+                if (indexes.length < heap.getOrder()) {
+                    Assert.assertTrue(mapped.ngramExists(indexes));
+                    Assert.assertEquals(heap.getBackoffValue(indexes), mapped.getBackoffValue(indexes), 0);
+                }
+            }
+            // also compare back-off paths for n-grams that do not exist in the model. Large model of this tiny
+            // input has empty hash pages, so lookups of absent n-grams are only possible in the small model.
+            if (lmFile != small) {
+                continue;
+            }
+            int vocabularySize = heap.getVocabulary().size();
+            for (int i = 0; i < vocabularySize; i++) {
+                for (int j = 0; j < vocabularySize; j++) {
+                    int[] trigram = {i, j, (i + j) % vocabularySize};
+                    Assert.assertEquals(heap.getProbability(trigram), mapped.getProbability(trigram), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void partitionedConversionShouldGiveSameModel() throws IOException {
+        File lmDir = Files.createTempDir();
+        lmDir.deleteOnExit();
+        File uncompressedDir = MultiFileUncompressedLm.generate(getTinyArpaFile(), lmDir, "utf-8", 4).getLmDir();
+        UncompressedToSmoothLmConverter.NgramDataBlock block =
+                new UncompressedToSmoothLmConverter.NgramDataBlock(24, 8, 8);
+        File expected = new File(lmDir, "expected.slm");
+        new UncompressedToSmoothLmConverter(expected, lmDir).convertSmall(uncompressedDir, block);
+        // a budget of 20 bytes causes n-gram data to be written in many partitions.
+        File partitioned = new File(lmDir, "partitioned.slm");
+        new UncompressedToSmoothLmConverter(partitioned, lmDir, 1, 20).convertSmall(uncompressedDir, block);
+        Assert.assertArrayEquals(Files.toByteArray(expected), Files.toByteArray(partitioned));
+        // partitions are written in several passes when only two partition files can be open at once.
+        File multiPass = new File(lmDir, "multi-pass.slm");
+        UncompressedToSmoothLmConverter converter = new UncompressedToSmoothLmConverter(multiPass, lmDir, 1, 20);
+        converter.maxOpenSpillFiles = 2;
+        converter.convertSmall(uncompressedDir, block);
+        Assert.assertArrayEquals(Files.toByteArray(expected), Files.toByteArray(multiPass));
+        File[] remaining = lmDir.listFiles((dir, name) -> name.endsWith(".partition"));
+        Assert.assertNotNull(remaining);
+        Assert.assertEquals(0, remaining.length);
+    }
+
+    @Test
+    public void batchProbabilitiesShouldMatchSingleCalls() throws IOException {
+        File lmFile = getTinyLmFile();
+        for (SmoothLm lm : new SmoothLm[]{
+                SmoothLm.builder(lmFile).build(),
+                SmoothLm.builder(lmFile).useStupidBackoff().build()}) {
+            int[][] sentences = randomSentences(lm, 200, 1);
+            for (int[] sentence : sentences) {
+                float[] probabilities = new float[sentence.length];
+                lm.getSentenceProbabilities(sentence, probabilities);
+                for (int i = 0; i < sentence.length; i++) {
+                    int[] window = Arrays.copyOfRange(sentence, Math.max(0, i + 1 - lm.getOrder()), i + 1);
+                    Assert.assertEquals(lm.getProbability(window), probabilities[i], 0);
+                }
+                for (int gramSize = 1; gramSize <= lm.getOrder(); gramSize++) {
+                    int count = sentence.length / gramSize;
+                    float[] result = new float[count];
+                    lm.getProbabilities(Arrays.copyOf(sentence, count * gramSize), gramSize, result);
+                    for (int i = 0; i < count; i++) {
+                        int[] gram = Arrays.copyOfRange(sentence, i * gramSize, (i + 1) * gramSize);
+                        Assert.assertEquals(lm.getProbability(gram), result[i], 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ngramFilterShouldRejectAbsentNgrams() throws IOException {
+        File lmDir = Files.createTempDir();
+        lmDir.deleteOnExit();
+        File arpaFile = getTinyArpaFile();
+        File uncompressedDir = MultiFileUncompressedLm.generate(arpaFile, lmDir, "utf-8", 4).getLmDir();
+        // 8 bit fingerprints cause many false positives without a filter.
+        UncompressedToSmoothLmConverter.NgramDataBlock block =
+                new UncompressedToSmoothLmConverter.NgramDataBlock(8, 16, 16);
+        File plainFile = new File(lmDir, "plain.slm");
+        new UncompressedToSmoothLmConverter(plainFile, lmDir).convertSmall(uncompressedDir, block);
+        File filteredFile = new File(lmDir, "filtered.slm");
+        new UncompressedToSmoothLmConverter(filteredFile, lmDir).ngramFilter(16).convertSmall(uncompressedDir, block);
+
+        SmoothLm plain = SmoothLm.builder(plainFile).build();
+        Assert.assertFalse(plain.hasNgramFilters());
+        SimpleBackoffNgramModel model = SimpleBackoffNgramModel.fromArpa(arpaFile);
+        Set<List<Integer>> existing = new HashSet<>();
+        Iterator<SimpleBackoffNgramModel.NgramData> it = model.getAllIndexes();
+        while (it.hasNext()) {
+            existing.add(Ints.asList(it.next().getIndexes()));
+        }
+
+        for (SmoothLm filtered : new SmoothLm[]{
+                SmoothLm.builder(filteredFile).build(),
+                SmoothLm.builder(filteredFile).useMemoryMap().build()}) {
+            Assert.assertTrue(filtered.hasNgramFilters());
+            for (List<Integer> ngram : existing) {
+                int[] indexes = Ints.toArray(ngram);
+                Assert.assertEquals(plain.getProbabilityValue(indexes), filtered.getProbabilityValue(indexes), 0);
+                Assert.assertEquals(plain.getProbability(indexes), filtered.getProbability(indexes), 0);
+                if (indexes.length < plain.getOrder()) {
+                    Assert.assertEquals(plain.getBackoffValue(indexes), filtered.getBackoffValue(indexes), 0);
+                }
+            }
+            int vocabularySize = plain.getVocabulary().size();
+            int plainFalsePositives = 0;
+            int filteredFalsePositives = 0;
+            Random random = new Random(1);
+            for (int i = 0; i < 100000; i++) {
+                int[] trigram = {random.nextInt(vocabularySize), random.nextInt(vocabularySize),
+                        random.nextInt(vocabularySize)};
+                if (existing.contains(Ints.asList(trigram))) {
+                    continue;
+                }
+                if (plain.getProbabilityValue(trigram) != LogMath.LOG_ZERO) {
+                    plainFalsePositives++;
+                }
+                if (filtered.getProbabilityValue(trigram) != LogMath.LOG_ZERO) {
+                    filteredFalsePositives++;
+                }
+            }
+            Log.info("False positives without filter = %d, with filter = %d",
+                    plainFalsePositives, filteredFalsePositives);
+            Assert.assertTrue(plainFalsePositives > 100);
+            Assert.assertTrue(filteredFalsePositives * 10 < plainFalsePositives);
+        }
+    }
+
+    @Test
+    public void stateScoringShouldMatchSingleCalls() throws IOException {
+        File dir = Files.createTempDir();
+        dir.deleteOnExit();
+        // a 4-gram model for testing contexts longer than 2 words.
+        File lm4File = new File(dir, "kn4.slm");
+        new UncompressedToSmoothLmConverter(lm4File, dir).convertSmall(
+                new KneserNeyTrainer(4, dir).train(
+                        KneserNeyTrainerTest.randomCorpus(2000, 30, 1), new File(dir, "kn4")).getLmDir(),
+                new UncompressedToSmoothLmConverter.NgramDataBlock(24, 16, 16));
+        File lmFile = getTinyLmFile();
+        for (SmoothLm lm : new SmoothLm[]{
+                SmoothLm.builder(lmFile).build(),
+                SmoothLm.builder(lmFile).useStupidBackoff().build(),
+                SmoothLm.builder(lm4File).build(),
+                SmoothLm.builder(lm4File).unknownBackoffPenalty(-0.5).build()}) {
+            int order = lm.getOrder();
+            for (int[] sentence : randomSentences(lm, 200, 1)) {
+                LmState state = lm.nullContextState();
+                LmState next = lm.nullContextState();
+                for (int i = 0; i < sentence.length; i++) {
+                    float score = lm.score(state, sentence[i], next);
+                    int[] window = Arrays.copyOfRange(sentence, Math.max(0, i + 1 - order), i + 1);
+                    Assert.assertEquals(lm.getProbability(window), score, 0.0001);
+                    Assert.assertEquals(score, next.getScore(), 0);
+                    Assert.assertTrue(next.getLength() >= 1 && next.getLength() < order);
+                    LmState tmp = state;
+                    state = next;
+                    next = tmp;
+                }
+                // sentence begin state should be equivalent to having <s> as the first word.
+                int sentenceStart = lm.getVocabulary().getSentenceStartIndex();
+                state = lm.beginSentenceState();
+                Assert.assertEquals(lm.score(lm.nullContextState(), sentenceStart), state);
+                int[] withStart = new int[sentence.length + 1];
+                withStart[0] = sentenceStart;
+                System.arraycopy(sentence, 0, withStart, 1, sentence.length);
+                for (int i = 1; i < withStart.length; i++) {
+                    state = lm.score(state, withStart[i]);
+                    int[] window = Arrays.copyOfRange(withStart, Math.max(0, i + 1 - order), i + 1);
+                    Assert.assertEquals(lm.getProbability(window), state.getScore(), 0.0001);
+                }
+            }
+        }
+    }
+
+    private int[][] randomSentences(SmoothLm lm, int count, int seed) {
+        Random random = new Random(seed);
+        int vocabularySize = lm.getVocabulary().size();
+        int[][] sentences = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int[] sentence = new int[random.nextInt(20) + 1];
+            for (int j = 0; j < sentence.length; j++) {
+                sentence[j] = random.nextInt(vocabularySize);
+            }
+            sentences[i] = sentence;
+        }
+        return sentences;
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void batchProbabilitySpeed() throws IOException {
+        SmoothLm lm = getTinyLm();
+        int[][] sentences = randomSentences(lm, 100000, 1);
+        float[] probabilities = new float[20];
+        for (int it = 0; it < 5; it++) {
+            Stopwatch sw = Stopwatch.createStarted();
+            double total = 0;
+            long gramCount = 0;
+            for (int[] sentence : sentences) {
+                for (int i = 0; i < sentence.length; i++) {
+                    total += lm.getProbability(
+                            Arrays.copyOfRange(sentence, Math.max(0, i + 1 - lm.getOrder()), i + 1));
+                }
+                gramCount += sentence.length;
+            }
+            System.out.println("Single calls = " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms. total = " + total);
+            sw.reset().start();
+            total = 0;
+            for (int[] sentence : sentences) {
+                lm.getSentenceProbabilities(sentence, probabilities);
+                for (int i = 0; i < sentence.length; i++) {
+                    total += probabilities[i];
+                }
+            }
+            System.out.println("Batch calls  = " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms. total = " + total +
+                    " n-gram count = " + gramCount);
+            sw.reset().start();
+            total = 0;
+            LmState state = lm.nullContextState();
+            LmState next = lm.nullContextState();
+            for (int[] sentence : sentences) {
+                LmState current = lm.nullContextState();
+                for (int word : sentence) {
+                    total += lm.score(current, word, next);
+                    LmState tmp = current;
+                    current = next;
+                    next = tmp;
+                }
+                state = current;
+            }
+            System.out.println("State calls  = " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms. total = " + total +
+                    " last state = " + state);
+        }
+    }
+
     @Test
     @Ignore("Requires external data")
     public void testBigFakeLm() throws IOException {
@@ -307,6 +581,56 @@ public class SmoothLmTest {
     }
 
 
+    @Test
+    public void sharedCacheTest() throws IOException {
+        SmoothLm lm = getTinyLm();
+        Assert.assertSame(lm.getSharedCache(), lm.getSharedCache());
+        BaseLanguageModel.SharedLookupCache cache = new BaseLanguageModel.SharedLookupCache(lm, 1000);
+        Assert.assertEquals(1024, cache.size());
+        int[] is3 = lm.getVocabulary().toIndexes("Ahmet", "dondurma", "yedi");
+        int[] is2 = lm.getVocabulary().toIndexes("Ahmet", "dondurma");
+        int[] is1 = lm.getVocabulary().toIndexes("Ahmet");
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(lm.getProbability(is3), cache.get(is3), 0);
+            Assert.assertEquals(lm.getProbability(is2), cache.get(is2), 0);
+            Assert.assertEquals(lm.getProbability(is1), cache.get(is1), 0);
+        }
+        Assert.assertEquals(3, cache.getMiss());
+        Assert.assertEquals(3, cache.getHit());
+        Assert.assertEquals(0.5, cache.hitRate(), 0.0001);
+    }
+
+    @Test
+    public void sharedCacheConcurrentAccess() throws Exception {
+        SmoothLm lm = getTinyLm();
+        // a small cache so that threads frequently write to the same slots.
+        BaseLanguageModel.SharedLookupCache cache = new BaseLanguageModel.SharedLookupCache(lm, 8);
+        int[][] sentences = randomSentences(lm, 1000, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int[] sentence : sentences) {
+                        for (int i = 0; i < sentence.length; i++) {
+                            int[] gram = Arrays.copyOfRange(sentence, Math.max(0, i + 1 - lm.getOrder()), i + 1);
+                            if (lm.getProbability(gram) != cache.get(gram)) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assert.assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(cache.getHit() > 0);
+    }
+
     @Test
     public void ngramExistTest() throws IOException {
         SmoothLm lm = getTinyLm();
@@ -0,0 +1,58 @@
+package zemberek.lm.estimation;
+
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class IntRecordSorterTest {
+
+    @Test
+    public void mergeWithMoreRunsThanFanIn() throws IOException {
+        File dir = Files.createTempDir();
+        dir.deleteOnExit();
+        int width = 3;
+        // 5 records fit in memory, so 2000 records generate about 400 runs.
+        long budget = 5 * (IntRecordSorter.RECORD_OVERHEAD + width * 4);
+        IntRecordSorter sorter = new IntRecordSorter(dir, width, IntRecordSorter.suffixOrder(2), true, budget);
+        sorter.maxMergeFanIn = 3;
+
+        // expected counts keyed with [second, first] so that iteration order is the suffix order.
+        Map<Long, Integer> expected = new TreeMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            int[] record = {random.nextInt(30), random.nextInt(30), 1 + random.nextInt(3)};
+            sorter.add(record);
+            expected.merge(((long) record[1] << 32) | record[0], record[2], Integer::sum);
+        }
+        File output = new File(dir, "sorted");
+        Assert.assertEquals(expected.size(), sorter.sortTo(output));
+
+        List<int[]> actual = new ArrayList<>();
+        try (IntRecordSorter.RecordReader reader = new IntRecordSorter.RecordReader(output, width)) {
+            while (reader.next()) {
+                actual.add(reader.get().clone());
+            }
+        }
+        Assert.assertEquals(expected.size(), actual.size());
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            int[] record = {(int) (long) entry.getKey(), (int) (entry.getKey() >>> 32), entry.getValue()};
+            Assert.assertArrayEquals(Arrays.toString(actual.get(i)), record, actual.get(i));
+            i++;
+        }
+        // only the output should remain, all runs are removed.
+        File[] files = dir.listFiles();
+        Assert.assertNotNull(files);
+        Assert.assertEquals(1, files.length);
+        Assert.assertTrue(output.delete());
+    }
+}
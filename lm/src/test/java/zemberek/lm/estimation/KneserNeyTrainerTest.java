@@ -0,0 +1,97 @@
+package zemberek.lm.estimation;
+
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.MultiFileUncompressedLm;
+import zemberek.lm.compression.SmoothLm;
+import zemberek.lm.compression.UncompressedToSmoothLmConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class KneserNeyTrainerTest {
+
+    // Generates sentences from a small vocabulary with a skewed word distribution.
+    public static List<String> randomCorpus(int sentenceCount, int vocabularySize, int seed) {
+        Random random = new Random(seed);
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < sentenceCount; i++) {
+            int length = 1 + random.nextInt(8);
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                int w = (int) (vocabularySize * Math.pow(random.nextDouble(), 2));
+                sb.append("w").append(w).append(j < length - 1 ? " " : "");
+            }
+            sentences.add(sb.toString());
+        }
+        return sentences;
+    }
+
+    private SmoothLm compress(MultiFileUncompressedLm uncompressed, File dir) throws IOException {
+        File lmFile = new File(dir, "kn.slm");
+        new UncompressedToSmoothLmConverter(lmFile, dir).convertSmall(
+                uncompressed.getLmDir(), new UncompressedToSmoothLmConverter.NgramDataBlock(24, 24, 24));
+        return SmoothLm.builder(lmFile).build();
+    }
+
+    @Test
+    public void probabilitiesShouldSumToOne() throws IOException {
+        File dir = Files.createTempDir();
+        dir.deleteOnExit();
+        List<String> corpus = randomCorpus(2000, 60, 1);
+        MultiFileUncompressedLm uncompressed = new KneserNeyTrainer(3, dir).train(corpus, new File(dir, "model"));
+        SmoothLm lm = compress(uncompressed, dir);
+        Assert.assertEquals(3, lm.getOrder());
+        LmVocabulary vocabulary = lm.getVocabulary();
+        int sentenceBegin = vocabulary.getSentenceStartIndex();
+
+        // seen and unseen contexts of all orders.
+        String[][] contexts = {
+                {}, {"w0"}, {"w59"}, {"<s>"}, {"<unk>"}, {"<s>", "w0"}, {"w0", "w1"}, {"w3", "w0"},
+                {"w58", "w59"}, {"<s>", "w57"}, {"w0", "<unk>"}};
+        for (String[] context : contexts) {
+            int[] gram = new int[context.length + 1];
+            for (int i = 0; i < context.length; i++) {
+                gram[i] = vocabulary.indexOf(context[i]);
+            }
+            double sum = 0;
+            for (int w = 0; w < vocabulary.size(); w++) {
+                if (w == sentenceBegin) {
+                    continue;
+                }
+                gram[context.length] = w;
+                sum += Math.pow(10, lm.getProbability(gram));
+            }
+            Assert.assertEquals("Context " + String.join(" ", context), 1d, sum, 0.001);
+        }
+    }
+
+    @Test
+    public void spillingShouldGiveSameModel() throws IOException {
+        File dir = Files.createTempDir();
+        dir.deleteOnExit();
+        List<String> corpus = randomCorpus(1000, 40, 2);
+        File expectedDir = new File(dir, "expected");
+        File actualDir = new File(dir, "actual");
+        new KneserNeyTrainer(4, dir).train(corpus, expectedDir);
+        // A very small budget causes every sorter to spill runs with a few records.
+        new KneserNeyTrainer(4, dir, 500).train(corpus, actualDir);
+
+        File[] expectedFiles = expectedDir.listFiles();
+        Assert.assertNotNull(expectedFiles);
+        Assert.assertEquals(4 * 3 + 1, expectedFiles.length);
+        for (File expected : expectedFiles) {
+            File actual = new File(actualDir, expected.getName());
+            Assert.assertTrue(actual.getName(), Files.equal(expected, actual));
+        }
+        // work directories should be removed.
+        File[] remaining = dir.listFiles((d, name) -> name.startsWith("kn"));
+        Assert.assertNotNull(remaining);
+        Assert.assertEquals(0, remaining.length);
+    }
+}
@@ -237,7 +237,8 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
             int j = 0;
             for (WordAnalysis parse : entry.parses) {
                 String rootPart = parse.dictionaryItem.lemma;
-                WordAnalysis.InflectionalGroup firstIg = parse.inflectionalGroups.get(0);
+                List<WordAnalysis.InflectionalGroup> parseIgs = parse.getInflectionalGroups();
+                WordAnalysis.InflectionalGroup firstIg = parseIgs.get(0);
                 if (firstIg.suffixList.size() == 0)
                     rootPart += firstIg.formatNoSurface();
                 else {
@@ -248,10 +249,10 @@ public class Z3MarkovModelDisambiguator extends Z3AbstractDisambiguator implemen
                 }
                 roots[j] = rootLm.getVocabulary().indexOf(rootPart);
                 String igPart;
-                int igSize = parse.inflectionalGroups.size();
-                if (igSize > 1 && parse.inflectionalGroups.get(igSize - 2).suffixList.size() == 0) {
-                    igPart = parse.inflectionalGroups.get(igSize - 2).formatNoSurface() + parse.getLastIg();
-                } else igPart = parse.getLastIg().formatNoSurface();
+                int igSize = parseIgs.size();
+                if (igSize > 1 && parseIgs.get(igSize - 2).suffixList.size() == 0) {
+                    igPart = parseIgs.get(igSize - 2).formatNoSurface() + parseIgs.get(igSize - 1);
+                } else igPart = parseIgs.get(igSize - 1).formatNoSurface();
                 lastIgs[j] = igLm.getVocabulary().indexOf(igPart);
                 j++;
             }
@@ -222,9 +222,10 @@ public class Z3ModelA extends Z3AbstractDisambiguator implements TurkishMorphDis
             for (WordAnalysis parse : entry.parses) {
                 String rootPart = parse.dictionaryItem.lemma;
                 roots[j] = rootLm.getVocabulary().indexOf(rootPart);
-                igs[j] = new int[parse.inflectionalGroups.size()];
-                for (int k = 0; j < parse.inflectionalGroups.size(); k++) {
-                    igs[j][k] = igLm.getVocabulary().indexOf(parse.inflectionalGroups.get(k).formatNoSurface());
+                List<WordAnalysis.InflectionalGroup> parseIgs = parse.getInflectionalGroups();
+                igs[j] = new int[parseIgs.size()];
+                for (int k = 0; j < parseIgs.size(); k++) {
+                    igs[j][k] = igLm.getVocabulary().indexOf(parseIgs.get(k).formatNoSurface());
                 }
                 j++;
             }
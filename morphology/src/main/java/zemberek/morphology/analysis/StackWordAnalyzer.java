@@ -0,0 +1,235 @@
+package zemberek.morphology.analysis;
+
+import com.google.common.collect.Lists;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.StemNode;
+import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
+import zemberek.morphology.lexicon.graph.TerminationType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A WordAnalyzer that traverses the suffix graph without creating intermediate objects.
+ * Search paths are kept in reusable per thread arrays. A path is represented with its last surface node,
+ * index of its parent path, offset in the input and the terminal flag. Paths of the same depth are stored
+ * consecutively, so traversal is breadth first like in {@link WordAnalyzer} and results are returned in the same order.
+ * WordAnalysis objects are only generated for completed paths.
+ */
+public class StackWordAnalyzer extends WordAnalyzer {
+
+    private static final int MAX_PATH_COUNT_BEFORE_PRUNE = 50;
+    private static final int MAX_REPEATING_SUFFIX_TYPE_COUNT = 3;
+
+    private final ThreadLocal<PathStack> stacks = ThreadLocal.withInitial(PathStack::new);
+
+    public StackWordAnalyzer(DynamicLexiconGraph graph) {
+        super(graph);
+    }
+
+    @Override
+    public List<WordAnalysis> analyze(String input) {
+        PathStack stack = stacks.get();
+        stack.reset();
+
+        // get stem candidates and generate starting paths with suffix root nodes.
+        List<StemNode> candidates = stack.candidates;
+        graph.collectPrefixMatchingStemNodes(input, candidates);
+        for (StemNode candidate : candidates) {
+            stack.pushStem(candidate);
+        }
+        candidates.clear();
+        return traverse(input, stack);
+    }
+
+    @Override
+    public List<WordAnalysis> analyze(String input, List<StemNode> candidates) {
+        PathStack stack = stacks.get();
+        stack.reset();
+        for (StemNode candidate : candidates) {
+            if (input.startsWith(candidate.surfaceForm)) {
+                stack.pushStem(candidate);
+            }
+        }
+        return traverse(input, stack);
+    }
+
+    // traverses the suffix graph starting from the stem paths in the stack.
+    private List<WordAnalysis> traverse(String input, PathStack stack) {
+        List<WordAnalysis> result = Lists.newArrayListWithCapacity(3);
+        int levelStart = 0;
+        int levelEnd = stack.size;
+
+        // traverse suffix graph level by level.
+        while (levelEnd > levelStart) {
+            if (levelEnd - levelStart > MAX_PATH_COUNT_BEFORE_PRUNE) {
+                levelEnd = pruneCyclicPaths(stack, levelStart, levelEnd);
+            }
+            for (int p = levelStart; p < levelEnd; p++) {
+                int offset = stack.offsets[p];
+                boolean consumed = offset == input.length();
+                boolean matchFound = false;
+                for (SuffixSurfaceNode successor : stack.nodes[p].getSuccessorArray()) {
+                    if (!input.startsWith(successor.surfaceForm, offset)) {
+                        continue;
+                    }
+                    if (!consumed || successor.termination != TerminationType.NON_TERMINAL) {
+                        boolean terminal = stack.terminals[p];
+                        if (successor.termination == TerminationType.TERMINAL) {
+                            terminal = true;
+                        } else if (successor.termination == TerminationType.NON_TERMINAL) {
+                            terminal = false;
+                        }
+                        stack.push(
+                                stack.stems[p],
+                                successor,
+                                p,
+                                offset + successor.surfaceForm.length(),
+                                terminal);
+                        matchFound = true;
+                    }
+                }
+                if (!matchFound && consumed && stack.terminals[p]) {
+                    result.add(stack.toAnalysis(p));
+                }
+            }
+            levelStart = levelEnd;
+            levelEnd = stack.size;
+        }
+        return result;
+    }
+
+    // Same as WordAnalyzer.pruneCyclicPaths, paths with more than 3 repeating suffix forms are removed.
+    // Paths in the level are compacted in place, new end of the level is returned.
+    private int pruneCyclicPaths(PathStack stack, int levelStart, int levelEnd) {
+        int write = levelStart;
+        for (int p = levelStart; p < levelEnd; p++) {
+            int length = stack.fillPath(p);
+            if (!hasRepeatingSuffixForms(stack.path, length)) {
+                stack.copy(p, write);
+                write++;
+            }
+        }
+        stack.clear(write, levelEnd);
+        stack.size = write;
+        return write;
+    }
+
+    private boolean hasRepeatingSuffixForms(SuffixSurfaceNode[] path, int length) {
+        for (int i = 0; i < length; i++) {
+            String id = path[i].getSuffixForm().id;
+            int count = 1;
+            for (int j = i + 1; j < length; j++) {
+                if (path[j].getSuffixForm().id.equals(id)) {
+                    count++;
+                }
+            }
+            if (count > MAX_REPEATING_SUFFIX_TYPE_COUNT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class PathStack {
+        StemNode[] stems;
+        SuffixSurfaceNode[] nodes;
+        int[] parents;
+        int[] offsets;
+        boolean[] terminals;
+        int size;
+
+        // buffer for stem candidates of the input.
+        List<StemNode> candidates = new ArrayList<>(4);
+
+        // buffer for holding surface nodes of a single path.
+        SuffixSurfaceNode[] path = new SuffixSurfaceNode[16];
+
+        PathStack() {
+            int capacity = 64;
+            stems = new StemNode[capacity];
+            nodes = new SuffixSurfaceNode[capacity];
+            parents = new int[capacity];
+            offsets = new int[capacity];
+            terminals = new boolean[capacity];
+        }
+
+        void reset() {
+            // clear references so that graph nodes are not retained from previous calls.
+            clear(0, size);
+            size = 0;
+        }
+
+        void clear(int from, int to) {
+            Arrays.fill(stems, from, to, null);
+            Arrays.fill(nodes, from, to, null);
+        }
+
+        // pushes a starting path with the suffix root node of the stem.
+        void pushStem(StemNode stem) {
+            push(stem,
+                    stem.getSuffixRootSurfaceNode(),
+                    -1,
+                    stem.surfaceForm.length(),
+                    stem.termination == TerminationType.TERMINAL);
+        }
+
+        void push(StemNode stem, SuffixSurfaceNode node, int parent, int offset, boolean terminal) {
+            if (size == nodes.length) {
+                grow();
+            }
+            stems[size] = stem;
+            nodes[size] = node;
+            parents[size] = parent;
+            offsets[size] = offset;
+            terminals[size] = terminal;
+            size++;
+        }
+
+        void copy(int from, int to) {
+            if (from == to) {
+                return;
+            }
+            stems[to] = stems[from];
+            nodes[to] = nodes[from];
+            parents[to] = parents[from];
+            offsets[to] = offsets[from];
+            terminals[to] = terminals[from];
+        }
+
+        private void grow() {
+            int capacity = nodes.length * 2;
+            stems = Arrays.copyOf(stems, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            terminals = Arrays.copyOf(terminals, capacity);
+        }
+
+        /**
+         * Fills the path buffer with surface nodes of the path ending at given index, starting from the suffix root node.
+         *
+         * @return node count in the path.
+         */
+        int fillPath(int index) {
+            int length = 0;
+            for (int p = index; p >= 0; p = parents[p]) {
+                length++;
+            }
+            if (length > path.length) {
+                path = new SuffixSurfaceNode[length * 2];
+            }
+            int i = length - 1;
+            for (int p = index; p >= 0; p = parents[p]) {
+                path[i--] = nodes[p];
+            }
+            return length;
+        }
+
+        WordAnalysis toAnalysis(int index) {
+            int length = fillPath(index);
+            return new WordAnalysis(stems[index], Arrays.copyOf(path, length));
+        }
+    }
+}
@@ -21,12 +21,28 @@ import java.util.Map;
  * Every WordAnalysis must have at least one Inflectional group element in it .
  * First inflectional group element contains the primary and secondary Pos of the Dictionary item.
  * Last Inflectional group defines the pos of the word in general.
+ * <p>
+ * Analyses generated by word analyzers are kept in a compact form. They only hold the dictionary item, root and
+ * an array of suffix surface nodes of the lexicon graph. Because these nodes are shared by all analyses, this
+ * requires much less memory than keeping inflectional group and suffix data objects for every analysis.
+ * Inflectional groups are generated from the nodes when they are requested and they are not stored, so formatting
+ * methods and {@link #getInflectionalGroups()} generate new objects for every call. {@link #getPos()} and
+ * {@link #getLastIg()} only process the nodes of the last inflectional group.
  */
 public class WordAnalysis {
 
     public DictionaryItem dictionaryItem;
     public String root;
+    /**
+     * Inflectional groups of analyses created with explicit inflectional groups. For compact analyses generated by
+     * word analyzers this is null.
+     *
+     * @deprecated use {@link #getInflectionalGroups()}, which works for both forms. This field will be removed.
+     */
+    @Deprecated
     public List<InflectionalGroup> inflectionalGroups;
+    // Not null for compact analyses.
+    private final SuffixSurfaceNode[] suffixNodes;
 
     public static class SuffixData {
         public final Suffix suffix;
@@ -51,6 +67,56 @@ public class WordAnalysis {
         this.dictionaryItem = dictionaryItem;
         this.root = root;
         this.inflectionalGroups = inflectionalGroups;
+        this.suffixNodes = null;
+    }
+
+    /**
+     * Creates a compact analysis.
+     *
+     * @param stemNode    stem node of the analysis.
+     * @param suffixNodes suffix surface nodes of the analysis path. Array is not copied.
+     */
+    public WordAnalysis(StemNode stemNode, SuffixSurfaceNode[] suffixNodes) {
+        this.dictionaryItem = stemNode.getDictionaryItem();
+        this.root = stemNode.surfaceForm;
+        this.suffixNodes = suffixNodes;
+        this.inflectionalGroups = null;
+    }
+
+    public WordAnalysis(StemNode stemNode, List<SuffixSurfaceNode> suffixSurfaceNodes) {
+        this(stemNode, suffixSurfaceNodes.toArray(new SuffixSurfaceNode[suffixSurfaceNodes.size()]));
+    }
+
+    /**
+     * Returns inflectional groups of this analysis. For compact analyses, a new list is generated for every call.
+     */
+    public List<InflectionalGroup> getInflectionalGroups() {
+        return inflectionalGroups != null ? inflectionalGroups : generateInflectionalGroups();
+    }
+
+    /**
+     * Returns true if this analysis is kept in compact form with suffix surface nodes of the lexicon graph.
+     */
+    public boolean isCompact() {
+        return suffixNodes != null;
+    }
+
+    /**
+     * Returns the number of suffix surface nodes of a compact analysis, including the suffix root node.
+     * For other analyses returns 0.
+     */
+    public int suffixNodeCount() {
+        return suffixNodes == null ? 0 : suffixNodes.length;
+    }
+
+    /**
+     * Returns the suffix surface node at given index of a compact analysis.
+     */
+    public SuffixSurfaceNode getSuffixNode(int index) {
+        if (suffixNodes == null) {
+            throw new IllegalStateException("Analysis " + this + " is not compact.");
+        }
+        return suffixNodes[index];
     }
 
     /**
@@ -59,9 +125,7 @@ public class WordAnalysis {
     public String getPronunciation() {
         StringBuilder sb = new StringBuilder();
         sb.append(dictionaryItem.pronunciation);
-        for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
-            sb.append(inflectionalGroup.surfaceForm());
-        }
+        appendSuffixSurfaces(sb);
         return sb.toString();
     }
 
@@ -71,19 +135,116 @@ public class WordAnalysis {
     public String getSurfaceForm() {
         StringBuilder sb = new StringBuilder();
         sb.append(root);
-        for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
-            sb.append(inflectionalGroup.surfaceForm());
-        }
+        appendSuffixSurfaces(sb);
         return sb.toString();
     }
 
+    private void appendSuffixSurfaces(StringBuilder sb) {
+        if (suffixNodes != null) {
+            for (int j = 0; j < suffixNodes.length; j++) {
+                if (hasSuffixData(j)) {
+                    sb.append(suffixNodes[j].surfaceForm);
+                }
+            }
+        } else {
+            for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
+                sb.append(inflectionalGroup.surfaceForm());
+            }
+        }
+    }
+
+    // Returns the template of the suffix node if it is an inflectional group boundary, otherwise null.
+    private SuffixFormTemplate igBoundaryTemplate(int j) {
+        SuffixForm form = suffixNodes[j].getSuffixForm();
+        if (form instanceof NullSuffixForm) {
+            SuffixFormTemplate template = ((NullSuffixForm) form).getTemplate();
+            if (template instanceof DerivationalSuffixTemplate || j == 0) {
+                return template;
+            }
+        }
+        return null;
+    }
+
+    // true if suffix node at index j is represented with a SuffixData in inflectional groups.
+    private boolean hasSuffixData(int j) {
+        return igBoundaryTemplate(j) == null && !(suffixNodes[j].getSuffixForm().getSuffix() instanceof RootSuffix);
+    }
+
 
     public PrimaryPos getPos() {
-        return inflectionalGroups.get(inflectionalGroups.size() - 1).pos;
+        if (suffixNodes == null) {
+            return getLastIg().pos;
+        }
+        return igPos(lastIgStart());
     }
 
+    /**
+     * Returns the last inflectional group. For compact analyses, only the last group is generated.
+     */
     public InflectionalGroup getLastIg() {
-        return inflectionalGroups.get(inflectionalGroups.size() - 1);
+        if (suffixNodes == null) {
+            return inflectionalGroups.get(inflectionalGroups.size() - 1);
+        }
+        int start = lastIgStart();
+        InflectionalGroup ig = new InflectionalGroup();
+        ig.pos = igPos(start);
+        if (start == 0) {
+            ig.spos = dictionaryItem.secondaryPos;
+        }
+        for (int j = start; j < suffixNodes.length; j++) {
+            if (j > start && igBoundaryTemplate(j) != null) {
+                break;
+            }
+            if (hasSuffixData(j)) {
+                SuffixForm form = suffixNodes[j].getSuffixForm();
+                ig.suffixList.add(new SuffixData(form.suffix, suffixNodes[j].surfaceForm, form.generation));
+            }
+        }
+        return ig;
+    }
+
+    // Returns index of the boundary node that starts the last inflectional group, or 0 if it is the first group.
+    // A trailing group without suffix data is not generated, so in that case the group before it is the last one.
+    private int lastIgStart() {
+        int start = previousIgBoundary(suffixNodes.length);
+        if (start > 0) {
+            boolean hasSuffixData = false;
+            for (int j = start + 1; j < suffixNodes.length && !hasSuffixData; j++) {
+                hasSuffixData = hasSuffixData(j);
+            }
+            if (!hasSuffixData) {
+                start = previousIgBoundary(start);
+            }
+        }
+        return start;
+    }
+
+    // Returns index of the last inflectional group boundary node before given index, or 0 if there is none.
+    private int previousIgBoundary(int index) {
+        for (int j = index - 1; j > 0; j--) {
+            if (igBoundaryTemplate(j) != null) {
+                return j;
+            }
+        }
+        return 0;
+    }
+
+    // Pos of the inflectional group that starts at given node index.
+    private PrimaryPos igPos(int start) {
+        if (start == 0) {
+            if (dictionaryItem.primaryPos != null) {
+                return dictionaryItem.primaryPos;
+            }
+            // Same as generateInflectionalGroups(), first boundary provides the pos if item has none.
+            for (int j = 0; j < suffixNodes.length; j++) {
+                SuffixFormTemplate template = igBoundaryTemplate(j);
+                if (template != null) {
+                    return ((RootSuffix) template.getSuffix()).pos;
+                }
+            }
+            return null;
+        }
+        return ((RootSuffix) igBoundaryTemplate(start).getSuffix()).pos;
     }
 
     public boolean isUnknown() {
@@ -183,6 +344,14 @@ public class WordAnalysis {
 
     public List<String> suffixSurfaceList() {
         List<String> result = new ArrayList<>();
+        if (suffixNodes != null) {
+            for (int j = 0; j < suffixNodes.length; j++) {
+                if (hasSuffixData(j)) {
+                    result.add(suffixNodes[j].surfaceForm);
+                }
+            }
+            return result;
+        }
         for (InflectionalGroup ig : inflectionalGroups) {
             for (SuffixData sd : ig.suffixList) {
                 result.add(sd.surface);
@@ -203,11 +372,7 @@ public class WordAnalysis {
      */
     public StemAndEnding getStemAndEnding() {
         StringBuilder sb = new StringBuilder();
-        for (InflectionalGroup ig : inflectionalGroups) {
-            for (SuffixData data : ig.suffixList) {
-                sb.append(data.surface);
-            }
-        }
+        appendSuffixSurfaces(sb);
         return new StemAndEnding(root, sb.toString());
     }
 
@@ -230,13 +395,14 @@ public class WordAnalysis {
      * "kavrulduk" ->["kavr","kavrul"]
      */
     public List<String> getStems() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         List<String> stems = Lists.newArrayListWithCapacity(2);
         stems.add(root);
         String previousStem = stems.get(0);
-        if (inflectionalGroups.size() > 1) {
-            previousStem = previousStem + inflectionalGroups.get(0).surfaceForm();
-            for (int i = 1; i < inflectionalGroups.size(); i++) {
-                InflectionalGroup ig = inflectionalGroups.get(i);
+        if (igs.size() > 1) {
+            previousStem = previousStem + igs.get(0).surfaceForm();
+            for (int i = 1; i < igs.size(); i++) {
+                InflectionalGroup ig = igs.get(i);
                 SuffixData suffixData = ig.suffixList.get(0);
                 if (suffixData.surface.length() > 0) {
                     String surface = suffixData.surface;
@@ -260,13 +426,14 @@ public class WordAnalysis {
      * "arattıragörür" -> ["ara","arat","arattır","arattıragör"]
      */
     public List<String> getLemmas() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         List<String> lemmas = Lists.newArrayListWithCapacity(2);
         lemmas.add(dictionaryItem.root);
         String previousStem = root;
-        if (inflectionalGroups.size() > 1) {
-            previousStem = previousStem + inflectionalGroups.get(0).surfaceForm();
-            for (int i = 1; i < inflectionalGroups.size(); i++) {
-                InflectionalGroup ig = inflectionalGroups.get(i);
+        if (igs.size() > 1) {
+            previousStem = previousStem + igs.get(0).surfaceForm();
+            for (int i = 1; i < igs.size(); i++) {
+                InflectionalGroup ig = igs.get(i);
                 SuffixData suffixData = ig.suffixList.get(0);
                 if (suffixData.surface.length() > 0) {
                     String surface = suffixData.surface;
@@ -283,24 +450,16 @@ public class WordAnalysis {
         return lemmas;
     }
 
-    public WordAnalysis(StemNode stemNode, List<SuffixSurfaceNode> suffixSurfaceNodes) {
-        this.dictionaryItem = stemNode.getDictionaryItem();
-        this.root = stemNode.surfaceForm;
-
+    private List<InflectionalGroup> generateInflectionalGroups() {
         InflectionalGroup ig = new InflectionalGroup();
         List<InflectionalGroup> igs = Lists.newArrayListWithCapacity(2);
         ig.pos = dictionaryItem.primaryPos;
         ig.spos = dictionaryItem.secondaryPos;
-        int j = 0;
-        for (SuffixSurfaceNode suffixNode : suffixSurfaceNodes) {
-
-            SuffixFormTemplate template = null;
-            if (suffixNode.getSuffixForm() instanceof NullSuffixForm) {
-                template = ((NullSuffixForm) suffixNode.getSuffixForm()).getTemplate();
-            }
-
+        for (int j = 0; j < suffixNodes.length; j++) {
+            SuffixSurfaceNode suffixNode = suffixNodes[j];
+            SuffixFormTemplate template = igBoundaryTemplate(j);
             // if node is a derivational node then we create a new ig and store the other
-            if (template != null && (template instanceof DerivationalSuffixTemplate || j == 0)) {
+            if (template != null) {
                 RootSuffix rootSuffix = (RootSuffix) template.getSuffix();
                 if (ig.pos == null) {
                     ig.pos = rootSuffix.pos;
@@ -320,15 +479,22 @@ public class WordAnalysis {
                     ig.suffixList.add(suffixData);
                 }
             }
-            j++;
         }
         if (igs.isEmpty() || !ig.suffixList.isEmpty()) {
             igs.add(ig);
         }
-        this.inflectionalGroups = igs;
+        return igs;
     }
 
     public boolean containsSuffix(Suffix suffix) {
+        if (suffixNodes != null) {
+            for (int j = 0; j < suffixNodes.length; j++) {
+                if (hasSuffixData(j) && suffixNodes[j].getSuffixForm().suffix.id.equals(suffix.id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
         for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
             if (inflectionalGroup.containsSuffix(suffix))
                 return true;
@@ -338,6 +504,14 @@ public class WordAnalysis {
 
     public List<Suffix> getSuffixes() {
         List<Suffix> suffixes = Lists.newArrayListWithCapacity(4);
+        if (suffixNodes != null) {
+            for (int j = 0; j < suffixNodes.length; j++) {
+                if (hasSuffixData(j)) {
+                    suffixes.add(suffixNodes[j].getSuffixForm().suffix);
+                }
+            }
+            return suffixes;
+        }
         for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
             for (SuffixData sd : inflectionalGroup.suffixList) {
                 suffixes.add(sd.suffix);
@@ -347,8 +521,9 @@ public class WordAnalysis {
     }
 
     public List<SuffixData> getSuffixDataList() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         List<SuffixData> suffixes = Lists.newArrayListWithCapacity(4);
-        for (InflectionalGroup inflectionalGroup : inflectionalGroups) {
+        for (InflectionalGroup inflectionalGroup : igs) {
             suffixes.addAll(inflectionalGroup.suffixList);
         }
         return suffixes;
@@ -369,11 +544,12 @@ public class WordAnalysis {
     }
 
     public String formatOflazer() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         StringBuilder sb = new StringBuilder();
         sb.append(dictionaryItem.root).append("+");
 
         int i = 0;
-        for (InflectionalGroup ig : inflectionalGroups) {
+        for (InflectionalGroup ig : igs) {
             if (i == 0) {
                 if (ig.pos == PrimaryPos.Adverb) {
                     sb.append("Adverb"); // Oflazer uses Adverb, we use Adv
@@ -405,10 +581,11 @@ public class WordAnalysis {
     }
 
     public String formatLong() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         StringBuilder sb = new StringBuilder("[(").append(dictionaryItem.lemma);
         sb.append(":").append(root).append(") ");
 
-        for (InflectionalGroup ig : inflectionalGroups) {
+        for (InflectionalGroup ig : igs) {
             sb.append(ig.toString());
         }
         sb.append("]");
@@ -416,8 +593,9 @@ public class WordAnalysis {
     }
 
     public String formatNoSurface() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         StringBuilder sb = new StringBuilder("[(").append(dictionaryItem.lemma).append(") ");
-        for (InflectionalGroup ig : inflectionalGroups) {
+        for (InflectionalGroup ig : igs) {
             sb.append(ig.formatNoSurface());
         }
         sb.append("]");
@@ -425,8 +603,9 @@ public class WordAnalysis {
     }
 
     public String formatNoEmpty() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         StringBuilder sb = new StringBuilder("[(").append(dictionaryItem.lemma).append(") ");
-        for (InflectionalGroup ig : inflectionalGroups) {
+        for (InflectionalGroup ig : igs) {
             sb.append(ig.formatNoEmpty());
         }
         sb.append("]");
@@ -434,8 +613,9 @@ public class WordAnalysis {
     }
 
     public String formatOnlyIgs() {
+        List<InflectionalGroup> igs = getInflectionalGroups();
         StringBuilder sb = new StringBuilder();
-        for (InflectionalGroup ig : inflectionalGroups) {
+        for (InflectionalGroup ig : igs) {
             sb.append(ig.formatNoSurface());
         }
         return sb.toString();
@@ -21,15 +21,26 @@ public class WordAnalyzer {
 
     public List<WordAnalysis> analyze(String input) {
         // get stem candidates.
-        List<StemNode> candidates = Lists.newArrayListWithCapacity(3);
-        for (int i = 1; i <= input.length(); i++) {
-            String stem = input.substring(0, i);
-            candidates.addAll(graph.getMatchingStemNodes(stem));
-        }
+        List<StemNode> candidates = graph.getPrefixMatchingStemNodes(input);
+        return analyze(input, candidates);
+    }
 
+    /**
+     * Analyzes the input using only the given stem nodes instead of the stems in the graph. Stem nodes need to be
+     * connected to suffix root nodes, but they do not need to be in the graph. Stems whose surface forms
+     * are not prefixes of the input are ignored.
+     *
+     * @param input      input word.
+     * @param candidates stem candidates.
+     * @return analysis results.
+     */
+    public List<WordAnalysis> analyze(String input, List<StemNode> candidates) {
         // generate starting tokens with suffix root nodes.
         List<Token> initialTokens = Lists.newArrayListWithCapacity(5);
         for (StemNode candidate : candidates) {
+            if (!input.startsWith(candidate.surfaceForm)) {
+                continue;
+            }
             String rest = input.substring(candidate.surfaceForm.length());
             initialTokens.add(new Token(candidate, Lists.newArrayList(candidate.getSuffixRootSurfaceNode()), rest));
         }
@@ -79,11 +90,7 @@ public class WordAnalyzer {
     public void dump(String input) {
         // get stem candidates.
         System.out.println("  Input:" + input);
-        List<StemNode> candidates = Lists.newArrayList();
-        for (int i = 1; i <= input.length(); i++) {
-            String stem = input.substring(0, i);
-            candidates.addAll(graph.getMatchingStemNodes(stem));
-        }
+        List<StemNode> candidates = graph.getPrefixMatchingStemNodes(input);
         System.out.println("  Stem Nodes:");
         for (StemNode candidate : candidates) {
             System.out.println(candidate);
@@ -0,0 +1,44 @@
+package zemberek.morphology.analysis.cache;
+
+import zemberek.morphology.analysis.WordAnalysis;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A cache for word analysis results. Implementations must be thread safe.
+ * Cached analysis lists are shared between callers so they should not be modified.
+ */
+public interface AnalysisCache {
+
+    /**
+     * Returns cached analysis results of the input. If input is not in the cache, results are generated with
+     * the loader and may be added to the cache.
+     *
+     * @param input  input word.
+     * @param loader generates analysis results of the input when it is not cached.
+     * @return analysis results.
+     */
+    List<WordAnalysis> get(String input, Function<String, List<WordAnalysis>> loader);
+
+    /**
+     * Adds analysis results of an input that will not be evicted. This is used for pre-loading
+     * most frequent words. Pinned entries are only removed with {@link #invalidate(String)} or {@link #invalidateAll()}
+     * and they are not pinned again by the cache.
+     */
+    void pin(String input, List<WordAnalysis> analyses);
+
+    void invalidate(String input);
+
+    void invalidateAll();
+
+    /**
+     * Returns amount of entries in the cache, including pinned entries.
+     */
+    int size();
+
+    /**
+     * Returns a snapshot of cache statistics.
+     */
+    AnalysisCacheStats getStats();
+}
@@ -0,0 +1,57 @@
+package zemberek.morphology.analysis.cache;
+
+/**
+ * Immutable snapshot of analysis cache statistics.
+ */
+public class AnalysisCacheStats {
+
+    public static final AnalysisCacheStats EMPTY = new AnalysisCacheStats(0, 0, 0, 0, 0, 0);
+
+    public final long hitCount;
+    public final long missCount;
+    public final long evictionCount;
+    public final long loadCount;
+    public final long totalLoadTimeNanos;
+    public final int size;
+
+    public AnalysisCacheStats(
+            long hitCount,
+            long missCount,
+            long evictionCount,
+            long loadCount,
+            long totalLoadTimeNanos,
+            int size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.loadCount = loadCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.size = size;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * Returns ratio of hits to all requests. If there is no request, returns 1.
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1d : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Returns average time spent for generating analysis results of a missed input.
+     */
+    public double averageLoadPenaltyNanos() {
+        return loadCount == 0 ? 0d : (double) totalLoadTimeNanos / loadCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d requests=%d hits=%d misses=%d hitRate=%.4f evictions=%d averageLoad=%.1fus",
+                size, requestCount(), hitCount, missCount, hitRate(), evictionCount,
+                averageLoadPenaltyNanos() / 1000d);
+    }
+}
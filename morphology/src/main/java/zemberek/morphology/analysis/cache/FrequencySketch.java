@@ -0,0 +1,74 @@
+package zemberek.morphology.analysis.cache;
+
+/**
+ * A Count-Min sketch with 4 bit counters for estimating access frequencies of cache keys. Each long in the table
+ * holds 16 counters, each key is mapped to 4 counters and its frequency is the minimum of them.
+ * When amount of increments reaches the sample size, all counters are halved so that old accesses fade away.
+ * This class is not thread safe.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int incrementCount;
+
+    FrequencySketch(int maximumSize) {
+        int size = Math.max(maximumSize, 16);
+        int length = Integer.highestOneBit(size - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = size * 10;
+    }
+
+    int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            int count = (int) ((table[indexOf(hash, i)] >>> counterOffset(hash, i)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), counterOffset(hash, i));
+        }
+        if (added && ++incrementCount == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        incrementCount = incrementCount / 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    // returns the bit offset of the counter in the long value.
+    private static int counterOffset(int hash, int i) {
+        return (((hash >>> (i << 3)) + i) & 0xf) << 2;
+    }
+}
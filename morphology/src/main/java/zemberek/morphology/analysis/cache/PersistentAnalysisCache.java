@@ -0,0 +1,504 @@
+package zemberek.morphology.analysis.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import zemberek.core.logging.Log;
+import zemberek.core.turkish.PrimaryPos;
+import zemberek.core.turkish.SecondaryPos;
+import zemberek.morphology.analysis.WordAnalysis;
+import zemberek.morphology.lexicon.DictionaryItem;
+import zemberek.morphology.lexicon.RootLexicon;
+import zemberek.morphology.lexicon.SuffixForm;
+import zemberek.morphology.lexicon.SuffixProvider;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.StemNode;
+import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent analysis cache that keeps analysis results in a memory mapped, append only file so that they can be
+ * reused after restarts.
+ * <p>
+ * File starts with a header that contains a lexicon fingerprint and the length of committed data. Each record
+ * contains the 64 bit hash of the word, the word itself and encoded analyses. An analysis is encoded with its
+ * dictionary item id, surface form, root length and suffix form ids of its suffix surface node path. When
+ * analyses are read, this path is resolved in the lexicon graph, so compact analyses that refer to shared graph
+ * nodes are returned. When a file is opened, records are scanned once to build an in-memory index from word hashes
+ * to record offsets. If fingerprint of the file does not match the fingerprint of the current lexicon and suffixes,
+ * file content is discarded.
+ * <p>
+ * Only compact analyses with dictionary items of the lexicon are stored. Words with runtime items, such as proper
+ * nouns and numerals generated by the unidentified token analyzer, are not stored.
+ * <p>
+ * Reads are lock free, appends are synchronized. Committed length is updated after a record is written, so
+ * partially written records are ignored if process terminates during a write. Because memory mapped pages may
+ * reach the disk in any order, header and records are validated when the file is opened. If they are not
+ * consistent, file content is discarded.
+ * <p>
+ * A cache file can only be used by a single instance. The file is locked exclusively when it is opened and the lock
+ * is released when the cache is closed. Opening a file that is used by another process or by another instance in the
+ * same process fails with an IOException.
+ */
+public class PersistentAnalysisCache implements Closeable {
+
+    private static final int MAGIC = 0x5a504143; // ZPAC
+    private static final int VERSION = 2;
+    // magic, version, fingerprint, committed length
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int COMMITTED_LENGTH_OFFSET = 16;
+    // record length, word hash
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+    private static final int INITIAL_MAP_SIZE = 1 << 20;
+    private static final int NULL_LENGTH = 0xffff;
+
+    private final FileChannel channel;
+    private final RootLexicon lexicon;
+    private final DynamicLexiconGraph graph;
+    private final long fingerprint;
+
+    private volatile MappedByteBuffer buffer;
+    private volatile int committedLength;
+    private final Map<Long, Integer> index = new ConcurrentHashMap<>();
+
+    private PersistentAnalysisCache(
+            FileChannel channel,
+            RootLexicon lexicon,
+            SuffixProvider suffixProvider,
+            DynamicLexiconGraph graph) {
+        this.channel = channel;
+        this.lexicon = lexicon;
+        this.graph = graph;
+        Set<String> ids = new TreeSet<>();
+        for (SuffixForm form : suffixProvider.getAllForms()) {
+            ids.add(form.getSuffix().id);
+            ids.add(form.getId());
+        }
+        this.fingerprint = fingerprint(lexicon, ids);
+    }
+
+    /**
+     * Opens or creates a persistent cache file.
+     *
+     * @param path           cache file.
+     * @param lexicon        lexicon used for analysis. Dictionary items are resolved with their ids from this lexicon.
+     * @param suffixProvider suffix provider used for analysis.
+     * @param graph          lexicon graph used for analysis. Suffix surface node paths are resolved in this graph.
+     * @throws IOException if file cannot be opened or it is locked by another process or cache instance.
+     */
+    public static PersistentAnalysisCache open(
+            Path path,
+            RootLexicon lexicon,
+            SuffixProvider suffixProvider,
+            DynamicLexiconGraph graph) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Persistent analysis cache file " + path + " is used by another process or " +
+                        "cache instance.");
+            }
+            PersistentAnalysisCache cache = new PersistentAnalysisCache(channel, lexicon, suffixProvider, graph);
+            cache.load();
+            return cache;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_MAP_SIZE));
+        if (size < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != fingerprint) {
+            if (size > 0) {
+                Log.info("Persistent analysis cache is generated with a different lexicon. It will be reset.");
+            }
+            reset();
+            return;
+        }
+        int length = buffer.getInt(COMMITTED_LENGTH_OFFSET);
+        if (length < HEADER_SIZE || length > size) {
+            Log.warn("Persistent analysis cache has an invalid committed length %d. It will be reset.", length);
+            reset();
+            return;
+        }
+        committedLength = length;
+        int offset = HEADER_SIZE;
+        while (offset < committedLength) {
+            int recordLength = buffer.getInt(offset);
+            if (recordLength < RECORD_HEADER_SIZE || recordLength > committedLength - offset) {
+                Log.warn("Persistent analysis cache has an invalid record at %d. It will be reset.", offset);
+                reset();
+                return;
+            }
+            index.put(buffer.getLong(offset + 4), offset);
+            offset += recordLength;
+        }
+        Log.info("Persistent analysis cache has %d words.", index.size());
+    }
+
+    private void reset() {
+        index.clear();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, fingerprint);
+        committedLength = HEADER_SIZE;
+        buffer.putInt(COMMITTED_LENGTH_OFFSET, committedLength);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        reset();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns analyses of the word if it exists in the cache, otherwise null.
+     */
+    public List<WordAnalysis> get(String word) {
+        Integer offset = index.get(hash(word));
+        if (offset == null) {
+            return null;
+        }
+        MappedByteBuffer current = buffer;
+        Reader reader = new Reader(current, offset + RECORD_HEADER_SIZE, offset + current.getInt(offset));
+        try {
+            if (!word.equals(reader.readString())) {
+                return null;
+            }
+            int count = reader.readByte();
+            List<WordAnalysis> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                WordAnalysis analysis = reader.readAnalysis();
+                if (analysis == null) {
+                    return null;
+                }
+                result.add(analysis);
+            }
+            return result;
+        } catch (IndexOutOfBoundsException e) {
+            Log.warn("Persistent analysis cache record of %s is corrupted.", word);
+            return null;
+        }
+    }
+
+    /**
+     * Appends analyses of a word to the cache. If word already exists, analyses are not compact, contain dictionary
+     * items that do not exist in the lexicon or analyses are too large to be encoded, nothing is written.
+     *
+     * @return true if analyses are written.
+     */
+    public synchronized boolean put(String word, List<WordAnalysis> analyses) {
+        long hash = hash(word);
+        if (index.containsKey(hash)
+                || analyses.isEmpty()
+                || analyses.size() > Byte.MAX_VALUE
+                || word.length() >= NULL_LENGTH) {
+            return false;
+        }
+        for (WordAnalysis analysis : analyses) {
+            if (lexicon.getItemById(analysis.dictionaryItem.id) != analysis.dictionaryItem
+                    || !canEncode(analysis)) {
+                return false;
+            }
+        }
+        Writer writer = new Writer();
+        writer.writeInt(0); // record length placeholder.
+        writer.writeLong(hash);
+        writer.writeString(word);
+        writer.writeByte(analyses.size());
+        for (WordAnalysis analysis : analyses) {
+            writer.writeAnalysis(analysis);
+        }
+        byte[] record = writer.toByteArray();
+        int recordLength = record.length;
+        record[0] = (byte) (recordLength >>> 24);
+        record[1] = (byte) (recordLength >>> 16);
+        record[2] = (byte) (recordLength >>> 8);
+        record[3] = (byte) recordLength;
+
+        int offset = committedLength;
+        if ((long) offset + recordLength > Integer.MAX_VALUE) {
+            return false;
+        }
+        try {
+            ensureCapacity(offset + recordLength);
+        } catch (IOException e) {
+            Log.warn("Cannot grow persistent analysis cache. %s", e.getMessage());
+            return false;
+        }
+        MappedByteBuffer current = buffer;
+        for (int i = 0; i < recordLength; i++) {
+            current.put(offset + i, record[i]);
+        }
+        committedLength = offset + recordLength;
+        current.putInt(COMMITTED_LENGTH_OFFSET, committedLength);
+        index.put(hash, offset);
+        return true;
+    }
+
+    // Only compact analyses are written. Node counts are written as single bytes and strings are written with
+    // 16 bit lengths.
+    private static boolean canEncode(WordAnalysis analysis) {
+        if (!analysis.isCompact() || analysis.suffixNodeCount() > Byte.MAX_VALUE) {
+            return false;
+        }
+        String surface = analysis.getSurfaceForm();
+        return surface.length() < NULL_LENGTH && analysis.root.length() <= surface.length();
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        int capacity = buffer.capacity();
+        if (required <= capacity) {
+            return;
+        }
+        long newCapacity = capacity;
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(newCapacity, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Writes changes to the storage device.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Writes changes to the storage device and releases the file. Closing an already closed cache has no effect.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    // 64 bit FNV-1a hash of the chars of the word.
+    static long hash(String word) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            h ^= word.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Generates a fingerprint from dictionary item ids, suffix and suffix form ids and pos names.
+     * Cache files are only valid for the lexicon and suffixes they are generated with.
+     */
+    static long fingerprint(RootLexicon lexicon, Iterable<String> suffixIds) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(VERSION);
+        List<String> ids = new ArrayList<>(lexicon.size());
+        for (DictionaryItem item : lexicon) {
+            ids.add(item.id);
+        }
+        Collections.sort(ids);
+        for (String id : ids) {
+            hasher.putString(id, Charsets.UTF_8).putByte((byte) 0);
+        }
+        List<String> suffixes = new ArrayList<>();
+        suffixIds.forEach(suffixes::add);
+        Collections.sort(suffixes);
+        for (String suffix : suffixes) {
+            hasher.putString(suffix, Charsets.UTF_8).putByte((byte) 0);
+        }
+        for (PrimaryPos pos : PrimaryPos.values()) {
+            hasher.putString(pos.name(), Charsets.UTF_8);
+        }
+        for (SecondaryPos pos : SecondaryPos.values()) {
+            hasher.putString(pos.name(), Charsets.UTF_8);
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static class Writer {
+        byte[] data = new byte[256];
+        int size;
+
+        void writeByte(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = (byte) b;
+        }
+
+        void writeShort(int s) {
+            writeByte(s >>> 8);
+            writeByte(s);
+        }
+
+        void writeInt(int i) {
+            writeShort(i >>> 16);
+            writeShort(i);
+        }
+
+        void writeLong(long l) {
+            writeInt((int) (l >>> 32));
+            writeInt((int) l);
+        }
+
+        // null strings are written with NULL_LENGTH.
+        void writeString(String s) {
+            if (s == null) {
+                writeShort(NULL_LENGTH);
+                return;
+            }
+            writeShort(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                writeShort(s.charAt(i));
+            }
+        }
+
+        void writeAnalysis(WordAnalysis analysis) {
+            writeString(analysis.dictionaryItem.id);
+            writeString(analysis.getSurfaceForm());
+            writeShort(analysis.root.length());
+            writeByte(analysis.suffixNodeCount());
+            for (int i = 0; i < analysis.suffixNodeCount(); i++) {
+                writeString(analysis.getSuffixNode(i).getSuffixForm().getId());
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private class Reader {
+        final MappedByteBuffer buffer;
+        final int end;
+        int position;
+
+        Reader(MappedByteBuffer buffer, int position, int end) {
+            this.buffer = buffer;
+            this.position = position;
+            this.end = end;
+        }
+
+        private void check(int byteCount) {
+            if (position + byteCount > end) {
+                throw new IndexOutOfBoundsException("Read past the end of record at " + position);
+            }
+        }
+
+        int readByte() {
+            check(1);
+            return buffer.get(position++);
+        }
+
+        int readShort() {
+            check(2);
+            int s = buffer.getShort(position) & 0xffff;
+            position += 2;
+            return s;
+        }
+
+        String readString() {
+            int length = readShort();
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            check(length * 2);
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = buffer.getChar(position);
+                position += 2;
+            }
+            return new String(chars);
+        }
+
+        // returns null if analysis cannot be resolved with current lexicon and graph.
+        WordAnalysis readAnalysis() {
+            DictionaryItem item = lexicon.getItemById(readString());
+            String surface = readString();
+            int rootLength = readShort();
+            int nodeCount = readByte();
+            String[] formIds = new String[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                formIds[i] = readString();
+            }
+            if (item == null || surface == null || rootLength > surface.length()) {
+                return null;
+            }
+            String root = surface.substring(0, rootLength);
+            SuffixSurfaceNode[] path = new SuffixSurfaceNode[nodeCount];
+            for (StemNode stem : graph.getMatchingStemNodes(root)) {
+                if (stem.getDictionaryItem() != item) {
+                    continue;
+                }
+                if (nodeCount == 0) {
+                    return new WordAnalysis(stem, path);
+                }
+                SuffixSurfaceNode first = stem.getSuffixRootSurfaceNode();
+                if (first != null && resolve(first, 0, rootLength, surface, formIds, path)) {
+                    return new WordAnalysis(stem, path);
+                }
+            }
+            return null;
+        }
+
+        // Finds the path of nodes with given suffix form ids that generates the surface. Nodes with the same suffix
+        // form and surface produce the same analysis, so the first complete path is used.
+        private boolean resolve(
+                SuffixSurfaceNode node,
+                int index,
+                int offset,
+                String surface,
+                String[] formIds,
+                SuffixSurfaceNode[] path) {
+            if (!node.getSuffixForm().getId().equals(formIds[index])
+                    || !surface.startsWith(node.surfaceForm, offset)) {
+                return false;
+            }
+            path[index] = node;
+            int nextOffset = offset + node.surfaceForm.length();
+            if (index == formIds.length - 1) {
+                return nextOffset == surface.length();
+            }
+            for (SuffixSurfaceNode successor : node.getSuccessorArray()) {
+                if (resolve(successor, index + 1, nextOffset, surface, formIds, path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
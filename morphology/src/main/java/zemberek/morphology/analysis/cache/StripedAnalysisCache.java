@@ -0,0 +1,238 @@
+package zemberek.morphology.analysis.cache;
+
+import zemberek.morphology.analysis.WordAnalysis;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, lock striped analysis cache with a W-TinyLFU like admission policy.
+ * <p>
+ * Keys are distributed to stripes by their hash values and each stripe is guarded by its own lock, so threads
+ * accessing different stripes do not contend. A stripe has a small LRU window region and a larger LRU main region.
+ * New entries are added to the window. When window is full, its least recently used entry becomes a candidate
+ * for the main region and it is admitted only if its estimated access frequency is higher than the frequency of
+ * the least recently used entry of the main region. Frequencies are estimated with a Count-Min sketch.
+ * This keeps frequent words in the cache even when many rare words are analyzed.
+ * <p>
+ * Pinned entries are kept in a separate concurrent map which is read without locking and they are never evicted.
+ * <p>
+ * Analysis of a missed input is done outside of the lock. If multiple threads miss the same input at the same
+ * time, it may be analyzed more than once, but only the first result is cached and returned to all of them.
+ * Each stripe has a generation number that is incremented when its entries are removed. A result is not cached if
+ * the generation of its stripe changed during the analysis, so a result loaded before an invalidation, possibly with
+ * an old lexicon, is not added to the cache after it.
+ * <p>
+ * {@link #invalidateAll()} removes pinned entries too. Owners of the cache need to pin them again if required.
+ */
+public class StripedAnalysisCache implements AnalysisCache {
+
+    public static final int DEFAULT_MAX_SIZE = 100000;
+    public static final int DEFAULT_CONCURRENCY_LEVEL = Runtime.getRuntime().availableProcessors() * 4;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final Map<String, List<WordAnalysis>> pinned = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    public StripedAnalysisCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maxSize          maximum amount of entries in the cache, excluding pinned entries.
+     * @param concurrencyLevel expected amount of concurrently accessing threads. Amount of stripes is the smallest
+     *                         power of two that is not smaller than this value, limited by the maximum size.
+     */
+    public StripedAnalysisCache(int maxSize, int concurrencyLevel) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive but it is " + maxSize);
+        }
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("Concurrency level must be positive but it is " + concurrencyLevel);
+        }
+        int stripeCount = 1;
+        while (stripeCount < concurrencyLevel && stripeCount * 2 <= maxSize) {
+            stripeCount *= 2;
+        }
+        this.stripes = new Stripe[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        // sum of stripe capacities is exactly maxSize.
+        for (int i = 0; i < stripeCount; i++) {
+            int stripeSize = maxSize / stripeCount + (i < maxSize % stripeCount ? 1 : 0);
+            stripes[i] = new Stripe(stripeSize, evictionCount);
+        }
+    }
+
+    @Override
+    public List<WordAnalysis> get(String input, Function<String, List<WordAnalysis>> loader) {
+        List<WordAnalysis> result = pinned.get(input);
+        if (result != null) {
+            hitCount.increment();
+            return result;
+        }
+        int hash = spread(input.hashCode());
+        Stripe stripe = stripes[(hash >>> 16) & stripeMask];
+        // generation is read before the lookup, so invalidations during the load are detected.
+        int generation = stripe.generation;
+        result = stripe.get(input, hash);
+        if (result != null) {
+            hitCount.increment();
+            return result;
+        }
+        missCount.increment();
+        long start = System.nanoTime();
+        result = loader.apply(input);
+        totalLoadTime.add(System.nanoTime() - start);
+        loadCount.increment();
+        return stripe.putIfAbsent(input, result, generation);
+    }
+
+    @Override
+    public void pin(String input, List<WordAnalysis> analyses) {
+        pinned.put(input, analyses);
+        int hash = spread(input.hashCode());
+        stripes[(hash >>> 16) & stripeMask].remove(input);
+    }
+
+    @Override
+    public void invalidate(String input) {
+        pinned.remove(input);
+        int hash = spread(input.hashCode());
+        stripes[(hash >>> 16) & stripeMask].remove(input);
+    }
+
+    @Override
+    public void invalidateAll() {
+        pinned.clear();
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = pinned.size();
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public AnalysisCacheStats getStats() {
+        return new AnalysisCacheStats(
+                hitCount.sum(),
+                missCount.sum(),
+                evictionCount.sum(),
+                loadCount.sum(),
+                totalLoadTime.sum(),
+                size());
+    }
+
+    // String hash values are not well distributed in lower bits for short words.
+    private static int spread(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 15);
+    }
+
+    static class Stripe {
+        final int windowCapacity;
+        final int mainCapacity;
+        final LinkedHashMap<String, List<WordAnalysis>> window = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<String, List<WordAnalysis>> main = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch;
+        final LongAdder evictionCount;
+        // incremented when entries are removed.
+        volatile int generation;
+
+        Stripe(int capacity, LongAdder evictionCount) {
+            this.evictionCount = evictionCount;
+            // Window region is 1% of the capacity.
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = capacity - windowCapacity;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        synchronized List<WordAnalysis> get(String input, int hash) {
+            sketch.increment(hash);
+            List<WordAnalysis> result = window.get(input);
+            return result != null ? result : main.get(input);
+        }
+
+        /**
+         * If input is not in the stripe, adds the entry to the window region and moves the least recently used
+         * window entry to the main region if it is admitted. If stripe generation is different than the
+         * given generation, entry is not added.
+         *
+         * @return existing analyses of the input if it is already in the stripe, otherwise given analyses.
+         */
+        synchronized List<WordAnalysis> putIfAbsent(String input, List<WordAnalysis> analyses, int generation) {
+            if (generation != this.generation) {
+                return analyses;
+            }
+            List<WordAnalysis> existing = window.get(input);
+            if (existing == null) {
+                existing = main.get(input);
+            }
+            if (existing != null) {
+                return existing;
+            }
+            window.put(input, analyses);
+            if (window.size() > windowCapacity) {
+                evictFromWindow();
+            }
+            return analyses;
+        }
+
+        private void evictFromWindow() {
+            Iterator<Map.Entry<String, List<WordAnalysis>>> windowIterator = window.entrySet().iterator();
+            Map.Entry<String, List<WordAnalysis>> candidate = windowIterator.next();
+            windowIterator.remove();
+            if (main.size() < mainCapacity) {
+                main.put(candidate.getKey(), candidate.getValue());
+                return;
+            }
+            // a stripe with capacity 1 has no main region.
+            if (main.isEmpty()) {
+                evictionCount.increment();
+                return;
+            }
+            Iterator<Map.Entry<String, List<WordAnalysis>>> mainIterator = main.entrySet().iterator();
+            Map.Entry<String, List<WordAnalysis>> victim = mainIterator.next();
+            int candidateFrequency = sketch.frequency(spread(candidate.getKey().hashCode()));
+            int victimFrequency = sketch.frequency(spread(victim.getKey().hashCode()));
+            if (candidateFrequency > victimFrequency) {
+                mainIterator.remove();
+                main.put(candidate.getKey(), candidate.getValue());
+            }
+            evictionCount.increment();
+        }
+
+        synchronized void remove(String input) {
+            generation++;
+            window.remove(input);
+            main.remove(input);
+        }
+
+        synchronized void clear() {
+            generation++;
+            window.clear();
+            main.clear();
+        }
+
+        synchronized int size() {
+            return window.size() + main.size();
+        }
+    }
+}
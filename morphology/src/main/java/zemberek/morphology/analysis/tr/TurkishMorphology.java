@@ -2,35 +2,42 @@ package zemberek.morphology.analysis.tr;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
 import zemberek.core.io.Strings;
 import zemberek.core.logging.Log;
+import zemberek.morphology.analysis.StackWordAnalyzer;
 import zemberek.morphology.analysis.WordAnalysis;
 import zemberek.morphology.analysis.WordAnalyzer;
+import zemberek.morphology.analysis.cache.AnalysisCache;
+import zemberek.morphology.analysis.cache.AnalysisCacheStats;
+import zemberek.morphology.analysis.cache.PersistentAnalysisCache;
+import zemberek.morphology.analysis.cache.StripedAnalysisCache;
 import zemberek.morphology.generator.SimpleGenerator;
 import zemberek.morphology.lexicon.DictionaryItem;
 import zemberek.morphology.lexicon.RootLexicon;
 import zemberek.morphology.lexicon.SuffixProvider;
 import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.LexiconGraphSerializer;
 import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
 import zemberek.morphology.lexicon.tr.TurkishSuffixes;
 import zemberek.morphology.structure.StemAndEnding;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * Turkish Morphological Parser finds all possible parses for a Turkish word.
+ * If a persistent analysis cache is used, it is released when this object is closed.
  */
-public class TurkishMorphology extends BaseParser {
+public class TurkishMorphology extends BaseParser implements Closeable {
 
     private WordAnalyzer wordAnalyzer;
     private SimpleGenerator generator;
@@ -39,7 +46,10 @@ public class TurkishMorphology extends BaseParser {
     private SuffixProvider suffixProvider;
     private UnidentifiedTokenAnalyzer unidentifiedTokenAnalyzer;
 
-    private LoadingCache<String, List<WordAnalysis>> dynamicCache;
+    private AnalysisCache dynamicCache;
+    // pinned again after the cache is invalidated.
+    private List<String> cachePreloadWords;
+    private volatile PersistentAnalysisCache persistentCache;
 
     private boolean useDynamicCache = true;
     private boolean useUnidentifiedTokenAnalyzer = true;
@@ -47,11 +57,19 @@ public class TurkishMorphology extends BaseParser {
     public static class Builder {
         WordAnalyzer _analyzer;
         SimpleGenerator _generator;
+        PersistentAnalysisCache _persistentCache;
         SuffixProvider suffixProvider = new TurkishSuffixes();
         RootLexicon lexicon = new RootLexicon();
         private boolean useDynamicCache = true;
         private boolean useUnidentifiedTokenAnalyzer = true;
         private boolean useStaticCache = true;
+        private boolean useStackWordAnalyzer = false;
+        private Path binaryGraphPath;
+        private AnalysisCache cache;
+        private int cacheSize = StripedAnalysisCache.DEFAULT_MAX_SIZE;
+        private int cacheConcurrencyLevel = StripedAnalysisCache.DEFAULT_CONCURRENCY_LEVEL;
+        private List<String> cachePreloadWords = new ArrayList<>();
+        private Path persistentCachePath;
 
         public Builder addDefaultDictionaries() throws IOException {
             return addTextDictionaryResources(TurkishDictionaryLoader.DEFAULT_DICTIONARY_RESOURCES.toArray(
@@ -84,11 +102,98 @@ public class TurkishMorphology extends BaseParser {
             return this;
         }
 
+        /**
+         * Sets the maximum amount of analysis results kept in the default cache. Pre-loaded words are not included.
+         */
+        public Builder cacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the expected amount of threads accessing the default cache concurrently.
+         */
+        public Builder cacheConcurrencyLevel(int cacheConcurrencyLevel) {
+            this.cacheConcurrencyLevel = cacheConcurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Uses given cache implementation instead of the default {@link StripedAnalysisCache}.
+         */
+        public Builder cache(AnalysisCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Analyses of given words are generated during initialization and they are never evicted from the cache.
+         * When all cache entries are invalidated, for example after adding dictionary items, they are analyzed and
+         * pinned again.
+         */
+        public Builder preloadCache(Iterable<String> words) {
+            for (String word : words) {
+                cachePreloadWords.add(word);
+            }
+            return this;
+        }
+
+        /**
+         * Pre-loads the cache with the first [count] words of a word frequency file. Each line of the file
+         * should start with a word, lines are expected to be sorted by frequency, most frequent word first.
+         * Anything after the first space or tab in a line, such as a count value, is ignored.
+         */
+        public Builder preloadCache(Path frequencySortedWordFile, int count) throws IOException {
+            List<String> words = new ArrayList<>(count);
+            try (BufferedReader reader = Files.newBufferedReader(frequencySortedWordFile, Charsets.UTF_8)) {
+                String line;
+                while (words.size() < count && (line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0) {
+                        continue;
+                    }
+                    words.add(Strings.subStringUntilFirst(line.replace('\t', ' '), " "));
+                }
+            }
+            return preloadCache(words);
+        }
+
+        /**
+         * Uses a persistent analysis cache file as a second cache level. Analyses that are not in the memory cache
+         * are read from this file, and new analyses are appended to it. So after a restart, words analyzed before
+         * do not need to be analyzed again. If file is generated with a different lexicon, it is reset.
+         * See {@link PersistentAnalysisCache}
+         */
+        public Builder persistentCache(Path cacheFile) {
+            this.persistentCachePath = cacheFile;
+            return this;
+        }
+
         public Builder disableUnidentifiedTokenAnalyzer() {
             useUnidentifiedTokenAnalyzer = false;
             return this;
         }
 
+        /**
+         * Uses {@link StackWordAnalyzer} for analysis. It generates the same results with the default analyzer
+         * but does not create intermediate objects during suffix graph traversal.
+         */
+        public Builder useStackWordAnalyzer() {
+            useStackWordAnalyzer = true;
+            return this;
+        }
+
+        /**
+         * Loads the lexicon graph from a binary file generated with {@link LexiconGraphSerializer} instead of
+         * building it from text dictionaries. This is much faster than loading text dictionaries.
+         * Loaded graph is immutable, so dictionary items cannot be added to it, and it cannot be combined with
+         * text dictionaries.
+         */
+        public Builder fromBinaryGraph(Path binaryGraphPath) {
+            this.binaryGraphPath = binaryGraphPath;
+            return this;
+        }
+
         public Builder addTextDictionaryResources(String... resources) throws IOException {
             Log.info("Loading resources :%n%s" , String.join("\n", Arrays.asList(resources)));
             List<String> lines = new ArrayList<>();
@@ -112,30 +217,51 @@ public class TurkishMorphology extends BaseParser {
 
         public TurkishMorphology build() throws IOException {
             Stopwatch sw = Stopwatch.createStarted();
-            DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
-            graph.addDictionaryItems(lexicon);
-            _analyzer = new WordAnalyzer(graph);
+            DynamicLexiconGraph graph;
+            if (binaryGraphPath != null) {
+                if (!lexicon.isEmpty()) {
+                    throw new IllegalStateException(
+                            "Text dictionaries cannot be used together with a binary graph.");
+                }
+                graph = LexiconGraphSerializer.load(binaryGraphPath, suffixProvider);
+                for (DictionaryItem item : graph.getDictionaryItems()) {
+                    lexicon.add(item);
+                }
+            } else {
+                graph = new DynamicLexiconGraph(suffixProvider);
+                graph.addDictionaryItems(lexicon);
+            }
+            _analyzer = useStackWordAnalyzer ? new StackWordAnalyzer(graph) : new WordAnalyzer(graph);
             _generator = new SimpleGenerator(graph);
+            if (persistentCachePath != null) {
+                _persistentCache = PersistentAnalysisCache.open(persistentCachePath, lexicon, suffixProvider, graph);
+            }
             Log.info("Parser ready: " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
             return new TurkishMorphology(this, graph);
         }
     }
 
-    private void generateCaches() {
+    private void generateCaches(Builder builder) {
         if (useDynamicCache) {
-            this.dynamicCache = CacheBuilder.newBuilder()
-                    .maximumSize(100000)
-                    .concurrencyLevel(4)
-                    .initialCapacity(50000)
-                    .build(new MorphParseCacheLoader());
+            this.dynamicCache = builder.cache != null ?
+                    builder.cache :
+                    new StripedAnalysisCache(builder.cacheSize, builder.cacheConcurrencyLevel);
         }
     }
 
-    private class MorphParseCacheLoader extends CacheLoader<String, List<WordAnalysis>> {
-        @Override
-        public List<WordAnalysis> load(String word) throws Exception {
-            return TurkishMorphology.this.analyzeWithoutCache(word);
+    private void preloadCache(List<String> words) {
+        if (words.isEmpty()) {
+            return;
         }
+        if (!useDynamicCache) {
+            Log.warn("Cache is disabled, words are not pre-loaded.");
+            return;
+        }
+        Stopwatch sw = Stopwatch.createStarted();
+        for (String word : words) {
+            dynamicCache.pin(word, analyzeWithPersistentCache(word));
+        }
+        Log.info("%d words are pre-loaded to the cache in %d ms.", words.size(), sw.elapsed(TimeUnit.MILLISECONDS));
     }
 
     private TurkishMorphology(
@@ -144,13 +270,16 @@ public class TurkishMorphology extends BaseParser {
         this.generator = builder._generator;
         this.lexicon = builder.lexicon;
         this.graph = graph;
+        this.suffixProvider = builder.suffixProvider;
+        this.persistentCache = builder._persistentCache;
         if (builder.useUnidentifiedTokenAnalyzer) {
             this.unidentifiedTokenAnalyzer = new UnidentifiedTokenAnalyzer(this);
         }
-        this.suffixProvider = builder.suffixProvider;
         this.useDynamicCache = builder.useDynamicCache;
         this.useUnidentifiedTokenAnalyzer = builder.useUnidentifiedTokenAnalyzer;
-        generateCaches();
+        generateCaches(builder);
+        this.cachePreloadWords = builder.cachePreloadWords;
+        preloadCache(cachePreloadWords);
         Log.info("Initialization complete.");
     }
 
@@ -177,10 +306,23 @@ public class TurkishMorphology extends BaseParser {
      */
     public List<WordAnalysis> analyze(String word) {
         if (useDynamicCache) {
-            return dynamicCache.getUnchecked(word);
+            return dynamicCache.get(word, this::analyzeWithPersistentCache);
         } else {
+            return analyzeWithPersistentCache(word);
+        }
+    }
+
+    private List<WordAnalysis> analyzeWithPersistentCache(String word) {
+        PersistentAnalysisCache cache = persistentCache;
+        if (cache == null) {
             return analyzeWithoutCache(word);
         }
+        List<WordAnalysis> result = cache.get(word);
+        if (result == null) {
+            result = analyzeWithoutCache(word);
+            cache.put(word, result);
+        }
+        return result;
     }
 
     /**
@@ -202,7 +344,6 @@ public class TurkishMorphology extends BaseParser {
             res.addAll(analyzeWordsWithSingleQuote(s));
         }
         if (res.size() == 0 && useUnidentifiedTokenAnalyzer) {
-            invalidateCacheForWord(s);
             res.addAll(unidentifiedTokenAnalyzer.analyze(s));
         }
         if (res.size() == 0) {
@@ -234,18 +375,36 @@ public class TurkishMorphology extends BaseParser {
         return results;
     }
 
+    /**
+     * Removes all entries of the cache. Pre-loaded words are analyzed and pinned again.
+     */
     public void invalidateAllCache() {
         if (useDynamicCache) {
             dynamicCache.invalidateAll();
+            preloadCache(cachePreloadWords);
         }
     }
 
+    /**
+     * Returns the persistent analysis cache, or null if it is not used.
+     */
+    public PersistentAnalysisCache getPersistentCache() {
+        return persistentCache;
+    }
+
     public void invalidateCacheForWord(String input) {
         if (useDynamicCache) {
             dynamicCache.invalidate(input);
         }
     }
 
+    /**
+     * Returns statistics of the analysis cache. If cache is disabled, returns empty statistics.
+     */
+    public AnalysisCacheStats getCacheStats() {
+        return useDynamicCache ? dynamicCache.getStats() : AnalysisCacheStats.EMPTY;
+    }
+
     public SimpleGenerator getGenerator() {
         return generator;
     }
@@ -260,12 +419,39 @@ public class TurkishMorphology extends BaseParser {
 
     /**
      * Adds one or more dictionary items. Adding new dictionary items invalidates all caches.
+     * Persistent cache is cleared and closed, it is not used afterwards because its content would not match the
+     * lexicon it is generated with.
+     *
+     * @throws IllegalStateException if graph is loaded from a binary file.
      */
     public synchronized void addDictionaryItems(DictionaryItem... item) {
         this.graph.addDictionaryItems(item);
+        if (persistentCache != null) {
+            PersistentAnalysisCache cache = persistentCache;
+            persistentCache = null;
+            cache.clear();
+            try {
+                cache.close();
+            } catch (IOException e) {
+                Log.warn("Cannot close persistent analysis cache. %s", e.getMessage());
+            }
+        }
         invalidateAllCache();
     }
 
+    /**
+     * Closes the persistent analysis cache if it is used. Analyses are still available after closing, but they are
+     * not read from or written to the persistent cache anymore.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (persistentCache != null) {
+            PersistentAnalysisCache cache = persistentCache;
+            persistentCache = null;
+            cache.close();
+        }
+    }
+
     public SuffixProvider getSuffixProvider() {
         return suffixProvider;
     }
@@ -1,25 +1,47 @@
 package zemberek.morphology.analysis.tr;
 
-import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import zemberek.core.io.Files;
+import zemberek.core.logging.Log;
 import zemberek.morphology.ambiguity.TurkishMorphDisambiguator;
 import zemberek.morphology.ambiguity.Z3MarkovModelDisambiguator;
 import zemberek.morphology.analysis.WordAnalysis;
 import zemberek.morphology.analysis.SentenceAnalysis;
 import zemberek.morphology.structure.Turkish;
-import zemberek.tokenizer.ZemberekLexer;
+import zemberek.tokenizer.TurkishTokenizer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Analyzes and disambiguates sentences. Instances are thread safe if the disambiguator is thread safe,
+ * so a single instance can be shared by multiple threads. Batch methods {@link #analyzeAll(List)} and
+ * {@link #analyzeAll(Stream, ExecutorService, int)} use this to process sentences in parallel.
+ */
 public class TurkishSentenceAnalyzer extends BaseParser {
 
+    // Minimum sentence count of a single task in batch analysis.
+    private static final int MIN_SENTENCES_PER_TASK = 16;
+    // Tasks generated per thread in batch analysis. Having more than one helps balancing uneven sentence lengths.
+    private static final int TASKS_PER_THREAD = 4;
+
     private TurkishMorphology turkishMorphology;
     private TurkishMorphDisambiguator disambiguator;
-    private ZemberekLexer lexer = new ZemberekLexer();
+    private TurkishTokenizer tokenizer = new TurkishTokenizer();
 
     /**
      * Generates a TurkishSentenceAnalyzer from a resource directory.
@@ -60,9 +82,12 @@ public class TurkishSentenceAnalyzer extends BaseParser {
 
     public SentenceAnalysis analyze(String sentence) {
         SentenceAnalysis sentenceParse = new SentenceAnalysis();
-        String preprocessed = preProcess(sentence);
-        for (String s : Splitter.on(" ").omitEmptyStrings().trimResults().split(preprocessed)) {
-            List<WordAnalysis> parses = turkishMorphology.analyze(s);
+        TurkishTokenizer.TokenBuffer tokens = tokenizer.tokenize(Turkish.normalizeQuotesHyphens(sentence));
+        for (int i = 0; i < tokens.size(); i++) {
+            String s = tokens.text(i);
+            // Analysis lists may come from the shared cache of TurkishMorphology and disambiguation reorders them.
+            // So a copy is used here.
+            List<WordAnalysis> parses = new ArrayList<>(turkishMorphology.analyze(s));
             sentenceParse.addParse(s, parses);
         }
         return sentenceParse;
@@ -74,7 +99,15 @@ public class TurkishSentenceAnalyzer extends BaseParser {
 
     public String preProcess(String str) {
         String quotesHyphensNormalized = Turkish.normalizeQuotesHyphens(str);
-        return Joiner.on(" ").join(lexer.tokenStrings(quotesHyphensNormalized));
+        TurkishTokenizer.TokenBuffer tokens = tokenizer.tokenize(quotesHyphensNormalized);
+        StringBuilder sb = new StringBuilder(quotesHyphensNormalized.length() + tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(quotesHyphensNormalized, tokens.start(i), tokens.end(i));
+        }
+        return sb.toString();
     }
 
     /**
@@ -93,6 +126,105 @@ public class TurkishSentenceAnalyzer extends BaseParser {
         return bestParse;
     }
 
-}
+    /**
+     * Analyzes and disambiguates all sentences in parallel using the common ForkJoinPool.
+     *
+     * @param sentences input sentences.
+     * @return analysis results in the order of input sentences. For each word, best analysis is at index 0.
+     */
+    public List<SentenceAnalysis> analyzeAll(List<String> sentences) {
+        return analyzeAll(sentences, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Analyzes and disambiguates all sentences in parallel. Sentences are split into consecutive chunks and
+     * each chunk is processed by a single task in the executor. Morphology cache and language models
+     * are shared by all tasks.
+     *
+     * @param sentences input sentences.
+     * @param executor  executor to run analysis tasks. It is not shut down by this method.
+     * @return analysis results in the order of input sentences. For each word, best analysis is at index 0.
+     */
+    public List<SentenceAnalysis> analyzeAll(List<String> sentences, ExecutorService executor) {
+        Stopwatch sw = Stopwatch.createStarted();
+        List<SentenceAnalysis> result = analyzeInParallel(sentences, executor);
+        Log.info(throughput(result, sw.elapsed(TimeUnit.MILLISECONDS)));
+        return result;
+    }
+
+    private List<SentenceAnalysis> analyzeInParallel(List<String> sentences, ExecutorService executor) {
+        int threadCount = executor instanceof ForkJoinPool ?
+                ((ForkJoinPool) executor).getParallelism() :
+                Runtime.getRuntime().availableProcessors();
+        int chunkSize = Math.max(MIN_SENTENCES_PER_TASK, sentences.size() / (threadCount * TASKS_PER_THREAD) + 1);
+
+        List<Future<List<SentenceAnalysis>>> futures = new ArrayList<>();
+        for (List<String> chunk : Lists.partition(sentences, chunkSize)) {
+            futures.add(executor.submit(() -> analyzeAndDisambiguate(chunk)));
+        }
+        List<SentenceAnalysis> result = new ArrayList<>(sentences.size());
+        try {
+            for (Future<List<SentenceAnalysis>> future : futures) {
+                result.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during sentence analysis.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sentence analysis failed.", e.getCause());
+        } finally {
+            for (Future<List<SentenceAnalysis>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Analyzes and disambiguates sentences of a stream in parallel. Input is consumed lazily in batches,
+     * so only one batch of sentences and results are kept in memory at a time.
+     *
+     * @param sentences input sentences.
+     * @param executor  executor to run analysis tasks. It is not shut down by this method.
+     * @param batchSize amount of sentences processed in parallel at a time.
+     * @return a sequential stream of analysis results in the order of input sentences.
+     */
+    public Stream<SentenceAnalysis> analyzeAll(Stream<String> sentences, ExecutorService executor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive but it is " + batchSize);
+        }
+        Iterator<List<SentenceAnalysis>> batches = Iterators.transform(
+                Iterators.partition(sentences.iterator(), batchSize),
+                batch -> {
+                    Stopwatch sw = Stopwatch.createStarted();
+                    List<SentenceAnalysis> result = analyzeInParallel(batch, executor);
+                    Log.debug(throughput(result, sw.elapsed(TimeUnit.MILLISECONDS)));
+                    return result;
+                });
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+                .flatMap(List::stream)
+                .onClose(sentences::close);
+    }
 
+    private List<SentenceAnalysis> analyzeAndDisambiguate(List<String> sentences) {
+        List<SentenceAnalysis> result = new ArrayList<>(sentences.size());
+        for (String sentence : sentences) {
+            SentenceAnalysis analysis = analyze(sentence);
+            disambiguate(analysis);
+            result.add(analysis);
+        }
+        return result;
+    }
 
+    private String throughput(List<SentenceAnalysis> analyses, long elapsedMillis) {
+        long tokenCount = 0;
+        for (SentenceAnalysis analysis : analyses) {
+            tokenCount += analysis.size();
+        }
+        long elapsed = Math.max(elapsedMillis, 1);
+        return String.format("Analyzed %d sentences, %d tokens in %d ms. %d sentences/s, %d tokens/s.",
+                analyses.size(), tokenCount, elapsedMillis,
+                analyses.size() * 1000L / elapsed, tokenCount * 1000L / elapsed);
+    }
+}
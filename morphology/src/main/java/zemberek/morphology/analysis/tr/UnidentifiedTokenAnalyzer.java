@@ -7,34 +7,37 @@ import zemberek.core.turkish.PrimaryPos;
 import zemberek.core.turkish.RootAttribute;
 import zemberek.core.turkish.SecondaryPos;
 import zemberek.morphology.lexicon.DictionaryItem;
-import zemberek.morphology.lexicon.SuffixProvider;
 import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.StemNode;
 import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
-import zemberek.morphology.lexicon.tr.TurkishSuffixes;
 import zemberek.morphology.analysis.WordAnalysis;
-import zemberek.morphology.analysis.WordAnalyzer;
 import zemberek.morphology.structure.StemAndEnding;
 import zemberek.morphology.structure.Turkish;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 
+/**
+ * Analyzes words that cannot be analyzed with the dictionary, such as numerals and proper nouns.
+ * <p>
+ * For proper nouns a transient dictionary item is generated and its stem nodes are connected to the existing
+ * suffix root nodes of the morphology graph. Graph is not modified, so analysis can be done concurrently
+ * without a lock. If the morphology graph does not have a suitable suffix root node, it is generated once in a
+ * separate graph owned by this class and reused afterwards.
+ */
 public class UnidentifiedTokenAnalyzer extends BaseParser {
-    WordAnalyzer parser;
-    DynamicLexiconGraph graph;
     TurkishMorphology turkishParser;
-
+    // holds suffix root nodes that are missing in the morphology graph.
+    private final DynamicLexiconGraph fallbackGraph;
 
     public UnidentifiedTokenAnalyzer(TurkishMorphology turkishParser) {
         this.turkishParser = turkishParser;
-        // generate a parser with an empty graph.
-        SuffixProvider suffixProvider = new TurkishSuffixes();
-        this.graph = new DynamicLexiconGraph(suffixProvider);
-        this.parser = new WordAnalyzer(graph);
+        this.fallbackGraph = new DynamicLexiconGraph(turkishParser.getSuffixProvider());
     }
 
-    public synchronized List<WordAnalysis> analyze(String word) {
+    public List<WordAnalysis> analyze(String word) {
         List<WordAnalysis> results = Lists.newArrayListWithCapacity(2);
         if (!Strings.containsNone(word, "0123456789")) {
             results = parseNumeral(word);
@@ -46,38 +49,45 @@ public class UnidentifiedTokenAnalyzer extends BaseParser {
                     Strings.subStringAfterFirst(word, "'"));
             String stem = normalize(se.stem);
             String ending = normalize(se.ending);
-            String pronunciation = guessPronunciation(stem);
-            DictionaryItem itemProp = new DictionaryItem(
-                    Turkish.capitalize(stem),
-                    stem,
-                    pronunciation,
-                    PrimaryPos.Noun,
-                    SecondaryPos.ProperNoun);
-            itemProp.attributes.add(RootAttribute.Runtime);
-            graph.addDictionaryItem(itemProp);
-            String toParse = stem + ending;
-            List<WordAnalysis> properResults = parser.analyze(toParse);
-            graph.removeDictionaryItem(itemProp);
-            results.addAll(properResults);
+            results.addAll(analyzeProperNoun(stem, stem + ending));
         } else if (Character.isUpperCase(word.charAt(0))) {
             String normalized = normalize(word);
-            String pronunciation = guessPronunciation(normalized);
-            DictionaryItem itemProp = new DictionaryItem(
-                    Turkish.capitalize(normalized),
-                    normalized,
-                    pronunciation,
-                    PrimaryPos.Noun,
-                    SecondaryPos.ProperNoun);
-            itemProp.attributes.add(RootAttribute.Runtime);
-            graph.addDictionaryItem(itemProp);
-            //TODO eliminate gross code duplication
-            List<WordAnalysis> properResults = parser.analyze(normalized);
-            graph.removeDictionaryItem(itemProp);
-            results.addAll(properResults);
+            results.addAll(analyzeProperNoun(normalized, normalized));
         }
         return results;
     }
 
+    private List<WordAnalysis> analyzeProperNoun(String stem, String toParse) {
+        String pronunciation = guessPronunciation(stem);
+        DictionaryItem itemProp = new DictionaryItem(
+                Turkish.capitalize(stem),
+                stem,
+                pronunciation,
+                PrimaryPos.Noun,
+                SecondaryPos.ProperNoun);
+        itemProp.attributes.add(RootAttribute.Runtime);
+        StemNode[] stems = turkishParser.getGraph().generateTransientStemNodes(itemProp);
+        if (stems.length == 0) {
+            stems = fallbackGraph.generateTransientStemNodes(itemProp);
+        }
+        if (stems.length == 0) {
+            stems = generateFallbackStemNodes(itemProp);
+        }
+        return turkishParser.getWordAnalyzer().analyze(toParse, Arrays.asList(stems));
+    }
+
+    // Adding and removing the item leaves its suffix root nodes in the fallback graph, so this is only required once
+    // for each kind of suffix root node.
+    private synchronized StemNode[] generateFallbackStemNodes(DictionaryItem item) {
+        StemNode[] stems = fallbackGraph.generateTransientStemNodes(item);
+        if (stems.length == 0) {
+            fallbackGraph.addDictionaryItem(item);
+            fallbackGraph.removeDictionaryItem(item);
+            stems = fallbackGraph.generateTransientStemNodes(item);
+        }
+        return stems;
+    }
+
     private String guessPronunciation(String stem) {
         String pron = stem;
         if (!Turkish.Alphabet.hasVowel(stem)) {
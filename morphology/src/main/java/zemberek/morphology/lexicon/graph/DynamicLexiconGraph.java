@@ -1,6 +1,7 @@
 package zemberek.morphology.lexicon.graph;
 
-import com.google.common.collect.*;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import zemberek.core.logging.Log;
 import zemberek.morphology.lexicon.DictionaryItem;
 import zemberek.morphology.lexicon.SuffixForm;
@@ -25,49 +26,95 @@ public class DynamicLexiconGraph {
 
     private Map<SuffixForm, Set<SuffixSurfaceNode>> suffixFormMap = Maps.newConcurrentMap();
 
-    // required for parsing. These were in WordParser before.
-    // TODO: this mechanism should be an abstraction that can also use a StemTrie
-    private ArrayListMultimap<String, StemNode> multiStems = ArrayListMultimap.create(1000, 2);
-    private Map<String, StemNode> singleStems = Maps.newConcurrentMap();
+    // required for parsing. Stems are looked up by their surface forms.
+    private StemTrie stemTrie = new StemTrie();
+
+    // if true, dictionary items cannot be added or removed. Graphs loaded from binary files are immutable.
+    private final boolean immutable;
 
     public DynamicLexiconGraph(SuffixProvider suffixProvider) {
+        this(suffixProvider, false);
+    }
+
+    DynamicLexiconGraph(SuffixProvider suffixProvider, boolean immutable) {
         this.suffixProvider = suffixProvider;
         this.stemNodeGenerator = new StemNodeGenerator(suffixProvider);
+        this.immutable = immutable;
     }
 
-    private synchronized void addStemNode(StemNode stemNode) {
-        final String surfaceForm = stemNode.surfaceForm;
-        if (multiStems.containsKey(surfaceForm)) {
-            multiStems.put(surfaceForm, stemNode);
-        } else if (singleStems.containsKey(surfaceForm)) {
-            multiStems.put(surfaceForm, singleStems.get(surfaceForm));
-            singleStems.remove(surfaceForm);
-            multiStems.put(surfaceForm, stemNode);
-        } else {
-            singleStems.put(surfaceForm, stemNode);
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new IllegalStateException("Graph is loaded from a binary file. Dictionary items cannot be added or removed.");
         }
+    }
+
+    // Following methods are used by LexiconGraphSerializer.
+
+    /**
+     * Adds a stem node that is already connected to its suffix root node.
+     */
+    void addConnectedStemNode(StemNode stemNode) {
+        addStemNode(stemNode);
+    }
+
+    void addRootSuffixNode(SuffixSurfaceNode node) {
+        rootSuffixNodeMap.put(node, node);
+    }
+
+    void addSuffixNode(SuffixSurfaceNode node) {
+        addOrReturnExisting(node.suffixForm, node);
+    }
+
+    Collection<SuffixSurfaceNode> getRootSuffixNodes() {
+        return rootSuffixNodeMap.values();
+    }
+
+    List<StemNode> getStemNodesInLookupOrder() {
+        return stemTrie.getAllStems();
+    }
+
+    private synchronized void addStemNode(StemNode stemNode) {
+        stemTrie.add(stemNode);
         stemNodes.add(stemNode);
     }
 
     private synchronized void removeStemNode(StemNode stemNode) {
-        final String surfaceForm = stemNode.surfaceForm;
-        if (multiStems.containsKey(surfaceForm)) {
-            multiStems.remove(surfaceForm, stemNode);
-        } else if (singleStems.containsKey(surfaceForm)
-                && singleStems.get(surfaceForm).getDictionaryItem().equals(stemNode.dictionaryItem)) {
-            singleStems.remove(surfaceForm);
-        }
+        stemTrie.remove(stemNode);
         stemNodes.remove(stemNode);
     }
 
+    /**
+     * Visits the trie that holds stem nodes by their surface forms. See {@link StemTrie#traverse(StemTrie.Visitor)}
+     */
+    public void traverseStems(StemTrie.Visitor visitor) {
+        stemTrie.traverse(visitor);
+    }
+
+    /**
+     * Returns stem nodes with the given surface form.
+     */
     public List<StemNode> getMatchingStemNodes(String stem) {
-        if (singleStems.containsKey(stem)) {
-            return Lists.newArrayList(singleStems.get(stem));
-        } else if (multiStems.containsKey(stem)) {
-            return Lists.newArrayList(multiStems.get(stem));
-        } else {
-            return Collections.emptyList();
-        }
+        return stemTrie.getStems(stem);
+    }
+
+    /**
+     * Returns all stem nodes whose surface forms are prefixes of the input (including the input itself).
+     * This is equivalent to calling {@link #getMatchingStemNodes(String)} for all prefixes of the input but input
+     * is traversed only once. Stem nodes are ordered by their surface form lengths.
+     */
+    public List<StemNode> getPrefixMatchingStemNodes(String input) {
+        return stemTrie.getMatchingStems(input);
+    }
+
+    /**
+     * Same as {@link #getPrefixMatchingStemNodes(String)}, but stem nodes are added to given list.
+     */
+    public void collectPrefixMatchingStemNodes(String input, List<StemNode> result) {
+        stemTrie.collectMatchingStems(input, result);
     }
 
     private boolean containsNode(StemNode node) {
@@ -101,6 +148,7 @@ public class DynamicLexiconGraph {
 
 
     public void addDictionaryItem(DictionaryItem item) {
+        checkMutable();
 
         StemNode[] stems = stemNodeGenerator.generate(item);
         for (StemNode stem : stems) {
@@ -110,10 +158,32 @@ public class DynamicLexiconGraph {
     }
 
     public void removeDictionaryItem(DictionaryItem item) {
+        checkMutable();
         StemNode[] stems = stemNodeGenerator.generate(item);
         removeStemNodes(stems);
     }
 
+    /**
+     * Generates stem nodes of a dictionary item and connects them to the existing suffix root nodes of the graph.
+     * Stem nodes are not added to the graph and graph is not modified, so this method can be used concurrently
+     * for analyzing words with transient dictionary items.
+     *
+     * @param item dictionary item.
+     * @return connected stem nodes of the item. If the graph does not contain the suffix root node of any of
+     * the stems of the item, an empty array is returned.
+     */
+    public StemNode[] generateTransientStemNodes(DictionaryItem item) {
+        StemNode[] stems = stemNodeGenerator.generate(item);
+        for (StemNode stem : stems) {
+            SuffixSurfaceNode rootSuffixSurfaceNode = rootSuffixNodeMap.get(getRootSuffixNode(stem));
+            if (rootSuffixSurfaceNode == null) {
+                return new StemNode[0];
+            }
+            stem.suffixRootSurfaceNode = rootSuffixSurfaceNode;
+        }
+        return stems;
+    }
+
     private void connectStemNode(StemNode stem) {
         if (!stemNodes.contains(stem)) {
             SuffixSurfaceNode rootSuffixSurfaceNode = getRootSuffixNode(stem);
@@ -147,6 +217,21 @@ public class DynamicLexiconGraph {
         return stemNodes;
     }
 
+    /**
+     * Returns distinct dictionary items of the stem nodes in the graph, including their reference items.
+     */
+    public Set<DictionaryItem> getDictionaryItems() {
+        Set<DictionaryItem> items = Sets.newLinkedHashSet();
+        for (StemNode stemNode : stemTrie.getAllStems()) {
+            DictionaryItem item = stemNode.getDictionaryItem();
+            if (item.referenceItem != null) {
+                items.add(item.referenceItem);
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
     private SuffixSurfaceNode addOrRetrieveExisting(SuffixSurfaceNode surfaceNodeToCheck) {
         if (!rootSuffixNodeMap.containsKey(surfaceNodeToCheck)) {
             rootSuffixNodeMap.put(surfaceNodeToCheck, surfaceNodeToCheck);
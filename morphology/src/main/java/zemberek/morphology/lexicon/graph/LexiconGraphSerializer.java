@@ -0,0 +1,537 @@
+package zemberek.morphology.lexicon.graph;
+
+import zemberek.core.turkish.PhoneticAttribute;
+import zemberek.core.turkish.PhoneticExpectation;
+import zemberek.core.turkish.PrimaryPos;
+import zemberek.core.turkish.RootAttribute;
+import zemberek.core.turkish.SecondaryPos;
+import zemberek.morphology.lexicon.DerivationalSuffixTemplate;
+import zemberek.morphology.lexicon.DictionaryItem;
+import zemberek.morphology.lexicon.NullSuffixForm;
+import zemberek.morphology.lexicon.RootSuffix;
+import zemberek.morphology.lexicon.Suffix;
+import zemberek.morphology.lexicon.SuffixForm;
+import zemberek.morphology.lexicon.SuffixFormTemplate;
+import zemberek.morphology.lexicon.SuffixProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a DynamicLexiconGraph to a binary file and loads it back.
+ * <p>
+ * Binary file contains dictionary items, stem nodes, suffix surface nodes with successors as index arrays and
+ * suffix forms used by the nodes. Loading a graph from this file does not require parsing dictionaries or
+ * generating stem and suffix nodes, so it is much faster than building the graph from text dictionaries.
+ * File is read through a memory mapped buffer.
+ * <p>
+ * Loaded graph is immutable. Only the information required for analysis is stored, dictionary item suffix
+ * constraints and suffix form connections are not serialized, therefore new dictionary items cannot be added to
+ * a loaded graph.
+ * <p>
+ * Enum values are stored with their ordinals, but names of enum constants are written to the file as well,
+ * so files remain valid if order of enum constants change.
+ */
+public class LexiconGraphSerializer {
+
+    private static final int MAGIC = 0x5a4c4742; // ZLGB
+    private static final int VERSION = 1;
+
+    private static final byte KIND_FORM = 0;
+    private static final byte KIND_NULL_FORM = 1;
+    private static final byte KIND_TEMPLATE = 2;
+    private static final byte KIND_DERIVATIONAL_TEMPLATE = 3;
+
+    private static final Class<?>[] ENUM_CLASSES = {
+            PrimaryPos.class,
+            SecondaryPos.class,
+            RootAttribute.class,
+            PhoneticAttribute.class,
+            PhoneticExpectation.class,
+            TerminationType.class};
+
+    /**
+     * Saves the graph to a binary file.
+     */
+    public static void save(DynamicLexiconGraph graph, Path path) throws IOException {
+        new Writer(graph).write(path);
+    }
+
+    /**
+     * Loads a graph from a binary file generated with {@link #save(DynamicLexiconGraph, Path)}.
+     *
+     * @param path           binary graph file.
+     * @param suffixProvider suffix provider of the graph. Suffix objects of the provider are used in loaded suffix forms
+     *                       so that they can be compared by identity, such as in SimpleGenerator.
+     * @return an immutable graph.
+     */
+    public static DynamicLexiconGraph load(Path path, SuffixProvider suffixProvider) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Reader(buffer, suffixProvider).read();
+        }
+    }
+
+    private static class Writer {
+        DynamicLexiconGraph graph;
+
+        List<StemNode> stems;
+        Map<SuffixSurfaceNode, Integer> nodeIndexes = new LinkedHashMap<>();
+        Map<SuffixForm, Integer> formIndexes = new LinkedHashMap<>();
+        Map<Suffix, Integer> suffixIndexes = new LinkedHashMap<>();
+        Map<SuffixData, Integer> suffixDataIndexes = new LinkedHashMap<>();
+        Map<DictionaryItem, Integer> itemIndexes = new LinkedHashMap<>();
+
+        Writer(DynamicLexiconGraph graph) {
+            this.graph = graph;
+            this.stems = graph.getStemNodesInLookupOrder();
+            collect();
+        }
+
+        void collect() {
+            Deque<SuffixSurfaceNode> toVisit = new ArrayDeque<>();
+            for (SuffixSurfaceNode root : graph.getRootSuffixNodes()) {
+                addNode(root, toVisit);
+            }
+            for (StemNode stem : stems) {
+                addNode(stem.getSuffixRootSurfaceNode(), toVisit);
+                addItem(stem.getDictionaryItem());
+                addSuffixData(stem.exclusiveSuffixData);
+            }
+            while (!toVisit.isEmpty()) {
+                SuffixSurfaceNode node = toVisit.poll();
+                addSuffixData(node.exclusiveSuffixData);
+                for (SuffixSurfaceNode successor : node.getSuccessors()) {
+                    addNode(successor, toVisit);
+                }
+            }
+            List<SuffixForm> forms = new ArrayList<>();
+            for (SuffixSurfaceNode node : nodeIndexes.keySet()) {
+                forms.add(node.getSuffixForm());
+            }
+            for (SuffixData data : suffixDataIndexes.keySet()) {
+                for (SuffixForm form : data) {
+                    forms.add(form);
+                }
+            }
+            // templates are written first, as null forms refer to them.
+            for (SuffixForm form : forms) {
+                if (form instanceof NullSuffixForm) {
+                    addForm(((NullSuffixForm) form).getTemplate());
+                } else if (form instanceof SuffixFormTemplate) {
+                    addForm(form);
+                }
+            }
+            for (SuffixForm form : forms) {
+                addForm(form);
+            }
+            for (SuffixForm form : formIndexes.keySet()) {
+                if (!suffixIndexes.containsKey(form.getSuffix())) {
+                    suffixIndexes.put(form.getSuffix(), suffixIndexes.size());
+                }
+            }
+        }
+
+        void addNode(SuffixSurfaceNode node, Deque<SuffixSurfaceNode> toVisit) {
+            if (!nodeIndexes.containsKey(node)) {
+                nodeIndexes.put(node, nodeIndexes.size());
+                toVisit.add(node);
+            }
+        }
+
+        void addForm(SuffixForm form) {
+            if (!formIndexes.containsKey(form)) {
+                formIndexes.put(form, formIndexes.size());
+            }
+        }
+
+        void addSuffixData(SuffixData data) {
+            if (!suffixDataIndexes.containsKey(data)) {
+                suffixDataIndexes.put(data, suffixDataIndexes.size());
+            }
+        }
+
+        void addItem(DictionaryItem item) {
+            if (item.referenceItem != null) {
+                addItem(item.referenceItem);
+            }
+            if (!itemIndexes.containsKey(item)) {
+                itemIndexes.put(item, itemIndexes.size());
+            }
+        }
+
+        void write(Path path) throws IOException {
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                writeEnumTables(dos);
+                writeSuffixes(dos);
+                writeForms(dos);
+                writeSuffixData(dos);
+                writeItems(dos);
+                writeNodes(dos);
+                writeStems(dos);
+            }
+        }
+
+        void writeEnumTables(DataOutputStream dos) throws IOException {
+            for (Class<?> enumClass : ENUM_CLASSES) {
+                Object[] constants = enumClass.getEnumConstants();
+                if (constants.length > 64) {
+                    throw new IllegalStateException("Enum " + enumClass + " has more than 64 values.");
+                }
+                dos.writeInt(constants.length);
+                for (Object constant : constants) {
+                    writeString(dos, ((Enum) constant).name());
+                }
+            }
+        }
+
+        void writeSuffixes(DataOutputStream dos) throws IOException {
+            dos.writeInt(suffixIndexes.size());
+            for (Suffix suffix : suffixIndexes.keySet()) {
+                writeString(dos, suffix.id);
+                if (suffix instanceof RootSuffix) {
+                    dos.writeBoolean(true);
+                    writeOrdinal(dos, ((RootSuffix) suffix).pos);
+                } else {
+                    dos.writeBoolean(false);
+                }
+            }
+        }
+
+        void writeForms(DataOutputStream dos) throws IOException {
+            dos.writeInt(formIndexes.size());
+            for (SuffixForm form : formIndexes.keySet()) {
+                dos.writeByte(kindOf(form));
+                writeString(dos, form.id);
+                dos.writeInt(form.index);
+                dos.writeInt(suffixIndexes.get(form.getSuffix()));
+                writeString(dos, form.generation);
+                dos.writeByte(form.terminationType.ordinal());
+                if (form instanceof NullSuffixForm) {
+                    dos.writeInt(formIndexes.get(((NullSuffixForm) form).getTemplate()));
+                }
+            }
+        }
+
+        byte kindOf(SuffixForm form) {
+            if (form instanceof NullSuffixForm) {
+                return KIND_NULL_FORM;
+            } else if (form instanceof DerivationalSuffixTemplate) {
+                return KIND_DERIVATIONAL_TEMPLATE;
+            } else if (form instanceof SuffixFormTemplate) {
+                return KIND_TEMPLATE;
+            }
+            return KIND_FORM;
+        }
+
+        void writeSuffixData(DataOutputStream dos) throws IOException {
+            dos.writeInt(suffixDataIndexes.size());
+            for (SuffixData data : suffixDataIndexes.keySet()) {
+                dos.writeInt(data.size());
+                for (SuffixForm form : data) {
+                    dos.writeInt(formIndexes.get(form));
+                }
+            }
+        }
+
+        void writeItems(DataOutputStream dos) throws IOException {
+            dos.writeInt(itemIndexes.size());
+            for (DictionaryItem item : itemIndexes.keySet()) {
+                writeString(dos, item.lemma);
+                writeString(dos, item.root);
+                writeString(dos, item.pronunciation);
+                writeOrdinal(dos, item.primaryPos);
+                writeOrdinal(dos, item.secondaryPos);
+                dos.writeLong(toBits(item.attributes));
+                dos.writeInt(item.index);
+                dos.writeBoolean(item.dummy);
+                dos.writeInt(item.referenceItem == null ? -1 : itemIndexes.get(item.referenceItem));
+            }
+        }
+
+        void writeNodes(DataOutputStream dos) throws IOException {
+            dos.writeInt(nodeIndexes.size());
+            for (SuffixSurfaceNode node : nodeIndexes.keySet()) {
+                dos.writeInt(formIndexes.get(node.getSuffixForm()));
+                writeMorphNode(dos, node);
+            }
+            // successors are written after all nodes as index arrays.
+            for (SuffixSurfaceNode node : nodeIndexes.keySet()) {
+                dos.writeInt(node.getSuccessors().size());
+                for (SuffixSurfaceNode successor : node.getSuccessors()) {
+                    dos.writeInt(nodeIndexes.get(successor));
+                }
+            }
+            dos.writeInt(graph.getRootSuffixNodes().size());
+            for (SuffixSurfaceNode root : graph.getRootSuffixNodes()) {
+                dos.writeInt(nodeIndexes.get(root));
+            }
+        }
+
+        void writeStems(DataOutputStream dos) throws IOException {
+            dos.writeInt(stems.size());
+            for (StemNode stem : stems) {
+                dos.writeInt(itemIndexes.get(stem.getDictionaryItem()));
+                dos.writeInt(nodeIndexes.get(stem.getSuffixRootSurfaceNode()));
+                writeMorphNode(dos, stem);
+            }
+        }
+
+        void writeMorphNode(DataOutputStream dos, MorphNode node) throws IOException {
+            writeString(dos, node.surfaceForm);
+            dos.writeByte(node.termination.ordinal());
+            dos.writeLong(toBits(node.attributes));
+            dos.writeLong(toBits(node.expectations));
+            dos.writeInt(suffixDataIndexes.get(node.exclusiveSuffixData));
+        }
+
+        static void writeOrdinal(DataOutputStream dos, Enum value) throws IOException {
+            dos.writeByte(value == null ? -1 : value.ordinal());
+        }
+
+        static <E extends Enum<E>> long toBits(EnumSet<E> set) {
+            long bits = 0;
+            if (set != null) {
+                for (E e : set) {
+                    bits |= 1L << e.ordinal();
+                }
+            }
+            return bits;
+        }
+
+        static void writeString(DataOutputStream dos, String s) throws IOException {
+            dos.writeShort(s.length());
+            dos.writeChars(s);
+        }
+    }
+
+    private static class Reader {
+        ByteBuffer buffer;
+        SuffixProvider suffixProvider;
+
+        PrimaryPos[] primaryPos;
+        SecondaryPos[] secondaryPos;
+        RootAttribute[] rootAttributes;
+        PhoneticAttribute[] phoneticAttributes;
+        PhoneticExpectation[] phoneticExpectations;
+        TerminationType[] terminationTypes;
+
+        Suffix[] suffixes;
+        SuffixForm[] forms;
+        SuffixData[] suffixData;
+        DictionaryItem[] items;
+        SuffixSurfaceNode[] nodes;
+
+        Reader(ByteBuffer buffer, SuffixProvider suffixProvider) {
+            this.buffer = buffer;
+            this.suffixProvider = suffixProvider;
+        }
+
+        DynamicLexiconGraph read() throws IOException {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("File is not a binary lexicon graph.");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary lexicon graph version " + version + ". Expected " + VERSION);
+            }
+            primaryPos = readEnumTable(PrimaryPos.class);
+            secondaryPos = readEnumTable(SecondaryPos.class);
+            rootAttributes = readEnumTable(RootAttribute.class);
+            phoneticAttributes = readEnumTable(PhoneticAttribute.class);
+            phoneticExpectations = readEnumTable(PhoneticExpectation.class);
+            terminationTypes = readEnumTable(TerminationType.class);
+
+            readSuffixes();
+            readForms();
+            readSuffixData();
+            readItems();
+
+            DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider, true);
+            readNodes(graph);
+            readStems(graph);
+            return graph;
+        }
+
+        <E extends Enum<E>> E[] readEnumTable(Class<E> clazz) throws IOException {
+            int count = buffer.getInt();
+            @SuppressWarnings("unchecked")
+            E[] values = (E[]) java.lang.reflect.Array.newInstance(clazz, count);
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                try {
+                    values[i] = Enum.valueOf(clazz, name);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Unknown " + clazz.getSimpleName() + " value " + name + " in binary graph.");
+                }
+            }
+            return values;
+        }
+
+        void readSuffixes() {
+            // Suffix objects of the provider are used if available.
+            Map<String, Suffix> providerSuffixes = new HashMap<>();
+            for (SuffixForm form : suffixProvider.getAllForms()) {
+                providerSuffixes.putIfAbsent(form.getSuffix().id, form.getSuffix());
+            }
+            suffixes = new Suffix[buffer.getInt()];
+            for (int i = 0; i < suffixes.length; i++) {
+                String id = readString();
+                boolean isRoot = buffer.get() == 1;
+                PrimaryPos pos = isRoot ? readOrdinal(primaryPos) : null;
+                Suffix suffix = providerSuffixes.get(id);
+                if (suffix == null || (suffix instanceof RootSuffix) != isRoot) {
+                    suffix = isRoot ? new RootSuffix(id, pos) : new Suffix(id);
+                }
+                suffixes[i] = suffix;
+            }
+        }
+
+        void readForms() {
+            forms = new SuffixForm[buffer.getInt()];
+            for (int i = 0; i < forms.length; i++) {
+                byte kind = buffer.get();
+                String id = readString();
+                int index = buffer.getInt();
+                Suffix suffix = suffixes[buffer.getInt()];
+                String generation = readString();
+                TerminationType termination = terminationTypes[buffer.get()];
+                switch (kind) {
+                    case KIND_NULL_FORM:
+                        SuffixFormTemplate template = (SuffixFormTemplate) forms[buffer.getInt()];
+                        forms[i] = new NullSuffixForm(index, id, template, termination);
+                        break;
+                    case KIND_TEMPLATE:
+                        forms[i] = new SuffixFormTemplate(index, id, suffix, termination);
+                        break;
+                    case KIND_DERIVATIONAL_TEMPLATE:
+                        forms[i] = new DerivationalSuffixTemplate(index, id, suffix, termination);
+                        break;
+                    default:
+                        forms[i] = new SuffixForm(index, id, suffix, generation, termination);
+                }
+            }
+        }
+
+        void readSuffixData() {
+            suffixData = new SuffixData[buffer.getInt()];
+            for (int i = 0; i < suffixData.length; i++) {
+                int size = buffer.getInt();
+                SuffixData data = new SuffixData();
+                for (int j = 0; j < size; j++) {
+                    data.add(forms[buffer.getInt()]);
+                }
+                suffixData[i] = data;
+            }
+        }
+
+        void readItems() {
+            items = new DictionaryItem[buffer.getInt()];
+            for (int i = 0; i < items.length; i++) {
+                String lemma = readString();
+                String root = readString();
+                String pronunciation = readString();
+                PrimaryPos pos = readOrdinal(primaryPos);
+                SecondaryPos spos = readOrdinal(secondaryPos);
+                EnumSet<RootAttribute> attributes = fromBits(buffer.getLong(), rootAttributes, RootAttribute.class);
+                int index = buffer.getInt();
+                DictionaryItem item = new DictionaryItem(
+                        lemma, root, pronunciation, pos, spos, attributes, null, null, index);
+                item.dummy = buffer.get() == 1;
+                int reference = buffer.getInt();
+                // reference items are written before the items referring to them.
+                if (reference >= 0) {
+                    item.referenceItem = items[reference];
+                }
+                items[i] = item;
+            }
+        }
+
+        void readNodes(DynamicLexiconGraph graph) {
+            nodes = new SuffixSurfaceNode[buffer.getInt()];
+            for (int i = 0; i < nodes.length; i++) {
+                SuffixForm form = forms[buffer.getInt()];
+                String surface = readString();
+                TerminationType termination = terminationTypes[buffer.get()];
+                EnumSet<PhoneticAttribute> attributes =
+                        fromBits(buffer.getLong(), phoneticAttributes, PhoneticAttribute.class);
+                EnumSet<PhoneticExpectation> expectations =
+                        fromBits(buffer.getLong(), phoneticExpectations, PhoneticExpectation.class);
+                SuffixData exclusiveData = suffixData[buffer.getInt()];
+                nodes[i] = new SuffixSurfaceNode(form, surface, attributes, expectations, exclusiveData, termination);
+            }
+            for (SuffixSurfaceNode node : nodes) {
+                int successorCount = buffer.getInt();
+                for (int j = 0; j < successorCount; j++) {
+                    SuffixSurfaceNode successor = nodes[buffer.getInt()];
+                    node.addSuccNode(successor);
+                    graph.addSuffixNode(successor);
+                }
+            }
+            int rootCount = buffer.getInt();
+            for (int i = 0; i < rootCount; i++) {
+                graph.addRootSuffixNode(nodes[buffer.getInt()]);
+            }
+        }
+
+        void readStems(DynamicLexiconGraph graph) {
+            int stemCount = buffer.getInt();
+            for (int i = 0; i < stemCount; i++) {
+                DictionaryItem item = items[buffer.getInt()];
+                SuffixSurfaceNode rootNode = nodes[buffer.getInt()];
+                String surface = readString();
+                TerminationType termination = terminationTypes[buffer.get()];
+                EnumSet<PhoneticAttribute> attributes =
+                        fromBits(buffer.getLong(), phoneticAttributes, PhoneticAttribute.class);
+                EnumSet<PhoneticExpectation> expectations =
+                        fromBits(buffer.getLong(), phoneticExpectations, PhoneticExpectation.class);
+                StemNode stem = new StemNode(surface, item, termination, attributes, expectations);
+                stem.exclusiveSuffixData = suffixData[buffer.getInt()];
+                stem.suffixRootSurfaceNode = rootNode;
+                graph.addConnectedStemNode(stem);
+            }
+        }
+
+        <E extends Enum<E>> E readOrdinal(E[] values) {
+            byte ordinal = buffer.get();
+            return ordinal < 0 ? null : values[ordinal];
+        }
+
+        <E extends Enum<E>> EnumSet<E> fromBits(long bits, E[] values, Class<E> clazz) {
+            EnumSet<E> set = EnumSet.noneOf(clazz);
+            while (bits != 0) {
+                int ordinal = Long.numberOfTrailingZeros(bits);
+                set.add(values[ordinal]);
+                bits &= bits - 1;
+            }
+            return set;
+        }
+
+        String readString() {
+            int length = buffer.getShort();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = buffer.getChar();
+            }
+            return new String(chars);
+        }
+    }
+}
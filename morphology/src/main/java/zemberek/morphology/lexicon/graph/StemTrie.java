@@ -1,83 +1,128 @@
 package zemberek.morphology.lexicon.graph;
 
-import zemberek.core.turkish.TurkishAlphabet;
-
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * StemTrie is a simple compact trie that holds stems
+ * StemTrie is a simple compact trie that holds stems.
+ * <p>
+ * Trie is safe for concurrent reads while stems are added or removed. Write operations are synchronized,
+ * and they never modify a node that is reachable by readers in place. Child and stem arrays of nodes are copied on
+ * write and nodes that need splitting are replaced with new nodes.
  *
  * @author mdakin@gmail.com
  */
 public class StemTrie {
 
-    Node root = new Node();
-    static TurkishAlphabet alphabet = new TurkishAlphabet();
+    private final Node root = new Node(null);
+
+    /**
+     * Receives characters and stems of the trie during a depth first traversal.
+     */
+    public interface Visitor {
+        /**
+         * Called for each character of the current path.
+         *
+         * @param c     character.
+         * @param depth length of the path before this character.
+         * @return false if nodes below this character should not be visited.
+         */
+        boolean visitChar(char c, int depth);
+
+        /**
+         * Called for each stem whose surface form is the current path.
+         *
+         * @param stem  stem node.
+         * @param depth length of the path.
+         */
+        void visitStem(StemNode stem, int depth);
+    }
+
+    /**
+     * Visits all paths of the trie depth first. Children of a node are visited in their char order. Trie can be
+     * traversed while stems are added or removed, such a traversal sees either the old or the new state of a node.
+     */
+    public void traverse(Visitor visitor) {
+        traverse(root, 0, visitor);
+    }
+
+    private static void traverse(Node node, int depth, Visitor visitor) {
+        if (node.fragment != null) {
+            for (char c : node.fragment) {
+                if (!visitor.visitChar(c, depth)) {
+                    return;
+                }
+                depth++;
+            }
+        }
+        for (StemNode stem : node.stems) {
+            visitor.visitStem(stem, depth);
+        }
+        for (Node child : node.children) {
+            traverse(child, depth, visitor);
+        }
+    }
 
-    public void add(StemNode stem) {
+    public synchronized void add(StemNode stem) {
         if (stem == null) {
             throw new NullPointerException("Input key can not be null");
         }
         char[] chars = stem.surfaceForm.toCharArray();
         Node node = root;
-        Node previousNode;
         // i holds the char index for input
         int i = 0;
-        // fragmentSplitIndex is the index of the last fragment
-        int fragmentSplitIndex;
-        // While we still have chars left on the input, or no child marked with s[i]
-        // is found in subnodes
-        while (node != null) {
-            previousNode = node;
-            node = node.getChildNode(chars[i]);
+        while (i < chars.length) {
+            Node child = node.getChildNode(chars[i]);
             // Cases:
             // root <- foo ==> root-foo*
             // or
             // root-foo* <- bar ==> root-foo*
             //                         \-bar*
-            // or
-            // root-foo* <- foobar ==> foor-foo*-bar*
-            if (node == null) {
-                previousNode.addChild(new Node(stem, getSuffix(chars, i)));
+            if (child == null) {
+                node.putChild(new Node(getSuffix(chars, i), stem));
                 return;
-            } else {
-                fragmentSplitIndex = getSplitPoint(chars, i, node.fragment);
+            }
+            int fragmentSplitIndex = getSplitPoint(chars, i, child.fragment);
+            // Case:
+            // root-foo* <- foobar ==> root-foo*-bar*
+            // or Homonym:
+            // root-foo* <-- foo ==> root-foo**
+            if (fragmentSplitIndex == child.fragment.length) {
+                node = child;
                 i += fragmentSplitIndex;
-                // Case:
-                // root-foobar* <- foo ==> root-foo*-bar*
-                // or
-                // root-fo-obar* <-foo ==> root-fo-o*-bar*
-                //        \-x*                    \-x*
-                // or Homonym:
-                // root-foo* <-- foo ==> root-foo**              
-                if (i == chars.length) {
-                    // Homonym   
-                    if (fragmentSplitIndex == node.fragment.length) {
-                        node.addStem(stem);
-                        break;
-                    }
-                    Node newNode = new Node(stem, Arrays.copyOf(node.fragment, fragmentSplitIndex));
-                    newNode.addChild(node);
-                    previousNode.addChild(newNode);
-                    node.trimLeft(fragmentSplitIndex);
-                    break;
-                }
-                // Case:
-                // root-foobar* <- foxes ==> root-fo-obar*
-                //                                  \-xes*
-                if (i < chars.length && fragmentSplitIndex < node.fragment.length) {
-                    Node node1 = new Node();
-                    node1.setFragment(Arrays.copyOf(node.fragment, fragmentSplitIndex)); // fo
-                    previousNode.addChild(node1);
-                    node.trimLeft(fragmentSplitIndex); // obar
-                    node1.addChild(node);
-                    Node node2 = new Node(stem, getSuffix(chars, i)); //xes
-                    node1.addChild(node2);
-                    break;
-                }
+                continue;
             }
+            // Child node needs to be split. A replacement is generated and attached instead of modifying the child.
+            // Case:
+            // root-foobar* <- foo ==> root-foo*-bar*
+            // or
+            // root-foobar* <- foxes ==> root-fo-obar*
+            //                                  \-xes*
+            Node remaining = child.copyWithFragment(getSuffix(child.fragment, fragmentSplitIndex)); // bar or obar
+            Node split = new Node(Arrays.copyOf(child.fragment, fragmentSplitIndex)); // foo or fo
+            split.putChild(remaining);
+            i += fragmentSplitIndex;
+            if (i == chars.length) {
+                split.addStem(stem);
+            } else {
+                split.putChild(new Node(getSuffix(chars, i), stem)); // xes
+            }
+            node.putChild(split);
+            return;
+        }
+        node.addStem(stem);
+    }
+
+    /**
+     * Removes stems with the same surface form and dictionary item of the given stem.
+     * Nodes in the trie are not removed even if they do not carry any stem afterwards.
+     */
+    public synchronized void remove(StemNode stem) {
+        Node node = findNode(stem.surfaceForm);
+        if (node != null) {
+            node.removeStem(stem);
         }
     }
 
@@ -111,100 +156,189 @@ public class StemTrie {
     }
 
     public String toString() {
-        return root != null ? root.dump() : "";
+        return root.dump();
     }
 
+    /**
+     * Returns all stems whose surface forms are prefixes of the input, including the input itself.
+     * Stems are ordered by their length. Input is traversed only once.
+     */
     public List<StemNode> getMatchingStems(String input) {
+        List<StemNode> stems = new ArrayList<>(2);
+        collectMatchingStems(input, stems);
+        return stems;
+    }
+
+    /**
+     * Same as {@link #getMatchingStems(String)} but adds the stems to given list.
+     */
+    public void collectMatchingStems(String input, List<StemNode> result) {
+        Node node = root;
+        int index = 0;
+        while (index < input.length()) {
+            node = node.getChildNode(input.charAt(index));
+            if (node == null || !node.fragmentMatches(input, index)) {
+                return;
+            }
+            index += node.fragment.length;
+            StemNode[] stems = node.stems;
+            for (StemNode stem : stems) {
+                result.add(stem);
+            }
+        }
+    }
+
+    /**
+     * Returns stems with exactly the same surface form with input.
+     */
+    public List<StemNode> getStems(String surfaceForm) {
+        Node node = findNode(surfaceForm);
+        if (node == null || node.stems.length == 0) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(Arrays.asList(node.stems));
+    }
+
+    /**
+     * Returns all stems in the trie. Stems are ordered by their surface forms,
+     * homonyms are in the order they are added.
+     */
+    public List<StemNode> getAllStems() {
+        List<StemNode> result = new ArrayList<>();
+        collectAll(root, result);
+        return result;
+    }
+
+    private void collectAll(Node node, List<StemNode> result) {
+        Collections.addAll(result, node.stems);
+        for (Node child : node.children) {
+            collectAll(child, result);
+        }
+    }
+
+    private Node findNode(String input) {
+        if (input.length() == 0) {
+            return null;
+        }
         Node node = root;
         int index = 0;
-        String s = "";
-        List<StemNode> objects = new ArrayList<StemNode>();
         while (index < input.length()) {
             node = node.getChildNode(input.charAt(index));
-            if (node == null) break;
-            String nodeString = node.getString();
-            s += nodeString;
-            if (input.startsWith(s) && node.hasObject()) {
-                objects.addAll(node.stems);
+            if (node == null || !node.fragmentMatches(input, index)) {
+                return null;
             }
-            index += nodeString.length();
+            index += node.fragment.length;
         }
-        return objects;
+        return node;
     }
 
     public static class Node {
-        private char[] fragment;
-        int index;
-        private ArrayList<Node> children;
-        private ArrayList<StemNode> stems;
+        private static final Node[] EMPTY_CHILDREN = new Node[0];
+        private static final StemNode[] EMPTY_STEMS = new StemNode[0];
 
-        public Node() {
-        }
+        private final char[] fragment;
+        // children are sorted by the first char of their fragments.
+        private volatile Node[] children = EMPTY_CHILDREN;
+        private volatile StemNode[] stems = EMPTY_STEMS;
 
-        public Node(StemNode s, char[] fragment) {
-            addStem(s);
-            setFragment(fragment);
+        Node(char[] fragment) {
+            this.fragment = fragment;
         }
 
-        public void setAlphabeticIndex() {
-            this.index = alphabet.getAlphabeticIndex(fragment[0]);
+        Node(char[] fragment, StemNode stem) {
+            this.fragment = fragment;
+            this.stems = new StemNode[]{stem};
         }
 
-        public void trimLeft(int i) {
-            this.fragment = getSuffix(fragment, i);
-            setAlphabeticIndex();
+        // generates a node with given fragment but with same children and stems.
+        Node copyWithFragment(char[] fragment) {
+            Node node = new Node(fragment);
+            node.children = children;
+            node.stems = stems;
+            return node;
         }
 
-        public void setFragment(char[] fragment) {
-            this.fragment = fragment;
-            setAlphabeticIndex();
+        private char getChar() {
+            return fragment == null ? '#' : fragment[0];
         }
 
-        public void addStem(StemNode s) {
-            if (stems == null) {
-                stems = new ArrayList<StemNode>(1);
+        boolean fragmentMatches(String input, int start) {
+            if (input.length() - start < fragment.length) {
+                return false;
             }
-            if (!stems.contains(s)) {
-                stems.add(s);
+            // first char is already checked during child lookup.
+            for (int i = 1; i < fragment.length; i++) {
+                if (input.charAt(start + i) != fragment[i]) {
+                    return false;
+                }
             }
+            return true;
         }
 
-        public void addChild(Node node) {
-            if (children == null) {
-                children = new ArrayList<Node>(2);
+        void addStem(StemNode s) {
+            StemNode[] current = stems;
+            for (StemNode stem : current) {
+                if (stem.equals(s)) {
+                    return;
+                }
+            }
+            StemNode[] newStems = Arrays.copyOf(current, current.length + 1);
+            newStems[current.length] = s;
+            stems = newStems;
+        }
+
+        void removeStem(StemNode s) {
+            StemNode[] current = stems;
+            List<StemNode> remaining = new ArrayList<>(current.length);
+            for (StemNode stem : current) {
+                if (!stem.getDictionaryItem().equals(s.getDictionaryItem())) {
+                    remaining.add(stem);
+                }
             }
-            int pos = getChildIndex(node.index);
-            if (pos < 0) {
-                children.add(-(pos + 1), node);
+            if (remaining.size() < current.length) {
+                stems = remaining.toArray(new StemNode[remaining.size()]);
+            }
+        }
+
+        // Adds the node as a child, if a child with the same starting char exists, it is replaced.
+        void putChild(Node node) {
+            Node[] current = children;
+            int pos = getChildIndex(current, node.fragment[0]);
+            Node[] newChildren;
+            if (pos >= 0) {
+                newChildren = current.clone();
+                newChildren[pos] = node;
             } else {
-                children.set(pos, node);
+                int insertion = -(pos + 1);
+                newChildren = new Node[current.length + 1];
+                System.arraycopy(current, 0, newChildren, 0, insertion);
+                newChildren[insertion] = node;
+                System.arraycopy(current, insertion, newChildren, insertion + 1, current.length - insertion);
             }
+            children = newChildren;
         }
 
-        // Search based on index values of children Node array. 
+        // Search based on first chars of children Node array.
         // Returns index of node if it already exists,
-        // -(pos +1) position to insert, if no element exist with given index 
-        private int getChildIndex(int index) {
-            if (children == null || children.size() == 0) {
-                return -1;
-            }
-            int size = children.size();
+        // -(pos +1) position to insert, if no element exist with given char
+        private static int getChildIndex(Node[] children, char c) {
+            int size = children.length;
             // Linear search if element count is smaller than a threshold.
             if (size < 7) {
                 int i = 0;
-                for (; i < size && children.get(i).index < index; i++) ;
+                for (; i < size && children[i].fragment[0] < c; i++) ;
                 if (i == size) return -(size + 1);
-                return children.get(i).index == index ? i : -(i + 1);
+                return children[i].fragment[0] == c ? i : -(i + 1);
             }
             // Apply binary search if child count is big.
             int low = 0;
             int high = size - 1;
             while (low <= high) {
                 int mid = (low + high) >> 1;
-                Node midNode = children.get(mid);
-                if (midNode.index < index) {
+                char midChar = children[mid].fragment[0];
+                if (midChar < c) {
                     low = mid + 1;
-                } else if (midNode.index > index) {
+                } else if (midChar > c) {
                     high = mid - 1;
                 } else {
                     return mid;
@@ -218,64 +352,48 @@ public class StemTrie {
         }
 
         public Node getChildNode(char c) {
-            int childIndex = getChildIndex(alphabet.getAlphabeticIndex(c));
+            Node[] current = children;
+            int childIndex = getChildIndex(current, c);
             if (childIndex >= 0) {
-                return children.get(childIndex);
+                return current[childIndex];
             }
             return null;
         }
 
         public Node[] getAllChildNodes() {
-            return children.toArray(new Node[children.size()]);
+            return children.clone();
         }
 
         @Override
         public String toString() {
             String s = getString() + " : ";
-            if (children != null) {
+            Node[] current = children;
+            if (current.length > 0) {
                 s += "( ";
-                for (Node node : children) {
-                    if (node != null) {
-                        s += node.getChar() + " ";
-                    }
+                for (Node node : current) {
+                    s += node.getChar() + " ";
                 }
                 s += ")";
-            } else {
-                s += "";
             }
-            if (stems != null) {
-                for (StemNode stem : stems) {
-                    s += " [" + stem.surfaceForm + "]";
-                }
+            for (StemNode stem : stems) {
+                s += " [" + stem.surfaceForm + "]";
             }
             return s;
         }
 
-        private char getChar() {
-            if (fragment == null) {
-                return '#';
-            }
-            return fragment[0];
-        }
-
         /**
          * Returns string representation of node and all child nodes until leafs.
          *
          * @param b     string buffer to append.
          * @param level level of the operation
          */
-        private void toDeepString(StringBuffer b, int level) {
+        private void toDeepString(StringBuilder b, int level) {
             char[] indentChars = new char[level * 2];
-            for (int i = 0; i < indentChars.length; i++)
-                indentChars[i] = ' ';
+            Arrays.fill(indentChars, ' ');
             b.append(indentChars).append(this.toString());
             b.append("\n");
-            if (children != null) {
-                for (Node subNode : this.children) {
-                    if (subNode != null) {
-                        subNode.toDeepString(b, level + 1);
-                    }
-                }
+            for (Node subNode : this.children) {
+                subNode.toDeepString(b, level + 1);
             }
         }
 
@@ -285,14 +403,14 @@ public class StemTrie {
          * @return String representation of trie.
          */
         public final String dump() {
-            StringBuffer b = new StringBuffer();
+            StringBuilder b = new StringBuilder();
             toDeepString(b, 0);
             return b.toString();
         }
 
         public boolean hasObject() {
-            return (stems != null && stems.size() > 0);
+            return stems.length > 0;
         }
 
     }
-}
\ No newline at end of file
+}
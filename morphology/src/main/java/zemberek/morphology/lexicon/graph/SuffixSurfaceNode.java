@@ -13,6 +13,8 @@ public class SuffixSurfaceNode extends MorphNode {
 
     SuffixForm suffixForm;
     Set<SuffixSurfaceNode> successors = new HashSet<>(1);
+    // array snapshot of successors, in set iteration order. Reset when a successor is added.
+    private volatile SuffixSurfaceNode[] successorArray;
 
     public SuffixSurfaceNode(
             SuffixForm suffixForm,
@@ -46,6 +48,7 @@ public class SuffixSurfaceNode extends MorphNode {
 
     public SuffixSurfaceNode addSuccNode(SuffixSurfaceNode form) {
         this.successors.add(form);
+        this.successorArray = null;
         return this;
     }
 
@@ -53,6 +56,19 @@ public class SuffixSurfaceNode extends MorphNode {
         return successors;
     }
 
+    /**
+     * Returns successors as an array. Iteration order is the same with {@link #getSuccessors()}.
+     * Array is cached, so callers must not modify it.
+     */
+    public SuffixSurfaceNode[] getSuccessorArray() {
+        SuffixSurfaceNode[] arr = successorArray;
+        if (arr == null) {
+            arr = successors.toArray(new SuffixSurfaceNode[successors.size()]);
+            successorArray = arr;
+        }
+        return arr;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,82 @@
+package zemberek.morphology.analysis;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Resources;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.core.io.SimpleTextReader;
+import zemberek.morphology.analysis.tr.TurkishMorphology;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class StackWordAnalyzerTest {
+
+    public static final File TOP_WORDS_FILE = new File(Resources.getResource("top-20K-words.txt").getFile());
+
+    @Test
+    public void sameResultsWithWordAnalyzer() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDefaultDictionaries().build();
+        WordAnalyzer analyzer = new WordAnalyzer(morphology.getGraph());
+        StackWordAnalyzer stackAnalyzer = new StackWordAnalyzer(morphology.getGraph());
+        for (String word : topWords()) {
+            Assert.assertEquals("Mismatch for " + word, format(analyzer.analyze(word)), format(stackAnalyzer.analyze(word)));
+        }
+    }
+
+    @Test
+    public void builderShouldUseStackAnalyzer() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder()
+                .addDictionaryLines("elma", "armut")
+                .useStackWordAnalyzer()
+                .build();
+        Assert.assertTrue(morphology.getWordAnalyzer() instanceof StackWordAnalyzer);
+        Assert.assertEquals(1, morphology.analyze("elmalara").size());
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void speedAndAllocationComparison() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDefaultDictionaries().build();
+        List<String> words = topWords();
+        WordAnalyzer analyzer = new WordAnalyzer(morphology.getGraph());
+        StackWordAnalyzer stackAnalyzer = new StackWordAnalyzer(morphology.getGraph());
+        for (int i = 0; i < 5; i++) {
+            run(analyzer, words);
+            run(stackAnalyzer, words);
+        }
+    }
+
+    private void run(WordAnalyzer analyzer, List<String> words) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        Stopwatch sw = Stopwatch.createStarted();
+        int count = 0;
+        for (String word : words) {
+            count += analyzer.analyze(word).size();
+        }
+        long elapsed = sw.elapsed(TimeUnit.MILLISECONDS);
+        allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.println(analyzer.getClass().getSimpleName() + " Analysis count = " + count +
+                " Elapsed = " + elapsed + "ms. Allocated = " + allocated / 1024 + " KB. Speed = " +
+                words.size() * 1000L / Math.max(elapsed, 1) + " words/s");
+    }
+
+    private List<String> topWords() throws IOException {
+        return SimpleTextReader.trimmingUTF8Reader(TOP_WORDS_FILE).asStringList();
+    }
+
+    private List<String> format(List<WordAnalysis> analyses) {
+        List<String> result = new ArrayList<>(analyses.size());
+        for (WordAnalysis analysis : analyses) {
+            result.add(analysis.formatLong());
+        }
+        return result;
+    }
+}
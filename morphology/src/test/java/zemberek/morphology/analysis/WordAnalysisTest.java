@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import org.junit.Assert;
 import org.hamcrest.MatcherAssert;
 import org.junit.Test;
+import zemberek.morphology.lexicon.Suffix;
 import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
 import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
 import zemberek.morphology.lexicon.tr.TurkishSuffixes;
@@ -76,7 +77,7 @@ public class WordAnalysisTest {
             List<WordAnalysis> results = parser.analyze(s);
             WordAnalysis res = results.get(0);
             List<String> surfaces = Lists.newArrayList();
-            for (WordAnalysis.InflectionalGroup ig : res.inflectionalGroups) {
+            for (WordAnalysis.InflectionalGroup ig : res.getInflectionalGroups()) {
                 surfaces.add(ig.surfaceForm());
             }
             Assert.assertEquals(expected[i], Joiner.on("").join(surfaces));
@@ -138,6 +139,34 @@ public class WordAnalysisTest {
     }
 
 
+    @Test
+    public void compactAnalysisShouldMatchMaterialized() {
+        WordAnalyzer parser = getParser("kitap", "aramak", "mavi [P:Adj]", "yirmi [P:Num,Card]", "yapmak");
+        String[] testSet = {"kitaplaşırız", "kitabımızsa", "aratagörün", "mavide", "yirmiye", "yapacağınaysa",
+                "kitap", "mavi", "yirmi", "kitaplı", "kitapçığa"};
+        for (String s : testSet) {
+            for (WordAnalysis compact : parser.analyze(s)) {
+                WordAnalysis materialized = new WordAnalysis(
+                        compact.dictionaryItem, compact.root, compact.getInflectionalGroups());
+                Assert.assertEquals(s, compact.getSurfaceForm());
+                Assert.assertEquals(materialized.getSurfaceForm(), compact.getSurfaceForm());
+                Assert.assertEquals(materialized.getPronunciation(), compact.getPronunciation());
+                Assert.assertEquals(materialized.formatLong(), compact.formatLong());
+                Assert.assertEquals(materialized.formatOflazer(), compact.formatOflazer());
+                Assert.assertEquals(materialized.suffixSurfaceList(), compact.suffixSurfaceList());
+                Assert.assertEquals(materialized.getSuffixes(), compact.getSuffixes());
+                Assert.assertEquals(materialized.getStemAndEnding(), compact.getStemAndEnding());
+                Assert.assertEquals(materialized.getPos(), compact.getPos());
+                Assert.assertEquals(materialized.getLastIg().formatLong(), compact.getLastIg().formatLong());
+                Assert.assertEquals(materialized.getLastIg().spos, compact.getLastIg().spos);
+                for (Suffix suffix : materialized.getSuffixes()) {
+                    Assert.assertTrue(compact.containsSuffix(suffix));
+                }
+                Assert.assertFalse(compact.containsSuffix(Suffix.UNKNOWN));
+            }
+        }
+    }
+
     private WordAnalyzer getParser(String... lines) {
         DynamicLexiconGraph graph = new DynamicLexiconGraph(suffixProvider);
         graph.addDictionaryItems(new TurkishDictionaryLoader(suffixProvider).load(lines));
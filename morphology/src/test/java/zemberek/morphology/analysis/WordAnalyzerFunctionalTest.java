@@ -174,7 +174,7 @@ public class WordAnalyzerFunctionalTest {
         for (String word : allWords) {
             List<WordAnalysis> results = parser.parse(word);
             for (WordAnalysis result : results) {
-                for (WordAnalysis.InflectionalGroup node : result.inflectionalGroups) {
+                for (WordAnalysis.InflectionalGroup node : result.getInflectionalGroups()) {
                     for (WordAnalysis.SuffixData d : node.suffixList) {
                         surfaceForms.add(d.surface);
                     }
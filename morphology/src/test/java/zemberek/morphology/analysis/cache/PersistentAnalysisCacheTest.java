@@ -0,0 +1,204 @@
+package zemberek.morphology.analysis.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+import zemberek.morphology.analysis.WordAnalysis;
+import zemberek.morphology.analysis.tr.TurkishMorphology;
+import zemberek.morphology.lexicon.graph.StemNode;
+import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class PersistentAnalysisCacheTest {
+
+    private static final String[] DICTIONARY = {"elma", "armut", "kitap", "ev", "gelmek"};
+    private static final String[] WORDS = {"elmalar", "armutlu", "kitabımdan", "evde", "geliyorum", "evlerimizde"};
+
+    @Test
+    public void sameResultsAfterReopen() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology first = morphology(cacheFile, DICTIONARY);
+        for (String word : WORDS) {
+            first.analyze(word);
+        }
+        Assert.assertEquals(WORDS.length, first.getPersistentCache().size());
+        first.close();
+        Assert.assertNull(first.getPersistentCache());
+
+        TurkishMorphology second = morphology(cacheFile, DICTIONARY);
+        PersistentAnalysisCache cache = second.getPersistentCache();
+        Assert.assertEquals(WORDS.length, cache.size());
+        TurkishMorphology noCache = TurkishMorphology.builder().addDictionaryLines(DICTIONARY).build();
+        for (String word : WORDS) {
+            List<WordAnalysis> cached = cache.get(word);
+            Assert.assertNotNull(cached);
+            Assert.assertEquals(formatted(noCache.analyzeWithoutCache(word)), formatted(cached));
+            Assert.assertEquals(formatted(cached), formatted(second.analyze(word)));
+            for (WordAnalysis analysis : cached) {
+                Assert.assertSame(second.getLexicon().getItemById(analysis.dictionaryItem.id), analysis.dictionaryItem);
+                Assert.assertTrue(analysis.isCompact());
+            }
+        }
+        cache.close();
+    }
+
+    @Test
+    public void differentLexiconShouldResetCache() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology first = morphology(cacheFile, DICTIONARY);
+        first.analyze("elmalar");
+        Assert.assertEquals(1, first.getPersistentCache().size());
+        first.getPersistentCache().close();
+
+        TurkishMorphology second = morphology(cacheFile, "elma", "armut");
+        Assert.assertEquals(0, second.getPersistentCache().size());
+        Assert.assertNull(second.getPersistentCache().get("elmalar"));
+        second.getPersistentCache().close();
+    }
+
+    @Test
+    public void runtimeItemsShouldNotBeStored() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology morphology = morphology(cacheFile, DICTIONARY);
+        Assert.assertFalse(morphology.analyze("Ankara'ya").isEmpty());
+        Assert.assertFalse(morphology.analyze("123").isEmpty());
+        Assert.assertEquals(0, morphology.getPersistentCache().size());
+        morphology.getPersistentCache().close();
+    }
+
+    @Test
+    public void addingItemsShouldDisableCache() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology morphology = morphology(cacheFile, DICTIONARY);
+        PersistentAnalysisCache cache = morphology.getPersistentCache();
+        morphology.analyze("elmalar");
+        morphology.addDictionaryItems(morphology.getLexicon().getMatchingItems("elma").get(0));
+        Assert.assertNull(morphology.getPersistentCache());
+        Assert.assertEquals(0, cache.size());
+        // cache is closed, so the file can be opened again.
+        PersistentAnalysisCache reopened = PersistentAnalysisCache.open(
+                cacheFile, morphology.getLexicon(), morphology.getSuffixProvider(), morphology.getGraph());
+        Assert.assertEquals(0, reopened.size());
+        Assert.assertNull(reopened.get("elmalar"));
+        reopened.close();
+    }
+
+    @Test
+    public void fileShouldBeUsedByOneInstance() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology first = morphology(cacheFile, DICTIONARY);
+        try {
+            morphology(cacheFile, DICTIONARY);
+            Assert.fail("Locked cache file should not be opened.");
+        } catch (IOException e) {
+            // expected.
+        }
+        first.close();
+        TurkishMorphology second = morphology(cacheFile, DICTIONARY);
+        Assert.assertNotNull(second.getPersistentCache());
+        second.close();
+    }
+
+    @Test
+    public void largeOrMaterializedAnalysesShouldNotBeStored() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology morphology = morphology(cacheFile, DICTIONARY);
+        PersistentAnalysisCache cache = morphology.getPersistentCache();
+        WordAnalysis analysis = morphology.analyzeWithoutCache("elmalar").get(0);
+        WordAnalysis materialized = new WordAnalysis(
+                analysis.dictionaryItem, analysis.root, analysis.getInflectionalGroups());
+        Assert.assertFalse(cache.put("elmalar", Collections.singletonList(materialized)));
+        List<SuffixSurfaceNode> nodes = new ArrayList<>();
+        while (nodes.size() <= Byte.MAX_VALUE) {
+            nodes.add(analysis.getSuffixNode(0));
+        }
+        StemNode stem = morphology.getGraph().getMatchingStemNodes("elma").get(0);
+        WordAnalysis manyNodes = new WordAnalysis(stem, nodes);
+        Assert.assertFalse(cache.put("elma", Collections.singletonList(manyNodes)));
+        Assert.assertEquals(0, cache.size());
+        morphology.close();
+    }
+
+    @Test
+    public void corruptedFileShouldBeReset() throws IOException {
+        // committed length is at offset 16 and first record starts at offset 20.
+        for (int[] corruption : new int[][]{{16, Integer.MAX_VALUE}, {16, 3}, {20, 0}, {20, -5}, {20, 1 << 20}}) {
+            Path cacheFile = tempFile();
+            TurkishMorphology first = morphology(cacheFile, DICTIONARY);
+            for (String word : WORDS) {
+                first.analyze(word);
+            }
+            first.close();
+            try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+                ByteBuffer value = ByteBuffer.allocate(4);
+                value.putInt(0, corruption[1]);
+                channel.write(value, corruption[0]);
+            }
+            TurkishMorphology second = morphology(cacheFile, DICTIONARY);
+            PersistentAnalysisCache cache = second.getPersistentCache();
+            Assert.assertEquals(0, cache.size());
+            Assert.assertNull(cache.get(WORDS[0]));
+            Assert.assertFalse(second.analyze(WORDS[0]).isEmpty());
+            Assert.assertEquals(1, cache.size());
+            second.close();
+        }
+    }
+
+    @Test
+    public void fileShouldGrow() throws IOException {
+        Path cacheFile = tempFile();
+        TurkishMorphology morphology = morphology(cacheFile, DICTIONARY);
+        PersistentAnalysisCache cache = morphology.getPersistentCache();
+        List<WordAnalysis> analyses = morphology.analyzeWithoutCache("evlerimizde");
+        int count = 50000;
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(cache.put("word" + i, analyses));
+        }
+        Assert.assertFalse(cache.put("word0", analyses));
+        cache.close();
+
+        cache = open(cacheFile, morphology);
+        Assert.assertEquals(count, cache.size());
+        Assert.assertEquals(formatted(analyses), formatted(cache.get("word" + (count - 1))));
+        Assert.assertNull(cache.get("word" + count));
+        cache.close();
+    }
+
+    private PersistentAnalysisCache open(Path cacheFile, TurkishMorphology morphology) throws IOException {
+        return PersistentAnalysisCache.open(
+                cacheFile, morphology.getLexicon(), morphology.getSuffixProvider(), morphology.getGraph());
+    }
+
+    private TurkishMorphology morphology(Path cacheFile, String... lines) throws IOException {
+        return TurkishMorphology.builder()
+                .addDictionaryLines(lines)
+                .persistentCache(cacheFile)
+                .build();
+    }
+
+    private Set<String> formatted(List<WordAnalysis> analyses) {
+        Set<String> result = new HashSet<>();
+        for (WordAnalysis analysis : analyses) {
+            result.add(analysis.formatLong());
+        }
+        return result;
+    }
+
+    private Path tempFile() throws IOException {
+        File file = File.createTempFile("analysis", ".cache");
+        file.deleteOnExit();
+        Files.delete(file.toPath());
+        return file.toPath();
+    }
+}
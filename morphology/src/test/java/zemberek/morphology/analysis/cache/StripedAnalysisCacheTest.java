@@ -0,0 +1,282 @@
+package zemberek.morphology.analysis.cache;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.core.io.SimpleTextReader;
+import zemberek.morphology.analysis.StackWordAnalyzerTest;
+import zemberek.morphology.analysis.WordAnalysis;
+import zemberek.morphology.analysis.tr.TurkishMorphology;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class StripedAnalysisCacheTest {
+
+    private static final Function<String, List<WordAnalysis>> EMPTY_LOADER = s -> new ArrayList<>();
+
+    @Test
+    public void hitsAndMisses() {
+        StripedAnalysisCache cache = new StripedAnalysisCache(100, 4);
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, List<WordAnalysis>> loader = s -> {
+            loads.incrementAndGet();
+            return new ArrayList<>();
+        };
+        List<WordAnalysis> first = cache.get("elma", loader);
+        Assert.assertSame(first, cache.get("elma", loader));
+        cache.get("armut", loader);
+        Assert.assertEquals(2, loads.get());
+
+        AnalysisCacheStats stats = cache.getStats();
+        Assert.assertEquals(1, stats.hitCount);
+        Assert.assertEquals(2, stats.missCount);
+        Assert.assertEquals(2, stats.loadCount);
+        Assert.assertEquals(2, stats.size);
+        Assert.assertEquals(1 / 3d, stats.hitRate(), 0.0001);
+
+        cache.invalidate("elma");
+        Assert.assertNotSame(first, cache.get("elma", loader));
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sizeShouldBeBounded() {
+        StripedAnalysisCache cache = new StripedAnalysisCache(1000, 8);
+        for (int i = 0; i < 20000; i++) {
+            cache.get("word" + i, EMPTY_LOADER);
+        }
+        Assert.assertTrue(cache.size() <= 1000);
+        Assert.assertTrue(cache.getStats().evictionCount >= 19000);
+        // stripe capacities should not be rounded up.
+        for (int maxSize : new int[]{1, 3, 10, 1001}) {
+            cache = new StripedAnalysisCache(maxSize, 8);
+            for (int i = 0; i < 20000; i++) {
+                cache.get("word" + i, EMPTY_LOADER);
+            }
+            Assert.assertEquals(maxSize, cache.size());
+        }
+    }
+
+    @Test
+    public void frequentItemsShouldStayInCache() {
+        StripedAnalysisCache cache = new StripedAnalysisCache(1000, 1);
+        Random random = new Random(1);
+        // 100 frequent words are accessed between a stream of rare words.
+        for (int i = 0; i < 50000; i++) {
+            cache.get("frequent" + random.nextInt(100), EMPTY_LOADER);
+            cache.get("rare" + i, EMPTY_LOADER);
+        }
+        AtomicInteger misses = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            cache.get("frequent" + i, s -> {
+                misses.incrementAndGet();
+                return new ArrayList<>();
+            });
+        }
+        Assert.assertEquals(0, misses.get());
+    }
+
+    @Test
+    public void pinnedItemsShouldNotBeEvicted() {
+        StripedAnalysisCache cache = new StripedAnalysisCache(10, 1);
+        List<WordAnalysis> pinned = new ArrayList<>();
+        cache.pin("elma", pinned);
+        for (int i = 0; i < 1000; i++) {
+            cache.get("word" + i, EMPTY_LOADER);
+        }
+        Assert.assertSame(pinned, cache.get("elma", EMPTY_LOADER));
+    }
+
+    @Test
+    public void staleLoadsShouldNotBeCached() {
+        StripedAnalysisCache cache = new StripedAnalysisCache(10, 1);
+        // invalidation happens while the input is being analyzed.
+        cache.get("elma", s -> {
+            cache.invalidateAll();
+            return new ArrayList<>();
+        });
+        Assert.assertEquals(0, cache.size());
+        cache.get("elma", s -> {
+            cache.invalidate("elma");
+            return new ArrayList<>();
+        });
+        Assert.assertEquals(0, cache.size());
+        cache.get("elma", EMPTY_LOADER);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        StripedAnalysisCache cache = new StripedAnalysisCache(500, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 20000; i++) {
+                        String word = "word" + random.nextInt(2000);
+                        List<WordAnalysis> result = cache.get(word, s -> Collections.emptyList());
+                        if (result == null) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assert.assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        AnalysisCacheStats stats = cache.getStats();
+        Assert.assertEquals(8 * 20000, stats.requestCount());
+        Assert.assertTrue(cache.size() <= 500);
+    }
+
+    @Test
+    public void morphologyPreload() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder()
+                .addDictionaryLines("elma", "armut")
+                .cacheSize(1000)
+                .cacheConcurrencyLevel(2)
+                .preloadCache(Collections.singletonList("elmalar"))
+                .build();
+        Assert.assertEquals(1, morphology.getCacheStats().size);
+        morphology.analyze("elmalar");
+        morphology.analyze("armutlar");
+        AnalysisCacheStats stats = morphology.getCacheStats();
+        Assert.assertEquals(1, stats.hitCount);
+        Assert.assertEquals(1, stats.missCount);
+
+        // pre-loaded words are pinned again with the new lexicon.
+        TurkishDictionaryLoader loader = new TurkishDictionaryLoader(morphology.getSuffixProvider());
+        morphology.addDictionaryItems(loader.loadFromString("elmalar"));
+        Assert.assertEquals(1, morphology.getCacheStats().size);
+        Assert.assertEquals(2, morphology.analyze("elmalar").size());
+    }
+
+    @Test
+    public void morphologyPreloadFromFile() throws IOException {
+        Path frequencies = Files.createTempFile("frequencies", ".txt");
+        Files.write(frequencies, Arrays.asList("elmalar 10", "", "armutlar\t5", "elmada 1"), StandardCharsets.UTF_8);
+        TurkishMorphology morphology = TurkishMorphology.builder()
+                .addDictionaryLines("elma", "armut")
+                .preloadCache(frequencies, 2)
+                .build();
+        Files.delete(frequencies);
+        Assert.assertEquals(2, morphology.getCacheStats().size);
+        morphology.analyze("armutlar");
+        Assert.assertEquals(1, morphology.getCacheStats().hitCount);
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void throughputComparison() throws Exception {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDefaultDictionaries().disableCache().build();
+        List<String> words = SimpleTextReader.trimmingUTF8Reader(StackWordAnalyzerTest.TOP_WORDS_FILE).asStringList();
+        // Zipf like access pattern over the word list.
+        Random random = new Random(1);
+        String[] requests = new String[2_000_000];
+        for (int i = 0; i < requests.length; i++) {
+            int index = (int) Math.min(words.size() - 1, Math.exp(random.nextDouble() * Math.log(words.size())) - 1);
+            requests[i] = words.get(index);
+        }
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < 3; i++) {
+            LoadingCache<String, List<WordAnalysis>> guava = CacheBuilder.newBuilder()
+                    .maximumSize(5000)
+                    .concurrencyLevel(4)
+                    .build(new CacheLoader<String, List<WordAnalysis>>() {
+                        @Override
+                        public List<WordAnalysis> load(String key) {
+                            return morphology.analyzeWithoutCache(key);
+                        }
+                    });
+            run("Guava  ", threadCount, requests, guava::getUnchecked);
+            StripedAnalysisCache striped = new StripedAnalysisCache(5000, threadCount * 4);
+            run("Striped", threadCount, requests, s -> striped.get(s, morphology::analyzeWithoutCache));
+            System.out.println(striped.getStats());
+        }
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void compactAnalysisMemory() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDefaultDictionaries().disableCache().build();
+        List<String> words = SimpleTextReader.trimmingUTF8Reader(StackWordAnalyzerTest.TOP_WORDS_FILE).asStringList();
+        long before = usedMemory();
+        List<List<WordAnalysis>> compact = new ArrayList<>();
+        for (String word : words) {
+            compact.add(morphology.analyzeWithoutCache(word));
+        }
+        long compactMemory = usedMemory() - before;
+        before = usedMemory();
+        List<List<WordAnalysis>> materialized = new ArrayList<>();
+        for (List<WordAnalysis> analyses : compact) {
+            List<WordAnalysis> copy = new ArrayList<>();
+            for (WordAnalysis analysis : analyses) {
+                copy.add(new WordAnalysis(analysis.dictionaryItem, analysis.root, analysis.getInflectionalGroups()));
+            }
+            materialized.add(copy);
+        }
+        long materializedMemory = usedMemory() - before;
+        // keeps morphology reachable during measurements.
+        System.out.println("Words = " + words.size() + " Lexicon size = " + morphology.getLexicon().size());
+        System.out.println("Compact      = " + compactMemory / 1024 + " KB");
+        System.out.println("Materialized = " + materializedMemory / 1024 + " KB");
+        Assert.assertEquals(compact.size(), materialized.size());
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private void run(String name, int threadCount, String[] requests, Function<String, List<WordAnalysis>> cache)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        Stopwatch sw = Stopwatch.createStarted();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int start = t;
+            futures.add(executor.submit(() -> {
+                for (int i = start; i < requests.length; i += threadCount) {
+                    cache.apply(requests[i]);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        long elapsed = sw.elapsed(TimeUnit.MILLISECONDS);
+        System.out.println(name + " threads=" + threadCount + " elapsed=" + elapsed + "ms. " +
+                requests.length * 1000L / Math.max(elapsed, 1) + " requests/s");
+    }
+}
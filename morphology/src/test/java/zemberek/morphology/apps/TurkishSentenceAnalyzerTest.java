@@ -17,8 +17,12 @@ import zemberek.morphology.analysis.tr.TurkishMorphology;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class TurkishSentenceAnalyzerTest {
 
@@ -35,6 +39,61 @@ public class TurkishSentenceAnalyzerTest {
         Assert.assertEquals(6, parser.bestParse("15. yüzyılda, Türkiye'de yaşadı.").size());
     }
 
+    @Test
+    public void analyzeAllShouldMatchSequentialAnalysis() {
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            sentences.add("Bu " + i + ". cümle, kalemler masanın üstünde duruyordu.");
+            sentences.add("Ali eve gitti ve kitabını okudu.");
+            sentences.add("15. yüzyılda, Türkiye'de yaşadı.");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<SentenceAnalysis> fromList = parser.analyzeAll(sentences, executor);
+            List<SentenceAnalysis> fromStream = parser.analyzeAll(sentences.stream(), executor, 7)
+                    .collect(Collectors.toList());
+            Assert.assertEquals(sentences.size(), fromList.size());
+            Assert.assertEquals(sentences.size(), fromStream.size());
+            for (int i = 0; i < sentences.size(); i++) {
+                List<WordAnalysis> expected = parser.bestParse(sentences.get(i));
+                Assert.assertEquals(expected, bestParses(fromList.get(i)));
+                Assert.assertEquals(expected, bestParses(fromStream.get(i)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<WordAnalysis> bestParses(SentenceAnalysis analysis) {
+        List<WordAnalysis> result = new ArrayList<>();
+        for (SentenceAnalysis.Entry entry : analysis) {
+            result.add(entry.parses.get(0));
+        }
+        return result;
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void analyzeAllThroughput() throws IOException {
+        List<String> words = SimpleTextReader.trimmingUTF8Reader(
+                new File(ClassLoader.getSystemResource("top-20K-words.txt").getFile())).asStringList();
+        // generate pseudo sentences from frequent words.
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i + 10 <= words.size(); i += 10) {
+            sentences.add(String.join(" ", words.subList(i, i + 10)) + ".");
+        }
+        for (int i = 0; i < 3; i++) {
+            Stopwatch sw = Stopwatch.createStarted();
+            for (String sentence : sentences) {
+                parser.bestParse(sentence);
+            }
+            System.out.println("Sequential: " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
+            sw.reset().start();
+            parser.analyzeAll(sentences);
+            System.out.println("Parallel  : " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
+        }
+    }
+
     @Test
     @Ignore("To be executed manually, not within continuous build.")
     public void shouldParseSentencesInNTVMSNBCCorpus() throws IOException {
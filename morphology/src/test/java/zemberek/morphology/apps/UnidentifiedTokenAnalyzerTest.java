@@ -8,8 +8,12 @@ import zemberek.morphology.analysis.tr.TurkishMorphology;
 import zemberek.morphology.analysis.tr.UnidentifiedTokenAnalyzer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class UnidentifiedTokenAnalyzerTest {
 
@@ -64,5 +68,54 @@ public class UnidentifiedTokenAnalyzerTest {
         Assert.assertEquals(0, results.size());
     }
 
+    @Test
+    public void shouldNotModifyGraph() throws IOException {
+        TurkishMorphology parser = TurkishMorphology.builder().addTextDictionaryResources("dev-lexicon.txt").build();
+        int stemCount = parser.getGraph().totalStemNodeCount();
+        UnidentifiedTokenAnalyzer uiParser = new UnidentifiedTokenAnalyzer(parser);
+        Assert.assertEquals(1, uiParser.analyze("Karaman'a").size());
+        Assert.assertEquals(1, uiParser.analyze("Pteb'e").size());
+        Assert.assertEquals(stemCount, parser.getGraph().totalStemNodeCount());
+        Assert.assertEquals(0, parser.getGraph().getMatchingStemNodes("karaman").size());
+    }
+
+    @Test
+    public void concurrentAnalysisShouldGiveSameResults() throws Exception {
+        TurkishMorphology parser = TurkishMorphology.builder().addTextDictionaryResources("dev-lexicon.txt").build();
+        UnidentifiedTokenAnalyzer uiParser = new UnidentifiedTokenAnalyzer(parser);
+        String[] words = {"Karaman'a", "Ankara'ya", "İstanbul'un", "Ahmet'ten", "Ayşe'nin", "Bolu", "Tbmm'ye",
+                "Zonguldak'ta", "Ümit'e", "Ece'ye"};
+        List<HashSet<String>> expected = new ArrayList<>();
+        for (String word : words) {
+            expected.add(format(uiParser.analyze(word)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        int k = i % words.length;
+                        if (!expected.get(k).equals(format(uiParser.analyze(words[k])))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                Assert.assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 
+    private HashSet<String> format(List<WordAnalysis> results) {
+        HashSet<String> set = new HashSet<>();
+        for (WordAnalysis result : results) {
+            set.add(result.formatLong());
+        }
+        return set;
+    }
 }
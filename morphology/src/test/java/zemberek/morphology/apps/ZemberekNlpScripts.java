@@ -343,7 +343,7 @@ public class ZemberekNlpScripts {
         TurkishMorphology parser = TurkishMorphology.createWithDefaults();
         List<WordAnalysis> result = parser.analyze("besiciliği");
         WordAnalysis first = result.get(0);
-        Log.info(first.inflectionalGroups);
+        Log.info(first.getInflectionalGroups());
     }
 
     @Test
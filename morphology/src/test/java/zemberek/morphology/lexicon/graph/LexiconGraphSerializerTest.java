@@ -0,0 +1,114 @@
+package zemberek.morphology.lexicon.graph;
+
+import com.google.common.base.Stopwatch;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.core.io.SimpleTextReader;
+import zemberek.morphology.analysis.StackWordAnalyzerTest;
+import zemberek.morphology.analysis.WordAnalysis;
+import zemberek.morphology.analysis.tr.TurkishMorphology;
+import zemberek.morphology.lexicon.tr.TurkishDictionaryLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+public class LexiconGraphSerializerTest {
+
+    @Test
+    public void sameResultsAfterLoading() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder()
+                .addDefaultDictionaries()
+                .disableCache()
+                .disableUnidentifiedTokenAnalyzer()
+                .build();
+        Path path = saveTemp(morphology.getGraph());
+        TurkishMorphology loaded = TurkishMorphology.builder()
+                .fromBinaryGraph(path)
+                .disableCache()
+                .build();
+
+        Assert.assertTrue(loaded.getGraph().isImmutable());
+        Assert.assertEquals(morphology.getGraph().getStemNodes().size(), loaded.getGraph().getStemNodes().size());
+        Assert.assertEquals(morphology.getLexicon().size(), loaded.getLexicon().size());
+
+        List<String> words = SimpleTextReader.trimmingUTF8Reader(StackWordAnalyzerTest.TOP_WORDS_FILE).asStringList();
+        for (String word : words) {
+            Assert.assertEquals("Mismatch for " + word,
+                    format(morphology.analyze(word)),
+                    format(loaded.analyze(word)));
+        }
+    }
+
+    @Test
+    public void smallGraph() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder()
+                .addDictionaryLines("elma", "kitap", "armut [P:Noun]", "gitmek", "bakmak [A:LastVowelDrop]")
+                .build();
+        Path path = saveTemp(morphology.getGraph());
+        TurkishMorphology loaded = TurkishMorphology.builder().fromBinaryGraph(path).build();
+        for (String word : new String[]{"elmalar", "kitabım", "armuttan", "gidiyorum", "bakacağız"}) {
+            Assert.assertEquals(format(morphology.analyze(word)), format(loaded.analyze(word)));
+        }
+    }
+
+    @Test
+    public void unidentifiedTokensInLoadedGraph() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDictionaryLines("elma", "Ankara").build();
+        Path path = saveTemp(morphology.getGraph());
+        TurkishMorphology loaded = TurkishMorphology.builder().fromBinaryGraph(path).build();
+        Assert.assertEquals("[(Karaman:karaman) (Noun,Prop;A3sg+Pnon+Dat:a)]",
+                loaded.analyze("Karaman'a").get(0).formatLong());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void loadedGraphIsImmutable() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDictionaryLines("elma").build();
+        Path path = saveTemp(morphology.getGraph());
+        TurkishMorphology loaded = TurkishMorphology.builder().fromBinaryGraph(path).build();
+        loaded.addDictionaryItems(new TurkishDictionaryLoader(loaded.getSuffixProvider()).loadFromString("armut"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void binaryGraphCannotBeUsedWithTextDictionaries() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDictionaryLines("elma").build();
+        Path path = saveTemp(morphology.getGraph());
+        TurkishMorphology.builder().addDictionaryLines("armut").fromBinaryGraph(path).build();
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void startupComparison() throws IOException {
+        Path path = saveTemp(TurkishMorphology.builder().addDefaultDictionaries().build().getGraph());
+        System.out.println("Binary graph size = " + path.toFile().length() / 1024 + " KB");
+        for (int i = 0; i < 5; i++) {
+            Stopwatch sw = Stopwatch.createStarted();
+            TurkishMorphology.builder().addDefaultDictionaries().build();
+            System.out.println("Text dictionaries   : " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
+            sw.reset().start();
+            TurkishMorphology.builder().fromBinaryGraph(path).build();
+            System.out.println("Binary lexicon graph: " + sw.elapsed(TimeUnit.MILLISECONDS) + "ms.");
+        }
+    }
+
+    private Path saveTemp(DynamicLexiconGraph graph) throws IOException {
+        File file = File.createTempFile("lexicon", ".graph");
+        file.deleteOnExit();
+        LexiconGraphSerializer.save(graph, file.toPath());
+        return file.toPath();
+    }
+
+    // order of homonym analyses may change between runs, so results are compared as sets.
+    private Set<String> format(List<WordAnalysis> analyses) {
+        Set<String> result = new TreeSet<>();
+        for (WordAnalysis analysis : analyses) {
+            result.add(analysis.formatLong());
+        }
+        return result;
+    }
+}
@@ -9,6 +9,7 @@ import zemberek.morphology.lexicon.DictionaryItem;
 
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -146,5 +147,95 @@ public class StemTrieTest {
             }
         }
     }
-	
-}
\ No newline at end of file
+
+    @Test
+    public void nonAlphabetChars() {
+        List<StemNode> nodes = createNodes("3", "3.", "vb.", "x-ray");
+        addStemNodes(nodes);
+        checkNodesExist(nodes);
+        checkNodesMatches("3.", createNodes("3", "3."));
+    }
+
+    @Test
+    public void exactMatch() {
+        List<StemNode> nodes = createNodes("el", "elmas", "elma");
+        addStemNodes(nodes);
+        assertEquals(1, lt.getStems("elma").size());
+        assertEquals("elma", lt.getStems("elma").get(0).surfaceForm);
+        assertEquals(0, lt.getStems("elm").size());
+        assertEquals(0, lt.getStems("elmaslar").size());
+    }
+
+    @Test
+    public void remove() {
+        List<StemNode> nodes = createNodes("el", "elmas", "elma");
+        addStemNodes(nodes);
+        lt.remove(createStemNode("elma"));
+        assertEquals(0, lt.getStems("elma").size());
+        checkNodesMatches("elmas", createNodes("el", "elmas"));
+        lt.add(createStemNode("elma"));
+        checkNodesMatches("elmas", createNodes("el", "elma", "elmas"));
+    }
+
+    @Test
+    public void concurrentReadsDuringAdd() throws InterruptedException {
+        List<String> words = generateRandomWords(2000);
+        List<StemNode> nodes = Lists.newArrayList();
+        for (String word : words) {
+            nodes.add(createStemNode(word));
+        }
+        AtomicBoolean failed = new AtomicBoolean(false);
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                for (StemNode node : nodes) {
+                    for (StemNode res : lt.getMatchingStems(node.surfaceForm)) {
+                        if (!node.surfaceForm.startsWith(res.surfaceForm)) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        addStemNodes(nodes);
+        reader.join();
+        assertFalse(failed.get());
+        checkNodesExist(nodes);
+    }
+
+    @Test
+    public void traversalShouldVisitAllStems() {
+        addStemNodes(createNodes("elma", "el", "elmas", "armut", "ev"));
+        List<String> visited = Lists.newArrayList();
+        char[] path = new char[10];
+        lt.traverse(new StemTrie.Visitor() {
+            @Override
+            public boolean visitChar(char c, int depth) {
+                path[depth] = c;
+                return true;
+            }
+
+            @Override
+            public void visitStem(StemNode stem, int depth) {
+                assertEquals(stem.surfaceForm, new String(path, 0, depth));
+                visited.add(stem.surfaceForm);
+            }
+        });
+        assertEquals(Lists.newArrayList("armut", "el", "elma", "elmas", "ev"), visited);
+
+        // skips nodes below "el".
+        visited.clear();
+        lt.traverse(new StemTrie.Visitor() {
+            @Override
+            public boolean visitChar(char c, int depth) {
+                return depth < 2;
+            }
+
+            @Override
+            public void visitStem(StemNode stem, int depth) {
+                visited.add(stem.surfaceForm);
+            }
+        });
+        assertEquals(Lists.newArrayList("el", "ev"), visited);
+    }
+}
@@ -0,0 +1,225 @@
+package zemberek.normalization;
+
+import zemberek.lm.BaseLanguageModel;
+import zemberek.lm.LmVocabulary;
+import zemberek.lm.compression.SmoothLm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Corrects spelling errors of a tokenized sentence using the words around them. Candidates of each token are
+ * generated with a {@link SingleWordSpellChecker}, the token itself is always a candidate. Best candidate sequence is
+ * found with a beam search over the candidates where a sequence is scored with the log probabilities of a language
+ * model minus the weighted edit penalties of the candidates.
+ * <p>
+ * Hypotheses with the same last (order - 1) words cannot be distinguished by the model afterwards, so only the best of
+ * them is kept. With a large enough beam this is a Viterbi search and finds the best sequence. N-gram probabilities
+ * are read through the shared lookup cache of the model, so n-grams repeated in candidate sequences and in following
+ * sentences are calculated once. This class is thread safe.
+ */
+public class ContextSpellChecker {
+
+    public static final int DEFAULT_BEAM_SIZE = 10;
+    public static final int DEFAULT_CANDIDATE_COUNT = 5;
+    // A unit edit penalty costs this amount in the log base of the model.
+    public static final float DEFAULT_PENALTY_WEIGHT = 1;
+
+    private final SingleWordSpellChecker spellChecker;
+    private final SmoothLm lm;
+    private final BaseLanguageModel.SharedLookupCache cache;
+    private final int beamSize;
+    private final int candidateCount;
+    private final float penaltyWeight;
+
+    public ContextSpellChecker(SingleWordSpellChecker spellChecker, SmoothLm lm) {
+        this(spellChecker, lm, DEFAULT_BEAM_SIZE, DEFAULT_CANDIDATE_COUNT, DEFAULT_PENALTY_WEIGHT);
+    }
+
+    /**
+     * @param spellChecker   spell checker for generating candidates of tokens.
+     * @param lm             language model for scoring candidate sequences.
+     * @param beamSize       maximum amount of hypotheses kept after each token.
+     * @param candidateCount maximum amount of suggestions used as candidates of a token.
+     * @param penaltyWeight  multiplier of the edit penalties of candidates.
+     */
+    public ContextSpellChecker(
+            SingleWordSpellChecker spellChecker,
+            SmoothLm lm,
+            int beamSize,
+            int candidateCount,
+            float penaltyWeight) {
+        if (beamSize < 1)
+            throw new IllegalArgumentException("Beam size must be positive but it is " + beamSize);
+        if (candidateCount < 1)
+            throw new IllegalArgumentException("Candidate count must be positive but it is " + candidateCount);
+        this.spellChecker = spellChecker;
+        this.lm = lm;
+        this.cache = lm.getSharedCache();
+        this.beamSize = beamSize;
+        this.candidateCount = candidateCount;
+        this.penaltyWeight = penaltyWeight;
+    }
+
+    /**
+     * @param tokens tokens of a sentence.
+     * @return tokens of the corrected sentence. Size is the same with the input.
+     */
+    public List<String> correct(List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        LmVocabulary vocabulary = lm.getVocabulary();
+        int historySize = lm.getOrder() - 1;
+
+        List<Hypothesis> current = new ArrayList<>(1);
+        current.add(new Hypothesis(null, new int[]{vocabulary.getSentenceStartIndex()}, null, 0));
+
+        for (String token : tokens) {
+            List<Candidate> candidates = candidates(token, vocabulary);
+            Map<Hypothesis, Hypothesis> next = new LinkedHashMap<>();
+            for (Hypothesis hypothesis : current) {
+                for (Candidate candidate : candidates) {
+                    float score = hypothesis.score
+                            + probability(hypothesis.history, candidate.wordIndex)
+                            - penaltyWeight * candidate.penalty;
+                    Hypothesis newHyp = new Hypothesis(
+                            hypothesis,
+                            append(hypothesis.history, candidate.wordIndex, historySize),
+                            candidate.word,
+                            score);
+                    Hypothesis existing = next.get(newHyp);
+                    if (existing == null || existing.score < score) {
+                        next.put(newHyp, newHyp);
+                    }
+                }
+            }
+            current = new ArrayList<>(next.values());
+            if (current.size() > beamSize) {
+                Collections.sort(current);
+                current = new ArrayList<>(current.subList(0, beamSize));
+            }
+        }
+
+        Hypothesis best = null;
+        float bestScore = -Float.MAX_VALUE;
+        int sentenceEnd = vocabulary.getSentenceEndIndex();
+        for (Hypothesis hypothesis : current) {
+            float score = hypothesis.score + probability(hypothesis.history, sentenceEnd);
+            if (best == null || score > bestScore) {
+                best = hypothesis;
+                bestScore = score;
+            }
+        }
+
+        String[] result = new String[tokens.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = best.word;
+            best = best.previous;
+        }
+        return Arrays.asList(result);
+    }
+
+    private List<Candidate> candidates(String token, LmVocabulary vocabulary) {
+        List<Candidate> candidates = new ArrayList<>(candidateCount + 1);
+        candidates.add(new Candidate(token, wordIndex(token, vocabulary), 0));
+        if (!containsLetter(token)) {
+            return candidates;
+        }
+        List<SingleWordSpellChecker.ScoredString> suggestions = spellChecker.getSuggestionsWithScores(
+                token, candidateCount, SingleWordSpellChecker.DEFAULT_HYPOTHESIS_BUDGET);
+        for (SingleWordSpellChecker.ScoredString suggestion : suggestions) {
+            if (!suggestion.s.equals(token)) {
+                candidates.add(new Candidate(suggestion.s, wordIndex(suggestion.s, vocabulary), suggestion.penalty));
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean containsLetter(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.isLetter(token.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // index of the word in model vocabulary. If it does not exist, processed form is tried.
+    private static int wordIndex(String word, LmVocabulary vocabulary) {
+        int index = vocabulary.indexOf(word);
+        if (index == vocabulary.getUnknownWordIndex()) {
+            index = vocabulary.indexOf(SingleWordSpellChecker.processWord(word));
+        }
+        return index;
+    }
+
+    private float probability(int[] history, int wordIndex) {
+        int[] gram = Arrays.copyOf(history, history.length + 1);
+        gram[history.length] = wordIndex;
+        return cache.get(gram);
+    }
+
+    private static int[] append(int[] history, int wordIndex, int historySize) {
+        if (historySize == 0) {
+            return new int[0];
+        }
+        int length = Math.min(history.length + 1, historySize);
+        int[] result = new int[length];
+        System.arraycopy(history, history.length - length + 1, result, 0, length - 1);
+        result[length - 1] = wordIndex;
+        return result;
+    }
+
+    private static class Candidate {
+        final String word;
+        final int wordIndex;
+        final float penalty;
+
+        Candidate(String word, int wordIndex, float penalty) {
+            this.word = word;
+            this.wordIndex = wordIndex;
+            this.penalty = penalty;
+        }
+    }
+
+    /**
+     * Equality only checks the history because hypotheses with the same history get the same scores afterwards.
+     */
+    private static class Hypothesis implements Comparable<Hypothesis> {
+        final Hypothesis previous;
+        // last (order - 1) word indexes.
+        final int[] history;
+        final String word;
+        final float score;
+
+        Hypothesis(Hypothesis previous, int[] history, String word, float score) {
+            this.previous = previous;
+            this.history = history;
+            this.word = word;
+            this.score = score;
+        }
+
+        // higher score comes first.
+        @Override
+        public int compareTo(Hypothesis o) {
+            return Float.compare(o.score, score);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(history, ((Hypothesis) o).history);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(history);
+        }
+    }
+}
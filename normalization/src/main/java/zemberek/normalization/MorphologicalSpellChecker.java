@@ -0,0 +1,262 @@
+package zemberek.normalization;
+
+import zemberek.morphology.analysis.WordAnalysis;
+import zemberek.morphology.lexicon.graph.DynamicLexiconGraph;
+import zemberek.morphology.lexicon.graph.StemNode;
+import zemberek.morphology.lexicon.graph.StemTrie;
+import zemberek.morphology.lexicon.graph.SuffixSurfaceNode;
+import zemberek.morphology.lexicon.graph.TerminationType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spell checker that searches corrections directly in the morphotactic graph instead of a word list.
+ * Stem trie of a {@link DynamicLexiconGraph} and successors of suffix surface nodes form the search automaton, so
+ * all inflected words the graph can analyze are candidates without enumerating them. Memory usage is only the
+ * graph itself.
+ * <p>
+ * Graph is traversed depth first. For every spelled prefix, a row of edit distances to input prefixes is calculated
+ * with insertion, deletion, substitution, near key substitution and transposition penalties of
+ * {@link SingleWordSpellChecker}. A branch is not followed when all values in the row exceed the maximum penalty.
+ * A path is a correction with the same rules {@link zemberek.morphology.analysis.StackWordAnalyzer} uses for
+ * accepting an analysis of the spelled word, so corrections come with their analyses. Paths that contain the same
+ * suffix form more than three times are not followed.
+ * <p>
+ * This class is thread safe if the graph is not modified during search.
+ */
+public class MorphologicalSpellChecker {
+
+    private static final int MAX_REPEATING_SUFFIX_TYPE_COUNT = 3;
+
+    public final float maxPenalty;
+    private final DynamicLexiconGraph graph;
+    private final Map<Character, String> nearKeyMap;
+
+    public MorphologicalSpellChecker(DynamicLexiconGraph graph) {
+        this(graph, 1);
+    }
+
+    public MorphologicalSpellChecker(DynamicLexiconGraph graph, float maxPenalty) {
+        this.graph = graph;
+        this.maxPenalty = maxPenalty;
+        this.nearKeyMap = Collections.emptyMap();
+    }
+
+    public MorphologicalSpellChecker(DynamicLexiconGraph graph, float maxPenalty, Map<Character, String> nearKeyMap) {
+        this.graph = graph;
+        this.maxPenalty = maxPenalty;
+        this.nearKeyMap = Collections.unmodifiableMap(nearKeyMap);
+    }
+
+    /**
+     * A correction candidate with its analyses.
+     */
+    public static class Correction implements Comparable<Correction> {
+        public final String word;
+        public final float penalty;
+        public final List<WordAnalysis> analyses;
+
+        Correction(String word, float penalty, List<WordAnalysis> analyses) {
+            this.word = word;
+            this.penalty = penalty;
+            this.analyses = analyses;
+        }
+
+        @Override
+        public int compareTo(Correction o) {
+            int c = Float.compare(penalty, o.penalty);
+            return c != 0 ? c : word.compareTo(o.word);
+        }
+
+        @Override
+        public String toString() {
+            return word + ":" + penalty;
+        }
+    }
+
+    /**
+     * Returns corrections of the input sorted by penalty.
+     */
+    public List<Correction> getSuggestions(String input) {
+        Search search = new Search(SingleWordSpellChecker.processWord(input));
+        graph.traverseStems(search);
+        List<Correction> result = new ArrayList<>(search.corrections.size());
+        for (Map.Entry<String, List<WordAnalysis>> entry : search.corrections.entrySet()) {
+            result.add(new Correction(entry.getKey(), search.penalties.get(entry.getKey()), entry.getValue()));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public List<String> getSuggestionsSorted(String input) {
+        List<Correction> corrections = getSuggestions(input);
+        List<String> result = new ArrayList<>(corrections.size());
+        for (Correction correction : corrections) {
+            result.add(correction.word);
+        }
+        return result;
+    }
+
+    /**
+     * State of a single search.
+     */
+    private class Search implements StemTrie.Visitor {
+        final String input;
+        final int length;
+        // spelled[0..depth) is the current prefix.
+        char[] spelled;
+        // rows[d][j] is the penalty between spelled[0..d) and input[0..j)
+        final float[][] rows;
+        // suffix surface nodes of the current path, starting from the suffix root node of the stem.
+        SuffixSurfaceNode[] path = new SuffixSurfaceNode[16];
+
+        final Map<String, List<WordAnalysis>> corrections = new LinkedHashMap<>();
+        final Map<String, Float> penalties = new LinkedHashMap<>();
+
+        Search(String input) {
+            this.input = input;
+            this.length = input.length();
+            // every char after input length + maxPenalty is an insertion that exceeds max penalty.
+            int maxDepth = length + (int) (maxPenalty / SingleWordSpellChecker.INSERTION_PENALTY) + 1;
+            this.spelled = new char[maxDepth];
+            this.rows = new float[maxDepth + 1][length + 1];
+            for (int j = 0; j <= length; j++) {
+                rows[0][j] = j * SingleWordSpellChecker.DELETION_PENALTY;
+            }
+        }
+
+        @Override
+        public boolean visitChar(char c, int depth) {
+            return push(c, depth);
+        }
+
+        @Override
+        public void visitStem(StemNode stem, int depth) {
+            path[0] = stem.getSuffixRootSurfaceNode();
+            searchSuffixes(stem, 1, depth, stem.termination == TerminationType.TERMINAL, false);
+        }
+
+        // pathLength is the amount of nodes in path. nonTerminalAfterLastChar is true if a non terminal null
+        // morpheme is used after the last spelled character. Analyzers do not accept such paths.
+        void searchSuffixes(StemNode stem, int pathLength, int depth, boolean terminal,
+                            boolean nonTerminalAfterLastChar) {
+            SuffixSurfaceNode node = path[pathLength - 1];
+            SuffixSurfaceNode[] successors = node.getSuccessorArray();
+            if (terminal && !nonTerminalAfterLastChar && rows[depth][length] <= maxPenalty
+                    && !hasNullSuccessor(successors)) {
+                addCorrection(stem, pathLength, depth);
+            }
+            if (pathLength == path.length) {
+                path = Arrays.copyOf(path, pathLength * 2);
+            }
+            for (SuffixSurfaceNode successor : successors) {
+                if (repeats(successor, pathLength)) {
+                    continue;
+                }
+                boolean newTerminal = terminal;
+                if (successor.termination == TerminationType.TERMINAL) {
+                    newTerminal = true;
+                } else if (successor.termination == TerminationType.NON_TERMINAL) {
+                    newTerminal = false;
+                }
+                String surface = successor.surfaceForm;
+                int d = depth;
+                boolean matches = true;
+                for (int i = 0; i < surface.length(); i++) {
+                    if (!push(surface.charAt(i), d)) {
+                        matches = false;
+                        break;
+                    }
+                    d++;
+                }
+                if (!matches) {
+                    continue;
+                }
+                path[pathLength] = successor;
+                boolean nonTerminal = surface.length() == 0 ?
+                        nonTerminalAfterLastChar || successor.termination == TerminationType.NON_TERMINAL :
+                        false;
+                searchSuffixes(stem, pathLength + 1, d, newTerminal, nonTerminal);
+            }
+        }
+
+        // An analyzer continues with null morpheme successors that are not non terminal when input is consumed,
+        // instead of accepting the current path.
+        private boolean hasNullSuccessor(SuffixSurfaceNode[] successors) {
+            for (SuffixSurfaceNode successor : successors) {
+                if (successor.surfaceForm.length() == 0 && successor.termination != TerminationType.NON_TERMINAL) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean repeats(SuffixSurfaceNode successor, int pathLength) {
+            String id = successor.getSuffixForm().getId();
+            int count = 0;
+            for (int i = 0; i < pathLength; i++) {
+                if (path[i].getSuffixForm().getId().equals(id)) {
+                    count++;
+                }
+            }
+            return count >= MAX_REPEATING_SUFFIX_TYPE_COUNT;
+        }
+
+        /**
+         * Appends c to the prefix of given depth and calculates the penalty row of the new prefix.
+         *
+         * @return false if all penalties of the new row exceed the maximum penalty.
+         */
+        private boolean push(char c, int depth) {
+            if (depth + 1 >= rows.length) {
+                return false;
+            }
+            spelled[depth] = c;
+            float[] previous = rows[depth];
+            float[] row = rows[depth + 1];
+            row[0] = previous[0] + SingleWordSpellChecker.INSERTION_PENALTY;
+            float min = row[0];
+            String nearKeys = nearKeyMap.get(c);
+            for (int j = 1; j <= length; j++) {
+                char inputChar = input.charAt(j - 1);
+                float substitution;
+                if (inputChar == c) {
+                    substitution = 0;
+                } else if (nearKeys != null && nearKeys.indexOf(inputChar) >= 0) {
+                    substitution = SingleWordSpellChecker.NEAR_KEY_SUBSTITUTION_PENALTY;
+                } else {
+                    substitution = SingleWordSpellChecker.SUBSTITUTION_PENALTY;
+                }
+                float value = Math.min(
+                        previous[j - 1] + substitution,
+                        Math.min(previous[j] + SingleWordSpellChecker.INSERTION_PENALTY,
+                                row[j - 1] + SingleWordSpellChecker.DELETION_PENALTY));
+                if (depth > 0 && j > 1 && c == input.charAt(j - 2) && spelled[depth - 1] == inputChar
+                        && c != inputChar) {
+                    value = Math.min(value, rows[depth - 1][j - 2] + SingleWordSpellChecker.TRANSPOSITION_PENALTY);
+                }
+                row[j] = value;
+                if (value < min) {
+                    min = value;
+                }
+            }
+            return min <= maxPenalty;
+        }
+
+        private void addCorrection(StemNode stem, int pathLength, int depth) {
+            String word = new String(spelled, 0, depth);
+            List<WordAnalysis> analyses = corrections.get(word);
+            if (analyses == null) {
+                analyses = new ArrayList<>(2);
+                corrections.put(word, analyses);
+                penalties.put(word, rows[depth][length]);
+            }
+            analyses.add(new WordAnalysis(stem, Arrays.copyOf(path, pathLength)));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package zemberek.normalization;
 
 import zemberek.core.collections.FloatValueMap;
+import zemberek.core.collections.LongUIntMap;
 import zemberek.core.collections.UIntMap;
 
 import java.util.*;
@@ -12,6 +13,8 @@ public class SingleWordSpellChecker {
     private static final AtomicInteger nodeIndexCounter = new AtomicInteger(0);
 
     private Node root = new Node(nodeIndexCounter.getAndIncrement(), (char) 0);
+    // if not null, it is used instead of the trie.
+    private WordDawg dawg;
 
     public final float maxPenalty;
     public final boolean checkNearKeySubstitution;
@@ -22,6 +25,8 @@ public class SingleWordSpellChecker {
     static final float NEAR_KEY_SUBSTITUTION_PENALTY = 0.5f;
     static final float TRANSPOSITION_PENALTY = 1;
 
+    public static final int DEFAULT_HYPOTHESIS_BUDGET = 50_000;
+
     public Map<Character, String> nearKeyMap = new HashMap<>();
     public static final Map<Character, String> TURKISH_FQ_NEAR_KEY_MAP = new HashMap<>();
     public static final Map<Character, String> TURKISH_Q_NEAR_KEY_MAP = new HashMap<>();
@@ -114,11 +119,31 @@ public class SingleWordSpellChecker {
         this.checkNearKeySubstitution = true;
     }
 
+    /**
+     * Creates a spell checker that uses a compact word graph instead of the trie. Suggestions are same with a
+     * spell checker built from the same vocabulary. Words cannot be added to this spell checker.
+     */
+    public SingleWordSpellChecker(float maxPenalty, WordDawg dawg) {
+        this.maxPenalty = maxPenalty;
+        this.checkNearKeySubstitution = false;
+        this.dawg = dawg;
+    }
+
+    public SingleWordSpellChecker(float maxPenalty, Map<Character, String> nearKeyMap, WordDawg dawg) {
+        this.maxPenalty = maxPenalty;
+        this.nearKeyMap = Collections.unmodifiableMap(nearKeyMap);
+        this.checkNearKeySubstitution = true;
+        this.dawg = dawg;
+    }
+
     public static class Node {
         int index;
         char chr;
         UIntMap<Node> nodes = new UIntMap<>(2);
         String word;
+        // minimum and maximum lengths of the word suffixes that can be reached from this node.
+        int minLength = Integer.MAX_VALUE;
+        int maxLength;
 
         public Node(int index, char chr) {
             this.index = index;
@@ -150,6 +175,11 @@ public class SingleWordSpellChecker {
             this.word = word;
         }
 
+        void updateLengths(int length) {
+            minLength = Math.min(minLength, length);
+            maxLength = Math.max(maxLength, length);
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -184,11 +214,22 @@ public class SingleWordSpellChecker {
     private static final Locale tr = new Locale("tr");
 
     public String process(String str) {
+        return processWord(str);
+    }
+
+    static String processWord(String str) {
         return str.toLowerCase(tr).replace("['.]", "");
     }
 
     public void addWord(String word) {
+        if (dawg != null) {
+            throw new IllegalStateException("Words cannot be added to a spell checker that uses a word graph.");
+        }
         String clean = process(word);
+        if (clean.length() == 0) {
+            return;
+        }
+        root.updateLengths(clean.length());
         addChar(root, 0, clean, word);
     }
 
@@ -207,6 +248,7 @@ public class SingleWordSpellChecker {
     private Node addChar(Node currentNode, int index, String word, String actual) {
         char c = word.charAt(index);
         Node child = currentNode.addChild(c);
+        child.updateLengths(word.length() - index - 1);
         if (index == word.length() - 1) {
             child.word = actual;
             return child;
@@ -315,6 +357,9 @@ public class SingleWordSpellChecker {
     }
 
     public FloatValueMap<String> decode(String input) {
+        if (dawg != null) {
+            return decodeDawg(input);
+        }
         Hypothesis hyp = new Hypothesis(null, root, 0, Operation.N_A);
         FloatValueMap<String> hypotheses = new FloatValueMap<>();
         Set<Hypothesis> next = expand(hyp, input, hypotheses);
@@ -330,6 +375,161 @@ public class SingleWordSpellChecker {
         return hypotheses;
     }
 
+    // Same with expand() but works on the word graph. A trie node is identified with a graph node and a rank.
+    private Set<DawgHypothesis> expandDawg(DawgHypothesis hypothesis, String input, FloatValueMap<String> finished) {
+
+        Set<DawgHypothesis> newHypotheses = new HashSet<>();
+
+        int nextIndex = hypothesis.index + 1;
+        int node = hypothesis.node;
+
+        // no-error
+        if (nextIndex < input.length()) {
+            int edge = dawg.findEdge(node, input.charAt(nextIndex));
+            if (edge != WordDawg.NO_NODE) {
+                DawgHypothesis hyp = hypothesis.getNew(edge, 0, nextIndex);
+                if (nextIndex >= input.length() - 1) {
+                    addDawgHypothesis(finished, hyp);
+                }
+                newHypotheses.add(hyp);
+            }
+        } else addDawgHypothesis(finished, hypothesis);
+
+        // we don't need to explore further if we reached to max penalty
+        if (hypothesis.penalty >= maxPenalty)
+            return newHypotheses;
+
+        int firstEdge = dawg.firstEdge(node);
+        int edgeEnd = dawg.edgeEnd(node);
+
+        // substitution
+        if (nextIndex < input.length()) {
+            char nextChar = input.charAt(nextIndex);
+            for (int edge = firstEdge; edge < edgeEnd; edge++) {
+                float penalty = 0;
+                if (checkNearKeySubstitution) {
+                    char chr = dawg.edgeChar(edge);
+                    if (chr != nextChar) {
+                        String nearCharactersString = nearKeyMap.get(chr);
+                        if (nearCharactersString != null && nearCharactersString.indexOf(nextChar) >= 0)
+                            penalty = NEAR_KEY_SUBSTITUTION_PENALTY;
+                        else penalty = SUBSTITUTION_PENALTY;
+                    }
+                } else penalty = SUBSTITUTION_PENALTY;
+
+                if (penalty > 0 && hypothesis.penalty + penalty <= maxPenalty) {
+                    DawgHypothesis hyp = hypothesis.getNew(edge, penalty, nextIndex);
+                    if (nextIndex == input.length() - 1) {
+                        addDawgHypothesis(finished, hyp);
+                    } else
+                        newHypotheses.add(hyp);
+                }
+            }
+        }
+
+        if (hypothesis.penalty + DELETION_PENALTY > maxPenalty)
+            return newHypotheses;
+
+        // deletion
+        newHypotheses.add(new DawgHypothesis(node, hypothesis.rank, hypothesis.penalty + DELETION_PENALTY, nextIndex));
+
+        // insertion
+        for (int edge = firstEdge; edge < edgeEnd; edge++) {
+            newHypotheses.add(hypothesis.getNew(edge, INSERTION_PENALTY, hypothesis.index));
+        }
+
+        // transposition
+        if (nextIndex < input.length() - 1) {
+            int transposeEdge = dawg.findEdge(node, input.charAt(nextIndex + 1));
+            if (transposeEdge != WordDawg.NO_NODE) {
+                int nextEdge = dawg.findEdge(dawg.edgeTarget(transposeEdge), input.charAt(nextIndex));
+                if (nextEdge != WordDawg.NO_NODE) {
+                    newHypotheses.add(new DawgHypothesis(
+                            dawg.edgeTarget(nextEdge),
+                            hypothesis.rank + dawg.edgeRank(transposeEdge) + dawg.edgeRank(nextEdge),
+                            hypothesis.penalty + TRANSPOSITION_PENALTY,
+                            nextIndex + 1));
+                }
+            }
+        }
+        return newHypotheses;
+    }
+
+    private void addDawgHypothesis(FloatValueMap<String> result, DawgHypothesis hypothesis) {
+        if (!dawg.isFinal(hypothesis.node)) {
+            return;
+        }
+        String hypWord = dawg.word(hypothesis.rank);
+        if (!result.contains(hypWord)) {
+            result.set(hypWord, hypothesis.penalty);
+        } else if (result.get(hypWord) > hypothesis.penalty) {
+            result.set(hypWord, hypothesis.penalty);
+        }
+    }
+
+    private FloatValueMap<String> decodeDawg(String input) {
+        DawgHypothesis hyp = new DawgHypothesis(dawg.root, 0, 0, -1);
+        FloatValueMap<String> hypotheses = new FloatValueMap<>();
+        Set<DawgHypothesis> next = expandDawg(hyp, input, hypotheses);
+        while (true) {
+            HashSet<DawgHypothesis> newHyps = new HashSet<>();
+            for (DawgHypothesis hypothesis : next) {
+                newHyps.addAll(expandDawg(hypothesis, input, hypotheses));
+            }
+            if (newHyps.size() == 0)
+                break;
+            next = newHyps;
+        }
+        return hypotheses;
+    }
+
+    /**
+     * Hypothesis for decoding with a word graph. Graph node and rank together identify the prefix.
+     */
+    private final class DawgHypothesis {
+        final int node;
+        final int rank;
+        final float penalty;
+        final int index;
+
+        DawgHypothesis(int node, int rank, float penalty, int index) {
+            this.node = node;
+            this.rank = rank;
+            this.penalty = penalty;
+            this.index = index;
+        }
+
+        DawgHypothesis getNew(int edge, float penaltyToAdd, int index) {
+            return new DawgHypothesis(
+                    dawg.edgeTarget(edge),
+                    rank + dawg.edgeRank(edge),
+                    penalty + penaltyToAdd,
+                    index);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            DawgHypothesis that = (DawgHypothesis) o;
+
+            return index == that.index
+                    && node == that.node
+                    && rank == that.rank
+                    && Float.compare(that.penalty, penalty) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = node;
+            result = 31 * result + rank;
+            result = 31 * result + Float.floatToIntBits(penalty);
+            result = 31 * result + index;
+            return result;
+        }
+    }
+
     /**
      * Returns suggestions sorted by penalty.
      */
@@ -348,6 +548,43 @@ public class SingleWordSpellChecker {
         return decode(input).getKeyList();
     }
 
+    /**
+     * Returns best k suggestions sorted by penalty. Penalties are same with {@link #getSuggestionsWithScores(String)},
+     * words with equal penalties may be returned in a different order. Uses a best first search that stops when
+     * k suggestions are found.
+     */
+    public List<String> getSuggestions(String input, int k) {
+        return getSuggestions(input, k, DEFAULT_HYPOTHESIS_BUDGET);
+    }
+
+    /**
+     * Returns best k suggestions sorted by penalty.
+     *
+     * @param hypothesisBudget maximum amount of hypotheses to create. If search reaches this limit, no more
+     *                         hypotheses are added and suggestions found from existing hypotheses are returned.
+     */
+    public List<String> getSuggestions(String input, int k, int hypothesisBudget) {
+        List<ScoredString> scored = getSuggestionsWithScores(input, k, hypothesisBudget);
+        List<String> result = new ArrayList<>(scored.size());
+        for (ScoredString s : scored) {
+            result.add(s.s);
+        }
+        return result;
+    }
+
+    /**
+     * Returns best k suggestions with penalties, sorted by penalty.
+     */
+    public List<ScoredString> getSuggestionsWithScores(String input, int k, int hypothesisBudget) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Suggestion count must be positive but it is " + k);
+        }
+        if (hypothesisBudget < 1) {
+            throw new IllegalArgumentException("Hypothesis budget must be positive but it is " + hypothesisBudget);
+        }
+        return new BestFirstSearch(input, hypothesisBudget).search(k);
+    }
+
     public List<String> getSuggestionsSorted(String input) {
         List<ScoredString> s = getSuggestionsWithScores(input);
         List<String> result = new ArrayList<>(s.size());
@@ -355,6 +592,329 @@ public class SingleWordSpellChecker {
         return result;
     }
 
+    /**
+     * Best first search for top k suggestions. It applies the same operations with expand() but hypotheses are
+     * processed in the order of penalty plus a lower bound of the remaining penalty. Because only insertions and
+     * deletions change the difference between the remaining input length and the remaining word length, the
+     * distance of the remaining input length to the range of reachable word lengths is the lower bound.
+     * Found words are kept in a separate queue and a word is accepted when no hypothesis can produce it with a
+     * smaller penalty. Search stops when k words are accepted.
+     * <p>
+     * Hypotheses are kept in primitive arrays and only the hypothesis with the best penalty for a (prefix, index)
+     * pair is expanded. A prefix is a trie node or a word graph node and rank pair.
+     */
+    private final class BestFirstSearch {
+        final String input;
+        final int length;
+        final int budget;
+
+        // hypothesis data.
+        int hypothesisCount;
+        Node[] nodes;
+        int[] graphNodes;
+        int[] ranks;
+        int[] indexes;
+        float[] penalties;
+        float[] priorities;
+        // binary heap of hypotheses ordered by priority.
+        int[] heap;
+        int heapSize;
+
+        // best penalties of (prefix, index) pairs as float bits.
+        final LongUIntMap bestPenalties = new LongUIntMap();
+
+        // found words. Heap of indexes ordered by penalty.
+        int resultCount;
+        Node[] resultNodes = new Node[8];
+        int[] resultRanks = new int[8];
+        float[] resultPenalties = new float[8];
+        int[] resultHeap = new int[8];
+        int resultHeapSize;
+
+        // child found by findChild()
+        Node childNode;
+        int childGraphNode;
+        int childRank;
+
+        BestFirstSearch(String input, int budget) {
+            this.input = input;
+            this.length = input.length();
+            this.budget = budget;
+            int capacity = Math.min(budget, 64);
+            nodes = new Node[capacity];
+            graphNodes = new int[capacity];
+            ranks = new int[capacity];
+            indexes = new int[capacity];
+            penalties = new float[capacity];
+            priorities = new float[capacity];
+            heap = new int[capacity];
+        }
+
+        List<ScoredString> search(int k) {
+            List<ScoredString> result = new ArrayList<>(Math.min(k, 16));
+            Set<String> accepted = new HashSet<>();
+            if (dawg != null) {
+                add(null, dawg.root, 0, 0, -1);
+            } else {
+                add(root, 0, 0, 0, -1);
+            }
+            while (result.size() < k) {
+                if (resultHeapSize > 0
+                        && (heapSize == 0 || resultPenalties[resultHeap[0]] <= priorities[heap[0]])) {
+                    int r = pollResult();
+                    String word = dawg != null ? dawg.word(resultRanks[r]) : resultNodes[r].word;
+                    if (accepted.add(word)) {
+                        result.add(new ScoredString(word, resultPenalties[r]));
+                    }
+                    continue;
+                }
+                if (heapSize == 0) {
+                    break;
+                }
+                int h = poll();
+                // skip if a better hypothesis for the same prefix and index is added later.
+                if (Float.floatToIntBits(penalties[h])
+                        != bestPenalties.get(key(nodes[h], graphNodes[h], ranks[h], indexes[h]))) {
+                    continue;
+                }
+                expand(h);
+            }
+            return result;
+        }
+
+        private void expand(int h) {
+            Node node = nodes[h];
+            int graphNode = graphNodes[h];
+            int rank = ranks[h];
+            float penalty = penalties[h];
+            int index = indexes[h];
+            int nextIndex = index + 1;
+
+            // no-error
+            if (nextIndex < length) {
+                if (findChild(node, graphNode, rank, input.charAt(nextIndex))) {
+                    if (nextIndex >= length - 1) {
+                        addResult(childNode, childGraphNode, childRank, penalty);
+                    }
+                    add(childNode, childGraphNode, childRank, penalty, nextIndex);
+                }
+            } else addResult(node, graphNode, rank, penalty);
+
+            if (penalty >= maxPenalty)
+                return;
+
+            int childCount;
+            List<Node> trieChildren = null;
+            if (dawg != null) {
+                childCount = dawg.edgeEnd(graphNode) - dawg.firstEdge(graphNode);
+            } else {
+                trieChildren = node.nodes.getValues();
+                childCount = trieChildren.size();
+            }
+
+            // substitution
+            if (nextIndex < length) {
+                char nextChar = input.charAt(nextIndex);
+                for (int i = 0; i < childCount; i++) {
+                    setChild(node, graphNode, rank, trieChildren, i);
+                    float p = 0;
+                    if (checkNearKeySubstitution) {
+                        char chr = dawg != null ? dawg.edgeChar(dawg.firstEdge(graphNode) + i) : childNode.chr;
+                        if (chr != nextChar) {
+                            String nearCharactersString = nearKeyMap.get(chr);
+                            if (nearCharactersString != null && nearCharactersString.indexOf(nextChar) >= 0)
+                                p = NEAR_KEY_SUBSTITUTION_PENALTY;
+                            else p = SUBSTITUTION_PENALTY;
+                        }
+                    } else p = SUBSTITUTION_PENALTY;
+
+                    if (p > 0 && penalty + p <= maxPenalty) {
+                        if (nextIndex == length - 1) {
+                            addResult(childNode, childGraphNode, childRank, penalty + p);
+                        } else
+                            add(childNode, childGraphNode, childRank, penalty + p, nextIndex);
+                    }
+                }
+            }
+
+            if (penalty + DELETION_PENALTY > maxPenalty)
+                return;
+
+            // deletion
+            add(node, graphNode, rank, penalty + DELETION_PENALTY, nextIndex);
+
+            // insertion
+            for (int i = 0; i < childCount; i++) {
+                setChild(node, graphNode, rank, trieChildren, i);
+                add(childNode, childGraphNode, childRank, penalty + INSERTION_PENALTY, index);
+            }
+
+            // transposition
+            if (nextIndex < length - 1
+                    && findChild(node, graphNode, rank, input.charAt(nextIndex + 1))
+                    && findChild(childNode, childGraphNode, childRank, input.charAt(nextIndex))) {
+                add(childNode, childGraphNode, childRank, penalty + TRANSPOSITION_PENALTY, nextIndex + 1);
+            }
+        }
+
+        private boolean findChild(Node node, int graphNode, int rank, char c) {
+            if (dawg != null) {
+                int edge = dawg.findEdge(graphNode, c);
+                if (edge == WordDawg.NO_NODE) {
+                    return false;
+                }
+                childGraphNode = dawg.edgeTarget(edge);
+                childRank = rank + dawg.edgeRank(edge);
+                return true;
+            }
+            childNode = node.getChild(c);
+            return childNode != null;
+        }
+
+        private void setChild(Node node, int graphNode, int rank, List<Node> trieChildren, int i) {
+            if (dawg != null) {
+                int edge = dawg.firstEdge(graphNode) + i;
+                childGraphNode = dawg.edgeTarget(edge);
+                childRank = rank + dawg.edgeRank(edge);
+            } else {
+                childNode = trieChildren.get(i);
+            }
+        }
+
+        private long key(Node node, int graphNode, int rank, int index) {
+            long prefix = dawg != null ? (long) rank * dawg.getNodeCount() + graphNode : node.index;
+            return prefix * (length + 2) + index + 1;
+        }
+
+        // lower bound of the penalty for reaching a word from the prefix after consuming input until index.
+        private float remaining(Node node, int graphNode, int index) {
+            int minLength = dawg != null ? dawg.minLength(graphNode) : node.minLength;
+            int maxLength = dawg != null ? dawg.maxLength(graphNode) : node.maxLength;
+            int remainingInput = Math.max(0, length - 1 - index);
+            return Math.max(0, Math.max(minLength - remainingInput, remainingInput - maxLength));
+        }
+
+        private void add(Node node, int graphNode, int rank, float penalty, int index) {
+            if (hypothesisCount == budget) {
+                return;
+            }
+            float priority = penalty + remaining(node, graphNode, index);
+            if (priority > maxPenalty) {
+                return;
+            }
+            long key = key(node, graphNode, rank, index);
+            int best = bestPenalties.get(key);
+            if (best != -1 && Float.intBitsToFloat(best) <= penalty) {
+                return;
+            }
+            bestPenalties.put(key, Float.floatToIntBits(penalty));
+            if (hypothesisCount == indexes.length) {
+                int capacity = (int) Math.min(budget, indexes.length * 2L);
+                nodes = Arrays.copyOf(nodes, capacity);
+                graphNodes = Arrays.copyOf(graphNodes, capacity);
+                ranks = Arrays.copyOf(ranks, capacity);
+                indexes = Arrays.copyOf(indexes, capacity);
+                penalties = Arrays.copyOf(penalties, capacity);
+                priorities = Arrays.copyOf(priorities, capacity);
+                heap = Arrays.copyOf(heap, capacity);
+            }
+            int h = hypothesisCount++;
+            nodes[h] = node;
+            graphNodes[h] = graphNode;
+            ranks[h] = rank;
+            indexes[h] = index;
+            penalties[h] = penalty;
+            priorities[h] = priority;
+            // sift up. Among equal priorities, hypotheses that consumed more input come first.
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(h, heap[parent])) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = h;
+        }
+
+        private boolean before(int a, int b) {
+            return priorities[a] < priorities[b] || (priorities[a] == priorities[b] && indexes[a] > indexes[b]);
+        }
+
+        private int poll() {
+            int top = heap[0];
+            int last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!before(heap[child], last)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        private void addResult(Node node, int graphNode, int rank, float penalty) {
+            if (dawg != null ? !dawg.isFinal(graphNode) : node.word == null) {
+                return;
+            }
+            if (resultCount == resultPenalties.length) {
+                int capacity = resultCount * 2;
+                resultNodes = Arrays.copyOf(resultNodes, capacity);
+                resultRanks = Arrays.copyOf(resultRanks, capacity);
+                resultPenalties = Arrays.copyOf(resultPenalties, capacity);
+                resultHeap = Arrays.copyOf(resultHeap, capacity);
+            }
+            int r = resultCount++;
+            resultNodes[r] = node;
+            resultRanks[r] = rank;
+            resultPenalties[r] = penalty;
+            int i = resultHeapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (resultPenalties[resultHeap[parent]] <= penalty) {
+                    break;
+                }
+                resultHeap[i] = resultHeap[parent];
+                i = parent;
+            }
+            resultHeap[i] = r;
+        }
+
+        private int pollResult() {
+            int top = resultHeap[0];
+            int last = resultHeap[--resultHeapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= resultHeapSize) {
+                    break;
+                }
+                if (child + 1 < resultHeapSize
+                        && resultPenalties[resultHeap[child + 1]] < resultPenalties[resultHeap[child]]) {
+                    child++;
+                }
+                if (resultPenalties[resultHeap[child]] >= resultPenalties[last]) {
+                    break;
+                }
+                resultHeap[i] = resultHeap[child];
+                i = child;
+            }
+            resultHeap[i] = last;
+            return top;
+        }
+    }
+
     public static class ScoredString implements Comparable<ScoredString> {
         final String s;
         final float penalty;
@@ -0,0 +1,465 @@
+package zemberek.normalization;
+
+import zemberek.core.io.MappedFileReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, minimized directed acyclic word graph of a vocabulary. Words with common suffixes share nodes, so
+ * it is much smaller than a trie. Graph is kept in a few flat buffers: edges of a node are stored contiguously
+ * and sorted by character. It can be saved to a single file and loaded to heap or memory mapped.
+ * <p>
+ * Because nodes are shared, a node does not identify a word. Instead every edge keeps the amount of words that come
+ * before it in lexicographic order, and sum of these values along a path gives the rank of the word. Original forms
+ * of words are stored in rank order. A node and the rank sum together identify a prefix.
+ * <p>
+ * Words are processed the same way as {@link SingleWordSpellChecker#process(String)}. If more than one word has
+ * the same processed form, last one is kept, as in the trie of the spell checker.
+ */
+public class WordDawg {
+
+    static final int NO_NODE = -1;
+
+    final int root;
+    private final int nodeCount;
+    private final int edgeCount;
+    private final int wordCount;
+
+    // edges of node n are in [firstEdges[n], firstEdges[n + 1]) range.
+    private final IntBuffer firstEdges;
+    // bit set of final nodes.
+    private final LongBuffer finals;
+    private final CharBuffer edgeChars;
+    private final IntBuffer edgeTargets;
+    // amount of words that precede the words reached through the edge, relative to the source node.
+    private final IntBuffer edgeRanks;
+    // characters of word with rank r are in [wordOffsets[r], wordOffsets[r + 1]) range of wordChars.
+    private final IntBuffer wordOffsets;
+    private final CharBuffer wordChars;
+    // minimum and maximum lengths of the words that can be reached from nodes. Calculated after loading.
+    private final int[] minLengths;
+    private final int[] maxLengths;
+
+    private WordDawg(int root, int nodeCount, int edgeCount, int wordCount, SectionReader reader)
+            throws IOException {
+        this.root = root;
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.wordCount = wordCount;
+        this.firstEdges = reader.next((nodeCount + 1) * 4).asIntBuffer();
+        this.finals = reader.next(((nodeCount + 63) / 64) * 8).asLongBuffer();
+        this.edgeChars = reader.next(edgeCount * 2).asCharBuffer();
+        this.edgeTargets = reader.next(edgeCount * 4).asIntBuffer();
+        this.edgeRanks = reader.next(edgeCount * 4).asIntBuffer();
+        this.wordOffsets = reader.next((wordCount + 1) * 4).asIntBuffer();
+        this.wordChars = reader.next(wordOffsets.get(wordCount) * 2).asCharBuffer();
+        // targets of edges have smaller indexes than their sources.
+        this.minLengths = new int[nodeCount];
+        this.maxLengths = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int min = isFinal(node) ? 0 : Integer.MAX_VALUE;
+            int max = 0;
+            for (int edge = firstEdges.get(node); edge < firstEdges.get(node + 1); edge++) {
+                int target = edgeTargets.get(edge);
+                min = Math.min(min, minLengths[target] + 1);
+                max = Math.max(max, maxLengths[target] + 1);
+            }
+            minLengths[node] = min;
+            maxLengths[node] = max;
+        }
+    }
+
+    private interface SectionReader {
+        ByteBuffer next(int length) throws IOException;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * @return size of the graph data in bytes. Word length tables that are calculated after loading are not
+     * included.
+     */
+    public long sizeInBytes() {
+        return (nodeCount + 1) * 4L + ((nodeCount + 63) / 64) * 8L + edgeCount * 10L + (wordCount + 1) * 4L
+                + wordOffsets.get(wordCount) * 2L;
+    }
+
+    boolean isFinal(int node) {
+        return (finals.get(node >>> 6) & (1L << node)) != 0;
+    }
+
+    int firstEdge(int node) {
+        return firstEdges.get(node);
+    }
+
+    int edgeEnd(int node) {
+        return firstEdges.get(node + 1);
+    }
+
+    char edgeChar(int edge) {
+        return edgeChars.get(edge);
+    }
+
+    int edgeTarget(int edge) {
+        return edgeTargets.get(edge);
+    }
+
+    int edgeRank(int edge) {
+        return edgeRanks.get(edge);
+    }
+
+    /**
+     * @return length of the shortest word suffix that can be reached from the node.
+     */
+    int minLength(int node) {
+        return minLengths[node];
+    }
+
+    /**
+     * @return length of the longest word suffix that can be reached from the node.
+     */
+    int maxLength(int node) {
+        return maxLengths[node];
+    }
+
+    /**
+     * @return index of the edge of node with character c. NO_NODE if there is no such edge.
+     */
+    int findEdge(int node, char c) {
+        int begin = firstEdges.get(node);
+        int end = firstEdges.get(node + 1) - 1;
+        while (begin <= end) {
+            int middle = (begin + end) >>> 1;
+            char m = edgeChars.get(middle);
+            if (m < c) {
+                begin = middle + 1;
+            } else if (m > c) {
+                end = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * @return original form of the word with given rank.
+     */
+    String word(int rank) {
+        int begin = wordOffsets.get(rank);
+        int end = wordOffsets.get(rank + 1);
+        char[] chars = new char[end - begin];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = wordChars.get(begin + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return original form of the word if processed form of it exists in the graph. Otherwise null.
+     */
+    public String getWord(String input) {
+        String word = SingleWordSpellChecker.processWord(input);
+        int node = root;
+        int rank = 0;
+        for (int i = 0; i < word.length(); i++) {
+            int edge = findEdge(node, word.charAt(i));
+            if (edge == NO_NODE) {
+                return null;
+            }
+            rank += edgeRanks.get(edge);
+            node = edgeTargets.get(edge);
+        }
+        return isFinal(node) ? word(rank) : null;
+    }
+
+    /**
+     * Builds a minimized graph from the vocabulary.
+     */
+    public static WordDawg build(Iterable<String> vocabulary) {
+        Map<String, String> words = new LinkedHashMap<>();
+        for (String word : vocabulary) {
+            String processed = SingleWordSpellChecker.processWord(word);
+            if (processed.length() > 0) {
+                words.put(processed, word);
+            }
+        }
+        String[] keys = words.keySet().toArray(new String[words.size()]);
+        Arrays.sort(keys);
+        Builder builder = new Builder();
+        for (String key : keys) {
+            builder.add(key);
+        }
+        List<String> originals = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            originals.add(words.get(key));
+        }
+        return builder.build(originals);
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            writeHeader(dos, root, nodeCount, edgeCount, wordCount);
+            for (int i = 0; i <= nodeCount; i++) {
+                dos.writeInt(firstEdges.get(i));
+            }
+            for (int i = 0; i < finals.capacity(); i++) {
+                dos.writeLong(finals.get(i));
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                dos.writeChar(edgeChars.get(i));
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                dos.writeInt(edgeTargets.get(i));
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                dos.writeInt(edgeRanks.get(i));
+            }
+            for (int i = 0; i <= wordCount; i++) {
+                dos.writeInt(wordOffsets.get(i));
+            }
+            for (int i = 0; i < wordChars.capacity(); i++) {
+                dos.writeChar(wordChars.get(i));
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream dos, int root, int nodeCount, int edgeCount, int wordCount)
+            throws IOException {
+        dos.writeInt(root);
+        dos.writeInt(nodeCount);
+        dos.writeInt(edgeCount);
+        dos.writeInt(wordCount);
+    }
+
+    /**
+     * Loads the graph to heap.
+     */
+    public static WordDawg load(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        return fromBuffer(buffer);
+    }
+
+    private static WordDawg fromBuffer(ByteBuffer buffer) throws IOException {
+        int root = buffer.getInt();
+        int nodeCount = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        int wordCount = buffer.getInt();
+        return new WordDawg(root, nodeCount, edgeCount, wordCount, length -> {
+            ByteBuffer slice = buffer.slice();
+            ((Buffer) slice).limit(length);
+            ((Buffer) buffer).position(buffer.position() + length);
+            return slice;
+        });
+    }
+
+    /**
+     * Loads the graph with memory mapping. Graph data is not copied to heap.
+     */
+    public static WordDawg loadMapped(File file) throws IOException {
+        try (MappedFileReader reader = new MappedFileReader(file)) {
+            DataInputStream dis = new DataInputStream(reader);
+            int root = dis.readInt();
+            int nodeCount = dis.readInt();
+            int edgeCount = dis.readInt();
+            int wordCount = dis.readInt();
+            return new WordDawg(root, nodeCount, edgeCount, wordCount, reader::slice);
+        }
+    }
+
+    /**
+     * Incremental construction of minimal graph from sorted words. States of the last added word are kept open.
+     * When a word is added, states of the previous word that are not shared are frozen: if an equivalent frozen
+     * state exists it is used, otherwise state is registered as a new node.
+     */
+    private static class Builder {
+
+        // open states along the path of the last word.
+        List<OpenState> path = new ArrayList<>();
+        String previous = "";
+
+        // registry of frozen nodes by their signatures.
+        Map<String, Integer> registry = new HashMap<>();
+        int nodeCount;
+        IntArray firstEdges = new IntArray();
+        IntArray counts = new IntArray();
+        List<Boolean> finals = new ArrayList<>();
+        StringBuilder edgeChars = new StringBuilder();
+        IntArray edgeTargets = new IntArray();
+        IntArray edgeRanks = new IntArray();
+
+        Builder() {
+            path.add(new OpenState());
+        }
+
+        void add(String word) {
+            int common = 0;
+            while (common < word.length() && common < previous.length()
+                    && word.charAt(common) == previous.charAt(common)) {
+                common++;
+            }
+            freezeAfter(common);
+            for (int i = common; i < word.length(); i++) {
+                OpenState state = new OpenState();
+                path.get(i).addEdge(word.charAt(i));
+                path.add(state);
+            }
+            path.get(word.length()).isFinal = true;
+            previous = word;
+        }
+
+        // freezes open states deeper than given depth.
+        private void freezeAfter(int depth) {
+            for (int i = path.size() - 1; i > depth; i--) {
+                int node = freeze(path.remove(i));
+                path.get(i - 1).setLastTarget(node);
+            }
+        }
+
+        private int freeze(OpenState state) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(state.isFinal ? '1' : '0');
+            for (int i = 0; i < state.chars.length(); i++) {
+                sb.append(state.chars.charAt(i)).append(state.targets.get(i)).append(',');
+            }
+            String signature = sb.toString();
+            Integer existing = registry.get(signature);
+            if (existing != null) {
+                return existing;
+            }
+            int node = nodeCount++;
+            registry.put(signature, node);
+            firstEdges.add(edgeTargets.size());
+            finals.add(state.isFinal);
+            int count = state.isFinal ? 1 : 0;
+            for (int i = 0; i < state.chars.length(); i++) {
+                int target = state.targets.get(i);
+                edgeChars.append(state.chars.charAt(i));
+                edgeTargets.add(target);
+                edgeRanks.add(count);
+                count += counts.get(target);
+            }
+            counts.add(count);
+            return node;
+        }
+
+        WordDawg build(List<String> originals) {
+            freezeAfter(0);
+            int root = freeze(path.get(0));
+            int edgeCount = edgeTargets.size();
+            int wordCharCount = 0;
+            for (String original : originals) {
+                wordCharCount += original.length();
+            }
+            int size = 16 + (nodeCount + 1) * 4 + ((nodeCount + 63) / 64) * 8 + edgeCount * 10
+                    + (originals.size() + 1) * 4 + wordCharCount * 2;
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.putInt(root).putInt(nodeCount).putInt(edgeCount).putInt(originals.size());
+            for (int i = 0; i < nodeCount; i++) {
+                buffer.putInt(firstEdges.get(i));
+            }
+            buffer.putInt(edgeCount);
+            long[] finalBits = new long[(nodeCount + 63) / 64];
+            for (int i = 0; i < nodeCount; i++) {
+                if (finals.get(i)) {
+                    finalBits[i >>> 6] |= 1L << i;
+                }
+            }
+            for (long bits : finalBits) {
+                buffer.putLong(bits);
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                buffer.putChar(edgeChars.charAt(i));
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                buffer.putInt(edgeTargets.get(i));
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                buffer.putInt(edgeRanks.get(i));
+            }
+            int offset = 0;
+            for (String original : originals) {
+                buffer.putInt(offset);
+                offset += original.length();
+            }
+            buffer.putInt(offset);
+            for (String original : originals) {
+                for (int i = 0; i < original.length(); i++) {
+                    buffer.putChar(original.charAt(i));
+                }
+            }
+            ((Buffer) buffer).flip();
+            try {
+                return fromBuffer(buffer);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class OpenState {
+        boolean isFinal;
+        StringBuilder chars = new StringBuilder(2);
+        IntArray targets = new IntArray();
+
+        void addEdge(char c) {
+            chars.append(c);
+            targets.add(NO_NODE);
+        }
+
+        void setLastTarget(int node) {
+            targets.set(targets.size() - 1, node);
+        }
+    }
+
+    private static class IntArray {
+        int[] data = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int get(int index) {
+            return data[index];
+        }
+
+        void set(int index, int value) {
+            data[index] = value;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package zemberek.normalization;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import zemberek.lm.compression.MultiFileUncompressedLm;
+import zemberek.lm.compression.SmoothLm;
+import zemberek.lm.compression.UncompressedToSmoothLmConverter;
+import zemberek.lm.estimation.KneserNeyTrainer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ContextSpellCheckerTest {
+
+    static final String[] CORPUS = {
+            "bugün bir elma yedim",
+            "dün iki elma yedim",
+            "annem bir elma yedi",
+            "kız bir elmas taktı",
+            "annem bir elmas taktı",
+            "annem elmas yüzük taktı",
+            "bugün okula gittim",
+            "dün eve gittim",
+            "yarın okula gideceğim",
+    };
+
+    static SmoothLm lm;
+    static SingleWordSpellChecker spellChecker;
+
+    @BeforeClass
+    public static void trainModel() throws IOException {
+        File dir = Files.createTempDir();
+        dir.deleteOnExit();
+        List<String> corpus = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Collections.addAll(corpus, CORPUS);
+        }
+        MultiFileUncompressedLm uncompressed = new KneserNeyTrainer(3, dir).train(corpus, new File(dir, "model"));
+        File lmFile = new File(dir, "kn.slm");
+        new UncompressedToSmoothLmConverter(lmFile, dir).convertSmall(
+                uncompressed.getLmDir(), new UncompressedToSmoothLmConverter.NgramDataBlock(24, 24, 24));
+        lm = SmoothLm.builder(lmFile).build();
+        spellChecker = new SingleWordSpellChecker(1);
+        for (String sentence : CORPUS) {
+            for (String word : sentence.split(" ")) {
+                spellChecker.addWord(word);
+            }
+        }
+    }
+
+    private static List<String> tokens(String sentence) {
+        return Splitter.on(' ').splitToList(sentence);
+    }
+
+    @Test
+    public void contextShouldSelectCandidate() {
+        ContextSpellChecker checker = new ContextSpellChecker(spellChecker, lm);
+        // "elma" and "elmas" have the same edit penalty for "elmaa".
+        Assert.assertEquals(tokens("bir elma yedim"), checker.correct(tokens("bir elmaa yedim")));
+        Assert.assertEquals(tokens("bir elmas taktı"), checker.correct(tokens("bir elmaa taktı")));
+        Assert.assertEquals(tokens("bugün okula gittim"), checker.correct(tokens("bugün okul gittim")));
+        Assert.assertEquals(tokens("dün eve gittim"), checker.correct(tokens("dün eve gitim")));
+    }
+
+    @Test
+    public void correctSentenceShouldNotChange() {
+        ContextSpellChecker checker = new ContextSpellChecker(spellChecker, lm);
+        for (String sentence : CORPUS) {
+            Assert.assertEquals(tokens(sentence), checker.correct(tokens(sentence)));
+        }
+        Assert.assertEquals(tokens("annem 2 elma , yedi"), checker.correct(tokens("annem 2 elma , yedi")));
+        Assert.assertEquals(0, checker.correct(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void beamSearchShouldFindBestSequence() {
+        // with one hypothesis per step, a token is decided without the following words.
+        ContextSpellChecker greedy = new ContextSpellChecker(spellChecker, lm, 1, 5, 1);
+        ContextSpellChecker beam = new ContextSpellChecker(spellChecker, lm, 100, 5, 1);
+        List<String> input = tokens("elmaa taktı");
+        Assert.assertEquals(Arrays.asList("elmas", "taktı"), beam.correct(input));
+        // unknown "elmaa" is more probable than "elma" and "elmas" with their penalties after sentence begin.
+        Assert.assertEquals(Arrays.asList("elmaa", "taktı"), greedy.correct(input));
+    }
+}
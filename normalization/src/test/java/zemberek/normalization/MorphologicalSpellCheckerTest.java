@@ -0,0 +1,100 @@
+package zemberek.normalization;
+
+import com.google.common.base.Stopwatch;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.morphology.analysis.StackWordAnalyzer;
+import zemberek.morphology.analysis.WordAnalysis;
+import zemberek.morphology.analysis.tr.TurkishMorphology;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class MorphologicalSpellCheckerTest {
+
+    private static TurkishMorphology morphology() throws IOException {
+        return TurkishMorphology.builder()
+                .addDictionaryLines("elma", "kitap", "okul", "gelmek", "ev", "kalem")
+                .build();
+    }
+
+    @Test
+    public void inflectedWordsShouldBeSuggested() throws IOException {
+        MorphologicalSpellChecker spellChecker = new MorphologicalSpellChecker(morphology().getGraph());
+        Assert.assertTrue(spellChecker.getSuggestionsSorted("elmlar").contains("elmalar"));
+        Assert.assertTrue(spellChecker.getSuggestionsSorted("kitplar").contains("kitaplar"));
+        Assert.assertTrue(spellChecker.getSuggestionsSorted("okluda").contains("okulda"));
+        Assert.assertTrue(spellChecker.getSuggestionsSorted("geliyourm").contains("geliyorum"));
+        List<MorphologicalSpellChecker.Correction> corrections = spellChecker.getSuggestions("evlerimizde");
+        Assert.assertEquals("evlerimizde", corrections.get(0).word);
+        Assert.assertEquals(0, corrections.get(0).penalty, 0);
+        for (MorphologicalSpellChecker.Correction correction : corrections) {
+            Assert.assertTrue(correction.penalty <= 1);
+        }
+    }
+
+    @Test
+    public void analysesShouldBeSameWithAnalyzer() throws IOException {
+        TurkishMorphology morphology = morphology();
+        StackWordAnalyzer analyzer = new StackWordAnalyzer(morphology.getGraph());
+        MorphologicalSpellChecker spellChecker = new MorphologicalSpellChecker(morphology.getGraph());
+        String[] inputs = {"elmlar", "kitplar", "okluda", "geliyorm", "evde", "kalmelerle", "gelmiş"};
+        for (String input : inputs) {
+            List<MorphologicalSpellChecker.Correction> corrections = spellChecker.getSuggestions(input);
+            Assert.assertFalse(input, corrections.isEmpty());
+            for (MorphologicalSpellChecker.Correction correction : corrections) {
+                Assert.assertEquals(correction.word,
+                        format(analyzer.analyze(correction.word)), format(correction.analyses));
+            }
+        }
+    }
+
+    @Test
+    public void nearKeyPenalty() throws IOException {
+        MorphologicalSpellChecker spellChecker = new MorphologicalSpellChecker(
+                morphology().getGraph(), 1, SingleWordSpellChecker.TURKISH_Q_NEAR_KEY_MAP);
+        // "r" is near "e".
+        float near = penalty(spellChecker.getSuggestions("rvde"), "evde");
+        float far = penalty(spellChecker.getSuggestions("yvde"), "evde");
+        Assert.assertTrue(near < far);
+    }
+
+    private static float penalty(List<MorphologicalSpellChecker.Correction> corrections, String word) {
+        for (MorphologicalSpellChecker.Correction correction : corrections) {
+            if (correction.word.equals(word)) {
+                return correction.penalty;
+            }
+        }
+        throw new AssertionError(word + " is not found in " + corrections);
+    }
+
+    private static List<String> format(List<WordAnalysis> analyses) {
+        List<String> result = new ArrayList<>(analyses.size());
+        for (WordAnalysis analysis : analyses) {
+            result.add(analysis.formatLong());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void speedTest() throws IOException {
+        TurkishMorphology morphology = TurkishMorphology.builder().addDefaultDictionaries().build();
+        MorphologicalSpellChecker spellChecker = new MorphologicalSpellChecker(morphology.getGraph());
+        String[] inputs = {"elmlar", "kitabmız", "okluda", "gidiyorm", "evlerimzde", "kalemlerle", "armudu",
+                "gelmiş", "istanbl", "yapabilecekmisin"};
+        for (int i = 0; i < 5; i++) {
+            Stopwatch sw = Stopwatch.createStarted();
+            int count = 0;
+            for (String input : inputs) {
+                count += spellChecker.getSuggestions(input).size();
+            }
+            System.out.println("Elapsed: " + sw.elapsed(TimeUnit.MILLISECONDS) + " Suggestion count: " + count);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package zemberek.normalization;
 
+import com.google.common.base.Stopwatch;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 import zemberek.core.collections.FloatValueMap;
 
@@ -12,6 +14,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class SingleWordSpellCheckerTest {
 
@@ -93,6 +96,71 @@ public class SingleWordSpellCheckerTest {
         System.out.println("Solution count:" + solutionCount);
     }
 
+    @Test
+    public void bestSuggestionsShouldMatchDecode() throws Exception {
+        Path r = Paths.get(ClassLoader.getSystemResource("10000_frequent_turkish_word").toURI());
+        List<String> words = Files.readAllLines(r, StandardCharsets.UTF_8);
+        SingleWordSpellChecker trie = new SingleWordSpellChecker(1.5f, SingleWordSpellChecker.TURKISH_Q_NEAR_KEY_MAP);
+        trie.buildDictionary(words);
+        SingleWordSpellChecker graph = new SingleWordSpellChecker(
+                1.5f, SingleWordSpellChecker.TURKISH_Q_NEAR_KEY_MAP, WordDawg.build(words));
+        Random random = new Random(0xbeef);
+        for (int i = 0; i < words.size(); i += 20) {
+            String word = words.get(i);
+            for (String input : new String[]{word, word + "a", word.substring(1)}) {
+                for (SingleWordSpellChecker spellChecker : new SingleWordSpellChecker[]{trie, graph}) {
+                    checkBestSuggestions(spellChecker, input, 1 + random.nextInt(5));
+                    checkBestSuggestions(spellChecker, input, Integer.MAX_VALUE);
+                }
+            }
+        }
+    }
+
+    private void checkBestSuggestions(SingleWordSpellChecker spellChecker, String input, int k) {
+        FloatValueMap<String> decoded = spellChecker.decode(input);
+        List<SingleWordSpellChecker.ScoredString> all = spellChecker.getSuggestionsWithScores(input);
+        List<SingleWordSpellChecker.ScoredString> best = spellChecker.getSuggestionsWithScores(
+                input, k, SingleWordSpellChecker.DEFAULT_HYPOTHESIS_BUDGET);
+        Assert.assertEquals(input, Math.min(k, all.size()), best.size());
+        for (int i = 0; i < best.size(); i++) {
+            Assert.assertEquals(input, all.get(i).penalty, best.get(i).penalty, 0);
+            Assert.assertEquals(input, decoded.get(best.get(i).s), best.get(i).penalty, 0);
+        }
+    }
+
+    @Test
+    public void hypothesisBudgetTest() {
+        SingleWordSpellChecker spellChecker = new SingleWordSpellChecker(1);
+        spellChecker.addWords("çak", "sak", "saka", "bak", "çaka", "çakal", "sakal");
+        Assert.assertEquals(4, spellChecker.getSuggestions("çak", 10).size());
+        Assert.assertEquals("çak", spellChecker.getSuggestions("çak", 1).get(0));
+        // only the first hypotheses are created.
+        Assert.assertTrue(spellChecker.getSuggestions("çak", 10, 3).size() < 4);
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void bestSuggestionsSpeed() throws Exception {
+        Path r = Paths.get(ClassLoader.getSystemResource("10000_frequent_turkish_word").toURI());
+        List<String> words = Files.readAllLines(r, StandardCharsets.UTF_8);
+        SingleWordSpellChecker spellChecker = new SingleWordSpellChecker(1);
+        spellChecker.buildDictionary(words);
+        for (int i = 0; i < 3; i++) {
+            Stopwatch sw = Stopwatch.createStarted();
+            int solutionCount = 0;
+            for (String word : words) {
+                solutionCount += spellChecker.getSuggestionsSorted(word + "a").size();
+            }
+            System.out.println("All suggestions: " + sw.elapsed(TimeUnit.MILLISECONDS) + " " + solutionCount);
+            sw.reset().start();
+            solutionCount = 0;
+            for (String word : words) {
+                solutionCount += spellChecker.getSuggestions(word + "a", 3).size();
+            }
+            System.out.println("Best 3: " + sw.elapsed(TimeUnit.MILLISECONDS) + " " + solutionCount);
+        }
+    }
+
     void assertContainsAll(FloatValueMap<String> set, String... words) {
         for (String word : words) {
             Assert.assertTrue(set.contains(word));
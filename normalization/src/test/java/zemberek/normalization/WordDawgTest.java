@@ -0,0 +1,152 @@
+package zemberek.normalization;
+
+import com.google.common.base.Stopwatch;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.core.collections.FloatValueMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class WordDawgTest {
+
+    private static List<String> vocabulary() throws IOException, URISyntaxException {
+        Path r = Paths.get(ClassLoader.getSystemResource("10000_frequent_turkish_word").toURI());
+        return Files.readAllLines(r, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void wordLookup() throws IOException {
+        WordDawg dawg = WordDawg.build(Arrays.asList("çak", "sak", "saka", "bak", "çaka", "çakal", "sakal", "Ankara"));
+        Assert.assertEquals(8, dawg.getWordCount());
+        Assert.assertEquals("çakal", dawg.getWord("çakal"));
+        Assert.assertEquals("sak", dawg.getWord("sak"));
+        Assert.assertEquals("Ankara", dawg.getWord("ankara"));
+        Assert.assertNull(dawg.getWord("ça"));
+        Assert.assertNull(dawg.getWord("çakala"));
+        // suffixes of "ç" and "s" are shared. A trie of these words has 25 nodes.
+        Assert.assertEquals(13, dawg.getNodeCount());
+
+        File file = File.createTempFile("dawg", ".bin");
+        file.deleteOnExit();
+        dawg.save(file);
+        for (WordDawg loaded : Arrays.asList(WordDawg.load(file), WordDawg.loadMapped(file))) {
+            Assert.assertEquals(dawg.getNodeCount(), loaded.getNodeCount());
+            Assert.assertEquals("çakal", loaded.getWord("çakal"));
+            Assert.assertNull(loaded.getWord("çakala"));
+        }
+    }
+
+    @Test
+    public void addingWordShouldFail() {
+        SingleWordSpellChecker spellChecker = new SingleWordSpellChecker(1, WordDawg.build(Arrays.asList("elma")));
+        try {
+            spellChecker.addWord("armut");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void suggestionsShouldBeSameWithTrie() throws Exception {
+        List<String> words = vocabulary();
+        WordDawg dawg = WordDawg.build(words);
+        File file = File.createTempFile("dawg", ".bin");
+        file.deleteOnExit();
+        dawg.save(file);
+
+        List<String> inputs = inputs(words);
+        for (float maxPenalty : new float[]{1, 1.5f}) {
+            SingleWordSpellChecker trie = new SingleWordSpellChecker(
+                    maxPenalty, SingleWordSpellChecker.TURKISH_Q_NEAR_KEY_MAP);
+            trie.buildDictionary(words);
+            List<SingleWordSpellChecker> checkers = Arrays.asList(
+                    new SingleWordSpellChecker(maxPenalty, SingleWordSpellChecker.TURKISH_Q_NEAR_KEY_MAP, dawg),
+                    new SingleWordSpellChecker(maxPenalty, SingleWordSpellChecker.TURKISH_Q_NEAR_KEY_MAP,
+                            WordDawg.loadMapped(file)));
+            checkSame(trie, checkers, inputs);
+        }
+        SingleWordSpellChecker trie = new SingleWordSpellChecker(1);
+        trie.buildDictionary(words);
+        checkSame(trie, Arrays.asList(new SingleWordSpellChecker(1, WordDawg.load(file))), inputs);
+    }
+
+    private void checkSame(
+            SingleWordSpellChecker expected,
+            List<SingleWordSpellChecker> checkers,
+            List<String> inputs) {
+        for (String input : inputs) {
+            FloatValueMap<String> e = expected.decode(input);
+            for (SingleWordSpellChecker checker : checkers) {
+                FloatValueMap<String> a = checker.decode(input);
+                Assert.assertEquals(input, e.size(), a.size());
+                for (String s : e) {
+                    Assert.assertTrue(input + " " + s, a.contains(s));
+                    Assert.assertEquals(input + " " + s, e.get(s), a.get(s), 0);
+                }
+            }
+        }
+    }
+
+    // every 10th word and a random edit of it.
+    private List<String> inputs(List<String> words) {
+        Set<String> inputs = new LinkedHashSet<>();
+        Random r = new Random(0xbeef);
+        String letters = "abcçdefgğhıijklmnoöprsştuüvyz";
+        for (int i = 0; i < words.size(); i += 10) {
+            String word = words.get(i);
+            inputs.add(word);
+            if (word.length() < 2) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(word);
+            int k = r.nextInt(word.length());
+            switch (r.nextInt(3)) {
+                case 0:
+                    sb.deleteCharAt(k);
+                    break;
+                case 1:
+                    sb.insert(k, letters.charAt(r.nextInt(letters.length())));
+                    break;
+                default:
+                    sb.setCharAt(k, letters.charAt(r.nextInt(letters.length())));
+            }
+            inputs.add(sb.toString());
+        }
+        return new ArrayList<>(inputs);
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void speedComparison() throws Exception {
+        List<String> words = vocabulary();
+        SingleWordSpellChecker trie = new SingleWordSpellChecker();
+        trie.buildDictionary(words);
+        WordDawg dawg = WordDawg.build(words);
+        System.out.println("Node count: " + dawg.getNodeCount() + " Edge count: " + dawg.getEdgeCount()
+                + " Size: " + dawg.sizeInBytes());
+        SingleWordSpellChecker compact = new SingleWordSpellChecker(1, dawg);
+        for (SingleWordSpellChecker checker : Arrays.asList(trie, compact, trie, compact)) {
+            Stopwatch sw = Stopwatch.createStarted();
+            int solutionCount = 0;
+            for (String word : words) {
+                solutionCount += checker.decode(word).size();
+            }
+            System.out.println("Elapsed: " + sw.elapsed(TimeUnit.MILLISECONDS) + " Solution count:" + solutionCount);
+        }
+    }
+}
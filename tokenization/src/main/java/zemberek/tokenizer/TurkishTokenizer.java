@@ -1,17 +1,476 @@
 package zemberek.tokenizer;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import zemberek.tokenizer.antlr.TurkishLexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
- * Extracts tokens from sentences.
- * TODO: finish this.
+ * Extracts tokens from sentences. This is a hand written replacement of the antlr generated {@link TurkishLexer}
+ * and produces the same tokens with the same types for any input.
+ * <p>
+ * Every lexer rule of TurkishLexer.g4 is matched with a small automaton over a character class table. As in the antlr
+ * lexer, longest match wins and if lengths are equal, the rule defined first in the grammar is used. A TurkishWord
+ * followed by a "." forms an Abbreviation token if it exists in the abbreviation list.
+ * <p>
+ * Tokens are written to a {@link TokenBuffer} as (type, start, end) int triples, so no object is created per token
+ * except the strings of abbreviation candidates. A buffer can be reused for tokenizing many inputs.
+ * This class is thread safe, buffers are not.
  */
 public class TurkishTokenizer {
 
-    static class Token {
-        String content;
-        int startIndex;
+    private static final Set<String> abbreviations = new HashSet<>();
+    private static int maxAbbreviationLength;
+    private static Locale localeTr = new Locale("tr");
+
+    static {
+        try {
+            for (String line : Resources.readLines(Resources.getResource("tokenizer/abbreviations.txt"), Charsets.UTF_8)) {
+                final int abbrEndIndex = line.indexOf(":");
+                if (abbrEndIndex > 0) {
+                    final String abbr = line.substring(0, abbrEndIndex);
+                    if (abbr.endsWith(".")) {
+                        abbreviations.add(abbr);
+                        abbreviations.add(abbr.toLowerCase(Locale.ENGLISH));
+                        abbreviations.add(abbr.toLowerCase(localeTr));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (String abbreviation : abbreviations) {
+            maxAbbreviationLength = Math.max(maxAbbreviationLength, abbreviation.length());
+        }
+    }
+
+    // Character classes. Characters larger than the table only can be a part of UnknownWord or Unknown tokens.
+    private static final int DIGIT = 1;
+    private static final int LOWER = 2;
+    private static final int CAPITAL = 4;
+    private static final int LETTER = LOWER | CAPITAL;
+    // Digits, letters and '-'
+    private static final int ALPHANUMERICAL = 8;
+    // Single character Punctuation tokens.
+    private static final int PUNCTUATION = 16;
+    // Characters that cannot be a part of UnknownWord tokens.
+    private static final int WORD_BREAK = 32;
+
+    private static final byte[] CLASSES = new byte[0x170];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            addClass(String.valueOf(c), DIGIT | ALPHANUMERICAL);
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            addClass(String.valueOf(c), LOWER | ALPHANUMERICAL);
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            addClass(String.valueOf(c), CAPITAL | ALPHANUMERICAL);
+        }
+        addClass("çğıöşüâîû", LOWER | ALPHANUMERICAL);
+        addClass("ÇĞİÖŞÜÂÎÛ", CAPITAL | ALPHANUMERICAL);
+        addClass("-", ALPHANUMERICAL);
+        addClass(".,!?%$&*+@\\:;-\"'()[]{}", PUNCTUATION | WORD_BREAK);
+        addClass(" \t\n\r", WORD_BREAK);
+    }
+
+    private static void addClass(String chars, int charClass) {
+        for (int i = 0; i < chars.length(); i++) {
+            CLASSES[chars.charAt(i)] |= charClass;
+        }
+    }
+
+    private final boolean ignoreWhiteSpaces;
+
+    public TurkishTokenizer() {
+        this(true);
+    }
+
+    /**
+     * @param ignoreWhiteSpaces if true, SpaceTab and NewLine tokens are not written to buffers.
+     */
+    public TurkishTokenizer(boolean ignoreWhiteSpaces) {
+        this.ignoreWhiteSpaces = ignoreWhiteSpaces;
+    }
+
+    /**
+     * Tokens of an input. Token i is stored as type, start offset (inclusive) and end offset (exclusive) in
+     * data[3i..3i+2]. Token types are the constants of {@link TurkishLexer}. Accessors do not check if the token index
+     * is smaller than size.
+     */
+    public static class TokenBuffer {
+        private CharSequence input;
+        private int[] data;
+        private int size;
+
+        public TokenBuffer() {
+            this(32);
+        }
+
+        public TokenBuffer(int initialCapacity) {
+            if (initialCapacity < 1)
+                throw new IllegalArgumentException("Initial capacity must be positive but it is " + initialCapacity);
+            this.data = new int[initialCapacity * 3];
+        }
+
+        void reset(CharSequence input) {
+            this.input = input;
+            this.size = 0;
+        }
+
+        void add(int type, int start, int end) {
+            int index = size * 3;
+            if (index == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[index] = type;
+            data[index + 1] = start;
+            data[index + 2] = end;
+            size++;
+        }
+
+        public CharSequence getInput() {
+            return input;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int type(int i) {
+            return data[i * 3];
+        }
+
+        public int start(int i) {
+            return data[i * 3 + 1];
+        }
+
+        public int end(int i) {
+            return data[i * 3 + 2];
+        }
+
+        public String text(int i) {
+            return input.subSequence(start(i), end(i)).toString();
+        }
+
+        public List<String> texts() {
+            List<String> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(text(i));
+            }
+            return result;
+        }
+    }
+
+    public TokenBuffer tokenize(CharSequence input) {
+        TokenBuffer buffer = new TokenBuffer(input.length() / 4 + 1);
+        tokenize(input, buffer);
+        return buffer;
+    }
+
+    public List<String> tokenStrings(String input) {
+        return tokenize(input).texts();
+    }
+
+    /**
+     * Clears the buffer and writes the tokens of the input to it.
+     */
+    public void tokenize(CharSequence input, TokenBuffer buffer) {
+        buffer.reset(input);
+        Scanner scanner = new Scanner(input);
+        int pos = 0;
+        while (scanner.next(pos)) {
+            int type = scanner.type;
+            int start = scanner.start;
+            int end = scanner.end;
+            pos = end;
+            if (type != TurkishLexer.TurkishWord) {
+                add(buffer, type, start, end);
+                continue;
+            }
+            // Same with TurkishLexer.nextToken(), token after a word is not checked for abbreviations.
+            if (!scanner.next(end)) {
+                add(buffer, type, start, end);
+                break;
+            }
+            if (scanner.type == TurkishLexer.Punctuation && scanner.end - scanner.start == 1
+                    && input.charAt(scanner.start) == '.' && isAbbreviation(input, start, end)) {
+                add(buffer, TurkishLexer.Abbreviation, start, scanner.end);
+            } else {
+                add(buffer, type, start, end);
+                add(buffer, scanner.type, scanner.start, scanner.end);
+            }
+            pos = scanner.end;
+        }
+    }
+
+    private void add(TokenBuffer buffer, int type, int start, int end) {
+        if (ignoreWhiteSpaces && (type == TurkishLexer.SpaceTab || type == TurkishLexer.NewLine)) {
+            return;
+        }
+        buffer.add(type, start, end);
+    }
+
+    private static boolean isAbbreviation(CharSequence input, int start, int end) {
+        if (end - start + 1 > maxAbbreviationLength) {
+            return false;
+        }
+        return abbreviations.contains(input.subSequence(start, end).toString() + ".");
+    }
+
+    /**
+     * Finds tokens of an input. Result of the last call of next is kept in type, start and end fields.
+     */
+    private static class Scanner {
+        final CharSequence s;
+        final int length;
         int type;
+        int start;
+        int end;
+
+        Scanner(CharSequence s) {
+            this.s = s;
+            this.length = s.length();
+        }
+
+        /**
+         * Finds the longest token starting from pos. Rules are tried in grammar order and a rule replaces
+         * the current match only if its match is longer.
+         *
+         * @return false if pos is the end of the input.
+         */
+        boolean next(int pos) {
+            if (pos == length) {
+                return false;
+            }
+            start = pos;
+            char c = s.charAt(pos);
+            if (c == ' ' || c == '\t') {
+                int e = pos + 1;
+                while (e < length && (s.charAt(e) == ' ' || s.charAt(e) == '\t')) {
+                    e++;
+                }
+                type = TurkishLexer.SpaceTab;
+                end = e;
+                return true;
+            }
+            if (c == '\n' || c == '\r') {
+                type = TurkishLexer.NewLine;
+                end = pos + 1;
+                return true;
+            }
+            int cls = charClass(c);
+            // Unknown matches a single character.
+            type = TurkishLexer.Unknown;
+            end = pos + 1;
+            int e;
+            if (c == '%' && (e = matchNumber(s, length, pos + 1)) > end) {
+                set(TurkishLexer.PercentNumeral, e);
+            }
+            if ((cls & DIGIT) != 0 || c == '+' || c == '-') {
+                setIfLonger(TurkishLexer.Number, matchNumber(s, length, pos));
+            }
+            if (c >= '0' && c <= '2') {
+                setIfLonger(TurkishLexer.TimeHours, matchTimeHours(s, length, pos));
+            }
+            if (c == 'I' || c == 'V') {
+                setIfLonger(TurkishLexer.RomanNumeral, matchRomanNumeral(s, length, pos));
+            }
+            if ((cls & CAPITAL) != 0) {
+                setIfLonger(TurkishLexer.AbbreviationWithDots, matchAbbreviationWithDots(s, length, pos));
+            }
+            if ((cls & LETTER) != 0) {
+                setIfLonger(TurkishLexer.TurkishWord, run(s, length, pos + 1, LETTER));
+            }
+            if ((cls & ALPHANUMERICAL) != 0) {
+                setIfLonger(TurkishLexer.TurkishWordWithApos,
+                        matchApos(s, length, run(s, length, pos + 1, ALPHANUMERICAL)));
+            }
+            if ((cls & PUNCTUATION) != 0) {
+                setIfLonger(TurkishLexer.Punctuation, matchPunctuation(s, length, pos));
+            }
+            if ((cls & WORD_BREAK) == 0) {
+                e = pos + 1;
+                while (e < length && (charClass(s.charAt(e)) & WORD_BREAK) == 0) {
+                    e++;
+                }
+                setIfLonger(TurkishLexer.UnknownWord, e);
+            }
+            return true;
+        }
+
+        // Only the initial single character Unknown match can be replaced by a match with the same length, because
+        // other rules are tried in grammar order.
+        private void setIfLonger(int type, int end) {
+            if (end > this.end || (end == this.end && this.type == TurkishLexer.Unknown)) {
+                set(type, end);
+            }
+        }
+
+        private void set(int type, int end) {
+            this.type = type;
+            this.end = end;
+        }
     }
 
+    private static int charClass(char c) {
+        return c < CLASSES.length ? CLASSES[c] : 0;
+    }
+
+    private static boolean is(CharSequence s, int length, int i, int charClass) {
+        return i < length && (charClass(s.charAt(i)) & charClass) != 0;
+    }
+
+    private static boolean is(CharSequence s, int length, int i, char c) {
+        return i < length && s.charAt(i) == c;
+    }
+
+    // end of the run of characters of given class starting from i.
+    private static int run(CharSequence s, int length, int i, int charClass) {
+        while (is(s, length, i, charClass)) {
+            i++;
+        }
+        return i;
+    }
+
+    // AposAndSuffix: '\'' TurkishLettersAll+ . Returns end of the match or i if it does not match.
+    private static int matchApos(CharSequence s, int length, int i) {
+        if (is(s, length, i, '\'') && is(s, length, i + 1, LETTER)) {
+            return run(s, length, i + 2, LETTER);
+        }
+        return i;
+    }
 
+    // Exp: [Ee] [+\-]? Integer . Returns end of the match or -1.
+    private static int matchExp(CharSequence s, int length, int i) {
+        if (!is(s, length, i, 'e') && !is(s, length, i, 'E')) {
+            return -1;
+        }
+        i++;
+        if (is(s, length, i, '+') || is(s, length, i, '-')) {
+            i++;
+        }
+        return is(s, length, i, DIGIT) ? run(s, length, i + 1, DIGIT) : -1;
+    }
+
+    /**
+     * Longest match of the Number rule. Returns end of the match or -1.
+     */
+    private static int matchNumber(CharSequence s, int length, int pos) {
+        boolean signed = is(s, length, pos, '+') || is(s, length, pos, '-');
+        int i = signed ? pos + 1 : pos;
+        if (!is(s, length, i, DIGIT)) {
+            return -1;
+        }
+        int intEnd = run(s, length, i + 1, DIGIT);
+        // [+\-]? Integer AposAndSuffix?
+        int best = matchApos(s, length, intEnd);
+        // [+\-]? Integer Exp AposAndSuffix?
+        int e = matchExp(s, length, intEnd);
+        if (e > 0) {
+            best = Math.max(best, matchApos(s, length, e));
+        }
+        // [+\-]? Integer [.\,] Integer Exp? AposAndSuffix?
+        // Generated lexer also accepts a backslash as separator, it is matched here as well for having the same tokens.
+        if ((is(s, length, intEnd, '.') || is(s, length, intEnd, ',') || is(s, length, intEnd, '\\'))
+                && is(s, length, intEnd + 1, DIGIT)) {
+            int fractionEnd = run(s, length, intEnd + 2, DIGIT);
+            e = matchExp(s, length, fractionEnd);
+            best = Math.max(best, matchApos(s, length, e > 0 ? e : fractionEnd));
+        }
+        if (signed) {
+            return best;
+        }
+        // (Integer '.')+ Integer AposAndSuffix? and (Integer ',')+ Integer AposAndSuffix?
+        best = Math.max(best, matchGroups(s, length, intEnd, '.'));
+        best = Math.max(best, matchGroups(s, length, intEnd, ','));
+        // Integer '.'? AposAndSuffix?
+        if (is(s, length, intEnd, '.')) {
+            best = Math.max(best, matchApos(s, length, intEnd + 1));
+        }
+        return best;
+    }
+
+    private static int matchGroups(CharSequence s, int length, int i, char separator) {
+        int groupCount = 0;
+        while (is(s, length, i, separator) && is(s, length, i + 1, DIGIT)) {
+            i = run(s, length, i + 2, DIGIT);
+            groupCount++;
+        }
+        return groupCount > 0 ? matchApos(s, length, i) : -1;
+    }
+
+    // TimeHours: [0-2] [0-9] ':' [0-5] [0-9] AposAndSuffix?
+    private static int matchTimeHours(CharSequence s, int length, int pos) {
+        if (pos + 5 > length) {
+            return -1;
+        }
+        char c = s.charAt(pos + 3);
+        if (is(s, length, pos + 1, DIGIT) && s.charAt(pos + 2) == ':' && c >= '0' && c <= '5'
+                && is(s, length, pos + 4, DIGIT)) {
+            return matchApos(s, length, pos + 5);
+        }
+        return -1;
+    }
+
+    private static final String[] ROMAN_NUMERALS = {"I", "II", "III", "IV", "V", "VI", "VII", "VIII", "IX"};
+
+    // RomanNumeral: ('I'|'II'|'III'|'IV'|'V'|'VI'|'VII'|'VIII'|'IX') '.'? AposAndSuffix?
+    private static int matchRomanNumeral(CharSequence s, int length, int pos) {
+        int best = -1;
+        for (String numeral : ROMAN_NUMERALS) {
+            if (!startsWith(s, length, pos, numeral)) {
+                continue;
+            }
+            int i = pos + numeral.length();
+            best = Math.max(best, matchApos(s, length, i));
+            if (is(s, length, i, '.')) {
+                best = Math.max(best, matchApos(s, length, i + 1));
+            }
+        }
+        return best;
+    }
+
+    // AbbreviationWithDots: (TurkishLettersCapital '.')+ TurkishLettersCapital? AposAndSuffix?
+    private static int matchAbbreviationWithDots(CharSequence s, int length, int pos) {
+        int i = pos;
+        while (is(s, length, i, CAPITAL) && is(s, length, i + 1, '.')) {
+            i += 2;
+        }
+        if (i == pos) {
+            return -1;
+        }
+        if (is(s, length, i, CAPITAL)) {
+            i++;
+        }
+        return matchApos(s, length, i);
+    }
+
+    // Punctuation: '...' | '(!)' | '(?)'| [.,!?%$&*+@\\:;\-\"\'\(\)\[\]\{\}]
+    private static int matchPunctuation(CharSequence s, int length, int pos) {
+        if (startsWith(s, length, pos, "...") || startsWith(s, length, pos, "(!)") || startsWith(s, length, pos, "(?)")) {
+            return pos + 3;
+        }
+        return pos + 1;
+    }
+
+    private static boolean startsWith(CharSequence s, int length, int pos, String prefix) {
+        if (pos + prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,172 @@
+package zemberek.tokenization;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Resources;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import zemberek.core.logging.Log;
+import zemberek.tokenizer.TurkishTokenizer;
+import zemberek.tokenizer.ZemberekLexer;
+import zemberek.tokenizer.antlr.TurkishLexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class TurkishTokenizerTest {
+
+    static final String[] INPUTS = {
+            "1", "12", "3.14", "-1", "-1.34", "-3,14", "100'e", "3.14'ten", "%2.5'ten", "1e10", "-3e4", "1e10'dur",
+            "1.35E-9", "1.000.000", "2,345,531", "2.", "34.", "1.000.000'a", "3\\5", "1.2.", "1..2", "+", "-",
+            "kedi", "Kedi", "Ahmet'e", "Ahmet'", "F-16'yı, (H1N1) H1N1'den.", "-abc", "a-b-", "12ab", "abc12",
+            "TCDD", "I.B.M.", "TCDD'ye", "I.B.M.'nin", "I.B.M'nin", "İ.Ö,Ğ.Ş", "İ.Ö,", "İ.Ö.,Ğ.Ş.", "A.", "A.B",
+            "I", "II.", "IV'te", "VIII. yüzyıl", "IX.'da", "IIII", "VV", "Iİ",
+            "Prof.", "yy.", "kedi.", "Prof. Dr. Ali Bey.", "Av.gel", "prof..", "PROF.", "vb.", "vs.", "Dr.'a",
+            "Ankaraya.", "Ankara'ya.", "ANKARA'ya.", "ANKARA'YA.", "Ankara'YA.", "Ankara'Ya.",
+            "زنبورك", "Ali.gel.", "L'Oréal", "naïve café",
+            ".,!:;$%\"'()[]{}&@", "...", "(!)", "(?)", "....", "(!", "?)", "\\", "*+",
+            "Ali gel.", "(Ali gel.)", "Ali'ye, gel...", "\"Ali'ye\", gel!...", "[Ali]{gel}",
+            "\"Soner\"'e boyle dedi", "Hey \"Ali\" gel.", "\"Soner boyle dedi\"",
+            "Hey \nAli naber\n", "Hey\n\r \n\rAli\n \n\n \n naber\n", " \t \t", "",
+            "10:20", "10:20'de", "29:59", "30:20", "1:20", "10:60", "%", "%a", "%10'u", "%1.5e3",
+            "#etiket", "a_b", "x/y", "<html>", "~", "a\uFFFFb", "\uFFFF", "kedi\uFFFF.", "😀 ok"
+    };
+
+    private static List<Token> antlrTokens(String input) {
+        TurkishLexer lexer = new TurkishLexer(new ANTLRInputStream(input));
+        lexer.removeErrorListeners();
+        List<Token> tokens = new ArrayList<>();
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static void checkConformance(TurkishTokenizer tokenizer, TurkishTokenizer.TokenBuffer buffer, String input) {
+        List<Token> expected = antlrTokens(input);
+        tokenizer.tokenize(input, buffer);
+        Assert.assertEquals("Token count mismatch for input [" + input + "]", expected.size(), buffer.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Token token = expected.get(i);
+            String message = "Token " + i + " mismatch for input [" + input + "]";
+            Assert.assertEquals(message, token.getText(), buffer.text(i));
+            Assert.assertEquals(message, token.getType(), buffer.type(i));
+            Assert.assertEquals(message, token.getStartIndex(), buffer.start(i));
+            Assert.assertEquals(message, token.getStopIndex() + 1, buffer.end(i));
+        }
+    }
+
+    @Test
+    public void shouldMatchAntlrLexer() {
+        TurkishTokenizer tokenizer = new TurkishTokenizer(false);
+        TurkishTokenizer.TokenBuffer buffer = new TurkishTokenizer.TokenBuffer(1);
+        for (String input : INPUTS) {
+            checkConformance(tokenizer, buffer, input);
+        }
+    }
+
+    @Test
+    public void shouldMatchAntlrLexerForText() throws IOException {
+        TurkishTokenizer tokenizer = new TurkishTokenizer(false);
+        TurkishTokenizer.TokenBuffer buffer = new TurkishTokenizer.TokenBuffer();
+        for (String resource : new String[]{
+                "tokenizer/Sentence-Boundary-Test.txt",
+                "tokenizer/sentence-boundary-text.txt",
+                "tokenizer/small-test.txt"}) {
+            String text = Resources.toString(Resources.getResource(resource), Charsets.UTF_8);
+            checkConformance(tokenizer, buffer, text);
+        }
+    }
+
+    @Test
+    public void shouldMatchAntlrLexerForRandomInput() {
+        // Characters that start or end different token types.
+        String alphabet = "aAkIVXiİçÇE01259.,'%:+-\\()!?\" \t\nدé#\uFFFF";
+        TurkishTokenizer tokenizer = new TurkishTokenizer(false);
+        TurkishTokenizer.TokenBuffer buffer = new TurkishTokenizer.TokenBuffer();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            int length = random.nextInt(12) + 1;
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            checkConformance(tokenizer, buffer, sb.toString());
+        }
+    }
+
+    @Test
+    public void abbreviationsAndWhiteSpaces() {
+        TurkishTokenizer tokenizer = new TurkishTokenizer();
+        TurkishTokenizer.TokenBuffer buffer = tokenizer.tokenize("Prof. Dr. Ali geldi.\n");
+        Assert.assertEquals(5, buffer.size());
+        Assert.assertEquals(TurkishLexer.Abbreviation, buffer.type(0));
+        Assert.assertEquals("Prof.", buffer.text(0));
+        Assert.assertEquals(TurkishLexer.Abbreviation, buffer.type(1));
+        Assert.assertEquals(TurkishLexer.TurkishWord, buffer.type(2));
+        Assert.assertEquals(TurkishLexer.TurkishWord, buffer.type(3));
+        Assert.assertEquals(TurkishLexer.Punctuation, buffer.type(4));
+        Assert.assertEquals(19, buffer.start(4));
+        Assert.assertEquals(20, buffer.end(4));
+        Assert.assertEquals(new ZemberekLexer().tokenStrings("Prof. Dr. Ali geldi.\n"),
+                tokenizer.tokenStrings("Prof. Dr. Ali geldi.\n"));
+    }
+
+    @Test
+    public void bufferShouldBeReused() {
+        TurkishTokenizer tokenizer = new TurkishTokenizer();
+        TurkishTokenizer.TokenBuffer buffer = new TurkishTokenizer.TokenBuffer(2);
+        tokenizer.tokenize("Ali'ye, gel... 3.14", buffer);
+        Assert.assertEquals(5, buffer.size());
+        tokenizer.tokenize("kedi", buffer);
+        Assert.assertEquals(1, buffer.size());
+        Assert.assertEquals("kedi", buffer.getInput());
+        Assert.assertEquals("kedi", buffer.text(0));
+        tokenizer.tokenize("", buffer);
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    @Test
+    @Ignore("Performance Test")
+    public void speedComparison() throws IOException {
+        String text = Resources.toString(Resources.getResource("tokenizer/Sentence-Boundary-Train.txt"), Charsets.UTF_8);
+        List<String> lines = Resources.readLines(Resources.getResource("tokenizer/Sentence-Boundary-Train.txt"), Charsets.UTF_8);
+        int iterations = 20;
+        ZemberekLexer lexer = new ZemberekLexer();
+        TurkishTokenizer tokenizer = new TurkishTokenizer();
+        TurkishTokenizer.TokenBuffer buffer = new TurkishTokenizer.TokenBuffer();
+        for (int warmup = 0; warmup < 3; warmup++) {
+            for (String line : lines) {
+                lexer.tokenizeAll(line);
+                tokenizer.tokenize(line, buffer);
+            }
+        }
+        long tokenCount = 0;
+        Stopwatch sw = Stopwatch.createStarted();
+        for (int i = 0; i < iterations; i++) {
+            for (String line : lines) {
+                tokenCount += lexer.tokenizeAll(line).size();
+            }
+        }
+        long antlrTime = sw.elapsed(TimeUnit.MILLISECONDS);
+        Log.info("Antlr lexer: %d tokens in %d ms. %.0f chars/ms", tokenCount, antlrTime,
+                text.length() * (double) iterations / antlrTime);
+        tokenCount = 0;
+        sw.reset().start();
+        for (int i = 0; i < iterations; i++) {
+            for (String line : lines) {
+                tokenizer.tokenize(line, buffer);
+                tokenCount += buffer.size();
+            }
+        }
+        long tokenizerTime = sw.elapsed(TimeUnit.MILLISECONDS);
+        Log.info("Tokenizer: %d tokens in %d ms. %.0f chars/ms", tokenCount, tokenizerTime,
+                text.length() * (double) iterations / tokenizerTime);
+    }
+}